@@ -6,14 +6,26 @@ import it.pagopa.ecommerce.payment.methods.exception.MismatchedSecurityTokenExce
 import it.pagopa.ecommerce.payment.methods.exception.OrderIdNotFoundException;
 import it.pagopa.ecommerce.payment.methods.exception.PaymentMethodNotFoundException;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionField;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodDocument;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodRepository;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.util.EnumSet;
+import java.util.Set;
 
 @Slf4j
 public abstract class PaymentMethodServiceCommon {
 
+    /**
+     * NPG session fields needed to validate a session
+     */
+    private static final Set<NpgSessionField> SESSION_VALIDATION_FIELDS = EnumSet
+            .of(NpgSessionField.SECURITY_TOKEN, NpgSessionField.TRANSACTION_ID);
+
     private final PaymentMethodRepository paymentMethodRepository;
     private final NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
 
@@ -30,14 +42,11 @@ public abstract class PaymentMethodServiceCommon {
                                               String orderId,
                                               String securityToken
     ) {
-        return paymentMethodRepository
-                .findById(paymentMethodId)
-                .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(paymentMethodId)))
-                .doOnError(e -> log.info("Error while looking for payment method with id {}: ", paymentMethodId, e))
-                .flatMap(
-                        ignore -> npgSessionsTemplateWrapper.findById(orderId)
-                )
-                .switchIfEmpty(Mono.error(new OrderIdNotFoundException(orderId)))
+        return findPaymentMethodSession(
+                paymentMethodId,
+                orderId,
+                Mono.defer(() -> npgSessionsTemplateWrapper.findById(orderId, SESSION_VALIDATION_FIELDS))
+        )
                 .flatMap(doc -> {
                     String transactionId = doc.transactionId();
                     if (transactionId == null) {
@@ -57,4 +66,64 @@ public abstract class PaymentMethodServiceCommon {
                 .mapNotNull(NpgSessionDocument::transactionId)
                 .map(TransactionId::new);
     }
+
+    /**
+     * Retrieve the NPG session associated to the input order id, checking that the
+     * input payment method exists. The payment method and the session lookups are
+     * performed concurrently, while errors are reported as if they were performed
+     * in sequence: a {@link PaymentMethodNotFoundException} (or any payment method
+     * lookup error) takes precedence over an {@link OrderIdNotFoundException} (or
+     * any session lookup error).
+     *
+     * @param paymentMethodId the payment method id
+     * @param orderId         the order id
+     * @return the NPG session document
+     */
+    protected Mono<NpgSessionDocument> findPaymentMethodSession(
+                                                                String paymentMethodId,
+                                                                String orderId
+    ) {
+        return findPaymentMethodSession(
+                paymentMethodId,
+                orderId,
+                Mono.defer(() -> npgSessionsTemplateWrapper.findById(orderId))
+        );
+    }
+
+    private Mono<NpgSessionDocument> findPaymentMethodSession(
+                                                              String paymentMethodId,
+                                                              String orderId,
+                                                              Mono<NpgSessionDocument> sessionLookup
+    ) {
+        Mono<PaymentMethodDocument> paymentMethod = Mono.defer(() -> paymentMethodRepository.findById(paymentMethodId))
+                .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(paymentMethodId)))
+                .doOnError(e -> log.info("Error while looking for payment method with id {}: ", paymentMethodId, e));
+        Mono<NpgSessionDocument> session = sessionLookup
+                .switchIfEmpty(Mono.error(new OrderIdNotFoundException(orderId)));
+        return zipInSequence(paymentMethod, session).map(Tuple2::getT2);
+    }
+
+    /**
+     * Combine two lookups performed concurrently, reporting their errors as if they
+     * were performed in sequence: an error of the first lookup takes precedence
+     * over an error of the second one, whatever the lookup that failed first. An
+     * error of the first lookup is reported right away, cancelling the second one,
+     * while an error of the second lookup is held until the first one completes.
+     *
+     * @param first  the first lookup
+     * @param second the second lookup
+     * @param <T1>   the first lookup result type
+     * @param <T2>   the second lookup result type
+     * @return the results of both lookups
+     */
+    protected static <T1, T2> Mono<Tuple2<T1, T2>> zipInSequence(
+                                                                 Mono<T1> first,
+                                                                 Mono<T2> second
+    ) {
+        return Mono.zip(first, second.materialize())
+                .flatMap(
+                        results -> Mono.just(results.getT1())
+                                .zipWith(Mono.just(results.getT2()).<T2>dematerialize())
+                );
+    }
 }
@@ -0,0 +1,67 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodResponseDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodsResponseDto;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * {@link PaymentMethodsResponseDto} carrying its own pre-encoded JSON
+ * representation, optionally also gzip compressed, together with the strong
+ * ETag of each representation. Instances are shared between requests and
+ * written as-is by
+ * {@link it.pagopa.ecommerce.payment.methods.config.EncodedPaymentMethodsResponseWriter}
+ * without going through Jackson again.
+ */
+public class EncodedPaymentMethodsResponseDto extends PaymentMethodsResponseDto {
+
+    private final byte[] json;
+
+    private final byte[] gzipJson;
+
+    private final String etag;
+
+    private final String gzipEtag;
+
+    /**
+     * Constructor
+     *
+     * @param paymentMethods the response payment methods
+     * @param json           the JSON encoded response
+     * @param gzipJson       the gzip compressed JSON encoded response, null if the
+     *                       response is not worth compressing
+     * @param etag           the strong ETag of the JSON representation
+     * @param gzipEtag       the strong ETag of the gzip compressed representation,
+     *                       null if not compressed
+     */
+    public EncodedPaymentMethodsResponseDto(
+            List<PaymentMethodResponseDto> paymentMethods,
+            byte[] json,
+            byte[] gzipJson,
+            String etag,
+            String gzipEtag
+    ) {
+        super.setPaymentMethods(paymentMethods);
+        this.json = json;
+        this.gzipJson = gzipJson;
+        this.etag = etag;
+        this.gzipEtag = gzipEtag;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public Optional<byte[]> getGzipJson() {
+        return Optional.ofNullable(gzipJson);
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public Optional<String> getGzipEtag() {
+        return Optional.ofNullable(gzipEtag);
+    }
+}
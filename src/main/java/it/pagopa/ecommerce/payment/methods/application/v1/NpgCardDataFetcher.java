@@ -0,0 +1,271 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.commons.client.NpgClient;
+import it.pagopa.ecommerce.payment.methods.infrastructure.CardDataDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionField;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetch card data of NPG sessions from NPG, storing them into the session
+ * through {@link NpgCardDataWriteBehind}, so that concurrent requests for the
+ * same order id result in a single NPG call. Card data fetched by this instance
+ * and not stored yet are read from the write-behind pending writes. Concurrent
+ * fetches within this instance share a single in-flight fetch, while across
+ * instances a short Redis lease is taken by the instance calling NPG: the other
+ * instances poll the session until the lease holder stores the card data,
+ * falling back to call NPG themselves if the lease is released without card
+ * data or not released within its TTL. Fetches are counted by outcome into the
+ * {@value #FETCH_METRIC_NAME} metric:
+ * <ul>
+ * <li>{@code called}: NPG has been called</li>
+ * <li>{@code coalesced}: joined a fetch already in-flight in this instance</li>
+ * <li>{@code remote}: card data stored by the instance holding the lease</li>
+ * <li>{@code fallback}: NPG has been called after waiting for the lease, or
+ * because the lease could not be taken</li>
+ * <li>{@code pending}: card data fetched by this instance and still pending
+ * write</li>
+ * </ul>
+ * Suppressed duplicate NPG calls are the {@code coalesced}, {@code remote} and
+ * {@code pending} ones. The lease is released once card data have been stored,
+ * so with write-behind enabled the other instances keep waiting until the write
+ * completes. Time spent waiting for the lease holder is recorded into the
+ * {@value #LEASE_WAIT_METRIC_NAME} metric.
+ */
+@Component
+@Slf4j
+public class NpgCardDataFetcher {
+
+    static final String FETCH_METRIC_NAME = "npg.card.data.fetches";
+
+    static final String LEASE_WAIT_METRIC_NAME = "npg.card.data.lease.wait";
+
+    private static final String LEASE_KEYSPACE = "npg-card-data-lease";
+
+    private static final Set<NpgSessionField> CARD_DATA_FIELDS = EnumSet.of(
+            NpgSessionField.CARD_DATA_BIN,
+            NpgSessionField.CARD_DATA_LAST_FOUR_DIGITS,
+            NpgSessionField.CARD_DATA_EXPIRING_DATE,
+            NpgSessionField.CARD_DATA_CIRCUIT
+    );
+
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/lease-release.lua"),
+            Long.class
+    );
+
+    /**
+     * Outcome of waiting for the lease held by another instance, the card data
+     * being set only if stored by the lease holder
+     */
+    private record LeaseWaitOutcome(
+            CardDataDocument cardData,
+            String result
+    ) {
+        static final LeaseWaitOutcome PENDING = new LeaseWaitOutcome(null, "pending");
+        static final LeaseWaitOutcome RELEASED = new LeaseWaitOutcome(null, "released");
+        static final LeaseWaitOutcome TIMEOUT = new LeaseWaitOutcome(null, "timeout");
+
+        static LeaseWaitOutcome ready(CardDataDocument cardData) {
+            return new LeaseWaitOutcome(cardData, "ready");
+        }
+    }
+
+    private final NpgClient npgClient;
+    private final NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
+    private final NpgCardDataWriteBehind npgCardDataWriteBehind;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final String npgDefaultApiKey;
+    private final boolean leaseEnabled;
+    private final Duration leaseTtl;
+    private final Duration pollInterval;
+    private final Map<String, Mono<CardDataDocument>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Counter calledCounter;
+    private final Counter coalescedCounter;
+    private final Counter remoteCounter;
+    private final Counter fallbackCounter;
+    private final Counter pendingCounter;
+
+    @Autowired
+    public NpgCardDataFetcher(
+            NpgClient npgClient,
+            NpgSessionsTemplateWrapper npgSessionsTemplateWrapper,
+            NpgCardDataWriteBehind npgCardDataWriteBehind,
+            ReactiveRedisConnectionFactory redisConnectionFactory,
+            MeterRegistry meterRegistry,
+            @Value("${npg.client.apiKey}") String npgDefaultApiKey,
+            @Value("${npg.cardDataLease.enabled}") boolean leaseEnabled,
+            @Value("${npg.cardDataLease.ttlMillis}") long leaseTtlMillis,
+            @Value("${npg.cardDataLease.pollIntervalMillis}") long pollIntervalMillis
+    ) {
+        this.npgClient = npgClient;
+        this.npgSessionsTemplateWrapper = npgSessionsTemplateWrapper;
+        this.npgCardDataWriteBehind = npgCardDataWriteBehind;
+        this.redisTemplate = new ReactiveStringRedisTemplate(redisConnectionFactory);
+        this.npgDefaultApiKey = npgDefaultApiKey;
+        this.leaseEnabled = leaseEnabled;
+        this.leaseTtl = Duration.ofMillis(leaseTtlMillis);
+        this.pollInterval = Duration.ofMillis(pollIntervalMillis);
+        this.meterRegistry = meterRegistry;
+        this.calledCounter = meterRegistry.counter(FETCH_METRIC_NAME, "result", "called");
+        this.coalescedCounter = meterRegistry.counter(FETCH_METRIC_NAME, "result", "coalesced");
+        this.remoteCounter = meterRegistry.counter(FETCH_METRIC_NAME, "result", "remote");
+        this.fallbackCounter = meterRegistry.counter(FETCH_METRIC_NAME, "result", "fallback");
+        this.pendingCounter = meterRegistry.counter(FETCH_METRIC_NAME, "result", "pending");
+    }
+
+    /**
+     * Fetch the card data of the input session, storing them into the session
+     *
+     * @param session the NPG session without card data
+     * @return the session card data
+     */
+    public Mono<CardDataDocument> fetchCardData(NpgSessionDocument session) {
+        return npgCardDataWriteBehind.pendingCardData(session.orderId())
+                .doOnNext(cardData -> pendingCounter.increment())
+                .switchIfEmpty(fetchOrJoin(session));
+    }
+
+    private Mono<CardDataDocument> fetchOrJoin(NpgSessionDocument session) {
+        return Mono.defer(() -> {
+            boolean[] leader = new boolean[1];
+            Mono<CardDataDocument> fetch = inFlight.computeIfAbsent(session.orderId(), orderId -> {
+                leader[0] = true;
+                return (leaseEnabled ? fetchWithLease(session) : callNpg(session, calledCounter, Mono.empty()))
+                        // the fetch is removed once completed, so that later requests read the card
+                        // data stored into the session or perform a new fetch
+                        .doFinally(signal -> inFlight.remove(orderId))
+                        .cache();
+            });
+            if (!leader[0]) {
+                coalescedCounter.increment();
+            }
+            return fetch;
+        });
+    }
+
+    private Mono<CardDataDocument> fetchWithLease(NpgSessionDocument session) {
+        String leaseKey = "%s:%s".formatted(LEASE_KEYSPACE, session.orderId());
+        String leaseToken = UUID.randomUUID().toString();
+        return redisTemplate.opsForValue().setIfAbsent(leaseKey, leaseToken, leaseTtl)
+                .map(
+                        acquired -> acquired ? callNpg(session, calledCounter, releaseLease(leaseKey, leaseToken))
+                                .onErrorResume(error -> releaseLease(leaseKey, leaseToken).then(Mono.error(error)))
+                                : awaitLeaseHolder(session, leaseKey)
+                )
+                .onErrorResume(error -> {
+                    log.warn("Cannot take NPG card data lease for orderId: {}", session.orderId(), error);
+                    return Mono.just(callNpg(session, fallbackCounter, Mono.empty()));
+                })
+                .flatMap(fetch -> fetch);
+    }
+
+    private Mono<CardDataDocument> awaitLeaseHolder(
+                                                    NpgSessionDocument session,
+                                                    String leaseKey
+    ) {
+        long startNanos = System.nanoTime();
+        return Flux.interval(pollInterval)
+                // ticks elapsed while a poll is in progress are skipped
+                .onBackpressureDrop()
+                .concatMap(tick -> pollSession(session.orderId(), leaseKey))
+                .filter(outcome -> outcome != LeaseWaitOutcome.PENDING)
+                .next()
+                .timeout(leaseTtl, Mono.just(LeaseWaitOutcome.TIMEOUT))
+                .onErrorResume(error -> {
+                    log.warn("Cannot wait for NPG card data lease for orderId: {}", session.orderId(), error);
+                    return Mono.just(LeaseWaitOutcome.RELEASED);
+                })
+                .doOnNext(
+                        outcome -> meterRegistry.timer(LEASE_WAIT_METRIC_NAME, "result", outcome.result())
+                                .record(Duration.ofNanos(System.nanoTime() - startNanos))
+                )
+                .flatMap(outcome -> {
+                    if (outcome.cardData() == null) {
+                        log.info(
+                                "NPG card data lease {} without card data for orderId: {}",
+                                outcome.result(),
+                                session.orderId()
+                        );
+                        return callNpg(session, fallbackCounter, Mono.empty());
+                    }
+                    remoteCounter.increment();
+                    return Mono.just(outcome.cardData());
+                });
+    }
+
+    private Mono<LeaseWaitOutcome> pollSession(
+                                               String orderId,
+                                               String leaseKey
+    ) {
+        return npgSessionsTemplateWrapper.findById(orderId, CARD_DATA_FIELDS)
+                .mapNotNull(NpgSessionDocument::cardData)
+                .map(LeaseWaitOutcome::ready)
+                .switchIfEmpty(
+                        Mono.defer(
+                                () -> redisTemplate.hasKey(leaseKey)
+                                        .map(held -> held ? LeaseWaitOutcome.PENDING : LeaseWaitOutcome.RELEASED)
+                        )
+                );
+    }
+
+    private Mono<CardDataDocument> callNpg(
+                                           NpgSessionDocument session,
+                                           Counter counter,
+                                           Mono<Void> afterStored
+    ) {
+        return Mono.defer(() -> {
+            counter.increment();
+            return npgClient.getCardData(
+                    UUID.fromString(session.correlationId()),
+                    session.sessionId(),
+                    npgDefaultApiKey
+            );
+        })
+                .map(
+                        cardData -> new CardDataDocument(
+                                cardData.getBin(),
+                                cardData.getLastFourDigits(),
+                                cardData.getExpiringDate(),
+                                cardData.getCircuit()
+                        )
+                )
+                .flatMap(
+                        cardData -> npgCardDataWriteBehind.write(session, cardData, afterStored).thenReturn(cardData)
+                );
+    }
+
+    private Mono<Void> releaseLease(
+                                    String leaseKey,
+                                    String leaseToken
+    ) {
+        return redisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), List.of(leaseToken))
+                .then()
+                .onErrorResume(error -> {
+                    // the lease expires anyway after its TTL
+                    log.warn("Cannot release NPG card data lease {}", leaseKey, error);
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,180 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.infrastructure.CardDataDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persist card data fetched from NPG into the NPG session. When write-behind is
+ * enabled, card data are enqueued into a bounded queue and saved
+ * asynchronously, so that the response to the caller does not wait for the
+ * Redis write: writes are retried with backoff and are performed in order for
+ * the same order id. Until saved, enqueued card data are kept in a local
+ * pending-write map, so that later reads in this instance can find them. When
+ * the queue is full, or write-behind is disabled, card data are saved inline.
+ * Writes are counted by outcome into the {@value #METRIC_NAME} metric:
+ * <ul>
+ * <li>{@code queued}: enqueued for write-behind</li>
+ * <li>{@code overflow}: saved inline because the queue was full</li>
+ * <li>{@code written}: saved by write-behind</li>
+ * <li>{@code failed}: not saved by write-behind after all retries</li>
+ * </ul>
+ * The number of pending writes is exposed by the {@value #PENDING_METRIC_NAME}
+ * gauge. Note that with the
+ * {@link NpgSessionsTemplateWrapper.StorageMode#DOCUMENT} storage mode card
+ * data are saved by rewriting the whole session, so write-behind is better
+ * suited to the {@link NpgSessionsTemplateWrapper.StorageMode#HASH} storage
+ * mode, where only card data fields are written.
+ */
+@Component
+@Slf4j
+public class NpgCardDataWriteBehind {
+
+    static final String METRIC_NAME = "npg.card.data.write.behind";
+
+    static final String PENDING_METRIC_NAME = "npg.card.data.write.behind.pending";
+
+    private record PendingWrite(
+            NpgSessionDocument session,
+            CardDataDocument cardData,
+            Mono<Void> afterPersisted
+    ) {
+    }
+
+    private final NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
+    private final boolean enabled;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+    private final Map<String, CardDataDocument> pendingWrites = new ConcurrentHashMap<>();
+    private final Sinks.Many<PendingWrite> queue;
+    private final Sinks.Empty<Void> drained = Sinks.empty();
+    private final Counter queuedCounter;
+    private final Counter overflowCounter;
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public NpgCardDataWriteBehind(
+            NpgSessionsTemplateWrapper npgSessionsTemplateWrapper,
+            MeterRegistry meterRegistry,
+            @Value("${npg.cardDataWriteBehind.enabled}") boolean enabled,
+            @Value("${npg.cardDataWriteBehind.queueCapacity}") int queueCapacity,
+            @Value("${npg.cardDataWriteBehind.concurrency}") int concurrency,
+            @Value("${npg.cardDataWriteBehind.maxRetries}") int maxRetries,
+            @Value("${npg.cardDataWriteBehind.retryBackoffMillis}") long retryBackoffMillis
+    ) {
+        this.npgSessionsTemplateWrapper = npgSessionsTemplateWrapper;
+        this.enabled = enabled;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = Duration.ofMillis(retryBackoffMillis);
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(queueCapacity));
+        this.queuedCounter = meterRegistry.counter(METRIC_NAME, "result", "queued");
+        this.overflowCounter = meterRegistry.counter(METRIC_NAME, "result", "overflow");
+        this.writtenCounter = meterRegistry.counter(METRIC_NAME, "result", "written");
+        this.failedCounter = meterRegistry.counter(METRIC_NAME, "result", "failed");
+        meterRegistry.gauge(PENDING_METRIC_NAME, pendingWrites, Map::size);
+        if (enabled) {
+            queue.asFlux()
+                    // writes for the same order id always end up in the same group, whose
+                    // writes are performed one at a time
+                    .groupBy(write -> Math.floorMod(write.session().orderId().hashCode(), concurrency))
+                    .flatMap(writes -> writes.concatMap(this::persist), concurrency)
+                    .doFinally(signal -> drained.tryEmitEmpty())
+                    .subscribe();
+        }
+    }
+
+    /**
+     * Persist the input card data into the input session
+     *
+     * @param session        the NPG session without card data
+     * @param cardData       the card data fetched from NPG
+     * @param afterPersisted executed once card data have been persisted, or could
+     *                       not be persisted
+     * @return a Mono completing once card data have been enqueued or, if
+     *         write-behind is disabled or the queue is full, once card data have
+     *         been persisted and <code>afterPersisted</code> has completed
+     */
+    public Mono<Void> write(
+                            NpgSessionDocument session,
+                            CardDataDocument cardData,
+                            Mono<Void> afterPersisted
+    ) {
+        return Mono.defer(() -> {
+            if (!enabled) {
+                return npgSessionsTemplateWrapper.saveCardData(session, cardData).then(afterPersisted);
+            }
+            String orderId = session.orderId();
+            pendingWrites.put(orderId, cardData);
+            Sinks.EmitResult result;
+            // the unicast sink queue does not support concurrent emissions
+            synchronized (queue) {
+                result = queue.tryEmitNext(new PendingWrite(session, cardData, afterPersisted));
+            }
+            if (result.isSuccess()) {
+                queuedCounter.increment();
+                return Mono.empty();
+            }
+            overflowCounter.increment();
+            log.warn("NPG card data write-behind queue full ({}), saving card data for orderId: {}", result, orderId);
+            return npgSessionsTemplateWrapper.saveCardData(session, cardData)
+                    .doFinally(signal -> pendingWrites.remove(orderId, cardData))
+                    .then(afterPersisted);
+        });
+    }
+
+    /**
+     * @param orderId the session order id
+     * @return the card data enqueued for the input order id and not persisted yet,
+     *         or an empty Mono if none
+     */
+    public Mono<CardDataDocument> pendingCardData(String orderId) {
+        return Mono.justOrEmpty(pendingWrites.get(orderId));
+    }
+
+    /**
+     * Stop accepting card data and wait for the enqueued ones to be persisted
+     */
+    @PreDestroy
+    public void stop() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (queue) {
+            queue.tryEmitComplete();
+        }
+        drained.asMono().timeout(retryBackoff.multipliedBy(maxRetries + 1L).plusSeconds(5), Mono.empty())
+                .block();
+    }
+
+    private Mono<Void> persist(PendingWrite write) {
+        String orderId = write.session().orderId();
+        return npgSessionsTemplateWrapper.saveCardData(write.session(), write.cardData())
+                .retryWhen(Retry.backoff(maxRetries, retryBackoff))
+                .doOnSuccess(saved -> writtenCounter.increment())
+                .onErrorResume(error -> {
+                    log.error("Cannot save NPG card data for orderId: {}", orderId, error);
+                    failedCounter.increment();
+                    return Mono.empty();
+                })
+                // once removed, reads find card data into the session, or fetch them again
+                // if they could not be saved
+                .then(Mono.fromRunnable(() -> pendingWrites.remove(orderId, write.cardData())))
+                .then(write.afterPersisted().onErrorResume(error -> Mono.empty()));
+    }
+}
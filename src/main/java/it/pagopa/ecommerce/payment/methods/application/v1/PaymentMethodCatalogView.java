@@ -0,0 +1,168 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodCatalogSnapshot;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodRangeIndex;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodResponseDto;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Response projection of a {@link PaymentMethodCatalogSnapshot}. For each
+ * (client id, onboardable cards only) pair the whole client payment methods
+ * list is projected to {@link PaymentMethodResponseDto} once, in the snapshot
+ * order, and then every request only selects the entries accepting the
+ * requested amount. Encoded list responses are cached too, keyed by the set of
+ * eligible payment methods, so that requests for amounts accepted by the same
+ * payment methods share the same response bytes. A view is bound to a single
+ * snapshot and discarded as soon as the catalog is reloaded. Returned DTOs are
+ * shared between requests and must not be modified.
+ */
+public final class PaymentMethodCatalogView {
+
+    private record ViewKey(
+            String clientId,
+            boolean onboardableCardsOnly
+    ) {
+    }
+
+    /**
+     * Set of eligible payment methods ordinals, null mask meaning all of them
+     */
+    private record ResponseKey(
+            ViewKey viewKey,
+            long[] mask
+    ) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ResponseKey other && viewKey.equals(other.viewKey)
+                    && Arrays.equals(mask, other.mask);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * viewKey.hashCode() + Arrays.hashCode(mask);
+        }
+
+        @Override
+        public String toString() {
+            return "ResponseKey[viewKey=%s, mask=%s]".formatted(viewKey, Arrays.toString(mask));
+        }
+    }
+
+    private final PaymentMethodCatalogSnapshot snapshot;
+
+    private final BiFunction<PaymentMethodDocument, Boolean, PaymentMethodResponseDto> projection;
+
+    private final Function<List<PaymentMethodResponseDto>, EncodedPaymentMethodsResponseDto> encoder;
+
+    private final Map<ViewKey, List<PaymentMethodResponseDto>> views = new ConcurrentHashMap<>();
+
+    private final Map<ResponseKey, EncodedPaymentMethodsResponseDto> responses = new ConcurrentHashMap<>();
+
+    private volatile EncodedPaymentMethodsResponseDto emptyResponse;
+
+    /**
+     * Create a view of the input snapshot
+     *
+     * @param snapshot   the catalog snapshot
+     * @param projection function projecting a payment method document to its
+     *                   response, given whether cards must be returned as
+     *                   onboardable only
+     * @param encoder    function encoding a payment methods list response
+     */
+    public PaymentMethodCatalogView(
+            PaymentMethodCatalogSnapshot snapshot,
+            BiFunction<PaymentMethodDocument, Boolean, PaymentMethodResponseDto> projection,
+            Function<List<PaymentMethodResponseDto>, EncodedPaymentMethodsResponseDto> encoder
+    ) {
+        this.snapshot = snapshot;
+        this.projection = projection;
+        this.encoder = encoder;
+    }
+
+    /**
+     * @return the snapshot this view is bound to
+     */
+    public PaymentMethodCatalogSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Select the projected payment methods of the input client accepting the given
+     * amount
+     *
+     * @param clientId             the client id
+     * @param onboardableCardsOnly whether card payment methods must be returned as
+     *                             onboardable only
+     * @param amount               the amount to be checked, all the client payment
+     *                             methods are returned if null
+     * @return the client payment method responses, sorted by
+     *         {@link PaymentMethodCatalogSnapshot#DISPLAY_ORDER}
+     */
+    public List<PaymentMethodResponseDto> select(
+                                                 String clientId,
+                                                 boolean onboardableCardsOnly,
+                                                 Long amount
+    ) {
+        List<PaymentMethodResponseDto> view = view(clientId, onboardableCardsOnly);
+        if (amount == null || view.isEmpty()) {
+            return view;
+        }
+        return snapshot.rangeIndexByClientId().get(clientId).select(amount, view);
+    }
+
+    /**
+     * Retrieve the encoded payment methods list response for the input client and
+     * amount
+     *
+     * @param clientId             the client id
+     * @param onboardableCardsOnly whether card payment methods must be returned as
+     *                             onboardable only
+     * @param amount               the amount to be checked, all the client payment
+     *                             methods are returned if null
+     * @return the encoded response
+     */
+    public EncodedPaymentMethodsResponseDto selectEncoded(
+                                                          String clientId,
+                                                          boolean onboardableCardsOnly,
+                                                          Long amount
+    ) {
+        List<PaymentMethodResponseDto> view = view(clientId, onboardableCardsOnly);
+        if (view.isEmpty()) {
+            EncodedPaymentMethodsResponseDto empty = emptyResponse;
+            if (empty == null) {
+                empty = encoder.apply(List.of());
+                emptyResponse = empty;
+            }
+            return empty;
+        }
+        long[] mask = amount == null ? null : snapshot.rangeIndexByClientId().get(clientId).lookup(amount);
+        return responses.computeIfAbsent(
+                new ResponseKey(new ViewKey(clientId, onboardableCardsOnly), mask),
+                key -> encoder.apply(key.mask() == null ? view : PaymentMethodRangeIndex.select(key.mask(), view))
+        );
+    }
+
+    private List<PaymentMethodResponseDto> view(
+                                                String clientId,
+                                                boolean onboardableCardsOnly
+    ) {
+        List<PaymentMethodDocument> paymentMethods = snapshot.findByClientId(clientId);
+        // views are only created for known clients to keep their number bounded
+        if (paymentMethods.isEmpty()) {
+            return List.of();
+        }
+        return views.computeIfAbsent(
+                new ViewKey(clientId, onboardableCardsOnly),
+                key -> paymentMethods.stream()
+                        .map(doc -> projection.apply(doc, key.onboardableCardsOnly()))
+                        .toList()
+        );
+    }
+}
@@ -1,10 +1,10 @@
 package it.pagopa.ecommerce.payment.methods.application.v1;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import it.pagopa.ecommerce.commons.client.JwtIssuerClient;
 import it.pagopa.ecommerce.commons.client.NpgClient;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenRequestDto;
 import it.pagopa.ecommerce.commons.generated.npg.v1.dto.FieldsDto;
-import it.pagopa.ecommerce.commons.utils.ReactiveUniqueIdUtils;
 import it.pagopa.ecommerce.payment.methods.application.BundleOptions;
 import it.pagopa.ecommerce.payment.methods.application.PaymentMethodServiceCommon;
 import it.pagopa.ecommerce.payment.methods.client.AfmClient;
@@ -21,6 +21,7 @@ import it.pagopa.ecommerce.payment.methods.infrastructure.*;
 import it.pagopa.ecommerce.payment.methods.server.model.*;
 import it.pagopa.ecommerce.payment.methods.utils.ApplicationService;
 import it.pagopa.ecommerce.payment.methods.utils.PaymentMethodStatusEnum;
+import it.pagopa.ecommerce.payment.methods.utils.StepTimings;
 import it.pagopa.generated.ecommerce.gec.v1.dto.PspSearchCriteriaDto;
 import it.pagopa.generated.ecommerce.gec.v1.dto.TransferListItemDto;
 import lombok.extern.slf4j.Slf4j;
@@ -31,11 +32,13 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.net.URI;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -46,6 +49,8 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
 
     protected static final String QUALIFIER_NAME = "paymentMethodService";
 
+    static final String CREATE_SESSION_STEP_METRIC_NAME = "npg.create.session.step";
+
     public enum SessionPaymentMethod {
         CARDS("CARDS");
 
@@ -80,12 +85,22 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
 
     private final String npgDefaultApiKey;
 
-    private final ReactiveUniqueIdUtils uniqueIdUtils;
+    private final OrderIdPool orderIdPool;
 
     private final int npgNotificationTokenValidityTime;
 
     private final JwtTokenIssuerClient jwtTokenIssuerClient;
 
+    private final PaymentMethodCatalog paymentMethodCatalog;
+
+    private final PaymentMethodsResponseEncoder paymentMethodsResponseEncoder;
+
+    private final NpgCardDataFetcher npgCardDataFetcher;
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicReference<PaymentMethodCatalogView> catalogView = new AtomicReference<>();
+
     @Autowired
     public PaymentMethodService(
             AfmClient afmClient,
@@ -95,9 +110,13 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
             SessionUrlConfig sessionUrlConfig,
             NpgSessionsTemplateWrapper npgSessionsTemplateWrapper,
             @Value("${npg.client.apiKey}") String npgDefaultApiKey,
-            ReactiveUniqueIdUtils uniqueIdUtils,
+            OrderIdPool orderIdPool,
             @Value("${npg.notification.jwt.validity.time}") int npgNotificationTokenValidityTime,
-            JwtTokenIssuerClient jwtTokenIssuerClient
+            JwtTokenIssuerClient jwtTokenIssuerClient,
+            PaymentMethodCatalog paymentMethodCatalog,
+            PaymentMethodsResponseEncoder paymentMethodsResponseEncoder,
+            NpgCardDataFetcher npgCardDataFetcher,
+            MeterRegistry meterRegistry
     ) {
         super(paymentMethodRepository, npgSessionsTemplateWrapper);
         this.afmClient = afmClient;
@@ -107,9 +126,13 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
         this.sessionUrlConfig = sessionUrlConfig;
         this.npgSessionsTemplateWrapper = npgSessionsTemplateWrapper;
         this.npgDefaultApiKey = npgDefaultApiKey;
-        this.uniqueIdUtils = uniqueIdUtils;
+        this.orderIdPool = orderIdPool;
         this.npgNotificationTokenValidityTime = npgNotificationTokenValidityTime;
         this.jwtTokenIssuerClient = jwtTokenIssuerClient;
+        this.paymentMethodCatalog = paymentMethodCatalog;
+        this.paymentMethodsResponseEncoder = paymentMethodsResponseEncoder;
+        this.npgCardDataFetcher = npgCardDataFetcher;
+        this.meterRegistry = meterRegistry;
     }
 
     public Mono<PaymentMethod> createPaymentMethod(
@@ -158,7 +181,7 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                                 p.getPaymentMethodManagement().value().getValue(),
                                 p.getPaymentMethodBrandAsset().brandAssets().orElse(null)
                         )
-                ).map(
+                ).flatMap(doc -> paymentMethodCatalog.onLocalWrite().thenReturn(doc)).map(
                         doc -> new PaymentMethod(
                                 new PaymentMethodID(UUID.fromString(doc.getPaymentMethodID())),
                                 new PaymentMethodName(doc.getPaymentMethodName()),
@@ -181,41 +204,77 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
         );
     }
 
-    public Flux<PaymentMethod> retrievePaymentMethods(
-                                                      Long amount,
-                                                      String clientId,
-                                                      String deviceVersion
+    public Flux<PaymentMethodResponseDto> retrievePaymentMethods(
+                                                                 Long amount,
+                                                                 String clientId,
+                                                                 String deviceVersion
     ) {
         log.info("[Payment Method Aggregate] Retrieve Aggregate");
 
-        return paymentMethodRepository.findByClientId(clientId).filter(
-                doc -> amount == null || doc.getPaymentMethodRanges().stream()
-                        .anyMatch(
-                                range -> range.getFirst() <= amount
-                                        && range.getSecond() >= amount
+        boolean onboardableCardsOnly = isOnboardableCardsOnly(clientId, deviceVersion);
+        return paymentMethodCatalog.currentSnapshot()
+                .map(
+                        snapshot -> Flux
+                                .fromIterable(catalogView(snapshot).select(clientId, onboardableCardsOnly, amount))
+                )
+                .orElseGet(
+                        () -> paymentMethodCatalog.findByClientIdAndAmount(clientId, amount)
+                                .sort(PaymentMethodCatalogSnapshot.DISPLAY_ORDER)
+                                .map(doc -> docToResponseDto(doc, onboardableCardsOnly))
+                );
+    }
+
+    /**
+     * Retrieve the payment methods list response for the input client and amount.
+     * Once the catalog is loaded the returned response is a shared
+     * {@link EncodedPaymentMethodsResponseDto} carrying its pre-encoded
+     * representations.
+     *
+     * @param amount        the amount to be checked, all the client payment methods
+     *                      are returned if null
+     * @param clientId      the client id
+     * @param deviceVersion the client device version
+     * @return the payment methods list response
+     */
+    public Mono<PaymentMethodsResponseDto> retrievePaymentMethodsResponse(
+                                                                          Long amount,
+                                                                          String clientId,
+                                                                          String deviceVersion
+    ) {
+        boolean onboardableCardsOnly = isOnboardableCardsOnly(clientId, deviceVersion);
+        return paymentMethodCatalog.currentSnapshot()
+                .<Mono<PaymentMethodsResponseDto>>map(
+                        snapshot -> Mono
+                                .just(catalogView(snapshot).selectEncoded(clientId, onboardableCardsOnly, amount))
+                )
+                .orElseGet(
+                        () -> retrievePaymentMethods(amount, clientId, deviceVersion)
+                                .collectList()
+                                .map(paymentMethods -> new PaymentMethodsResponseDto().paymentMethods(paymentMethods))
+                );
+    }
+
+    private PaymentMethodCatalogView catalogView(PaymentMethodCatalogSnapshot snapshot) {
+        return catalogView.updateAndGet(
+                current -> current != null && current.snapshot() == snapshot ? current
+                        : new PaymentMethodCatalogView(
+                                snapshot,
+                                this::docToResponseDto,
+                                paymentMethodsResponseEncoder::encode
                         )
-        )
-                .sort(
-                        (
-                         paymentMethodDocument1,
-                         paymentMethodDocument2
-                        ) -> {
-                            if (paymentMethodDocument1.getPaymentMethodTypeCode().equals("CP"))
-                                return -1;
-                            if (paymentMethodDocument2.getPaymentMethodTypeCode().equals("CP"))
-                                return 1;
-                            else
-                                return paymentMethodDocument1.getPaymentMethodDescription()
-                                        .compareTo(paymentMethodDocument2.getPaymentMethodDescription());
-                        }
-                ).map(this::docToAggregate)
-                .map(doc -> filterMethods(doc, clientId, deviceVersion));
+        );
     }
 
-    private PaymentMethod filterMethods(
-                                        PaymentMethod paymentMethod,
-                                        String clientId,
-                                        String deviceVersion
+    private PaymentMethodResponseDto docToResponseDto(
+                                                      PaymentMethodDocument doc,
+                                                      boolean onboardableCardsOnly
+    ) {
+        return paymentMethodToResponseDto(filterMethods(docToAggregate(doc), onboardableCardsOnly));
+    }
+
+    private static boolean isOnboardableCardsOnly(
+                                                  String clientId,
+                                                  String deviceVersion
     ) {
         /*
          * only for app IO (client id IO) and old app version (deviceVersion parameter
@@ -223,28 +282,62 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
          * method management ONBOARDABLE_ONLY) since payment logic to handle card method
          * is implemented in new app only
          */
-        if (clientId.equals(ClientIdDto.IO.toString()) && deviceVersion == null) {
-            if (paymentMethod.getPaymentMethodTypeCode().value().equals("CP")) {
-                return new PaymentMethod(
-                        paymentMethod.getPaymentMethodID(),
-                        paymentMethod.getPaymentMethodName(),
-                        paymentMethod.getPaymentMethodDescription(),
-                        paymentMethod.getPaymentMethodStatus(),
-                        paymentMethod.getPaymentMethodTypeCode(),
-                        paymentMethod.getPaymentMethodRanges(),
-                        paymentMethod.getPaymentMethodAsset(),
-                        paymentMethod.getClientIdEnum(),
-                        new PaymentMethodManagement(PaymentMethodManagementTypeDto.ONBOARDABLE_ONLY), // forcilbly set
-                                                                                                      // onboardable
-                                                                                                      // only to method
-                                                                                                      // management
-                        paymentMethod.getPaymentMethodBrandAsset()
-                );
-            }
+        return clientId.equals(ClientIdDto.IO.toString()) && deviceVersion == null;
+    }
+
+    private PaymentMethod filterMethods(
+                                        PaymentMethod paymentMethod,
+                                        boolean onboardableCardsOnly
+    ) {
+        if (onboardableCardsOnly && paymentMethod.getPaymentMethodTypeCode().value().equals("CP")) {
+            return new PaymentMethod(
+                    paymentMethod.getPaymentMethodID(),
+                    paymentMethod.getPaymentMethodName(),
+                    paymentMethod.getPaymentMethodDescription(),
+                    paymentMethod.getPaymentMethodStatus(),
+                    paymentMethod.getPaymentMethodTypeCode(),
+                    paymentMethod.getPaymentMethodRanges(),
+                    paymentMethod.getPaymentMethodAsset(),
+                    paymentMethod.getClientIdEnum(),
+                    new PaymentMethodManagement(PaymentMethodManagementTypeDto.ONBOARDABLE_ONLY), // forcilbly set
+                                                                                                  // onboardable
+                                                                                                  // only to method
+                                                                                                  // management
+                    paymentMethod.getPaymentMethodBrandAsset()
+            );
         }
         return paymentMethod;
     }
 
+    public static PaymentMethodResponseDto paymentMethodToResponseDto(PaymentMethod paymentMethod) {
+        PaymentMethodResponseDto response = new PaymentMethodResponseDto();
+        response.setId(paymentMethod.getPaymentMethodID().value().toString());
+        response.setName(paymentMethod.getPaymentMethodName().value());
+        response.setDescription(paymentMethod.getPaymentMethodDescription().value());
+        response.setStatus(
+                PaymentMethodStatusDto.valueOf(
+                        paymentMethod.getPaymentMethodStatus().value().toString()
+                )
+        );
+        response.setRanges(
+                paymentMethod.getPaymentMethodRanges().stream().map(
+                        r -> {
+                            RangeDto rangeDto = new RangeDto();
+                            rangeDto.setMin(r.min());
+                            rangeDto.setMax(r.max());
+                            return rangeDto;
+                        }
+                ).collect(Collectors.toList())
+        );
+        response.setPaymentTypeCode(paymentMethod.getPaymentMethodTypeCode().value());
+        response.setAsset(paymentMethod.getPaymentMethodAsset().value());
+        response.setMethodManagement(
+                paymentMethod.getPaymentMethodManagement().value()
+        );
+        response.setBrandAssets(paymentMethod.getPaymentMethodBrandAsset().brandAssets().orElse(null));
+        return response;
+    }
+
     public Mono<PaymentMethod> updatePaymentMethodStatus(
                                                          String id,
                                                          PaymentMethodStatusEnum status
@@ -280,6 +373,8 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                                         )
                                 )
                 )
+                .doOnNext(doc -> paymentMethodRepository.evictById(doc.getPaymentMethodID()))
+                .flatMap(doc -> paymentMethodCatalog.onLocalWrite().thenReturn(doc))
                 .map(this::docToAggregate);
     }
 
@@ -289,7 +384,7 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
     ) {
         log.info("[Payment Method Aggregate] Retrieve Aggregate");
 
-        return paymentMethodRepository
+        return paymentMethodCatalog
                 .findByPaymentMethodIDAndClientId(id, clientId)
                 .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(id)))
                 .map(this::docToAggregate);
@@ -363,55 +458,59 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                 "[Payment Method service] create new NPG sessions using paymentMethodId: {}",
                 id
         );
-        return paymentMethodRepository.findById(id)
+        // session creation steps run as a dependency graph: the payment method lookup
+        // runs concurrently with the order id generation and the notification token
+        // issuing, the latter depending on the order id only. Lookup errors take
+        // precedence, as if the steps were performed in sequence, and cancel the
+        // pending order id and token steps. Outcome urls do not depend on any remote
+        // call and are built upfront
+        URI returnUrlBasePath = ClientIdDto.IO.equals(xClientId) ? sessionUrlConfig.ioBasePath()
+                : sessionUrlConfig.basePath();
+        URI resultUrl = buildSessionOutcomeUrlWithClientPath(
+                returnUrlBasePath,
+                sessionUrlConfig.outcomeSuffix()
+        );
+        URI cancelUrl = buildSessionOutcomeUrlWithClientPath(
+                returnUrlBasePath,
+                sessionUrlConfig.cancelSuffix()
+        );
+        Mono<NpgClient.PaymentMethod> paymentMethodLookup = createSessionStep(
+                "findPaymentMethod",
+                paymentMethodRepository.findById(id)
+        )
+                .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(id)))
                 .map(PaymentMethodDocument::getPaymentMethodName)
-                .map(NpgClient.PaymentMethod::fromServiceName)
-                .flatMap(
-                        paymentMethod -> uniqueIdUtils.generateUniqueId()
-                                .map(orderId -> Tuples.of(orderId, paymentMethod))
-                )
+                .map(NpgClient.PaymentMethod::fromServiceName);
+        Mono<Tuple2<String, String>> orderIdAndNotificationToken = createSessionStep(
+                "generateOrderId",
+                orderIdPool.nextOrderId()
+        )
                 .flatMap(
-                        orderIdAndPaymentMethod -> jwtTokenIssuerClient.createJWTToken(
-                                new CreateTokenRequestDto().privateClaims(
-                                        Map.of(
-                                                JwtIssuerClient.ORDER_ID_CLAIM,
-                                                orderIdAndPaymentMethod.getT1(),
-                                                JwtIssuerClient.PAYMENT_METHOD_ID_CLAIM,
-                                                id
-                                        )
-                                ).audience(
-                                        JwtIssuerClient.NPG_AUDIENCE
-                                ).duration(npgNotificationTokenValidityTime)
-                        ).flatMap(
-                                token -> Mono.just(
-                                        Tuples.of(
-                                                orderIdAndPaymentMethod.getT1(),
-                                                orderIdAndPaymentMethod.getT2(),
-                                                token.getToken()
-                                        )
+                        orderId -> createSessionStep(
+                                "createNotificationToken",
+                                jwtTokenIssuerClient.createJWTToken(
+                                        new CreateTokenRequestDto().privateClaims(
+                                                Map.of(
+                                                        JwtIssuerClient.ORDER_ID_CLAIM,
+                                                        orderId,
+                                                        JwtIssuerClient.PAYMENT_METHOD_ID_CLAIM,
+                                                        id
+                                                )
+                                        ).audience(
+                                                JwtIssuerClient.NPG_AUDIENCE
+                                        ).duration(npgNotificationTokenValidityTime)
                                 )
-                        )
-                )
+                        ).map(token -> Tuples.of(orderId, token.getToken()))
+                );
+        return zipInSequence(paymentMethodLookup, orderIdAndNotificationToken)
                 .flatMap(data -> {
                     UUID correlationId = UUID.randomUUID();
                     log.info("Generated correlationId for execute NPG build session: {}", correlationId);
-                    NpgClient.PaymentMethod paymentMethod = data.getT2();
-                    String orderId = data.getT1();
-                    String notificationSessionToken = data.getT3();
+                    NpgClient.PaymentMethod paymentMethod = data.getT1();
+                    String orderId = data.getT2().getT1();
+                    String notificationSessionToken = data.getT2().getT2();
                     SessionPaymentMethod sessionPaymentMethod = SessionPaymentMethod
                             .fromValue(paymentMethod.serviceName);
-                    URI returnUrlBasePath = ClientIdDto.IO.equals(xClientId) ? sessionUrlConfig.ioBasePath()
-                            : sessionUrlConfig.basePath();
-
-                    URI resultUrl = buildSessionOutcomeUrlWithClientPath(
-                            returnUrlBasePath,
-                            sessionUrlConfig.outcomeSuffix()
-                    );
-
-                    URI cancelUrl = buildSessionOutcomeUrlWithClientPath(
-                            returnUrlBasePath,
-                            sessionUrlConfig.cancelSuffix()
-                    );
 
                     URI notificationUrl = UriComponentsBuilder
                             .fromUriString(sessionUrlConfig.notificationUrl())
@@ -424,35 +523,41 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                                     )
                             );
 
-                    return npgClient.buildForm(
-                            correlationId, // correlationId
-                            returnUrlBasePath, // merchantUrl
-                            resultUrl, // resultUrl
-                            notificationUrl, // notificationUrl
-                            cancelUrl, // cancelUrl
-                            orderId, // orderId
-                            null, // customerId
-                            paymentMethod, // paymentMethod
-                            npgDefaultApiKey, // defaultApiKey
-                            null, // contractId
-                            language // language
-
+                    return createSessionStep(
+                            "buildForm",
+                            npgClient.buildForm(
+                                    correlationId, // correlationId
+                                    returnUrlBasePath, // merchantUrl
+                                    resultUrl, // resultUrl
+                                    notificationUrl, // notificationUrl
+                                    cancelUrl, // cancelUrl
+                                    orderId, // orderId
+                                    null, // customerId
+                                    paymentMethod, // paymentMethod
+                                    npgDefaultApiKey, // defaultApiKey
+                                    null, // contractId
+                                    language // language
+
+                            )
                     ).map(form -> Tuples.of(form, sessionPaymentMethod, orderId, correlationId));
                 }).flatMap(data -> {
                     FieldsDto fields = data.getT1();
                     String orderId = data.getT3();
                     UUID correlationId = data.getT4();
-                    return npgSessionsTemplateWrapper
-                            .save(
-                                    new NpgSessionDocument(
-                                            orderId,
-                                            correlationId.toString(),
-                                            fields.getSessionId(),
-                                            fields.getSecurityToken(),
-                                            null,
-                                            null
+                    return createSessionStep(
+                            "saveSession",
+                            npgSessionsTemplateWrapper
+                                    .save(
+                                            new NpgSessionDocument(
+                                                    orderId,
+                                                    correlationId.toString(),
+                                                    fields.getSessionId(),
+                                                    fields.getSecurityToken(),
+                                                    null,
+                                                    null
+                                            )
                                     )
-                            ).thenReturn(data);
+                    ).thenReturn(data);
                 }).map(data -> {
                     FieldsDto fields = data.getT1();
                     SessionPaymentMethod paymentMethod = data.getT2();
@@ -489,59 +594,26 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                 id,
                 orderId
         );
-        return paymentMethodRepository
-                .findById(id)
-                .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(id)))
-                .flatMap(
-                        el -> npgSessionsTemplateWrapper.findById(orderId)
-                )
-                .switchIfEmpty(Mono.error(new OrderIdNotFoundException(orderId)))
+        return findPaymentMethodSession(id, orderId)
                 .flatMap(
                         sx -> {
-                            Mono<SessionPaymentMethodResponseDto> response;
+                            Mono<CardDataDocument> cardData;
                             if (sx.cardData() != null) {
                                 log.info("Cache hit for orderId: {}", orderId);
-                                response = Mono.just(
-                                        new SessionPaymentMethodResponseDto()
-                                                .bin(sx.cardData().bin())
-                                                .sessionId(sx.sessionId())
-                                                .brand(sx.cardData().circuit())
-                                                .expiringDate(sx.cardData().expiringDate())
-                                                .lastFourDigits(sx.cardData().lastFourDigits())
-                                );
+                                cardData = Mono.just(sx.cardData());
                             } else {
                                 log.info("Cache miss for orderId: {}", orderId);
-                                response = npgClient.getCardData(
-                                        UUID.fromString(sx.correlationId()),
-                                        sx.sessionId(),
-                                        npgDefaultApiKey
-                                )
-                                        .flatMap(
-                                                el -> npgSessionsTemplateWrapper.save(
-                                                        new NpgSessionDocument(
-                                                                sx.orderId(),
-                                                                sx.correlationId(),
-                                                                sx.sessionId(),
-                                                                sx.securityToken(),
-                                                                new CardDataDocument(
-                                                                        el.getBin(),
-                                                                        el.getLastFourDigits(),
-                                                                        el.getExpiringDate(),
-                                                                        el.getCircuit()
-                                                                ),
-                                                                null
-                                                        )
-                                                ).thenReturn(el)
-                                        )
-                                        .map(
-                                                el -> new SessionPaymentMethodResponseDto().bin(el.getBin())
-                                                        .sessionId(sx.sessionId())
-                                                        .brand(el.getCircuit())
-                                                        .expiringDate(el.getExpiringDate())
-                                                        .lastFourDigits(el.getLastFourDigits())
-                                        );
+                                // concurrent requests for the same order id share a single NPG call
+                                cardData = npgCardDataFetcher.fetchCardData(sx);
                             }
-                            return response;
+                            return cardData.map(
+                                    el -> new SessionPaymentMethodResponseDto()
+                                            .bin(el.bin())
+                                            .sessionId(sx.sessionId())
+                                            .brand(el.circuit())
+                                            .expiringDate(el.expiringDate())
+                                            .lastFourDigits(el.lastFourDigits())
+                            );
                         }
                 );
     }
@@ -553,13 +625,18 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
     ) {
         return paymentMethodRepository.findById(paymentMethodId)
                 .switchIfEmpty(Mono.error(new PaymentMethodNotFoundException(paymentMethodId)))
-                .flatMap(ignore -> npgSessionsTemplateWrapper.findById(orderId))
+                // the session is associated to the transaction id only if not already
+                // associated to a transaction, atomically. Retries with the same transaction
+                // id return the stored session as-is
+                .flatMap(
+                        ignore -> npgSessionsTemplateWrapper
+                                .compareAndSetTransactionId(orderId, updateData.getTransactionId())
+                )
                 .switchIfEmpty(Mono.error(new OrderIdNotFoundException(orderId)))
                 .flatMap(document -> {
                     // Session associated to the order is associated to a different transaction id,
                     // not permitted
-                    if (document.transactionId() != null
-                            && !document.transactionId().equals(updateData.getTransactionId())) {
+                    if (!updateData.getTransactionId().equals(document.transactionId())) {
                         log.error(
                                 "Session's transaction id ({}) differs from requested transaction id ({})",
                                 document.transactionId(),
@@ -575,22 +652,6 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                     } else {
                         return Mono.just(document);
                     }
-                })
-                .flatMap(d -> {
-                    // Transaction already associated to session, retry case
-                    if (d.transactionId() != null) {
-                        return Mono.just(d);
-                    } else {
-                        NpgSessionDocument updatedDocument = new NpgSessionDocument(
-                                d.orderId(),
-                                d.correlationId(),
-                                d.sessionId(),
-                                d.securityToken(),
-                                d.cardData(),
-                                updateData.getTransactionId()
-                        );
-                        return npgSessionsTemplateWrapper.save(updatedDocument).thenReturn(updatedDocument);
-                    }
                 });
     }
 
@@ -706,4 +767,19 @@ public class PaymentMethodService extends PaymentMethodServiceCommon {
                 .toUri();
 
     }
+
+    /**
+     * Time a session creation step, see {@link StepTimings}
+     *
+     * @param step     the step name
+     * @param stepMono the step
+     * @param <T>      the step value type
+     * @return the timed step
+     */
+    private <T> Mono<T> createSessionStep(
+                                          String step,
+                                          Mono<T> stepMono
+    ) {
+        return StepTimings.timed(meterRegistry, CREATE_SESSION_STEP_METRIC_NAME, step, stepMono);
+    }
 }
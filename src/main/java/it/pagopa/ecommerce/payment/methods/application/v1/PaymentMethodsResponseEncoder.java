@@ -0,0 +1,90 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodResponseDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodsResponseDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encode payment methods list responses once, so that they can be cached and
+ * written as raw bytes. The strong ETag is derived from the SHA-256 of the JSON
+ * encoding, so it only changes when the catalog content returned to the client
+ * changes and it is the same across all the service instances.
+ */
+@Component
+public class PaymentMethodsResponseEncoder {
+
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean gzipEnabled;
+
+    private final int gzipMinSize;
+
+    @Autowired
+    public PaymentMethodsResponseEncoder(
+            ObjectMapper objectMapper,
+            @Value("${paymentMethods.responseCache.gzip.enabled}") boolean gzipEnabled,
+            @Value("${paymentMethods.responseCache.gzip.minSizeBytes}") int gzipMinSize
+    ) {
+        this.objectMapper = objectMapper;
+        this.gzipEnabled = gzipEnabled;
+        this.gzipMinSize = gzipMinSize;
+    }
+
+    /**
+     * Encode the input payment methods list response
+     *
+     * @param paymentMethods the payment methods to be returned
+     * @return the encoded response
+     */
+    public EncodedPaymentMethodsResponseDto encode(List<PaymentMethodResponseDto> paymentMethods) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(new PaymentMethodsResponseDto().paymentMethods(paymentMethods));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        String digest = digest(json);
+        boolean compress = gzipEnabled && json.length >= gzipMinSize;
+        return new EncodedPaymentMethodsResponseDto(
+                paymentMethods,
+                json,
+                compress ? gzip(json) : null,
+                "\"%s\"".formatted(digest),
+                compress ? "\"%s%s\"".formatted(digest, GZIP_ETAG_SUFFIX) : null
+        );
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+}
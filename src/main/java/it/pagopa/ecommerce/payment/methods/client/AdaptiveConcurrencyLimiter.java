@@ -0,0 +1,325 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.UpstreamConcurrencyLimitException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive concurrency limit of the calls towards an upstream service, learning
+ * the upstream healthy concurrency from the observed latency (gradient style).
+ * Every call is a sample of its endpoint, identified by method and URI
+ * template, so that endpoints with different latency profiles are never
+ * compared with each other:
+ * <ul>
+ * <li>the limit is multiplied by {@value #BACKOFF_RATIO} when the call fails or
+ * is answered with a server error or a {@link HttpStatus#TOO_MANY_REQUESTS}
+ * status</li>
+ * <li>the limit is reduced, by at most {@value #MAX_LATENCY_BACKOFF} of its
+ * value per sample, on sustained latency inflation: when the short-window
+ * average latency of the endpoint exceeds {@value #LATENCY_TOLERANCE} times its
+ * long-window average latency. Samples are weighted into the short-window
+ * average capped to a multiple of the long-window one, so the slow calls of a
+ * long tail upstream never cut the limit on their own</li>
+ * <li>otherwise the limit is increased by one, as long as at least half of it
+ * is in use, and left unchanged at light load</li>
+ * </ul>
+ * The limit is kept between 1 and the configured max limit. Latency is measured
+ * up to the response headers, when the call leaves the limit. Requests with the
+ * {@link #UNLIMITED_ATTRIBUTE} attribute, such as the warm-up ones, are neither
+ * limited nor sampled.
+ * <p>
+ * The limiter runs in one of the following {@link Mode}s:
+ * <ul>
+ * <li>{@link Mode#DISABLED}: calls are neither limited nor sampled</li>
+ * <li>{@link Mode#SHADOW}: the limit is learned and exported, calls are never
+ * limited and the calls over the limit are only counted as rejections</li>
+ * <li>{@link Mode#ENFORCED}: calls over the limit wait for the configured queue
+ * timeout, then are rejected with an
+ * {@link UpstreamConcurrencyLimitException}</li>
+ * </ul>
+ * The following metrics are exported, by {@code upstream}:
+ * <ul>
+ * <li>{@value #LIMIT_METRIC_NAME}: the current limit</li>
+ * <li>{@value #IN_FLIGHT_METRIC_NAME}: the calls in-flight</li>
+ * <li>{@value #REJECTIONS_METRIC_NAME}: the rejected calls, by
+ * {@code mode}</li>
+ * </ul>
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter implements ExchangeFilterFunction {
+
+    /**
+     * Limiter operating mode
+     */
+    public enum Mode {
+        DISABLED,
+        SHADOW,
+        ENFORCED
+    }
+
+    /**
+     * Request attribute excluding the request from the limit and from the latency
+     * samples
+     */
+    public static final String UNLIMITED_ATTRIBUTE = AdaptiveConcurrencyLimiter.class.getName() + ".unlimited";
+
+    static final String LIMIT_METRIC_NAME = "upstream.concurrency.limit";
+
+    static final String IN_FLIGHT_METRIC_NAME = "upstream.concurrency.inflight";
+
+    static final String REJECTIONS_METRIC_NAME = "upstream.concurrency.rejections";
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    static final double MAX_LATENCY_BACKOFF = 0.1;
+
+    /**
+     * Request attribute set by {@link WebClient} with the request URI template
+     */
+    private static final String URI_TEMPLATE_ATTRIBUTE = WebClient.class.getName() + ".uriTemplate";
+
+    /**
+     * Endpoints tracked separately, further endpoints sharing the same latency
+     * statistics
+     */
+    private static final int MAX_ENDPOINTS = 64;
+
+    private static final String OTHER_ENDPOINTS = "other";
+
+    private static final int MIN_LIMIT = 1;
+
+    private final String upstream;
+
+    private final Mode mode;
+
+    private final int maxLimit;
+
+    private final Duration queueTimeout;
+
+    private final LongSupplier nanoClock;
+
+    private final CallPermits permits;
+
+    private final AtomicInteger shadowCalls = new AtomicInteger();
+
+    private final Counter rejectionsCounter;
+
+    private final Map<String, EndpointLatency> endpoints = new HashMap<>();
+
+    /**
+     * Read without locking by the call permits, updated under the limiter lock
+     */
+    private volatile double limit;
+
+    public AdaptiveConcurrencyLimiter(
+            String upstream,
+            MeterRegistry meterRegistry,
+            Mode mode,
+            int initialLimit,
+            int maxLimit,
+            Duration queueTimeout
+    ) {
+        this(upstream, meterRegistry, mode, initialLimit, maxLimit, queueTimeout, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(
+            String upstream,
+            MeterRegistry meterRegistry,
+            Mode mode,
+            int initialLimit,
+            int maxLimit,
+            Duration queueTimeout,
+            LongSupplier nanoClock
+    ) {
+        this.upstream = upstream;
+        this.mode = mode;
+        this.maxLimit = maxLimit;
+        this.queueTimeout = queueTimeout;
+        this.nanoClock = nanoClock;
+        this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, maxLimit));
+        // a zero queue timeout rejects calls over the limit right away
+        this.permits = new CallPermits(this::limit, queueTimeout.isZero() ? 0 : maxLimit);
+        this.rejectionsCounter = meterRegistry
+                .counter(REJECTIONS_METRIC_NAME, "upstream", upstream, "mode", mode.name().toLowerCase());
+        Gauge.builder(LIMIT_METRIC_NAME, this, AdaptiveConcurrencyLimiter::limit)
+                .tag("upstream", upstream)
+                .register(meterRegistry);
+        Gauge.builder(IN_FLIGHT_METRIC_NAME, this, AdaptiveConcurrencyLimiter::activeCalls)
+                .tag("upstream", upstream)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(
+                                       ClientRequest request,
+                                       ExchangeFunction next
+    ) {
+        if (mode == Mode.DISABLED || request.attribute(UNLIMITED_ATTRIBUTE).isPresent()) {
+            return next.exchange(request);
+        }
+        String endpoint = endpoint(request);
+        if (mode == Mode.SHADOW) {
+            return Mono.defer(() -> {
+                if (shadowCalls.incrementAndGet() > limit()) {
+                    rejectionsCounter.increment();
+                }
+                return sampled(request, next, endpoint).doFinally(signal -> shadowCalls.decrementAndGet());
+            });
+        }
+        Mono<CallPermits.Permit> permit = permits.acquire();
+        return (queueTimeout.isZero() ? permit : permit.timeout(queueTimeout, Mono.empty()))
+                .switchIfEmpty(Mono.defer(() -> {
+                    log.warn("Concurrency limit {} of upstream [{}] reached", limit(), upstream);
+                    rejectionsCounter.increment();
+                    return Mono.error(new UpstreamConcurrencyLimitException(upstream));
+                }))
+                .flatMap(
+                        granted -> sampled(request, next, endpoint)
+                                .doFinally(signal -> granted.release())
+                );
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int limit() {
+        return (int) limit;
+    }
+
+    private int activeCalls() {
+        return mode == Mode.SHADOW ? shadowCalls.get() : permits.activeCalls();
+    }
+
+    private Mono<ClientResponse> sampled(
+                                         ClientRequest request,
+                                         ExchangeFunction next,
+                                         String endpoint
+    ) {
+        return Mono.defer(() -> {
+            long startNanos = nanoClock.getAsLong();
+            return next.exchange(request)
+                    .doOnSuccess(
+                            response -> onSample(
+                                    endpoint,
+                                    startNanos,
+                                    response != null && isDropped(response.statusCode())
+                            )
+                    )
+                    .doOnError(error -> onSample(endpoint, startNanos, true));
+        });
+    }
+
+    private synchronized void onSample(
+                                       String endpoint,
+                                       long startNanos,
+                                       boolean dropped
+    ) {
+        if (dropped) {
+            limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+            return;
+        }
+        double gradient = endpoints
+                .computeIfAbsent(
+                        endpoints.size() < MAX_ENDPOINTS ? endpoint : OTHER_ENDPOINTS,
+                        ignored -> new EndpointLatency()
+                )
+                .gradient(nanoClock.getAsLong() - startNanos);
+        if (gradient < 1) {
+            limit = Math.max(MIN_LIMIT, limit * (1 - MAX_LATENCY_BACKOFF * (1 - gradient) * 2));
+        } else if (activeCalls() * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    private static String endpoint(ClientRequest request) {
+        return request.method().name() + " " + request.attribute(URI_TEMPLATE_ATTRIBUTE)
+                .map(Object::toString)
+                .orElseGet(() -> request.url().getPath());
+    }
+
+    private static boolean isDropped(HttpStatusCode statusCode) {
+        return statusCode.is5xxServerError() || statusCode.value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    /**
+     * Latency statistics of an endpoint, as short-window and long-window
+     * exponential moving averages of the observed latency. Accessed under the
+     * limiter lock.
+     */
+    static final class EndpointLatency {
+
+        /**
+         * Samples before the long-window average is trusted as baseline
+         */
+        static final int WARMUP_SAMPLES = 20;
+
+        /**
+         * Weight of every sample in the short-window average, ~10 samples
+         */
+        private static final double SHORT_SMOOTHING = 0.1;
+
+        /**
+         * Weight of every sample in the long-window average, ~500 samples
+         */
+        private static final double LONG_SMOOTHING = 0.002;
+
+        /**
+         * Max ratio to the long-window average of a sample weighted into the
+         * short-window average
+         */
+        private static final double MAX_OUTLIER_RATIO = 2 * LATENCY_TOLERANCE;
+
+        /**
+         * Gradient floor, capping the reduction of a single sample
+         */
+        private static final double MIN_GRADIENT = 0.5;
+
+        private long samples;
+
+        private double shortNanos;
+
+        private double longNanos;
+
+        /**
+         * Record a latency sample
+         *
+         * @param latencyNanos the sample latency
+         * @return the latency gradient, between {@value #MIN_GRADIENT} and 1: lower
+         *         than 1 when the latency is inflated beyond the tolerance
+         */
+        double gradient(long latencyNanos) {
+            samples++;
+            if (samples == 1) {
+                shortNanos = latencyNanos;
+                longNanos = latencyNanos;
+                return 1;
+            }
+            // outliers are capped, so that a few slow calls cannot inflate the short window
+            shortNanos += SHORT_SMOOTHING * (Math.min(latencyNanos, MAX_OUTLIER_RATIO * longNanos) - shortNanos);
+            // the long window averages over all the samples until it is full
+            longNanos += Math.max(LONG_SMOOTHING, 1.0 / samples) * (latencyNanos - longNanos);
+            if (samples < WARMUP_SAMPLES) {
+                return 1;
+            }
+            return Math.max(MIN_GRADIENT, Math.min(1, LATENCY_TOLERANCE * longNanos / shortNanos));
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker and bulkhead guarding the AFM calls. The breaker tracks the
+ * outcome of the last calls and opens once their failure rate reaches the
+ * configured threshold: while open, AFM calls are rejected with a
+ * {@link HttpStatus#SERVICE_UNAVAILABLE} {@link AfmCallNotPermittedException}
+ * without calling AFM. After the configured open state duration, the breaker
+ * lets a few probe calls through (half-open state), closing if all of them
+ * succeed and opening again at the first failure. AFM server errors, timeouts
+ * and connection errors are failures, while AFM client errors are not, AFM
+ * having answered. Calls rejected before reaching AFM, as by the upstream
+ * concurrency limiter, count neither as successes nor as failures. Calls
+ * allowed by the breaker then go through a bulkhead ({@link CallPermits}):
+ * calls exceeding its queue are rejected with a
+ * {@link HttpStatus#TOO_MANY_REQUESTS} {@link AfmCallNotPermittedException}.
+ * The following metrics are exported:
+ * <ul>
+ * <li>{@value #STATE_METRIC_NAME}, by {@code state}: 1 for the current state, 0
+ * otherwise</li>
+ * <li>{@value #TRANSITIONS_METRIC_NAME}, by {@code from} and {@code to}
+ * state</li>
+ * <li>{@value #CALLS_METRIC_NAME}, by {@code result}: {@code success},
+ * {@code failure}, {@code not_permitted} when rejected by the breaker,
+ * {@code bulkhead_full} when rejected by the bulkhead</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class AfmCircuitBreaker {
+
+    static final String STATE_METRIC_NAME = "afm.circuitbreaker.state";
+
+    static final String TRANSITIONS_METRIC_NAME = "afm.circuitbreaker.transitions";
+
+    static final String CALLS_METRIC_NAME = "afm.circuitbreaker.calls";
+
+    /**
+     * Circuit breaker states
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Circuit breaker state view
+     *
+     * @param state          the circuit breaker state
+     * @param failureRate    the failure rate percentage of the tracked calls, or -1
+     *                       if fewer calls than the minimum have been tracked
+     * @param trackedCalls   the number of tracked calls
+     * @param failedCalls    the number of tracked failed calls
+     * @param activeCalls    the number of in-flight calls
+     * @param queuedCalls    the number of calls waiting for the bulkhead
+     * @param maxActiveCalls the max number of in-flight calls
+     * @param maxQueuedCalls the max number of calls waiting for the bulkhead
+     */
+    public record Snapshot(
+            State state,
+            float failureRate,
+            int trackedCalls,
+            int failedCalls,
+            int activeCalls,
+            int queuedCalls,
+            int maxActiveCalls,
+            int maxQueuedCalls
+    ) {
+    }
+
+    private final boolean enabled;
+
+    private final int failureRateThreshold;
+
+    private final int minimumCalls;
+
+    private final long openStateNanos;
+
+    private final int halfOpenCalls;
+
+    private final int maxConcurrentCalls;
+
+    private final int maxQueuedCalls;
+
+    private final LongSupplier nanoClock;
+
+    private final CallPermits bulkhead;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Counter successCounter;
+
+    private final Counter failureCounter;
+
+    private final Counter notPermittedCounter;
+
+    private final Counter bulkheadFullCounter;
+
+    /**
+     * Outcomes of the last calls in the closed state, as a ring buffer
+     */
+    private final boolean[] outcomes;
+
+    private int trackedCalls;
+
+    private int failedCalls;
+
+    private int nextOutcome;
+
+    private State state = State.CLOSED;
+
+    /**
+     * Incremented on every transition, so that outcomes of calls permitted in a
+     * previous state are ignored
+     */
+    private long generation;
+
+    private long openedAtNanos;
+
+    private int halfOpenPermittedCalls;
+
+    private int halfOpenSucceededCalls;
+
+    @Autowired
+    public AfmCircuitBreaker(
+            MeterRegistry meterRegistry,
+            @Value("${afm.circuitBreaker.enabled}") boolean enabled,
+            @Value("${afm.circuitBreaker.failureRateThreshold}") int failureRateThreshold,
+            @Value("${afm.circuitBreaker.slidingWindowSize}") int slidingWindowSize,
+            @Value("${afm.circuitBreaker.minimumCalls}") int minimumCalls,
+            @Value("${afm.circuitBreaker.openStateMillis}") long openStateMillis,
+            @Value("${afm.circuitBreaker.halfOpenCalls}") int halfOpenCalls,
+            @Value("${afm.bulkhead.maxConcurrentCalls}") int maxConcurrentCalls,
+            @Value("${afm.bulkhead.maxQueuedCalls}") int maxQueuedCalls
+    ) {
+        this(
+                meterRegistry,
+                enabled,
+                failureRateThreshold,
+                slidingWindowSize,
+                minimumCalls,
+                Duration.ofMillis(openStateMillis),
+                halfOpenCalls,
+                maxConcurrentCalls,
+                maxQueuedCalls,
+                System::nanoTime
+        );
+    }
+
+    AfmCircuitBreaker(
+            MeterRegistry meterRegistry,
+            boolean enabled,
+            int failureRateThreshold,
+            int slidingWindowSize,
+            int minimumCalls,
+            Duration openState,
+            int halfOpenCalls,
+            int maxConcurrentCalls,
+            int maxQueuedCalls,
+            LongSupplier nanoClock
+    ) {
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.outcomes = new boolean[slidingWindowSize];
+        this.minimumCalls = Math.min(minimumCalls, slidingWindowSize);
+        this.openStateNanos = openState.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+        this.nanoClock = nanoClock;
+        this.bulkhead = new CallPermits(() -> maxConcurrentCalls, maxQueuedCalls);
+        this.meterRegistry = meterRegistry;
+        this.successCounter = meterRegistry.counter(CALLS_METRIC_NAME, "result", "success");
+        this.failureCounter = meterRegistry.counter(CALLS_METRIC_NAME, "result", "failure");
+        this.notPermittedCounter = meterRegistry.counter(CALLS_METRIC_NAME, "result", "not_permitted");
+        this.bulkheadFullCounter = meterRegistry.counter(CALLS_METRIC_NAME, "result", "bulkhead_full");
+        for (State gaugeState : State.values()) {
+            Gauge.builder(STATE_METRIC_NAME, this, breaker -> breaker.state() == gaugeState ? 1 : 0)
+                    .tag("state", gaugeState.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Perform the input AFM call if permitted by the circuit breaker and the
+     * bulkhead
+     *
+     * @param call the AFM call
+     * @param <T>  the call result type
+     * @return the guarded call, failing with {@link AfmCallNotPermittedException}
+     *         if rejected
+     */
+    public <T> Mono<T> guarded(Mono<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        return Mono.defer(() -> {
+            long permittedGeneration = acquirePermission();
+            if (permittedGeneration < 0) {
+                notPermittedCounter.increment();
+                return Mono.error(
+                        new AfmCallNotPermittedException(
+                                HttpStatus.SERVICE_UNAVAILABLE,
+                                "AFM circuit breaker is open"
+                        )
+                );
+            }
+            AtomicBoolean completed = new AtomicBoolean();
+            return bulkhead.acquire()
+                    .switchIfEmpty(Mono.defer(() -> {
+                        completed.set(true);
+                        releasePermission(permittedGeneration);
+                        bulkheadFullCounter.increment();
+                        return Mono.error(
+                                new AfmCallNotPermittedException(
+                                        HttpStatus.TOO_MANY_REQUESTS,
+                                        "Too many in-flight AFM calls"
+                                )
+                        );
+                    }))
+                    .flatMap(permit -> call.doFinally(signal -> permit.release()))
+                    .doOnSuccess(result -> {
+                        if (completed.compareAndSet(false, true)) {
+                            onOutcome(permittedGeneration, true);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (!completed.compareAndSet(false, true)) {
+                            return;
+                        }
+                        if (error instanceof AfmCallNotPermittedException) {
+                            // rejected before reaching AFM (e.g. by the upstream concurrency limiter)
+                            releasePermission(permittedGeneration);
+                        } else {
+                            onOutcome(permittedGeneration, !isFailure(error));
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (completed.compareAndSet(false, true)) {
+                            releasePermission(permittedGeneration);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * @return the current circuit breaker state view
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(
+                state(),
+                trackedCalls < minimumCalls ? -1 : failedCalls * 100f / trackedCalls,
+                trackedCalls,
+                failedCalls,
+                bulkhead.activeCalls(),
+                bulkhead.queuedCalls(),
+                maxConcurrentCalls,
+                maxQueuedCalls
+        );
+    }
+
+    /**
+     * @return the current state, moving from open to half-open once the open state
+     *         duration elapsed
+     */
+    public synchronized State state() {
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openStateNanos) {
+            transitionTo(State.HALF_OPEN);
+        }
+        return state;
+    }
+
+    /**
+     * @return the generation in which the call has been permitted, or -1 if the
+     *         call is not permitted
+     */
+    private synchronized long acquirePermission() {
+        return switch (state()) {
+            case CLOSED -> generation;
+            case OPEN -> -1;
+            case HALF_OPEN -> {
+                if (halfOpenPermittedCalls < halfOpenCalls) {
+                    halfOpenPermittedCalls++;
+                    yield generation;
+                }
+                yield -1;
+            }
+        };
+    }
+
+    /**
+     * Release the permission of a call whose outcome is unknown
+     */
+    private synchronized void releasePermission(long permittedGeneration) {
+        if (permittedGeneration == generation && state == State.HALF_OPEN) {
+            halfOpenPermittedCalls--;
+        }
+    }
+
+    private synchronized void onOutcome(
+                                        long permittedGeneration,
+                                        boolean success
+    ) {
+        (success ? successCounter : failureCounter).increment();
+        if (permittedGeneration != generation) {
+            return;
+        }
+        switch (state) {
+            case CLOSED -> {
+                if (trackedCalls == outcomes.length) {
+                    failedCalls -= outcomes[nextOutcome] ? 0 : 1;
+                } else {
+                    trackedCalls++;
+                }
+                outcomes[nextOutcome] = success;
+                failedCalls += success ? 0 : 1;
+                nextOutcome = (nextOutcome + 1) % outcomes.length;
+                if (trackedCalls >= minimumCalls && failedCalls * 100 >= failureRateThreshold * trackedCalls) {
+                    transitionTo(State.OPEN);
+                }
+            }
+            case HALF_OPEN -> {
+                if (!success) {
+                    transitionTo(State.OPEN);
+                } else if (++halfOpenSucceededCalls >= halfOpenCalls) {
+                    transitionTo(State.CLOSED);
+                }
+            }
+            case OPEN -> {
+                // outcomes are not tracked while open
+            }
+        }
+    }
+
+    private void transitionTo(State target) {
+        log.warn("AFM circuit breaker transition from {} to {}", state, target);
+        meterRegistry.counter(
+                TRANSITIONS_METRIC_NAME,
+                "from",
+                state.name().toLowerCase(Locale.ROOT),
+                "to",
+                target.name().toLowerCase(Locale.ROOT)
+        ).increment();
+        state = target;
+        generation++;
+        trackedCalls = 0;
+        failedCalls = 0;
+        nextOutcome = 0;
+        halfOpenPermittedCalls = 0;
+        halfOpenSucceededCalls = 0;
+        if (target == State.OPEN) {
+            openedAtNanos = nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * @param error an AFM call error
+     * @return true iff the error means that AFM is unavailable: AFM server errors,
+     *         timeouts and connection errors
+     */
+    static boolean isFailure(Throwable error) {
+        if (error instanceof AfmResponseException afmResponseException) {
+            return afmResponseException.status == null || afmResponseException.status.is5xxServerError();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator view of the {@link AfmCircuitBreaker} state, exposed at
+ * {@code /actuator/afmcircuitbreaker}
+ */
+@Component
+@Endpoint(id = "afmcircuitbreaker")
+public class AfmCircuitBreakerEndpoint {
+
+    private final AfmCircuitBreaker afmCircuitBreaker;
+
+    @Autowired
+    public AfmCircuitBreakerEndpoint(AfmCircuitBreaker afmCircuitBreaker) {
+        this.afmCircuitBreaker = afmCircuitBreaker;
+    }
+
+    @ReadOperation
+    public AfmCircuitBreaker.Snapshot circuitBreaker() {
+        return afmCircuitBreaker.snapshot();
+    }
+}
@@ -1,6 +1,9 @@
 package it.pagopa.ecommerce.payment.methods.client;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
 import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import it.pagopa.ecommerce.payment.methods.exception.UpstreamConcurrencyLimitException;
 import it.pagopa.generated.ecommerce.gec.v1.api.CalculatorApi;
 import it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto;
 import it.pagopa.generated.ecommerce.gec.v1.dto.PaymentOptionDto;
@@ -15,6 +18,17 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClientException;
 import reactor.core.publisher.Mono;
 
+/**
+ * AFM calculator client. Fee quotes are served through
+ * {@link AfmFeeQuoteCache}, while identical requests in-flight at the same time
+ * share a single cache lookup, and AFM call on miss, through
+ * {@link AfmInFlightRequests}: only one of them takes the cache Redis lease,
+ * the others never poll the Redis tier waiting for it. Slow AFM requests can be
+ * hedged, see {@link AfmHedging}. AFM calls are guarded by the
+ * {@link AfmCircuitBreaker}: rejected calls are served the last good quote for
+ * the same request, if any, by {@link AfmStaleQuotes}. Otherwise, while AFM is
+ * unavailable, fees can be computed locally by {@link LocalFeeCalculator}.
+ */
 @Slf4j
 @Component
 public class AfmClient {
@@ -26,15 +40,60 @@ public class AfmClient {
 
     private final String afmKey;
 
+    private final AfmFeeQuoteCache afmFeeQuoteCache;
+
+    private final AfmCircuitBreaker afmCircuitBreaker;
+
+    private final AfmStaleQuotes afmStaleQuotes;
+
+    private final LocalFeeCalculator localFeeCalculator;
+
+    private final AfmInFlightRequests afmInFlightRequests;
+
+    private final AfmHedging feesHedging;
+
+    private final AfmHedging feesForNoticesHedging;
+
     @Autowired
     public AfmClient(
             @Qualifier("afmWebClient") CalculatorApi afmClient,
             @Qualifier("afmWebClientV2") it.pagopa.generated.ecommerce.gec.v2.api.CalculatorApi afmWebClientV2,
-            @Value("${afm.client.key}") String afmKey
+            @Value("${afm.client.key}") String afmKey,
+            AfmFeeQuoteCache afmFeeQuoteCache,
+            AfmCircuitBreaker afmCircuitBreaker,
+            AfmStaleQuotes afmStaleQuotes,
+            LocalFeeCalculator localFeeCalculator,
+            MeterRegistry meterRegistry,
+            @Value("${afm.requestCoalescing.enabled}") boolean coalescingEnabled,
+            @Value("${afm.hedging.enabled}") boolean hedgingEnabled,
+            @Value("${afm.hedging.percentile}") double hedgingPercentile,
+            @Value("${afm.hedging.budgetPercent}") int hedgingBudgetPercent,
+            @Value("${afm.hedging.minDelayMillis}") long hedgingMinDelayMillis
     ) {
         this.calculatorApi = afmClient;
         this.calculatorApiV2 = afmWebClientV2;
         this.afmKey = afmKey;
+        this.afmFeeQuoteCache = afmFeeQuoteCache;
+        this.afmCircuitBreaker = afmCircuitBreaker;
+        this.afmStaleQuotes = afmStaleQuotes;
+        this.localFeeCalculator = localFeeCalculator;
+        this.afmInFlightRequests = new AfmInFlightRequests(meterRegistry, coalescingEnabled);
+        this.feesHedging = new AfmHedging(
+                meterRegistry,
+                "v1",
+                hedgingEnabled,
+                hedgingPercentile,
+                hedgingBudgetPercent,
+                hedgingMinDelayMillis
+        );
+        this.feesForNoticesHedging = new AfmHedging(
+                meterRegistry,
+                "v2",
+                hedgingEnabled,
+                hedgingPercentile,
+                hedgingBudgetPercent,
+                hedgingMinDelayMillis
+        );
     }
 
     public Mono<BundleOptionDto> getFees(
@@ -42,6 +101,58 @@ public class AfmClient {
                                          Integer maxOccurrences,
                                          boolean allCCP
     ) {
+        String key = AfmFeeRequestKeys.feesKey(paymentOptionDto, maxOccurrences, allCCP);
+        Mono<BundleOptionDto> afmCall = afmStaleQuotes.recorded(
+                key,
+                afmCircuitBreaker.guarded(feesHedging.hedged(requestFees(paymentOptionDto, maxOccurrences, allCCP))),
+                AfmFeeQuotes::reshuffled
+        );
+        return localFeeCalculator.localIfUnavailable(
+                afmStaleQuotes.staleIfNotPermitted(
+                        key,
+                        afmInFlightRequests.coalesced(
+                                key,
+                                afmFeeQuoteCache.getFees(key, afmCall),
+                                AfmFeeQuotes::reshuffled
+                        ),
+                        AfmFeeQuotes::reshuffled
+                ),
+                () -> localFeeCalculator.getFees(paymentOptionDto, maxOccurrences)
+        );
+    }
+
+    public Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> getFeesForNotices(
+                                                                                            PaymentOptionMultiDto paymentOptionDto,
+                                                                                            Integer maxOccurrences,
+                                                                                            boolean allCCP
+    ) {
+        String key = AfmFeeRequestKeys.feesForNoticesKey(paymentOptionDto, maxOccurrences, allCCP);
+        Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> afmCall = afmStaleQuotes.recorded(
+                key,
+                afmCircuitBreaker.guarded(
+                        feesForNoticesHedging.hedged(requestFeesForNotices(paymentOptionDto, maxOccurrences, allCCP))
+                ),
+                AfmFeeQuotes::reshuffled
+        );
+        return localFeeCalculator.localIfUnavailable(
+                afmStaleQuotes.staleIfNotPermitted(
+                        key,
+                        afmInFlightRequests.coalesced(
+                                key,
+                                afmFeeQuoteCache.getFeesForNotices(key, afmCall),
+                                AfmFeeQuotes::reshuffled
+                        ),
+                        AfmFeeQuotes::reshuffled
+                ),
+                () -> localFeeCalculator.getFeesForNotices(paymentOptionDto, maxOccurrences)
+        );
+    }
+
+    private Mono<BundleOptionDto> requestFees(
+                                              PaymentOptionDto paymentOptionDto,
+                                              Integer maxOccurrences,
+                                              boolean allCCP
+    ) {
 
         return calculatorApi
                 .getApiClient()
@@ -70,6 +181,10 @@ public class AfmClient {
                                 )
                 )
                 .bodyToMono(BundleOptionDto.class)
+                .onErrorMap(
+                        UpstreamConcurrencyLimitException.class,
+                        error -> new AfmCallNotPermittedException(HttpStatus.TOO_MANY_REQUESTS, error.getMessage())
+                )
                 .doOnError(
                         AfmResponseException.class,
                         error -> log.error(
@@ -97,10 +212,10 @@ public class AfmClient {
                 );
     }
 
-    public Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> getFeesForNotices(
-                                                                                            PaymentOptionMultiDto paymentOptionDto,
-                                                                                            Integer maxOccurrences,
-                                                                                            boolean allCCP
+    private Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> requestFeesForNotices(
+                                                                                                 PaymentOptionMultiDto paymentOptionDto,
+                                                                                                 Integer maxOccurrences,
+                                                                                                 boolean allCCP
     ) {
         return calculatorApiV2
                 .getApiClient()
@@ -131,6 +246,10 @@ public class AfmClient {
                                 )
                 )
                 .bodyToMono(it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto.class)
+                .onErrorMap(
+                        UpstreamConcurrencyLimitException.class,
+                        error -> new AfmCallNotPermittedException(HttpStatus.TOO_MANY_REQUESTS, error.getMessage())
+                )
                 .doOnError(
                         AfmResponseException.class,
                         error -> log.error(
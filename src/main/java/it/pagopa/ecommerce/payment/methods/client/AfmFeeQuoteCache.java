@@ -0,0 +1,390 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+/**
+ * Two tier cache of AFM fee quotes, keyed by the canonical request key computed
+ * by {@link AfmFeeRequestKeys}, so that identical fee requests repeated within
+ * a short time (e.g. when the user goes back and forth in checkout) do not call
+ * AFM again. A bounded in-process tier sits in front of a Redis tier shared by
+ * all the service instances, where quotes are stored with the compact
+ * {@link AfmFeeQuoteEncoding}. Both tiers can be disabled independently. Errors
+ * are never cached.
+ * <p>
+ * On Redis tier misses, a short Redis lease is taken by the instance calling
+ * AFM: the other instances missing the same quote poll the Redis tier until the
+ * lease holder stores the quote, falling back to call AFM themselves if the
+ * lease is released without a quote or not released within its TTL. Redis
+ * errors are never surfaced: AFM is called as if the quote were not cached.
+ * <p>
+ * To preserve the fairness of AFM bundles ordering, bundles of every cached
+ * quote are shuffled again within each group of bundles with the same fee on
+ * every cache hit (see {@link AfmFeeQuotes#reshuffled}). Each hit is served a
+ * new quote instance, so callers are free to modify it.
+ * <p>
+ * The following metrics are reported:
+ * <ul>
+ * <li>{@value #LOOKUP_METRIC_NAME}: cache lookups by {@code tier}
+ * ({@code local}, {@code redis}) and {@code result} ({@code hit},
+ * {@code miss})</li>
+ * <li>{@value #EVICTION_METRIC_NAME}: quotes evicted from the local tier by
+ * {@code cause} ({@code size}, {@code expired})</li>
+ * <li>{@value #LOAD_METRIC_NAME}: quotes missing from the Redis tier by
+ * {@code result}: {@code called} when AFM has been called by the lease holder,
+ * {@code remote} when stored by the lease holder of another instance or
+ * {@code fallback} when AFM has been called after waiting for the lease, or
+ * because the lease could not be taken</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class AfmFeeQuoteCache {
+
+    static final String LOOKUP_METRIC_NAME = "afm.fee.cache.lookups";
+    static final String EVICTION_METRIC_NAME = "afm.fee.cache.evictions";
+    static final String LOAD_METRIC_NAME = "afm.fee.cache.loads";
+
+    private static final String QUOTES_KEYSPACE = "afm-fee-quote";
+    static final String LEASE_KEYSPACE = "afm-fee-quote-lease";
+
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/lease-release.lua"),
+            Long.class
+    );
+
+    private final boolean enabled;
+    private final boolean redisEnabled;
+    private final Duration redisTtl;
+    private final Duration leaseTtl;
+    private final Duration pollInterval;
+    private final Cache<String, Object> quotes;
+    private final ReactiveRedisTemplate<String, byte[]> redisQuotes;
+    private final ReactiveStringRedisTemplate redisLeases;
+    private final Counter localHitCounter;
+    private final Counter localMissCounter;
+    private final Counter redisHitCounter;
+    private final Counter redisMissCounter;
+    private final Counter sizeEvictionCounter;
+    private final Counter expiredEvictionCounter;
+    private final Counter calledCounter;
+    private final Counter remoteCounter;
+    private final Counter fallbackCounter;
+
+    @Autowired
+    public AfmFeeQuoteCache(
+            ReactiveRedisConnectionFactory redisConnectionFactory,
+            MeterRegistry meterRegistry,
+            @Value("${afm.feeCache.enabled}") boolean enabled,
+            @Value("${afm.feeCache.maxSize}") long maxSize,
+            @Value("${afm.feeCache.ttlSeconds}") long ttlSeconds,
+            @Value("${afm.feeCache.redis.enabled}") boolean redisEnabled,
+            @Value("${afm.feeCache.redis.ttlSeconds}") long redisTtlSeconds,
+            @Value("${afm.feeCache.redis.leaseTtlMillis}") long leaseTtlMillis,
+            @Value("${afm.feeCache.redis.pollIntervalMillis}") long pollIntervalMillis
+    ) {
+        this(
+                redisConnectionFactory,
+                meterRegistry,
+                enabled,
+                maxSize,
+                ttlSeconds,
+                redisEnabled,
+                redisTtlSeconds,
+                leaseTtlMillis,
+                pollIntervalMillis,
+                Ticker.systemTicker()
+        );
+    }
+
+    AfmFeeQuoteCache(
+            ReactiveRedisConnectionFactory redisConnectionFactory,
+            MeterRegistry meterRegistry,
+            boolean enabled,
+            long maxSize,
+            long ttlSeconds,
+            boolean redisEnabled,
+            long redisTtlSeconds,
+            long leaseTtlMillis,
+            long pollIntervalMillis,
+            Ticker ticker
+    ) {
+        this.enabled = enabled;
+        this.redisEnabled = redisEnabled;
+        this.redisTtl = Duration.ofSeconds(redisTtlSeconds);
+        this.leaseTtl = Duration.ofMillis(leaseTtlMillis);
+        this.pollInterval = Duration.ofMillis(pollIntervalMillis);
+        this.quotes = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .ticker(ticker)
+                // counting evictions is cheap enough to be done on the caller thread
+                .executor(Runnable::run)
+                .evictionListener(
+                        (
+                         key,
+                         quote,
+                         cause
+                        ) -> onEviction(cause)
+                )
+                .build();
+        this.redisQuotes = new ReactiveRedisTemplate<>(
+                redisConnectionFactory,
+                RedisSerializationContext.<String, byte[]>newSerializationContext(new StringRedisSerializer())
+                        .value(RedisSerializer.byteArray())
+                        .build()
+        );
+        this.redisLeases = new ReactiveStringRedisTemplate(redisConnectionFactory);
+        this.localHitCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "tier", "local", "result", "hit");
+        this.localMissCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "tier", "local", "result", "miss");
+        this.redisHitCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "tier", "redis", "result", "hit");
+        this.redisMissCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "tier", "redis", "result", "miss");
+        this.sizeEvictionCounter = meterRegistry.counter(EVICTION_METRIC_NAME, "cause", "size");
+        this.expiredEvictionCounter = meterRegistry.counter(EVICTION_METRIC_NAME, "cause", "expired");
+        this.calledCounter = meterRegistry.counter(LOAD_METRIC_NAME, "result", "called");
+        this.remoteCounter = meterRegistry.counter(LOAD_METRIC_NAME, "result", "remote");
+        this.fallbackCounter = meterRegistry.counter(LOAD_METRIC_NAME, "result", "fallback");
+    }
+
+    /**
+     * Retrieve a fee quote for a single payment notice, requesting it to AFM on
+     * cache miss
+     *
+     * @param key   the canonical request key
+     * @param quote the AFM fee request
+     * @return the cached or the AFM fee quote
+     */
+    public Mono<BundleOptionDto> getFees(
+                                         String key,
+                                         Mono<BundleOptionDto> quote
+    ) {
+        return cached(key, BundleOptionDto.class, AfmFeeQuotes::reshuffled, quote);
+    }
+
+    /**
+     * Retrieve a fee quote for multiple payment notices, requesting it to AFM on
+     * cache miss
+     *
+     * @param key   the canonical request key
+     * @param quote the AFM fee request
+     * @return the cached or the AFM fee quote
+     */
+    public Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> getFeesForNotices(
+                                                                                            String key,
+                                                                                            Mono<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> quote
+    ) {
+        return cached(
+                key,
+                it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto.class,
+                AfmFeeQuotes::reshuffled,
+                quote
+        );
+    }
+
+    private <T> Mono<T> cached(
+                               String key,
+                               Class<T> quoteType,
+                               UnaryOperator<T> reshuffle,
+                               Mono<T> quote
+    ) {
+        if (!enabled && !redisEnabled) {
+            return quote;
+        }
+        return Mono.defer(() -> {
+            if (enabled) {
+                Object cached = quotes.getIfPresent(key);
+                if (quoteType.isInstance(cached)) {
+                    localHitCounter.increment();
+                    return Mono.just(reshuffle.apply(quoteType.cast(cached)));
+                }
+                localMissCounter.increment();
+            }
+            Mono<T> loaded = redisEnabled ? loadFromRedis(key, quoteType, reshuffle, quote) : quote;
+            // a copy is cached, since the returned quote may be modified by the caller
+            return enabled ? loaded.doOnNext(fetched -> quotes.put(key, reshuffle.apply(fetched))) : loaded;
+        });
+    }
+
+    private <T> Mono<T> loadFromRedis(
+                                      String key,
+                                      Class<T> quoteType,
+                                      UnaryOperator<T> reshuffle,
+                                      Mono<T> quote
+    ) {
+        return readRedis(key, quoteType)
+                .doOnNext(cached -> redisHitCounter.increment())
+                .map(reshuffle)
+                .switchIfEmpty(Mono.defer(() -> {
+                    redisMissCounter.increment();
+                    return loadWithLease(key, quoteType, reshuffle, quote);
+                }));
+    }
+
+    private <T> Mono<T> loadWithLease(
+                                      String key,
+                                      Class<T> quoteType,
+                                      UnaryOperator<T> reshuffle,
+                                      Mono<T> quote
+    ) {
+        String leaseKey = "%s:%s".formatted(LEASE_KEYSPACE, key);
+        String leaseToken = UUID.randomUUID().toString();
+        return redisLeases.opsForValue().setIfAbsent(leaseKey, leaseToken, leaseTtl)
+                .map(
+                        acquired -> acquired
+                                ? callAfmHoldingLease(key, quote, leaseKey, leaseToken)
+                                : awaitLeaseHolder(key, leaseKey, quoteType, reshuffle, quote)
+                )
+                .onErrorResume(error -> {
+                    log.warn("Cannot take AFM fee quote lease for key: {}", key, error);
+                    return Mono.just(callAfm(key, quote, fallbackCounter, Mono.empty()));
+                })
+                .flatMap(load -> load);
+    }
+
+    private <T> Mono<T> awaitLeaseHolder(
+                                         String key,
+                                         String leaseKey,
+                                         Class<T> quoteType,
+                                         UnaryOperator<T> reshuffle,
+                                         Mono<T> quote
+    ) {
+        return Flux.interval(pollInterval)
+                // ticks elapsed while a poll is in progress are skipped
+                .onBackpressureDrop()
+                // emits the stored quote, or an empty Optional once the lease is released
+                .concatMap(
+                        tick -> readRedis(key, quoteType)
+                                .map(Optional::of)
+                                .switchIfEmpty(
+                                        Mono.defer(
+                                                () -> redisLeases.hasKey(leaseKey)
+                                                        .filter(held -> !held)
+                                                        .map(released -> Optional.<T>empty())
+                                        )
+                                )
+                )
+                .next()
+                .timeout(leaseTtl, Mono.just(Optional.<T>empty()))
+                .onErrorResume(error -> {
+                    log.warn("Cannot wait for AFM fee quote lease for key: {}", key, error);
+                    return Mono.just(Optional.<T>empty());
+                })
+                .flatMap(stored -> {
+                    if (stored.isEmpty()) {
+                        return callAfm(key, quote, fallbackCounter, Mono.empty());
+                    }
+                    remoteCounter.increment();
+                    return Mono.just(reshuffle.apply(stored.get()));
+                });
+    }
+
+    /**
+     * Call AFM as lease holder, releasing the lease once the quote is stored or,
+     * whatever the AFM call outcome (error, no quote, cancellation), once the call
+     * terminates
+     */
+    private <T> Mono<T> callAfmHoldingLease(
+                                            String key,
+                                            Mono<T> quote,
+                                            String leaseKey,
+                                            String leaseToken
+    ) {
+        return Mono.defer(() -> {
+            AtomicBoolean released = new AtomicBoolean();
+            Mono<Void> release = Mono.defer(
+                    () -> released.compareAndSet(false, true) ? releaseLease(leaseKey, leaseToken) : Mono.empty()
+            );
+            return callAfm(key, quote, calledCounter, release)
+                    .onErrorResume(error -> release.then(Mono.error(error)))
+                    // cancellations and empty AFM responses
+                    .doFinally(signal -> release.subscribe());
+        });
+    }
+
+    private <T> Mono<T> callAfm(
+                                String key,
+                                Mono<T> quote,
+                                Counter counter,
+                                Mono<Void> afterStored
+    ) {
+        return Mono.defer(() -> {
+            counter.increment();
+            return quote;
+        })
+                .flatMap(fetched -> writeRedis(key, fetched).then(afterStored).thenReturn(fetched));
+    }
+
+    private <T> Mono<T> readRedis(
+                                  String key,
+                                  Class<T> quoteType
+    ) {
+        return redisQuotes.opsForValue().get("%s:%s".formatted(QUOTES_KEYSPACE, key))
+                .map(bytes -> AfmFeeQuoteEncoding.decode(bytes, quoteType))
+                .onErrorResume(error -> {
+                    log.warn("Cannot read AFM fee quote from Redis for key: {}", key, error);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> writeRedis(
+                                  String key,
+                                  Object quote
+    ) {
+        return Mono.fromCallable(() -> AfmFeeQuoteEncoding.encode(quote))
+                .flatMap(
+                        bytes -> redisQuotes.opsForValue().set("%s:%s".formatted(QUOTES_KEYSPACE, key), bytes, redisTtl)
+                )
+                .then()
+                .onErrorResume(error -> {
+                    log.warn("Cannot write AFM fee quote to Redis for key: {}", key, error);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> releaseLease(
+                                    String leaseKey,
+                                    String leaseToken
+    ) {
+        return redisLeases.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), List.of(leaseToken))
+                .then()
+                .onErrorResume(error -> {
+                    // the lease expires anyway after its TTL
+                    log.warn("Cannot release AFM fee quote lease {}", leaseKey, error);
+                    return Mono.empty();
+                });
+    }
+
+    private void onEviction(RemovalCause cause) {
+        switch (cause) {
+            case SIZE -> sizeEvictionCounter.increment();
+            case EXPIRED -> expiredEvictionCounter.increment();
+            default -> log.debug("AFM fee quote removed from cache with cause: [{}]", cause);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact encoding of AFM fee quotes stored into Redis: quotes are written as
+ * JSON without null values, gzip compressed. Since bundles of the same quote
+ * share most of their property names and many values, compression shrinks
+ * quotes to a fraction of their JSON size. Plain JSON quotes are read as well.
+ * The encoding does not depend on the quote fields, so that all the fields
+ * returned by AFM are kept.
+ */
+final class AfmFeeQuoteEncoding {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final byte GZIP_MAGIC_FIRST_BYTE = (byte) 0x1f;
+
+    private AfmFeeQuoteEncoding() {
+    }
+
+    /**
+     * Encode a fee quote
+     *
+     * @param quote the fee quote
+     * @return the encoded quote
+     */
+    static byte[] encode(Object quote) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+            OBJECT_MAPPER.writeValue(gzip, quote);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot encode AFM fee quote", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a fee quote
+     *
+     * @param bytes     the encoded quote
+     * @param quoteType the quote type
+     * @param <T>       the quote type
+     * @return the decoded quote
+     */
+    static <T> T decode(
+                        byte[] bytes,
+                        Class<T> quoteType
+    ) {
+        try (
+                InputStream input = bytes.length > 0 && bytes[0] == GZIP_MAGIC_FIRST_BYTE
+                        ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                        : new ByteArrayInputStream(bytes)) {
+            return OBJECT_MAPPER.readValue(input, quoteType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot decode AFM fee quote", e);
+        }
+    }
+}
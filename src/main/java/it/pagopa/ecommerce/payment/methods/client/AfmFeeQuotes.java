@@ -0,0 +1,98 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.TransferDto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * AFM fee quotes served to more than one caller, either from cache or shared by
+ * coalesced requests, must be copied, since callers may modify them (see
+ * {@code BundleOptions#removeDuplicatePsp}). AFM returns bundles sorted by fee,
+ * with bundles having the same fee in random order so that no PSP is favoured:
+ * to preserve such fairness, quotes are copied reshuffling their bundles within
+ * each group of bundles with the same fee, as a new AFM call would do.
+ */
+final class AfmFeeQuotes {
+
+    private AfmFeeQuotes() {
+    }
+
+    /**
+     * Copy a fee quote, shuffling its bundles within each group of consecutive
+     * bundles with the same fee and on-us flag
+     *
+     * @param quote the fee quote
+     * @return the reshuffled copy
+     */
+    static BundleOptionDto reshuffled(BundleOptionDto quote) {
+        return new BundleOptionDto()
+                .belowThreshold(quote.getBelowThreshold())
+                .bundleOptions(
+                        shuffleEqualFeeGroups(
+                                quote.getBundleOptions(),
+                                TransferDto::getTaxPayerFee,
+                                TransferDto::getOnUs
+                        )
+                );
+    }
+
+    /**
+     * Copy a fee quote, shuffling its bundles within each group of consecutive
+     * bundles with the same fee and on-us flag
+     *
+     * @param quote the fee quote
+     * @return the reshuffled copy
+     */
+    static it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto reshuffled(
+                                                                               it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto quote
+    ) {
+        return new it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto()
+                .belowThreshold(quote.getBelowThreshold())
+                .bundleOptions(
+                        shuffleEqualFeeGroups(
+                                quote.getBundleOptions(),
+                                it.pagopa.generated.ecommerce.gec.v2.dto.TransferDto::getTaxPayerFee,
+                                it.pagopa.generated.ecommerce.gec.v2.dto.TransferDto::getOnUs
+                        )
+                );
+    }
+
+    /**
+     * Shuffle every group of consecutive bundles with the same fee and on-us flag,
+     * keeping the groups order
+     */
+    private static <T> List<T> shuffleEqualFeeGroups(
+                                                     List<T> bundles,
+                                                     Function<T, Long> fee,
+                                                     Function<T, Boolean> onUs
+    ) {
+        if (bundles == null) {
+            return null;
+        }
+        List<T> shuffled = new ArrayList<>(bundles);
+        int groupStart = 0;
+        for (int i = 1; i <= shuffled.size(); i++) {
+            if (i == shuffled.size() || !sameGroup(shuffled.get(groupStart), shuffled.get(i), fee, onUs)) {
+                Collections.shuffle(shuffled.subList(groupStart, i), ThreadLocalRandom.current());
+                groupStart = i;
+            }
+        }
+        return shuffled;
+    }
+
+    private static <T> boolean sameGroup(
+                                         T first,
+                                         T second,
+                                         Function<T, Long> fee,
+                                         Function<T, Boolean> onUs
+    ) {
+        return Objects.equals(fee.apply(first), fee.apply(second))
+                && Objects.equals(onUs.apply(first), onUs.apply(second));
+    }
+}
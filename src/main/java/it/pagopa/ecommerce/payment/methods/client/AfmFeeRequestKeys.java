@@ -0,0 +1,100 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PaymentOptionDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.PaymentOptionMultiDto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Canonical keys of AFM fee requests: two requests have the same key if and
+ * only if AFM computes the same fees for them. The key is the SHA-256 hash of
+ * the request JSON with sorted properties and without null values, along with
+ * the query parameters, so that it does not depend on properties ordering.
+ * Since the PSP list is a filter, PSPs are sorted as well.
+ */
+public final class AfmFeeRequestKeys {
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {
+    };
+
+    private static final String ID_PSP_LIST = "idPspList";
+
+    private AfmFeeRequestKeys() {
+    }
+
+    /**
+     * Canonical key of a fee request for a single payment notice
+     *
+     * @param paymentOptionDto the fee request
+     * @param maxOccurrences   the max number of returned bundles
+     * @param allCCP           the allCcp flag
+     * @return the canonical request key
+     */
+    public static String feesKey(
+                                 PaymentOptionDto paymentOptionDto,
+                                 Integer maxOccurrences,
+                                 boolean allCCP
+    ) {
+        return canonicalKey("v1", paymentOptionDto, maxOccurrences, allCCP);
+    }
+
+    /**
+     * Canonical key of a fee request for multiple payment notices
+     *
+     * @param paymentOptionMultiDto the fee request
+     * @param maxOccurrences        the max number of returned bundles
+     * @param allCCP                the allCcp flag
+     * @return the canonical request key
+     */
+    public static String feesForNoticesKey(
+                                           PaymentOptionMultiDto paymentOptionMultiDto,
+                                           Integer maxOccurrences,
+                                           boolean allCCP
+    ) {
+        return canonicalKey("v2", paymentOptionMultiDto, maxOccurrences, allCCP);
+    }
+
+    private static String canonicalKey(
+                                       String version,
+                                       Object request,
+                                       Integer maxOccurrences,
+                                       boolean allCCP
+    ) {
+        Map<String, Object> body = CANONICAL_MAPPER.convertValue(request, JSON_OBJECT);
+        if (body.get(ID_PSP_LIST)instanceof List<?> idPspList) {
+            body.put(
+                    ID_PSP_LIST,
+                    idPspList.stream()
+                            .sorted(Comparator.comparing(Objects::toString))
+                            .toList()
+            );
+        }
+        Map<String, Object> canonicalRequest = new LinkedHashMap<>();
+        canonicalRequest.put("allCcp", allCCP);
+        canonicalRequest.put("maxOccurrences", maxOccurrences);
+        canonicalRequest.put("request", body);
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(CANONICAL_MAPPER.writeValueAsBytes(canonicalRequest));
+            return version + ":" + HexFormat.of().formatHex(hash);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot compute AFM fee request key", e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging policy of the AFM requests of an API: if AFM has not answered within
+ * the configured percentile of the latency observed in the last minutes, an
+ * identical request is sent, the first response wins and the other request is
+ * cancelled. A failed hedged request never fails the call, that keeps waiting
+ * for the original request. Hedged requests are capped by a budget: every
+ * request adds the configured percentage of a hedged request to the budget, up
+ * to {@value #MAX_BUDGETED_HEDGES} hedged requests, so that hedging adds at
+ * most that percentage of extra requests to AFM. The latency distribution is
+ * kept in-process by the {@value #LATENCY_METRIC_NAME} timer, tagged by
+ * {@code api}, that also exports it. Hedged requests are counted into the
+ * {@value #HEDGES_METRIC_NAME} metric by {@code result}: {@code sent},
+ * {@code won} when the hedged request answered first, {@code throttled} when
+ * the budget was exhausted.
+ */
+@Slf4j
+class AfmHedging {
+
+    static final String LATENCY_METRIC_NAME = "afm.fee.latency";
+
+    static final String HEDGES_METRIC_NAME = "afm.fee.hedges";
+
+    static final int MAX_BUDGETED_HEDGES = 10;
+
+    /**
+     * Budget units of a single hedged request, so that budget percentages are kept
+     * as integers
+     */
+    private static final long HEDGE_COST = 100;
+
+    private final boolean enabled;
+
+    private final double percentile;
+
+    private final long budgetPerRequest;
+
+    private final Duration minDelay;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer latency;
+
+    private final AtomicLong budget = new AtomicLong();
+
+    private final Counter sentCounter;
+
+    private final Counter wonCounter;
+
+    private final Counter throttledCounter;
+
+    AfmHedging(
+            MeterRegistry meterRegistry,
+            String api,
+            boolean enabled,
+            double percentile,
+            int budgetPercent,
+            long minDelayMillis
+    ) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.budgetPerRequest = budgetPercent;
+        this.minDelay = Duration.ofMillis(minDelayMillis);
+        this.meterRegistry = meterRegistry;
+        this.latency = Timer.builder(LATENCY_METRIC_NAME)
+                .tag("api", api)
+                .publishPercentiles(percentile)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.sentCounter = meterRegistry.counter(HEDGES_METRIC_NAME, "api", api, "result", "sent");
+        this.wonCounter = meterRegistry.counter(HEDGES_METRIC_NAME, "api", api, "result", "won");
+        this.throttledCounter = meterRegistry.counter(HEDGES_METRIC_NAME, "api", api, "result", "throttled");
+    }
+
+    /**
+     * Perform the input request, hedging it if AFM does not answer within the
+     * hedging delay
+     *
+     * @param request the AFM request, performing a new call on every subscription
+     * @param <T>     the quote type
+     * @return the hedged request
+     */
+    <T> Mono<T> hedged(Mono<T> request) {
+        Mono<T> timedRequest = timed(request);
+        if (!enabled) {
+            return timedRequest;
+        }
+        return Mono.defer(() -> {
+            budget.updateAndGet(available -> Math.min(available + budgetPerRequest, MAX_BUDGETED_HEDGES * HEDGE_COST));
+            Duration delay = hedgingDelay();
+            if (delay == null) {
+                return timedRequest;
+            }
+            return Mono.firstWithSignal(
+                    timedRequest,
+                    Mono.delay(delay).flatMap(ignored -> hedge(timedRequest, delay))
+            );
+        });
+    }
+
+    private <T> Mono<T> hedge(
+                              Mono<T> timedRequest,
+                              Duration delay
+    ) {
+        if (budget
+                .getAndUpdate(available -> available >= HEDGE_COST ? available - HEDGE_COST : available) < HEDGE_COST) {
+            throttledCounter.increment();
+            return Mono.never();
+        }
+        log.debug("AFM did not answer within {} ms, sending hedged request", delay.toMillis());
+        sentCounter.increment();
+        return timedRequest
+                .doOnSuccess(ignored -> wonCounter.increment())
+                .onErrorResume(error -> {
+                    log.warn("Hedged AFM request failed, waiting for the original request", error);
+                    return Mono.never();
+                });
+    }
+
+    /**
+     * @return the configured percentile of the recently observed latency, not lower
+     *         than the configured min delay, or {@code null} if no latency has been
+     *         observed recently
+     */
+    private Duration hedgingDelay() {
+        double percentileMillis = Arrays.stream(latency.takeSnapshot().percentileValues())
+                .filter(value -> value.percentile() == percentile)
+                .mapToDouble(value -> value.value(TimeUnit.MILLISECONDS))
+                .findFirst()
+                .orElse(0);
+        if (percentileMillis <= 0) {
+            return null;
+        }
+        Duration delay = Duration.ofMillis((long) Math.ceil(percentileMillis));
+        return delay.compareTo(minDelay) < 0 ? minDelay : delay;
+    }
+
+    /**
+     * Record the latency of the successful requests. Cancelled requests are not
+     * recorded, their latency being unknown
+     */
+    private <T> Mono<T> timed(Mono<T> request) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return request.doOnSuccess(ignored -> sample.stop(latency));
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Identical AFM requests, by canonical request key, in-flight at the same time
+ * share a single AFM call: requests received while the call is in-flight are
+ * attached to it, and the call is cancelled only once all its callers have
+ * cancelled. Each caller receives its own copy of the shared quote (see
+ * {@link AfmFeeQuotes}). Since only in-flight calls are shared, callers never
+ * receive stale quotes. AFM requests are counted into the
+ * {@value #REQUESTS_METRIC_NAME} metric by {@code result}: {@code called} when
+ * the request has been performed, {@code coalesced} when the request joined an
+ * identical in-flight one, so that the coalescing ratio is the
+ * {@code coalesced} share of the total.
+ */
+class AfmInFlightRequests {
+
+    static final String REQUESTS_METRIC_NAME = "afm.fee.requests";
+
+    private final boolean enabled;
+
+    /**
+     * In-flight AFM requests by canonical request key, whose version prefix
+     * identifies the quote type
+     */
+    private final Map<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter calledCounter;
+
+    private final Counter coalescedCounter;
+
+    AfmInFlightRequests(
+            MeterRegistry meterRegistry,
+            boolean enabled
+    ) {
+        this.enabled = enabled;
+        this.calledCounter = meterRegistry.counter(REQUESTS_METRIC_NAME, "result", "called");
+        this.coalescedCounter = meterRegistry.counter(REQUESTS_METRIC_NAME, "result", "coalesced");
+    }
+
+    /**
+     * Join the in-flight request with the same key, if any, or perform the input
+     * request sharing it with the identical requests received until it completes
+     *
+     * @param key     the canonical request key
+     * @param request the AFM request
+     * @param copy    the quote copy function
+     * @param <T>     the quote type
+     * @return the shared AFM request, emitting a copy of the quote to each caller
+     */
+    @SuppressWarnings("unchecked")
+    <T> Mono<T> coalesced(
+                          String key,
+                          Mono<T> request,
+                          UnaryOperator<T> copy
+    ) {
+        if (!enabled) {
+            return request;
+        }
+        return Mono.defer(() -> {
+            Mono<T> shared = share(key, request);
+            Mono<T> inFlightRequest = (Mono<T>) inFlight.putIfAbsent(key, shared);
+            if (inFlightRequest == null) {
+                calledCounter.increment();
+                inFlightRequest = shared;
+            } else {
+                coalescedCounter.increment();
+            }
+            return inFlightRequest.map(copy);
+        });
+    }
+
+    private <T> Mono<T> share(
+                              String key,
+                              Mono<T> request
+    ) {
+        AtomicReference<Mono<T>> shared = new AtomicReference<>();
+        shared.set(
+                request
+                        // removed once completed, or cancelled by all its callers, so that later
+                        // requests call AFM again
+                        .doFinally(signal -> inFlight.remove(key, shared.get()))
+                        .flux()
+                        // the upstream request is cancelled once no caller is subscribed anymore,
+                        // while callers joining after the response get it replayed
+                        .replay(1)
+                        .refCount(1)
+                        .singleOrEmpty()
+        );
+        return shared.get();
+    }
+
+    /**
+     * @return the number of in-flight AFM requests
+     */
+    int size() {
+        return inFlight.size();
+    }
+}
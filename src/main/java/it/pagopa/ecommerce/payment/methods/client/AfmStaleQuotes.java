@@ -0,0 +1,105 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+
+/**
+ * Last known good AFM fee quotes, keyed by the canonical request key computed
+ * by {@link AfmFeeRequestKeys}, kept up to the configured max staleness. When
+ * an AFM call is rejected by the {@link AfmCircuitBreaker}, the last good quote
+ * for the same request is served instead, if any, so that checkout keeps
+ * working while AFM is degraded. Quotes are stored and served as copies (see
+ * {@link AfmFeeQuotes}). Rejected calls are counted into the
+ * {@value #STALE_METRIC_NAME} metric by {@code result}: {@code served} when a
+ * stale quote has been served, {@code missing} otherwise.
+ */
+@Component
+@Slf4j
+public class AfmStaleQuotes {
+
+    static final String STALE_METRIC_NAME = "afm.fee.stale";
+
+    private final boolean enabled;
+    private final Cache<String, Object> quotes;
+    private final Counter servedCounter;
+    private final Counter missingCounter;
+
+    @Autowired
+    public AfmStaleQuotes(
+            MeterRegistry meterRegistry,
+            @Value("${afm.staleQuotes.enabled}") boolean enabled,
+            @Value("${afm.staleQuotes.maxSize}") long maxSize,
+            @Value("${afm.staleQuotes.maxStalenessSeconds}") long maxStalenessSeconds
+    ) {
+        this.enabled = enabled;
+        this.quotes = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(maxStalenessSeconds))
+                .build();
+        this.servedCounter = meterRegistry.counter(STALE_METRIC_NAME, "result", "served");
+        this.missingCounter = meterRegistry.counter(STALE_METRIC_NAME, "result", "missing");
+    }
+
+    /**
+     * Record the quotes returned by the input AFM call as the last good ones
+     *
+     * @param key   the canonical request key
+     * @param quote the AFM call
+     * @param copy  the quote copy function
+     * @param <T>   the quote type
+     * @return the AFM call recording its quote
+     */
+    <T> Mono<T> recorded(
+                         String key,
+                         Mono<T> quote,
+                         UnaryOperator<T> copy
+    ) {
+        if (!enabled) {
+            return quote;
+        }
+        return quote.doOnNext(value -> quotes.put(key, copy.apply(value)));
+    }
+
+    /**
+     * Serve the last good quote for the same request if the input quote request is
+     * rejected by the circuit breaker
+     *
+     * @param key   the canonical request key
+     * @param quote the quote request
+     * @param copy  the quote copy function
+     * @param <T>   the quote type
+     * @return the quote, or the last good one if the request has been rejected
+     */
+    @SuppressWarnings("unchecked")
+    <T> Mono<T> staleIfNotPermitted(
+                                    String key,
+                                    Mono<T> quote,
+                                    UnaryOperator<T> copy
+    ) {
+        if (!enabled) {
+            return quote;
+        }
+        return quote.onErrorResume(AfmCallNotPermittedException.class, error -> {
+            // the version prefix of the key identifies the quote type
+            T staleQuote = (T) quotes.getIfPresent(key);
+            if (staleQuote == null) {
+                missingCounter.increment();
+                return Mono.error(error);
+            }
+            log.warn("AFM call not permitted: [{}], serving last good fee quote", error.reason);
+            servedCounter.increment();
+            return Mono.just(copy.apply(staleQuote));
+        });
+    }
+}
@@ -0,0 +1,133 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Concurrency cap of outbound calls: up to the current max number of calls are
+ * in-flight at the same time, further calls wait in a bounded queue for a call
+ * to complete, and calls exceeding the queue are rejected right away instead of
+ * piling up on a degraded upstream. The max number of in-flight calls can
+ * change over time: queued calls are granted as soon as in-flight calls
+ * complete below it.
+ */
+class CallPermits {
+
+    /**
+     * Permit of a call, to be released once the call is over. Releasing a permit
+     * not granted yet, or more than once, has no effect
+     */
+    final class Permit {
+
+        private boolean granted;
+
+        private boolean cancelled;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            boolean isGranted;
+            synchronized (CallPermits.this) {
+                isGranted = granted;
+            }
+            if (isGranted && released.compareAndSet(false, true)) {
+                handOver();
+            }
+        }
+    }
+
+    private record Waiter(
+            MonoSink<Permit> sink,
+            Permit permit
+    ) {
+    }
+
+    private final IntSupplier maxConcurrentCalls;
+
+    private final int maxQueuedCalls;
+
+    private final Queue<Waiter> waiters = new ArrayDeque<>();
+
+    private int activeCalls;
+
+    CallPermits(
+            IntSupplier maxConcurrentCalls,
+            int maxQueuedCalls
+    ) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+    }
+
+    /**
+     * Acquire a call permit
+     *
+     * @return the permit, emitted once a call slot is available, or an empty
+     *         {@link Mono} if the queue is full
+     */
+    Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(sink, new Permit());
+            Permit permit = waiter.permit();
+            // a caller cancelled while queued leaves the queue, one cancelled after
+            // being granted a permit releases it
+            sink.onCancel(() -> {
+                synchronized (this) {
+                    if (waiters.remove(waiter)) {
+                        return;
+                    }
+                    permit.cancelled = true;
+                }
+                permit.release();
+            });
+            boolean rejected = false;
+            synchronized (this) {
+                if (permit.cancelled) {
+                    return;
+                }
+                if (activeCalls < maxConcurrentCalls.getAsInt()) {
+                    activeCalls++;
+                    permit.granted = true;
+                } else if (waiters.size() < maxQueuedCalls) {
+                    waiters.add(waiter);
+                    return;
+                } else {
+                    rejected = true;
+                }
+            }
+            if (rejected) {
+                sink.success();
+            } else {
+                sink.success(permit);
+            }
+        });
+    }
+
+    synchronized int activeCalls() {
+        return activeCalls;
+    }
+
+    synchronized int queuedCalls() {
+        return waiters.size();
+    }
+
+    private void handOver() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            activeCalls--;
+            while (activeCalls < maxConcurrentCalls.getAsInt() && !waiters.isEmpty()) {
+                Waiter next = waiters.poll();
+                next.permit().granted = true;
+                activeCalls++;
+                granted.add(next);
+            }
+        }
+        granted.forEach(waiter -> waiter.sink().success(waiter.permit()));
+    }
+}
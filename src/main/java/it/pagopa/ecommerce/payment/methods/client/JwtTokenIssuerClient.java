@@ -4,6 +4,7 @@ import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.api.JwtIssuerApi;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenRequestDto;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenResponseDto;
 import it.pagopa.ecommerce.payment.methods.exception.JwtIssuerResponseException;
+import it.pagopa.ecommerce.payment.methods.exception.UpstreamConcurrencyLimitException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -18,16 +19,37 @@ public class JwtTokenIssuerClient {
 
     private final JwtIssuerApi jwtIssuerWebClient;
 
+    private final LocalJwtTokenMinter localJwtTokenMinter;
+
     @Autowired
-    public JwtTokenIssuerClient(@Qualifier("jwtIssuerWebClient") JwtIssuerApi jwtIssuerWebClient) {
+    public JwtTokenIssuerClient(
+            @Qualifier("jwtIssuerWebClient") JwtIssuerApi jwtIssuerWebClient,
+            LocalJwtTokenMinter localJwtTokenMinter
+    ) {
         this.jwtIssuerWebClient = jwtIssuerWebClient;
+        this.localJwtTokenMinter = localJwtTokenMinter;
     }
 
+    /**
+     * Create a JWT token, minting it in process if the local minter is enabled and
+     * has a signing key, calling the JWT issuer service otherwise
+     *
+     * @param createTokenRequestDto the token request
+     * @return the created token
+     */
     public Mono<CreateTokenResponseDto> createJWTToken(CreateTokenRequestDto createTokenRequestDto) {
+        return localJwtTokenMinter.mint(createTokenRequestDto)
+                .map(token -> Mono.just(new CreateTokenResponseDto().token(token)))
+                .orElseGet(() -> createRemoteJWTToken(createTokenRequestDto));
+    }
+
+    private Mono<CreateTokenResponseDto> createRemoteJWTToken(CreateTokenRequestDto createTokenRequestDto) {
         return jwtIssuerWebClient.createJwtToken(createTokenRequestDto).doOnError(
                 WebClientResponseException.class,
                 JwtTokenIssuerClient::logWebClientException
         ).onErrorMap(
+                // calls rejected by the concurrency limiter are reported as such
+                err -> !(err instanceof UpstreamConcurrencyLimitException),
                 err -> new JwtIssuerResponseException(
                         HttpStatus.BAD_GATEWAY,
                         "Error while invoke method for create jwt token"
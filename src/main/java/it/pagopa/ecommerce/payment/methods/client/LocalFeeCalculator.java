@@ -0,0 +1,249 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
+import it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PaymentOptionDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PspSearchCriteriaDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.TransferDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.PaymentNoticeItemDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.PaymentOptionMultiDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * In-process approximation of the AFM fee calculator, computed over the PSPs
+ * loaded by {@link PspCatalog}: the quote for a payment type, amount and
+ * language is made of one bundle for each PSP configured for the payment type
+ * and language whose amount range contains the amount, with the PSP fixed cost
+ * as fee, cheapest first. Creditor institution agreements, touchpoints and
+ * on-us bundles are not known locally, so quotes are approximate.
+ * <p>
+ * Local quotes are used by {@link AfmClient} as degraded-mode fallback: when an
+ * AFM call fails because AFM is unavailable or the {@link AfmCircuitBreaker}
+ * rejected it, and no last good quote is available from {@link AfmStaleQuotes},
+ * the local quote is served instead, if not empty. Fallbacks are counted into
+ * the {@value #LOCAL_METRIC_NAME} metric by {@code result}: {@code served} when
+ * a local quote has been served, {@code missing} otherwise.
+ */
+@Component
+@Slf4j
+public class LocalFeeCalculator {
+
+    static final String LOCAL_METRIC_NAME = "afm.fee.local";
+
+    private static final Comparator<PspDocument> CHEAPEST_FIRST = Comparator
+            .comparingLong(PspDocument::getPspFixedCost)
+            .thenComparing(psp -> psp.getPspDocumentKey().getPspCode());
+
+    private final PspCatalog pspCatalog;
+    private final boolean fallbackEnabled;
+    private final String languageCode;
+    private final Counter servedCounter;
+    private final Counter missingCounter;
+
+    @Autowired
+    public LocalFeeCalculator(
+            PspCatalog pspCatalog,
+            MeterRegistry meterRegistry,
+            @Value("${afm.localFallback.enabled}") boolean fallbackEnabled,
+            @Value("${afm.localFallback.languageCode}") String languageCode
+    ) {
+        this.pspCatalog = pspCatalog;
+        this.fallbackEnabled = fallbackEnabled;
+        this.languageCode = languageCode;
+        this.servedCounter = meterRegistry.counter(LOCAL_METRIC_NAME, "result", "served");
+        this.missingCounter = meterRegistry.counter(LOCAL_METRIC_NAME, "result", "missing");
+    }
+
+    /**
+     * Compute the cheapest PSPs for the input payment
+     *
+     * @param paymentTypeCode the payment type code
+     * @param amount          the payment amount
+     * @param languageCode    the PSP language code
+     * @param idPsps          the PSPs to be considered, all if empty
+     * @param maxOccurrences  the max number of returned PSPs, unlimited if null
+     * @return the cheapest PSPs, one for each PSP code, or an empty list if the PSP
+     *         catalog has not been loaded
+     */
+    public List<PspDocument> cheapestPsps(
+                                          String paymentTypeCode,
+                                          long amount,
+                                          String languageCode,
+                                          Set<String> idPsps,
+                                          Integer maxOccurrences
+    ) {
+        Optional<PspIndex> index = pspCatalog.currentIndex();
+        if (index.isEmpty()) {
+            return List.of();
+        }
+        Map<String, PspDocument> cheapestByPspCode = new HashMap<>();
+        for (PspDocument psp : index.get().find(amount, languageCode, paymentTypeCode)) {
+            String pspCode = psp.getPspDocumentKey().getPspCode();
+            if (idPsps.isEmpty() || idPsps.contains(pspCode)) {
+                cheapestByPspCode.merge(
+                        pspCode,
+                        psp,
+                        (
+                         first,
+                         second
+                        ) -> CHEAPEST_FIRST.compare(first, second) <= 0 ? first : second
+                );
+            }
+        }
+        return cheapestByPspCode.values().stream()
+                .sorted(CHEAPEST_FIRST)
+                .limit(maxOccurrences == null ? Long.MAX_VALUE : maxOccurrences)
+                .toList();
+    }
+
+    /**
+     * Compute the local quote for the input AFM fee request
+     *
+     * @param paymentOptionDto the AFM fee request
+     * @param maxOccurrences   the max number of returned bundles
+     * @return the local quote, empty if no PSP matches the request
+     */
+    public Optional<BundleOptionDto> getFees(
+                                             PaymentOptionDto paymentOptionDto,
+                                             Integer maxOccurrences
+    ) {
+        List<PspDocument> psps = cheapestPsps(
+                paymentOptionDto.getPaymentMethod(),
+                Optional.ofNullable(paymentOptionDto.getPaymentAmount()).orElse(0L),
+                languageCode,
+                idPsps(
+                        Optional.ofNullable(paymentOptionDto.getIdPspList()).orElse(List.of()).stream()
+                                .map(PspSearchCriteriaDto::getIdPsp)
+                                .toList()
+                ),
+                maxOccurrences
+        );
+        if (psps.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(
+                new BundleOptionDto()
+                        .belowThreshold(false)
+                        .bundleOptions(
+                                psps.stream()
+                                        .map(
+                                                psp -> new TransferDto()
+                                                        .taxPayerFee(psp.getPspFixedCost())
+                                                        .primaryCiIncurredFee(0L)
+                                                        .paymentMethod(psp.getPspDocumentKey().getPspPaymentTypeCode())
+                                                        .touchpoint(paymentOptionDto.getTouchpoint())
+                                                        .bundleName(psp.getPspBusinessName())
+                                                        .bundleDescription(psp.getPspDescription())
+                                                        .idPsp(psp.getPspDocumentKey().getPspCode())
+                                                        .idChannel(psp.getPspDocumentKey().getPspChannelCode())
+                                                        .idBrokerPsp(psp.getPspBrokerName())
+                                                        .onUs(false)
+                                                        .pspBusinessName(psp.getPspBusinessName())
+                                        )
+                                        .collect(Collectors.toCollection(ArrayList::new))
+                        )
+        );
+    }
+
+    /**
+     * Compute the local quote for the input AFM multi-notice fee request, whose
+     * amount is the sum of the notices amounts
+     *
+     * @param paymentOptionDto the AFM multi-notice fee request
+     * @param maxOccurrences   the max number of returned bundles
+     * @return the local quote, empty if no PSP matches the request
+     */
+    public Optional<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> getFeesForNotices(
+                                                                                                PaymentOptionMultiDto paymentOptionDto,
+                                                                                                Integer maxOccurrences
+    ) {
+        List<PspDocument> psps = cheapestPsps(
+                paymentOptionDto.getPaymentMethod(),
+                Optional.ofNullable(paymentOptionDto.getPaymentNotice()).orElse(List.of()).stream()
+                        .map(PaymentNoticeItemDto::getPaymentAmount)
+                        .filter(Objects::nonNull)
+                        .mapToLong(Long::longValue)
+                        .sum(),
+                languageCode,
+                idPsps(
+                        Optional.ofNullable(paymentOptionDto.getIdPspList()).orElse(List.of()).stream()
+                                .map(it.pagopa.generated.ecommerce.gec.v2.dto.PspSearchCriteriaDto::getIdPsp)
+                                .toList()
+                ),
+                maxOccurrences
+        );
+        if (psps.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(
+                new it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto()
+                        .belowThreshold(false)
+                        .bundleOptions(
+                                psps.stream()
+                                        .map(
+                                                psp -> new it.pagopa.generated.ecommerce.gec.v2.dto.TransferDto()
+                                                        .taxPayerFee(psp.getPspFixedCost())
+                                                        .actualPayerFee(psp.getPspFixedCost())
+                                                        .paymentMethod(psp.getPspDocumentKey().getPspPaymentTypeCode())
+                                                        .touchpoint(paymentOptionDto.getTouchpoint())
+                                                        .bundleName(psp.getPspBusinessName())
+                                                        .bundleDescription(psp.getPspDescription())
+                                                        .idPsp(psp.getPspDocumentKey().getPspCode())
+                                                        .idChannel(psp.getPspDocumentKey().getPspChannelCode())
+                                                        .idBrokerPsp(psp.getPspBrokerName())
+                                                        .onUs(false)
+                                                        .pspBusinessName(psp.getPspBusinessName())
+                                        )
+                                        .collect(Collectors.toCollection(ArrayList::new))
+                        )
+        );
+    }
+
+    /**
+     * Serve the local quote if the input AFM quote request fails because AFM is
+     * unavailable or the call has been rejected
+     *
+     * @param quote      the AFM quote request
+     * @param localQuote the local quote computation
+     * @param <T>        the quote type
+     * @return the quote, or the local one if AFM is unavailable
+     */
+    <T> Mono<T> localIfUnavailable(
+                                   Mono<T> quote,
+                                   Supplier<Optional<T>> localQuote
+    ) {
+        if (!fallbackEnabled) {
+            return quote;
+        }
+        return quote.onErrorResume(
+                error -> error instanceof AfmCallNotPermittedException || AfmCircuitBreaker.isFailure(error),
+                error -> {
+                    Optional<T> local = localQuote.get();
+                    if (local.isEmpty()) {
+                        missingCounter.increment();
+                        return Mono.error(error);
+                    }
+                    log.warn("AFM unavailable: [{}], serving locally computed fee quote", error.toString());
+                    servedCounter.increment();
+                    return Mono.just(local.get());
+                }
+        );
+    }
+
+    private static Set<String> idPsps(List<String> idPsps) {
+        return idPsps.stream().filter(Objects::nonNull).collect(Collectors.toUnmodifiableSet());
+    }
+}
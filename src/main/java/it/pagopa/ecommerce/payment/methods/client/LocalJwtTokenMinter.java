@@ -0,0 +1,214 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenRequestDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Mint JWT tokens in process, as an alternative to the JWT issuer service call.
+ * Tokens are signed, through the JJWT library, with a private key read from the
+ * configured keys directory, holding PKCS#8 PEM encoded RSA or EC P-256 private
+ * keys named <code>&lt;kid&gt;.pem</code>. The signing key is selected by the
+ * key id written in the {@value #ACTIVE_KEY_ID_FILE} file of the same
+ * directory, never guessed from the key files: keys are rotated explicitly by
+ * adding the new key file and then updating the active key id, picked up by the
+ * periodic reload of the directory. The public key of every key file must be
+ * published by the JWT issuer service under the same key id, so that tokens
+ * minted here are validated as the ones created by the JWT issuer service.
+ * Minted tokens are counted into the {@value #MINT_METRIC_NAME} metric by
+ * {@code result}: {@code minted}, {@code unavailable} when no signing key is
+ * loaded or {@code error} when signing fails.
+ */
+@Component
+@Slf4j
+public class LocalJwtTokenMinter {
+
+    static final String MINT_METRIC_NAME = "jwt.local.minter.tokens";
+
+    static final String ACTIVE_KEY_ID_FILE = "active-kid";
+
+    private static final Pattern KEY_ID_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private record SigningKey(
+            String keyId,
+            PrivateKey privateKey,
+            SignatureAlgorithm algorithm
+    ) {
+    }
+
+    private final boolean enabled;
+    private final Path keysPath;
+    private final String issuer;
+    private final Duration reloadInterval;
+    private final Clock clock;
+    private final AtomicReference<SigningKey> signingKey = new AtomicReference<>();
+    private final Counter mintedCounter;
+    private final Counter unavailableCounter;
+    private final Counter errorCounter;
+    private Disposable reloading;
+
+    @Autowired
+    public LocalJwtTokenMinter(
+            MeterRegistry meterRegistry,
+            @Value("${jwtissuer.localMinter.enabled}") boolean enabled,
+            @Value("${jwtissuer.localMinter.keysPath}") String keysPath,
+            @Value("${jwtissuer.localMinter.issuer}") String issuer,
+            @Value("${jwtissuer.localMinter.reloadIntervalSeconds}") long reloadIntervalSeconds
+    ) {
+        this(meterRegistry, enabled, keysPath, issuer, reloadIntervalSeconds, Clock.systemUTC());
+    }
+
+    LocalJwtTokenMinter(
+            MeterRegistry meterRegistry,
+            boolean enabled,
+            String keysPath,
+            String issuer,
+            long reloadIntervalSeconds,
+            Clock clock
+    ) {
+        this.enabled = enabled;
+        this.keysPath = keysPath.isBlank() ? null : Path.of(keysPath);
+        this.issuer = issuer;
+        this.reloadInterval = Duration.ofSeconds(reloadIntervalSeconds);
+        this.clock = clock;
+        this.mintedCounter = meterRegistry.counter(MINT_METRIC_NAME, "result", "minted");
+        this.unavailableCounter = meterRegistry.counter(MINT_METRIC_NAME, "result", "unavailable");
+        this.errorCounter = meterRegistry.counter(MINT_METRIC_NAME, "result", "error");
+    }
+
+    /**
+     * Load the signing key and start reloading it periodically
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || keysPath == null) {
+            log.info("Local JWT token minter disabled, all tokens will be created by the JWT issuer service");
+            return;
+        }
+        reloading = Flux.interval(Duration.ZERO, reloadInterval)
+                .subscribe(tick -> reloadSigningKey());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reloading != null) {
+            reloading.dispose();
+        }
+    }
+
+    /**
+     * Mint a token with the same claims, audience and duration the JWT issuer
+     * service would set for the input request
+     *
+     * @param request the token request
+     * @return the signed token, or an empty Optional if the minter is disabled, no
+     *         signing key is loaded or signing fails
+     */
+    public Optional<String> mint(CreateTokenRequestDto request) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        SigningKey key = signingKey.get();
+        if (key == null) {
+            unavailableCounter.increment();
+            return Optional.empty();
+        }
+        try {
+            Instant issuedAt = clock.instant();
+            JwtBuilder builder = Jwts.builder()
+                    .header()
+                    .type("JWT")
+                    .keyId(key.keyId())
+                    .and()
+                    .audience()
+                    .single(request.getAudience())
+                    .id(UUID.randomUUID().toString())
+                    .issuedAt(Date.from(issuedAt))
+                    .expiration(Date.from(issuedAt.plusSeconds(request.getDuration())));
+            if (!issuer.isBlank()) {
+                builder.issuer(issuer);
+            }
+            if (request.getPrivateClaims() != null) {
+                builder.claims(request.getPrivateClaims());
+            }
+            String token = builder.signWith(key.privateKey(), key.algorithm()).compact();
+            mintedCounter.increment();
+            return Optional.of(token);
+        } catch (JwtException e) {
+            log.error("Cannot mint JWT token with key id: {}", key.keyId(), e);
+            errorCounter.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Load the key with the active key id of the keys directory, keeping the
+     * current signing key if it cannot be loaded
+     */
+    void reloadSigningKey() {
+        try {
+            String keyId = Files.readString(keysPath.resolve(ACTIVE_KEY_ID_FILE), StandardCharsets.US_ASCII).strip();
+            if (!KEY_ID_PATTERN.matcher(keyId).matches()) {
+                log.error("Invalid active JWT signing key id in: {}", keysPath.resolve(ACTIVE_KEY_ID_FILE));
+                return;
+            }
+            SigningKey current = signingKey.get();
+            if (current != null && current.keyId().equals(keyId)) {
+                return;
+            }
+            signingKey.set(readSigningKey(keyId, keysPath.resolve(keyId + ".pem")));
+            log.info("Loaded JWT signing key with key id: {}", keyId);
+        } catch (NoSuchFileException e) {
+            log.warn("No active JWT signing key found: {}", e.getFile());
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.error("Cannot load JWT signing key from: {}", keysPath, e);
+        }
+    }
+
+    private static SigningKey readSigningKey(
+                                             String keyId,
+                                             Path keyFile
+    ) throws IOException, GeneralSecurityException {
+        String pem = Files.readString(keyFile, StandardCharsets.US_ASCII)
+                .replaceAll("-----(BEGIN|END) PRIVATE KEY-----", "")
+                .replaceAll("\\s", "");
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(pem));
+        try {
+            return new SigningKey(keyId, KeyFactory.getInstance("RSA").generatePrivate(keySpec), Jwts.SIG.RS256);
+        } catch (GeneralSecurityException e) {
+            return new SigningKey(keyId, KeyFactory.getInstance("EC").generatePrivate(keySpec), Jwts.SIG.ES256);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package it.pagopa.ecommerce.payment.methods.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Adaptive concurrency limiters of the outbound calls, one per upstream service
+ */
+@Configuration
+public class ConcurrencyLimitersConfig {
+
+    @Bean(name = "afmConcurrencyLimiter")
+    public AdaptiveConcurrencyLimiter afmConcurrencyLimiter(
+                                                            ObjectProvider<MeterRegistry> meterRegistry,
+                                                            @Value(
+                                                                "${afm.concurrencyLimit.mode}"
+                                                            ) AdaptiveConcurrencyLimiter.Mode mode,
+                                                            @Value(
+                                                                "${afm.concurrencyLimit.initialLimit}"
+                                                            ) int initialLimit,
+                                                            @Value(
+                                                                "${afm.concurrencyLimit.maxLimit}"
+                                                            ) int maxLimit,
+                                                            @Value(
+                                                                "${afm.concurrencyLimit.queueTimeoutMillis}"
+                                                            ) long queueTimeoutMillis
+    ) {
+        return new AdaptiveConcurrencyLimiter(
+                "afm",
+                meterRegistry(meterRegistry),
+                mode,
+                initialLimit,
+                maxLimit,
+                Duration.ofMillis(queueTimeoutMillis)
+        );
+    }
+
+    @Bean(name = "npgConcurrencyLimiter")
+    public AdaptiveConcurrencyLimiter npgConcurrencyLimiter(
+                                                            ObjectProvider<MeterRegistry> meterRegistry,
+                                                            @Value(
+                                                                "${npg.concurrencyLimit.mode}"
+                                                            ) AdaptiveConcurrencyLimiter.Mode mode,
+                                                            @Value(
+                                                                "${npg.concurrencyLimit.initialLimit}"
+                                                            ) int initialLimit,
+                                                            @Value(
+                                                                "${npg.concurrencyLimit.maxLimit}"
+                                                            ) int maxLimit,
+                                                            @Value(
+                                                                "${npg.concurrencyLimit.queueTimeoutMillis}"
+                                                            ) long queueTimeoutMillis
+    ) {
+        return new AdaptiveConcurrencyLimiter(
+                "npg",
+                meterRegistry(meterRegistry),
+                mode,
+                initialLimit,
+                maxLimit,
+                Duration.ofMillis(queueTimeoutMillis)
+        );
+    }
+
+    @Bean(name = "jwtIssuerConcurrencyLimiter")
+    public AdaptiveConcurrencyLimiter jwtIssuerConcurrencyLimiter(
+                                                                  ObjectProvider<MeterRegistry> meterRegistry,
+                                                                  @Value(
+                                                                      "${jwtissuer.concurrencyLimit.mode}"
+                                                                  ) AdaptiveConcurrencyLimiter.Mode mode,
+                                                                  @Value(
+                                                                      "${jwtissuer.concurrencyLimit.initialLimit}"
+                                                                  ) int initialLimit,
+                                                                  @Value(
+                                                                      "${jwtissuer.concurrencyLimit.maxLimit}"
+                                                                  ) int maxLimit,
+                                                                  @Value(
+                                                                      "${jwtissuer.concurrencyLimit.queueTimeoutMillis}"
+                                                                  ) long queueTimeoutMillis
+    ) {
+        return new AdaptiveConcurrencyLimiter(
+                "jwt-issuer",
+                meterRegistry(meterRegistry),
+                mode,
+                initialLimit,
+                maxLimit,
+                Duration.ofMillis(queueTimeoutMillis)
+        );
+    }
+
+    /**
+     * The application meter registry, or the global one where metrics are not
+     * configured (e.g. web slice tests importing the web clients configuration)
+     */
+    private static MeterRegistry meterRegistry(ObjectProvider<MeterRegistry> meterRegistry) {
+        return meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,154 @@
+package it.pagopa.ecommerce.payment.methods.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Dedicated connection pools of the upstream services, so that a slow upstream
+ * cannot starve the connections of the others. Pools lease the most recently
+ * used connection first (LIFO), so that connections left idle beyond the
+ * current load are evicted in background, and export their metrics (active,
+ * idle and pending connections, acquire time) as
+ * {@code reactor.netty.connection.provider} meters tagged by pool {@code name}.
+ */
+@Configuration
+public class ConnectionProvidersConfig {
+
+    static final Duration EVICTION_INTERVAL = Duration.ofSeconds(30);
+
+    @Bean(name = "afmConnectionProvider", destroyMethod = "dispose")
+    public ConnectionProvider afmConnectionProvider(
+                                                    @Value(
+                                                        "${afm.connectionPool.maxConnections}"
+                                                    ) int maxConnections,
+                                                    @Value(
+                                                        "${afm.connectionPool.pendingAcquireMaxCount}"
+                                                    ) int pendingAcquireMaxCount,
+                                                    @Value(
+                                                        "${afm.connectionPool.pendingAcquireTimeoutMillis}"
+                                                    ) long pendingAcquireTimeoutMillis,
+                                                    @Value(
+                                                        "${afm.connectionPool.maxIdleTimeMillis}"
+                                                    ) long maxIdleTimeMillis,
+                                                    @Value(
+                                                        "${afm.connectionPool.maxLifeTimeMillis}"
+                                                    ) long maxLifeTimeMillis
+    ) {
+        return create(
+                "afm-v1",
+                maxConnections,
+                pendingAcquireMaxCount,
+                pendingAcquireTimeoutMillis,
+                maxIdleTimeMillis,
+                maxLifeTimeMillis
+        );
+    }
+
+    @Bean(name = "afmV2ConnectionProvider", destroyMethod = "dispose")
+    public ConnectionProvider afmV2ConnectionProvider(
+                                                      @Value(
+                                                          "${afm.connectionPool.maxConnections}"
+                                                      ) int maxConnections,
+                                                      @Value(
+                                                          "${afm.connectionPool.pendingAcquireMaxCount}"
+                                                      ) int pendingAcquireMaxCount,
+                                                      @Value(
+                                                          "${afm.connectionPool.pendingAcquireTimeoutMillis}"
+                                                      ) long pendingAcquireTimeoutMillis,
+                                                      @Value(
+                                                          "${afm.connectionPool.maxIdleTimeMillis}"
+                                                      ) long maxIdleTimeMillis,
+                                                      @Value(
+                                                          "${afm.connectionPool.maxLifeTimeMillis}"
+                                                      ) long maxLifeTimeMillis
+    ) {
+        return create(
+                "afm-v2",
+                maxConnections,
+                pendingAcquireMaxCount,
+                pendingAcquireTimeoutMillis,
+                maxIdleTimeMillis,
+                maxLifeTimeMillis
+        );
+    }
+
+    @Bean(name = "npgConnectionProvider", destroyMethod = "dispose")
+    public ConnectionProvider npgConnectionProvider(
+                                                    @Value(
+                                                        "${npg.connectionPool.maxConnections}"
+                                                    ) int maxConnections,
+                                                    @Value(
+                                                        "${npg.connectionPool.pendingAcquireMaxCount}"
+                                                    ) int pendingAcquireMaxCount,
+                                                    @Value(
+                                                        "${npg.connectionPool.pendingAcquireTimeoutMillis}"
+                                                    ) long pendingAcquireTimeoutMillis,
+                                                    @Value(
+                                                        "${npg.connectionPool.maxIdleTimeMillis}"
+                                                    ) long maxIdleTimeMillis,
+                                                    @Value(
+                                                        "${npg.connectionPool.maxLifeTimeMillis}"
+                                                    ) long maxLifeTimeMillis
+    ) {
+        return create(
+                "npg",
+                maxConnections,
+                pendingAcquireMaxCount,
+                pendingAcquireTimeoutMillis,
+                maxIdleTimeMillis,
+                maxLifeTimeMillis
+        );
+    }
+
+    @Bean(name = "jwtIssuerConnectionProvider", destroyMethod = "dispose")
+    public ConnectionProvider jwtIssuerConnectionProvider(
+                                                          @Value(
+                                                              "${jwtissuer.connectionPool.maxConnections}"
+                                                          ) int maxConnections,
+                                                          @Value(
+                                                              "${jwtissuer.connectionPool.pendingAcquireMaxCount}"
+                                                          ) int pendingAcquireMaxCount,
+                                                          @Value(
+                                                              "${jwtissuer.connectionPool.pendingAcquireTimeoutMillis}"
+                                                          ) long pendingAcquireTimeoutMillis,
+                                                          @Value(
+                                                              "${jwtissuer.connectionPool.maxIdleTimeMillis}"
+                                                          ) long maxIdleTimeMillis,
+                                                          @Value(
+                                                              "${jwtissuer.connectionPool.maxLifeTimeMillis}"
+                                                          ) long maxLifeTimeMillis
+    ) {
+        return create(
+                "jwt-issuer",
+                maxConnections,
+                pendingAcquireMaxCount,
+                pendingAcquireTimeoutMillis,
+                maxIdleTimeMillis,
+                maxLifeTimeMillis
+        );
+    }
+
+    private static ConnectionProvider create(
+                                             String name,
+                                             int maxConnections,
+                                             int pendingAcquireMaxCount,
+                                             long pendingAcquireTimeoutMillis,
+                                             long maxIdleTimeMillis,
+                                             long maxLifeTimeMillis
+    ) {
+        return ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMillis))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMillis))
+                .evictInBackground(EVICTION_INTERVAL)
+                .lifo()
+                .metrics(true)
+                .build();
+    }
+}
@@ -0,0 +1,80 @@
+package it.pagopa.ecommerce.payment.methods.config;
+
+import it.pagopa.ecommerce.payment.methods.application.v1.EncodedPaymentMethodsResponseDto;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link HttpMessageWriter} writing {@link EncodedPaymentMethodsResponseDto}
+ * pre-encoded bytes as-is. The gzip compressed representation is written when
+ * the handler has set the {@code Content-Encoding: gzip} response header.
+ */
+public class EncodedPaymentMethodsResponseWriter implements HttpMessageWriter<EncodedPaymentMethodsResponseDto> {
+
+    private static final String GZIP = "gzip";
+
+    @Override
+    public List<MediaType> getWritableMediaTypes() {
+        return List.of(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    public boolean canWrite(
+                            ResolvableType elementType,
+                            MediaType mediaType
+    ) {
+        return EncodedPaymentMethodsResponseDto.class.isAssignableFrom(elementType.toClass())
+                && (mediaType == null || mediaType.isCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public Mono<Void> write(
+                            Publisher<? extends EncodedPaymentMethodsResponseDto> inputStream,
+                            ResolvableType elementType,
+                            MediaType mediaType,
+                            ReactiveHttpOutputMessage message,
+                            Map<String, Object> hints
+    ) {
+        return Mono.from(inputStream).flatMap(response -> writeBytes(response.getJson(), message));
+    }
+
+    @Override
+    public Mono<Void> write(
+                            Publisher<? extends EncodedPaymentMethodsResponseDto> inputStream,
+                            ResolvableType actualType,
+                            ResolvableType elementType,
+                            MediaType mediaType,
+                            ServerHttpRequest request,
+                            ServerHttpResponse response,
+                            Map<String, Object> hints
+    ) {
+        return Mono.from(inputStream).flatMap(body -> {
+            HttpHeaders headers = response.getHeaders();
+            boolean gzip = GZIP.equals(headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+            if (gzip && body.getGzipJson().isPresent()) {
+                return writeBytes(body.getGzipJson().get(), response);
+            }
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            return writeBytes(body.getJson(), response);
+        });
+    }
+
+    private static Mono<Void> writeBytes(
+                                         byte[] bytes,
+                                         ReactiveHttpOutputMessage message
+    ) {
+        message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        message.getHeaders().setContentLength(bytes.length);
+        return message.writeWith(Mono.just(message.bufferFactory().wrap(bytes)));
+    }
+}
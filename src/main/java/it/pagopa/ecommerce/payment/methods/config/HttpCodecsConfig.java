@@ -0,0 +1,15 @@
+package it.pagopa.ecommerce.payment.methods.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+@Configuration
+public class HttpCodecsConfig implements WebFluxConfigurer {
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        // registered as typed writer, so it takes precedence over the Jackson one
+        configurer.customCodecs().register(new EncodedPaymentMethodsResponseWriter());
+    }
+}
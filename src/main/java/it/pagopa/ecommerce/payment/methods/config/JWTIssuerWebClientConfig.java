@@ -5,16 +5,26 @@ import io.netty.handler.timeout.ReadTimeoutHandler;
 import it.pagopa.ecommerce.commons.client.JwtIssuerClient;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.ApiClient;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.api.JwtIssuerApi;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.util.concurrent.TimeUnit;
 
 @Configuration
+@Import(
+    {
+            ConcurrencyLimitersConfig.class,
+            ConnectionProvidersConfig.class
+    }
+)
 public class JWTIssuerWebClientConfig {
 
     @Bean(name = "jwtIssuerWebClient")
@@ -28,9 +38,15 @@ public class JWTIssuerWebClientConfig {
                                            ) int jwtIssuerWebClientConnectionTimeout,
                                            @Value(
                                                "${jwtissuer.apiKey}"
-                                           ) String jwtIssuerApiKey
+                                           ) String jwtIssuerApiKey,
+                                           @Qualifier(
+                                               "jwtIssuerConcurrencyLimiter"
+                                           ) AdaptiveConcurrencyLimiter jwtIssuerConcurrencyLimiter,
+                                           @Qualifier(
+                                               "jwtIssuerConnectionProvider"
+                                           ) ConnectionProvider jwtIssuerConnectionProvider
     ) {
-        HttpClient httpClient = HttpClient.create()
+        HttpClient httpClient = HttpClient.create(jwtIssuerConnectionProvider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, jwtIssuerWebClientConnectionTimeout)
                 .doOnConnected(
                         connection -> connection.addHandlerLast(
@@ -43,7 +59,8 @@ public class JWTIssuerWebClientConfig {
 
         WebClient webClient = ApiClient.buildWebClientBuilder().clientConnector(
                 new ReactorClientHttpConnector(httpClient)
-        ).defaultHeader("x-api-key", jwtIssuerApiKey).baseUrl(jwtIssuerWebClientUri).build();
+        ).filter(jwtIssuerConcurrencyLimiter).defaultHeader("x-api-key", jwtIssuerApiKey)
+                .baseUrl(jwtIssuerWebClientUri).build();
 
         return new JwtIssuerApi(new ApiClient(webClient).setBasePath(jwtIssuerWebClientUri));
     }
@@ -8,18 +8,28 @@ import io.opentelemetry.api.trace.Tracer;
 import it.pagopa.ecommerce.commons.client.NpgClient;
 import it.pagopa.ecommerce.commons.generated.npg.v1.ApiClient;
 import it.pagopa.ecommerce.commons.generated.npg.v1.api.PaymentServicesApi;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.util.concurrent.TimeUnit;
 
 @Configuration
+@Import(
+    {
+            ConcurrencyLimitersConfig.class,
+            ConnectionProvidersConfig.class
+    }
+)
 public class NpgWebClientsConfig implements WebFluxConfigurer {
 
     @Bean(name = "npgWebClient")
@@ -42,10 +52,16 @@ public class NpgWebClientsConfig implements WebFluxConfigurer {
                                            ) int keepAliveIntvl,
                                            @Value(
                                                "${npg.keepalive.cnt}"
-                                           ) int keepAliveCnt
+                                           ) int keepAliveCnt,
+                                           @Qualifier(
+                                               "npgConcurrencyLimiter"
+                                           ) AdaptiveConcurrencyLimiter npgConcurrencyLimiter,
+                                           @Qualifier(
+                                               "npgConnectionProvider"
+                                           ) ConnectionProvider npgConnectionProvider
 
     ) {
-        HttpClient httpClient = HttpClient.create()
+        HttpClient httpClient = HttpClient.create(npgConnectionProvider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, npgWebClientConnectionTimeout)
                 .option(ChannelOption.SO_KEEPALIVE, keepAliveEnabled)
                 .option(EpollChannelOption.TCP_KEEPIDLE, keepAliveIdle)
@@ -66,7 +82,7 @@ public class NpgWebClientsConfig implements WebFluxConfigurer {
 
         WebClient webClient = ApiClient.buildWebClientBuilder().clientConnector(
                 new ReactorClientHttpConnector(httpClient)
-        ).uriBuilderFactory(defaultUriBuilderFactory).baseUrl(npgClientUrl).build();
+        ).filter(npgConcurrencyLimiter).uriBuilderFactory(defaultUriBuilderFactory).baseUrl(npgClientUrl).build();
 
         return new PaymentServicesApi(new ApiClient(webClient).setBasePath(npgClientUrl));
     }
@@ -3,13 +3,17 @@ package it.pagopa.ecommerce.payment.methods.config;
 import it.pagopa.ecommerce.commons.redis.reactivetemplatewrappers.ReactiveUniqueIdTemplateWrapper;
 import it.pagopa.ecommerce.commons.repositories.UniqueIdDocument;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocumentRedisSerializer;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsNearCache;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import it.pagopa.ecommerce.payment.methods.infrastructure.OrderIdPool;
+import it.pagopa.ecommerce.payment.methods.infrastructure.UniqueIdDocumentRedisSerializer;
+import it.pagopa.ecommerce.payment.methods.infrastructure.VersionedRedisSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -20,14 +24,18 @@ public class RedisConfig {
     @Bean
     public NpgSessionsTemplateWrapper npgSessionsTemplateWrapper(
                                                                  ReactiveRedisConnectionFactory redisConnectionFactory,
-                                                                 @Value("${npg.sessionsTTL}") int sessionsTtl
+                                                                 @Value("${npg.sessionsTTL}") int sessionsTtl,
+                                                                 @Value(
+                                                                     "${redis.documents.writeFormat}"
+                                                                 ) VersionedRedisSerializer.Format writeFormat,
+                                                                 @Value(
+                                                                     "${npg.sessionsStorageMode}"
+                                                                 ) NpgSessionsTemplateWrapper.StorageMode storageMode,
+                                                                 NpgSessionsNearCache npgSessionsNearCache
     ) {
-        Jackson2JsonRedisSerializer<NpgSessionDocument> jacksonRedisSerializer = new Jackson2JsonRedisSerializer<>(
-                NpgSessionDocument.class
-        );
         RedisSerializationContext<String, NpgSessionDocument> serializationContext = RedisSerializationContext
                 .<String, NpgSessionDocument>newSerializationContext(new StringRedisSerializer())
-                .value(jacksonRedisSerializer).build();
+                .value(new NpgSessionDocumentRedisSerializer(writeFormat)).build();
 
         ReactiveRedisTemplate<String, NpgSessionDocument> reactiveRedisTemplate = new ReactiveRedisTemplate<>(
                 redisConnectionFactory,
@@ -35,21 +43,23 @@ public class RedisConfig {
         );
         return new NpgSessionsTemplateWrapper(
                 reactiveRedisTemplate,
-                "npg",
-                Duration.ofSeconds(sessionsTtl)
+                NpgSessionsTemplateWrapper.KEYSPACE,
+                Duration.ofSeconds(sessionsTtl),
+                npgSessionsNearCache,
+                storageMode
         );
     }
 
     @Bean
     public ReactiveUniqueIdTemplateWrapper uniqueIdTemplateWrapper(
-                                                                   ReactiveRedisConnectionFactory redisConnectionFactory
+                                                                   ReactiveRedisConnectionFactory redisConnectionFactory,
+                                                                   @Value(
+                                                                       "${redis.documents.writeFormat}"
+                                                                   ) VersionedRedisSerializer.Format writeFormat
     ) {
-        Jackson2JsonRedisSerializer<UniqueIdDocument> jacksonRedisSerializer = new Jackson2JsonRedisSerializer<>(
-                UniqueIdDocument.class
-        );
         RedisSerializationContext<String, UniqueIdDocument> serializationContext = RedisSerializationContext
                 .<String, UniqueIdDocument>newSerializationContext(new StringRedisSerializer())
-                .value(jacksonRedisSerializer).build();
+                .value(new UniqueIdDocumentRedisSerializer(writeFormat)).build();
 
         ReactiveRedisTemplate<String, UniqueIdDocument> reactiveRedisTemplate = new ReactiveRedisTemplate<>(
                 redisConnectionFactory,
@@ -58,7 +68,7 @@ public class RedisConfig {
         return new ReactiveUniqueIdTemplateWrapper(
                 reactiveRedisTemplate,
                 "uniqueId",
-                Duration.ofSeconds(60)
+                OrderIdPool.UNIQUE_ID_TTL
         );
     }
 }
@@ -2,20 +2,30 @@ package it.pagopa.ecommerce.payment.methods.config;
 
 import io.netty.channel.ChannelOption;
 import io.netty.handler.timeout.ReadTimeoutHandler;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
 import it.pagopa.generated.ecommerce.gec.v1.ApiClient;
 import it.pagopa.generated.ecommerce.gec.v1.api.CalculatorApi;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.util.concurrent.TimeUnit;
 
 @Configuration
+@Import(
+    {
+            ConcurrencyLimitersConfig.class,
+            ConnectionProvidersConfig.class
+    }
+)
 public class WebClientsConfig implements WebFluxConfigurer {
     private final int maxMemorySize;
 
@@ -33,13 +43,20 @@ public class WebClientsConfig implements WebFluxConfigurer {
                                       ) int afmWebClientReadTimeout,
                                       @Value(
                                           "${afm.connectionTimeout}"
-                                      ) int afmWebClientConnectionTimeout
+                                      ) int afmWebClientConnectionTimeout,
+                                      @Qualifier(
+                                          "afmConcurrencyLimiter"
+                                      ) AdaptiveConcurrencyLimiter afmConcurrencyLimiter,
+                                      @Qualifier(
+                                          "afmConnectionProvider"
+                                      ) ConnectionProvider afmConnectionProvider
     ) {
         final var webClient = createWebClient(
                 afmWebClientUri,
-                createClientWithTimeouts(afmWebClientReadTimeout, afmWebClientConnectionTimeout)
+                createClientWithTimeouts(afmConnectionProvider, afmWebClientReadTimeout, afmWebClientConnectionTimeout),
+                afmConcurrencyLimiter
         );
-        return new CalculatorApi(new ApiClient(webClient));
+        return new CalculatorApi(new ApiClient(webClient).setBasePath(afmWebClientUri));
     }
 
     @Bean(name = "afmWebClientV2")
@@ -52,20 +69,32 @@ public class WebClientsConfig implements WebFluxConfigurer {
                                                                                  ) int afmWebClientReadTimeout,
                                                                                  @Value(
                                                                                      "${afm.connectionTimeout}"
-                                                                                 ) int afmWebClientConnectionTimeout
+                                                                                 ) int afmWebClientConnectionTimeout,
+                                                                                 @Qualifier(
+                                                                                     "afmConcurrencyLimiter"
+                                                                                 ) AdaptiveConcurrencyLimiter afmConcurrencyLimiter,
+                                                                                 @Qualifier(
+                                                                                     "afmV2ConnectionProvider"
+                                                                                 ) ConnectionProvider afmV2ConnectionProvider
     ) {
         final var webClient = createWebClient(
                 afmWebClientUri,
-                createClientWithTimeouts(afmWebClientReadTimeout, afmWebClientConnectionTimeout)
+                createClientWithTimeouts(
+                        afmV2ConnectionProvider,
+                        afmWebClientReadTimeout,
+                        afmWebClientConnectionTimeout
+                ),
+                afmConcurrencyLimiter
         );
         return new it.pagopa.generated.ecommerce.gec.v2.api.CalculatorApi(
-                new it.pagopa.generated.ecommerce.gec.v2.ApiClient(webClient)
+                new it.pagopa.generated.ecommerce.gec.v2.ApiClient(webClient).setBasePath(afmWebClientUri)
         );
     }
 
     private WebClient createWebClient(
                                       String uri,
-                                      HttpClient httpClient
+                                      HttpClient httpClient,
+                                      AdaptiveConcurrencyLimiter concurrencyLimiter
     ) {
         return ApiClient.buildWebClientBuilder().exchangeStrategies(
                 ExchangeStrategies.builder()
@@ -73,14 +102,15 @@ public class WebClientsConfig implements WebFluxConfigurer {
                         .build()
         ).clientConnector(
                 new ReactorClientHttpConnector(httpClient)
-        ).baseUrl(uri).build();
+        ).filter(concurrencyLimiter).baseUrl(uri).build();
     }
 
     private HttpClient createClientWithTimeouts(
+                                                ConnectionProvider connectionProvider,
                                                 int readTimeout,
                                                 int connectionTimeout
     ) {
-        return HttpClient.create()
+        return HttpClient.create(connectionProvider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeout)
                 .doOnConnected(
                         connection -> connection.addHandlerLast(
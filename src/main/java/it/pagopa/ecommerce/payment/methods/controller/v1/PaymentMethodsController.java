@@ -1,31 +1,29 @@
 package it.pagopa.ecommerce.payment.methods.controller.v1;
 
-import it.pagopa.ecommerce.commons.annotations.Warmup;
 import it.pagopa.ecommerce.commons.exceptions.NpgResponseException;
+import it.pagopa.ecommerce.payment.methods.application.v1.EncodedPaymentMethodsResponseDto;
 import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodService;
 import it.pagopa.ecommerce.payment.methods.domain.aggregates.PaymentMethod;
 import it.pagopa.ecommerce.payment.methods.exception.*;
 import it.pagopa.ecommerce.payment.methods.server.api.PaymentMethodsApi;
 import it.pagopa.ecommerce.payment.methods.server.model.*;
 import it.pagopa.ecommerce.payment.methods.utils.PaymentMethodStatusEnum;
+import it.pagopa.ecommerce.payment.methods.utils.StepTimings;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
 import jakarta.validation.Valid;
 import java.math.BigDecimal;
-import java.time.Duration;
-import java.util.Collections;
-import java.util.UUID;
-import java.util.stream.Collectors;
 
+import static it.pagopa.ecommerce.payment.methods.utils.HttpUtils.acceptsEncoding;
 import static it.pagopa.ecommerce.payment.methods.utils.HttpUtils.getAuthenticationToken;
 
 @RestController
@@ -35,13 +33,10 @@ public class PaymentMethodsController implements PaymentMethodsApi {
     @Autowired
     private PaymentMethodService paymentMethodService;
 
-    private static final String X_CLIENT_ID = "X-Client-ID";
-    private static final String X_API_KEY = "x-api-key";
+    private static final String GZIP_ENCODING = "gzip";
 
-    @Value("${warmup.payment.method.id}")
-    String warmupPaymentMethodID;
-    @Value("${security.apiKey.primary}")
-    String primaryApiKey;
+    @Value("${npg.createSession.serverTiming.enabled}")
+    boolean createSessionServerTimingEnabled;
 
     @ExceptionHandler(
         {
@@ -55,7 +50,8 @@ public class PaymentMethodsController implements PaymentMethodsApi {
                 SessionAlreadyAssociatedToTransaction.class,
                 NoBundleFoundException.class,
                 JwtIssuerResponseException.class,
-                NpgResponseException.class
+                NpgResponseException.class,
+                UpstreamConcurrencyLimitException.class
         }
     )
     public ResponseEntity<ProblemJsonDto> errorHandler(RuntimeException exception) {
@@ -106,6 +102,17 @@ public class PaymentMethodsController implements PaymentMethodsApi {
                             .detail(exception.getMessage()),
                     HttpStatus.CONFLICT
             );
+        } else if (exception instanceof UpstreamConcurrencyLimitException
+                || exception.getCause() instanceof UpstreamConcurrencyLimitException) {
+            // NPG calls rejected by the concurrency limiter come wrapped by the NPG client
+            return new ResponseEntity<>(
+                    new ProblemJsonDto().status(503).title("Service unavailable")
+                            .detail(
+                                    exception instanceof UpstreamConcurrencyLimitException ? exception.getMessage()
+                                            : exception.getCause().getMessage()
+                            ),
+                    HttpStatus.SERVICE_UNAVAILABLE
+            );
         } else if (exception instanceof NpgResponseException) {
             return new ResponseEntity<>(
                     new ProblemJsonDto().status(502).title("Bad Gateway")
@@ -146,15 +153,26 @@ public class PaymentMethodsController implements PaymentMethodsApi {
                                                                                 ServerWebExchange exchange
     ) {
         return paymentMethodService
-                .retrievePaymentMethods(amount != null ? amount.longValue() : null, xClientId, deviceVersion)
-                .map(PaymentMethodsController::paymentMethodToDto)
-                .collectList()
-                .map(
-                        paymentMethods -> ResponseEntity.ok(
-                                new PaymentMethodsResponseDto()
-                                        .paymentMethods(paymentMethods)
-                        )
-                );
+                .retrievePaymentMethodsResponse(amount != null ? amount.longValue() : null, xClientId, deviceVersion)
+                .map(response -> {
+                    if (response instanceof EncodedPaymentMethodsResponseDto encodedResponse) {
+                        /*
+                         * ETag is set so that If-None-Match requests are answered with 304 Not Modified
+                         * by the framework, gzip compressed bytes are written by
+                         * EncodedPaymentMethodsResponseWriter when Content-Encoding is set
+                         */
+                        boolean gzip = encodedResponse.getGzipEtag().isPresent()
+                                && acceptsEncoding(exchange, GZIP_ENCODING);
+                        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok()
+                                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                                .eTag(gzip ? encodedResponse.getGzipEtag().get() : encodedResponse.getEtag());
+                        if (gzip) {
+                            responseBuilder.header(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+                        }
+                        return responseBuilder.body(response);
+                    }
+                    return ResponseEntity.ok(response);
+                });
     }
 
     @Override
@@ -196,39 +214,10 @@ public class PaymentMethodsController implements PaymentMethodsApi {
     }
 
     private ResponseEntity<PaymentMethodResponseDto> paymentMethodToResponse(PaymentMethod paymentMethod) {
-        PaymentMethodResponseDto response = paymentMethodToDto(paymentMethod);
+        PaymentMethodResponseDto response = PaymentMethodService.paymentMethodToResponseDto(paymentMethod);
         return ResponseEntity.ok(response);
     }
 
-    private static PaymentMethodResponseDto paymentMethodToDto(PaymentMethod paymentMethod) {
-        PaymentMethodResponseDto response = new PaymentMethodResponseDto();
-        response.setId(paymentMethod.getPaymentMethodID().value().toString());
-        response.setName(paymentMethod.getPaymentMethodName().value());
-        response.setDescription(paymentMethod.getPaymentMethodDescription().value());
-        response.setStatus(
-                PaymentMethodStatusDto.valueOf(
-                        paymentMethod.getPaymentMethodStatus().value().toString()
-                )
-        );
-        response.setRanges(
-                paymentMethod.getPaymentMethodRanges().stream().map(
-                        r -> {
-                            RangeDto rangeDto = new RangeDto();
-                            rangeDto.setMin(r.min());
-                            rangeDto.setMax(r.max());
-                            return rangeDto;
-                        }
-                ).collect(Collectors.toList())
-        );
-        response.setPaymentTypeCode(paymentMethod.getPaymentMethodTypeCode().value());
-        response.setAsset(paymentMethod.getPaymentMethodAsset().value());
-        response.setMethodManagement(
-                paymentMethod.getPaymentMethodManagement().value()
-        );
-        response.setBrandAssets(paymentMethod.getPaymentMethodBrandAsset().brandAssets().orElse(null));
-        return response;
-    }
-
     @Override
     public Mono<ResponseEntity<CalculateFeeResponseDto>> calculateFees(
                                                                        String id,
@@ -250,7 +239,18 @@ public class PaymentMethodsController implements PaymentMethodsApi {
                                                                         ClientIdDto xClientId,
                                                                         ServerWebExchange exchange
     ) {
-        return paymentMethodService.createSessionForPaymentMethod(id, lang, xClientId).map(ResponseEntity::ok);
+        if (!createSessionServerTimingEnabled) {
+            return paymentMethodService.createSessionForPaymentMethod(id, lang, xClientId).map(ResponseEntity::ok);
+        }
+        StepTimings stepTimings = new StepTimings();
+        return paymentMethodService.createSessionForPaymentMethod(id, lang, xClientId)
+                .map(response -> {
+                    String serverTiming = stepTimings.toServerTimingHeader();
+                    return serverTiming.isEmpty() ? ResponseEntity.ok(response)
+                            : ResponseEntity.ok().header(StepTimings.SERVER_TIMING_HEADER, serverTiming)
+                                    .body(response);
+                })
+                .contextWrite(stepTimings::addTo);
     }
 
     @Override
@@ -294,56 +294,4 @@ public class PaymentMethodsController implements PaymentMethodsApi {
                 .flatMap(updateData -> paymentMethodService.updateSession(id, orderId, updateData))
                 .map(ignored -> ResponseEntity.noContent().build());
     }
-
-    @Warmup
-    public void getAllPaymentMethodsWarmupMethod() {
-        WebClient
-                .create()
-                .get()
-                .uri("http://localhost:8080/payment-methods")
-                .header(X_CLIENT_ID, PaymentMethodRequestDto.ClientIdEnum.CHECKOUT.toString())
-                .header(X_API_KEY, primaryApiKey)
-                .retrieve()
-                .bodyToMono(PaymentMethodsResponseDto.class)
-                .block(Duration.ofSeconds(30));
-    }
-
-    @Warmup
-    public void calculateFeesWarmupMethod() {
-        CalculateFeeRequestDto request = new CalculateFeeRequestDto()
-                .touchpoint("touchpoint1")
-                .paymentAmount(1L)
-                .primaryCreditorInstitution("77777777777")
-                .transferList(Collections.emptyList())
-                .isAllCCP(false);
-        WebClient
-                .create()
-                .post()
-                .uri(
-                        "http://localhost:8080/payment-methods/{id}/fees",
-                        UUID.randomUUID().toString()
-                )
-                .bodyValue(request)
-                .header(X_CLIENT_ID, PaymentMethodRequestDto.ClientIdEnum.CHECKOUT.toString())
-                .header(X_API_KEY, primaryApiKey)
-                .retrieve()
-                .toBodilessEntity()
-                .block(Duration.ofSeconds(30));
-    }
-
-    @Warmup
-    public void createSessionWarmupMethod() {
-        WebClient
-                .create()
-                .post()
-                .uri(
-                        "http://localhost:8080/payment-methods/{id}/sessions",
-                        warmupPaymentMethodID
-                )
-                .header(X_CLIENT_ID, PaymentMethodRequestDto.ClientIdEnum.CHECKOUT.toString())
-                .header(X_API_KEY, primaryApiKey)
-                .retrieve()
-                .toBodilessEntity()
-                .block(Duration.ofSeconds(30));
-    }
 }
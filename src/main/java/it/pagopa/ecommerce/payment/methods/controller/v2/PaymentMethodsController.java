@@ -1,26 +1,20 @@
 package it.pagopa.ecommerce.payment.methods.controller.v2;
 
-import it.pagopa.ecommerce.commons.annotations.Warmup;
 import it.pagopa.ecommerce.payment.methods.application.v2.PaymentMethodService;
 import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
 import it.pagopa.ecommerce.payment.methods.exception.NoBundleFoundException;
 import it.pagopa.ecommerce.payment.methods.exception.PaymentMethodNotFoundException;
-import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodRequestDto;
 import it.pagopa.ecommerce.payment.methods.server.model.ProblemJsonDto;
 import it.pagopa.ecommerce.payment.methods.v2.server.api.V2Api;
 import it.pagopa.ecommerce.payment.methods.v2.server.model.*;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.time.Duration;
-
 import static it.pagopa.ecommerce.payment.methods.utils.HttpUtils.getAuthenticationToken;
 
 @RestController("paymentMethodsControllerV2")
@@ -28,12 +22,6 @@ import static it.pagopa.ecommerce.payment.methods.utils.HttpUtils.getAuthenticat
 public class PaymentMethodsController implements V2Api {
 
     private final PaymentMethodService paymentMethodService;
-    private static final String X_API_KEY = "x-api-key";
-
-    @Value("${warmup.payment.method.id}")
-    String warmupPaymentMethodID;
-    @Value("${security.apiKey.primary}")
-    String primaryApiKey;
 
     public PaymentMethodsController(
             PaymentMethodService paymentMethodService
@@ -113,36 +101,4 @@ public class PaymentMethodsController implements V2Api {
             );
         }
     }
-
-    @Warmup
-    public void calculateFeesWarmupMethod() {
-        CalculateFeeRequestDto request = new CalculateFeeRequestDto()
-                .touchpoint("CHECKOUT")
-                .isAllCCP(false)
-                .addPaymentNoticesItem(
-                        new PaymentNoticeDto()
-                                .paymentAmount(100L)
-                                .primaryCreditorInstitution("77777777777")
-                                .addTransferListItem(
-                                        new TransferListItemDto()
-                                                .digitalStamp(false)
-                                                .creditorInstitution("77777777777")
-                                )
-
-                );
-        WebClient
-                .create()
-                .post()
-                .uri(
-                        "http://localhost:8080/v2/payment-methods/{id}/fees",
-                        warmupPaymentMethodID
-                )
-                .bodyValue(request)
-                .header("X-Client-ID", PaymentMethodRequestDto.ClientIdEnum.CHECKOUT.toString())
-                .header(X_API_KEY, primaryApiKey)
-                .retrieve()
-                .toBodilessEntity()
-                .block(Duration.ofSeconds(30));
-    }
-
 }
@@ -0,0 +1,23 @@
+package it.pagopa.ecommerce.payment.methods.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception raised when an AFM call is rejected without calling AFM, because
+ * the AFM circuit breaker is open or too many AFM calls are in-flight
+ */
+public class AfmCallNotPermittedException extends AfmResponseException {
+
+    /**
+     * Constructor
+     *
+     * @param statusCode the response status
+     * @param reason     the rejection reason
+     */
+    public AfmCallNotPermittedException(
+            HttpStatus statusCode,
+            String reason
+    ) {
+        super(statusCode, reason);
+    }
+}
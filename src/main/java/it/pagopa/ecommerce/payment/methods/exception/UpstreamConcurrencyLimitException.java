@@ -0,0 +1,24 @@
+package it.pagopa.ecommerce.payment.methods.exception;
+
+import lombok.Getter;
+
+/**
+ * Exception raised when an outbound call is rejected without calling the
+ * upstream service, because the adaptive concurrency limit of the upstream has
+ * been reached
+ */
+@Getter
+public class UpstreamConcurrencyLimitException extends RuntimeException {
+
+    private final String upstream;
+
+    /**
+     * Constructor
+     *
+     * @param upstream the upstream service name
+     */
+    public UpstreamConcurrencyLimitException(String upstream) {
+        super("Concurrency limit of upstream [%s] reached".formatted(upstream));
+        this.upstream = upstream;
+    }
+}
@@ -0,0 +1,298 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.api.JwtIssuerApi;
+import it.pagopa.ecommerce.commons.generated.npg.v1.api.PaymentServicesApi;
+import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodService;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
+import it.pagopa.ecommerce.payment.methods.server.model.BundleDto;
+import it.pagopa.ecommerce.payment.methods.server.model.CalculateFeeRequestDto;
+import it.pagopa.ecommerce.payment.methods.server.model.CalculateFeeResponseDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodRequestDto;
+import it.pagopa.ecommerce.payment.methods.server.model.TransferListItemDto;
+import it.pagopa.ecommerce.payment.methods.v2.server.model.PaymentNoticeDto;
+import it.pagopa.generated.ecommerce.gec.v1.api.CalculatorApi;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * In-process application warm-up, performed before the application starts
+ * accepting traffic. The warm-up:
+ * <ul>
+ * <li>pre-opens (TLS handshake included) a configurable number of connections
+ * in the connection pool of each upstream service, with concurrent
+ * {@code OPTIONS} requests to the upstream base path whose response is
+ * discarded, excluded from the upstream adaptive concurrency limit</li>
+ * <li>JIT-warms the payment methods retrieval and mapping code, invoking the
+ * services directly instead of performing loopback HTTP calls</li>
+ * <li>exercises the Jackson codecs of the exchanged DTOs, encoding the services
+ * results and round-tripping sample fee requests and responses</li>
+ * </ul>
+ * Spring Boot moves the readiness state to {@code ACCEPTING_TRAFFIC} only once
+ * all the {@link ApplicationReadyEvent} listeners returned, so the readiness
+ * probe stays down until the warm-up completes or times out. Warm-up failures
+ * are logged and never prevent the application from starting.
+ */
+@Component
+@Slf4j
+public class ApplicationWarmup {
+
+    private static final String WARMUP_CLIENT_ID = PaymentMethodRequestDto.ClientIdEnum.CHECKOUT.toString();
+
+    private static final String WARMUP_CREDITOR_INSTITUTION = "77777777777";
+
+    /**
+     * Upstream service whose connection pool is warmed up
+     *
+     * @param name      the upstream name
+     * @param webClient the upstream web client, sharing the upstream connection
+     *                  pool
+     * @param baseUrl   the upstream base url
+     */
+    record Upstream(
+            String name,
+            WebClient webClient,
+            String baseUrl
+    ) {
+    }
+
+    private final List<Upstream> upstreams;
+
+    private final PaymentMethodService paymentMethodService;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final int connectionsPerUpstream;
+
+    private final int iterations;
+
+    private final Duration timeout;
+
+    private final String warmupPaymentMethodId;
+
+    private final List<Object> sampleDtos = List.of(
+            new CalculateFeeRequestDto()
+                    .touchpoint(WARMUP_CLIENT_ID)
+                    .paymentAmount(1L)
+                    .primaryCreditorInstitution(WARMUP_CREDITOR_INSTITUTION)
+                    .addTransferListItem(
+                            new TransferListItemDto().creditorInstitution(WARMUP_CREDITOR_INSTITUTION)
+                                    .digitalStamp(false)
+                    )
+                    .isAllCCP(false),
+            new it.pagopa.ecommerce.payment.methods.v2.server.model.CalculateFeeRequestDto()
+                    .touchpoint(WARMUP_CLIENT_ID)
+                    .isAllCCP(false)
+                    .addPaymentNoticesItem(
+                            new PaymentNoticeDto()
+                                    .paymentAmount(1L)
+                                    .primaryCreditorInstitution(WARMUP_CREDITOR_INSTITUTION)
+                                    .addTransferListItem(
+                                            new it.pagopa.ecommerce.payment.methods.v2.server.model.TransferListItemDto()
+                                                    .creditorInstitution(WARMUP_CREDITOR_INSTITUTION)
+                                                    .digitalStamp(false)
+                                    )
+                    ),
+            new CalculateFeeResponseDto()
+                    .paymentMethodName(WARMUP_CLIENT_ID)
+                    .belowThreshold(false)
+                    .addBundlesItem(new BundleDto().idPsp(WARMUP_CREDITOR_INSTITUTION).taxPayerFee(1L).onUs(false)),
+            new it.pagopa.ecommerce.payment.methods.v2.server.model.CalculateFeeResponseDto()
+                    .paymentMethodName(WARMUP_CLIENT_ID)
+                    .belowThreshold(false)
+                    .addBundlesItem(
+                            new it.pagopa.ecommerce.payment.methods.v2.server.model.BundleDto()
+                                    .idPsp(WARMUP_CREDITOR_INSTITUTION).taxPayerFee(1L).onUs(false)
+                    )
+    );
+
+    @Autowired
+    public ApplicationWarmup(
+            @Qualifier("afmWebClient") CalculatorApi afmApi,
+            @Qualifier("afmWebClientV2") it.pagopa.generated.ecommerce.gec.v2.api.CalculatorApi afmApiV2,
+            @Qualifier("npgWebClient") PaymentServicesApi npgApi,
+            @Qualifier("jwtIssuerWebClient") JwtIssuerApi jwtIssuerApi,
+            PaymentMethodService paymentMethodService,
+            ObjectMapper objectMapper,
+            @Value("${warmup.enabled}") boolean enabled,
+            @Value("${warmup.connectionsPerUpstream}") int connectionsPerUpstream,
+            @Value("${warmup.iterations}") int iterations,
+            @Value("${warmup.timeoutMillis}") long timeoutMillis,
+            @Value("${warmup.payment.method.id}") String warmupPaymentMethodId
+    ) {
+        this(
+                List.of(
+                        new Upstream(
+                                "afm-v1",
+                                afmApi.getApiClient().getWebClient(),
+                                afmApi.getApiClient().getBasePath()
+                        ),
+                        new Upstream(
+                                "afm-v2",
+                                afmApiV2.getApiClient().getWebClient(),
+                                afmApiV2.getApiClient().getBasePath()
+                        ),
+                        new Upstream(
+                                "npg",
+                                npgApi.getApiClient().getWebClient(),
+                                npgApi.getApiClient().getBasePath()
+                        ),
+                        new Upstream(
+                                "jwt-issuer",
+                                jwtIssuerApi.getApiClient().getWebClient(),
+                                jwtIssuerApi.getApiClient().getBasePath()
+                        )
+                ),
+                paymentMethodService,
+                objectMapper,
+                enabled,
+                connectionsPerUpstream,
+                iterations,
+                Duration.ofMillis(timeoutMillis),
+                warmupPaymentMethodId
+        );
+    }
+
+    ApplicationWarmup(
+            List<Upstream> upstreams,
+            PaymentMethodService paymentMethodService,
+            ObjectMapper objectMapper,
+            boolean enabled,
+            int connectionsPerUpstream,
+            int iterations,
+            Duration timeout,
+            String warmupPaymentMethodId
+    ) {
+        this.upstreams = upstreams;
+        this.paymentMethodService = paymentMethodService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.connectionsPerUpstream = connectionsPerUpstream;
+        this.iterations = iterations;
+        this.timeout = timeout;
+        this.warmupPaymentMethodId = warmupPaymentMethodId;
+    }
+
+    /**
+     * Perform the warm-up, blocking until it completes or times out
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            log.info("Application warm-up disabled");
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Mono.when(
+                Flux.fromIterable(upstreams).flatMap(this::preConnect),
+                warmUpInProcess()
+        )
+                .timeout(timeout)
+                .doOnError(
+                        TimeoutException.class,
+                        error -> log.warn("Application warm-up timed out after [{}] ms", timeout.toMillis())
+                )
+                .onErrorComplete()
+                .block();
+        log.info(
+                "Application warm-up completed in [{}] ms",
+                Duration.ofNanos(System.nanoTime() - startNanos).toMillis()
+        );
+    }
+
+    private Mono<Void> preConnect(Upstream upstream) {
+        return Flux.range(0, connectionsPerUpstream)
+                .flatMap(
+                        ignored -> upstream.webClient()
+                                .options()
+                                .uri(upstream.baseUrl())
+                                // warm-up calls must not train the upstream concurrency limit
+                                .attribute(AdaptiveConcurrencyLimiter.UNLIMITED_ATTRIBUTE, true)
+                                .exchangeToMono(ClientResponse::releaseBody),
+                        connectionsPerUpstream
+                )
+                .then()
+                .doOnSuccess(
+                        ignored -> log.info(
+                                "Pre-connected [{}] connections to upstream [{}]",
+                                connectionsPerUpstream,
+                                upstream.name()
+                        )
+                )
+                .onErrorResume(error -> {
+                    log.warn("Error pre-connecting to upstream [{}]: [{}]", upstream.name(), error.toString());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> warmUpInProcess() {
+        return Mono.when(
+                repeated(
+                        "payment methods retrieval",
+                        () -> paymentMethodService.retrievePaymentMethodsResponse(null, WARMUP_CLIENT_ID, null)
+                                .doOnNext(this::encode)
+                ),
+                repeated(
+                        "payment method lookup",
+                        () -> paymentMethodService.retrievePaymentMethodById(warmupPaymentMethodId, WARMUP_CLIENT_ID)
+                                .map(PaymentMethodService::paymentMethodToResponseDto)
+                                .doOnNext(this::encode)
+                ),
+                repeated(
+                        "fee DTOs codecs",
+                        () -> Mono.fromRunnable(() -> sampleDtos.forEach(this::roundTrip))
+                )
+        );
+    }
+
+    /**
+     * Repeat the input warm-up step for the configured number of iterations,
+     * stopping at the first error
+     */
+    private Mono<Void> repeated(
+                                String step,
+                                Supplier<Mono<?>> operation
+    ) {
+        return Flux.range(0, iterations)
+                .concatMap(ignored -> operation.get())
+                .then()
+                .onErrorResume(error -> {
+                    log.warn("Error warming up [{}]: [{}]", step, error.toString());
+                    return Mono.empty();
+                });
+    }
+
+    private byte[] encode(Object dto) {
+        try {
+            return objectMapper.writeValueAsBytes(dto);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void roundTrip(Object dto) {
+        try {
+            objectMapper.readValue(encode(dto), dto.getClass());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
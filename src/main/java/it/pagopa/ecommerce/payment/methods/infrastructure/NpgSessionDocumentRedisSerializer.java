@@ -0,0 +1,56 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+/**
+ * {@link VersionedRedisSerializer} of {@link NpgSessionDocument}. The binary
+ * format writes the transaction id as first field, so that the transaction id
+ * compare-and-set Redis script can check and set it without decoding the whole
+ * document (see {@link NpgSessionsTemplateWrapper#compareAndSetTransactionId}).
+ * Card data are written as a presence flag followed by the card data fields.
+ */
+public class NpgSessionDocumentRedisSerializer extends VersionedRedisSerializer<NpgSessionDocument> {
+
+    /**
+     * Primary constructor
+     *
+     * @param writeFormat the format used to write documents
+     */
+    public NpgSessionDocumentRedisSerializer(Format writeFormat) {
+        super(NpgSessionDocument.class, writeFormat);
+    }
+
+    @Override
+    protected void writeBinary(
+                               NpgSessionDocument value,
+                               BinaryWriter writer
+    ) {
+        writer.writeString(value.transactionId());
+        writer.writeString(value.orderId());
+        writer.writeString(value.correlationId());
+        writer.writeString(value.sessionId());
+        writer.writeString(value.securityToken());
+        CardDataDocument cardData = value.cardData();
+        writer.writeBoolean(cardData != null);
+        if (cardData != null) {
+            writer.writeString(cardData.bin());
+            writer.writeString(cardData.lastFourDigits());
+            writer.writeString(cardData.expiringDate());
+            writer.writeString(cardData.circuit());
+        }
+    }
+
+    @Override
+    protected NpgSessionDocument readBinary(BinaryReader reader) {
+        String transactionId = reader.readString();
+        String orderId = reader.readString();
+        String correlationId = reader.readString();
+        String sessionId = reader.readString();
+        String securityToken = reader.readString();
+        CardDataDocument cardData = reader.readBoolean() ? new CardDataDocument(
+                reader.readString(),
+                reader.readString(),
+                reader.readString(),
+                reader.readString()
+        ) : null;
+        return new NpgSessionDocument(orderId, correlationId, sessionId, securityToken, cardData, transactionId);
+    }
+}
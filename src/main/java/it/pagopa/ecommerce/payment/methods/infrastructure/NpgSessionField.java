@@ -0,0 +1,91 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Fields of {@link NpgSessionDocument} as stored in Redis hashes by
+ * {@link NpgSessionsTemplateWrapper} when configured with
+ * {@link NpgSessionsTemplateWrapper.StorageMode#HASH}. Card data fields are
+ * flattened with the <code>cardData.</code> prefix, null values are not stored.
+ */
+public enum NpgSessionField {
+    ORDER_ID("orderId", NpgSessionDocument::orderId),
+    CORRELATION_ID("correlationId", NpgSessionDocument::correlationId),
+    SESSION_ID("sessionId", NpgSessionDocument::sessionId),
+    SECURITY_TOKEN("securityToken", NpgSessionDocument::securityToken),
+    TRANSACTION_ID("transactionId", NpgSessionDocument::transactionId),
+    CARD_DATA_BIN("cardData.bin", session -> session.cardData() == null ? null : session.cardData().bin()),
+    CARD_DATA_LAST_FOUR_DIGITS(
+            "cardData.lastFourDigits",
+            session -> session.cardData() == null ? null : session.cardData().lastFourDigits()
+    ),
+    CARD_DATA_EXPIRING_DATE(
+            "cardData.expiringDate",
+            session -> session.cardData() == null ? null : session.cardData().expiringDate()
+    ),
+    CARD_DATA_CIRCUIT("cardData.circuit", session -> session.cardData() == null ? null : session.cardData().circuit());
+
+    private final String hashField;
+
+    private final Function<NpgSessionDocument, String> getter;
+
+    NpgSessionField(
+            String hashField,
+            Function<NpgSessionDocument, String> getter
+    ) {
+        this.hashField = hashField;
+        this.getter = getter;
+    }
+
+    /**
+     * @return the Redis hash field name
+     */
+    public String hashField() {
+        return hashField;
+    }
+
+    /**
+     * Convert a session to the Redis hash fields storing it
+     *
+     * @param session the session
+     * @return the non-null session fields, by hash field name
+     */
+    public static Map<String, String> toHash(NpgSessionDocument session) {
+        Map<String, String> hash = new LinkedHashMap<>();
+        for (NpgSessionField field : values()) {
+            String value = field.getter.apply(session);
+            if (value != null) {
+                hash.put(field.hashField, value);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Convert the Redis hash fields storing a session to the session document.
+     * Fields missing from the input hash, as when only some of the session fields
+     * are read, are set to null; card data are set only if the card bin is present
+     *
+     * @param hash the session fields, by hash field name
+     * @return the session document
+     */
+    public static NpgSessionDocument fromHash(Map<String, String> hash) {
+        String bin = hash.get(CARD_DATA_BIN.hashField);
+        return new NpgSessionDocument(
+                hash.get(ORDER_ID.hashField),
+                hash.get(CORRELATION_ID.hashField),
+                hash.get(SESSION_ID.hashField),
+                hash.get(SECURITY_TOKEN.hashField),
+                bin == null ? null
+                        : new CardDataDocument(
+                                bin,
+                                hash.get(CARD_DATA_LAST_FOUR_DIGITS.hashField),
+                                hash.get(CARD_DATA_EXPIRING_DATE.hashField),
+                                hash.get(CARD_DATA_CIRCUIT.hashField)
+                        ),
+                hash.get(TRANSACTION_ID.hashField)
+        );
+    }
+}
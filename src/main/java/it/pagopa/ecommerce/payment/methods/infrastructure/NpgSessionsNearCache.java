@@ -0,0 +1,329 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded in-process near-cache of {@link NpgSessionDocument} in front of
+ * {@link NpgSessionsTemplateWrapper}. Only sessions already associated to a
+ * transaction are cached: such sessions are not modified anymore, while
+ * sessions without a transaction id may be claimed by another instance at any
+ * time and are always read from Redis, so that a stale transaction id is never
+ * served.
+ * <p>
+ * Coherence with Redis is kept through keyspace notifications on the NPG
+ * sessions keyspace (Redis must be configured with
+ * {@code notify-keyspace-events} including at least {@code Kg$x}): any
+ * notification for a session evicts it. The cache is bypassed until the
+ * notifications delivery is verified: once subscribed, a probe key is written
+ * into the NPG sessions keyspace and the cache is enabled only when its
+ * notification, or any other session one, is received. If none is received
+ * within {@value #PROBE_TIMEOUT_SECONDS} seconds, as with Redis default
+ * configuration, the cache stays bypassed and the subscription is retried. The
+ * cache is cleared whenever the subscription is lost, since invalidations may
+ * have been missed. Entries TTL is capped to the NPG sessions one.
+ * <p>
+ * The following metrics are reported:
+ * <ul>
+ * <li>{@value #LOOKUP_METRIC_NAME}: cache lookups by {@code result}
+ * ({@code hit}, {@code miss})</li>
+ * <li>{@value #INVALIDATION_METRIC_NAME}: invalidations by {@code source}
+ * ({@code local} write, keyspace {@code notification})</li>
+ * <li>{@value #INVALIDATION_LAG_METRIC_NAME}: time elapsed between a local
+ * write and the reception of its keyspace notification</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class NpgSessionsNearCache {
+
+    static final String LOOKUP_METRIC_NAME = "npg.sessions.near.cache.lookups";
+    static final String INVALIDATION_METRIC_NAME = "npg.sessions.near.cache.invalidations";
+    static final String INVALIDATION_LAG_METRIC_NAME = "npg.sessions.near.cache.invalidation.lag";
+
+    private static final Duration MIN_RETRY_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration PENDING_WRITES_TTL = Duration.ofMinutes(1);
+    private static final int GENERATION_STRIPES = 1024;
+    private static final String PROBE_KEY_PREFIX = "near-cache-probe:";
+    static final long PROBE_TIMEOUT_SECONDS = 10;
+
+    private final ReactiveRedisConnectionFactory redisConnectionFactory;
+    private final boolean enabled;
+    private final String keyspaceChannelPrefix;
+    private final Duration probeTimeout;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Cache<String, NpgSessionDocument> sessions;
+    /**
+     * Local writes start time, used to measure the invalidation lag
+     */
+    private final Cache<String, Long> pendingWrites;
+    /**
+     * Invalidation counters striped by order id, used to discard Redis reads racing
+     * with an invalidation of the same session
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter localInvalidationCounter;
+    private final Counter notificationInvalidationCounter;
+    private final Timer invalidationLagTimer;
+    private volatile boolean listening;
+    private Disposable subscription;
+
+    @Autowired
+    public NpgSessionsNearCache(
+            ReactiveRedisConnectionFactory redisConnectionFactory,
+            MeterRegistry meterRegistry,
+            @Value("${npg.sessionsNearCache.enabled}") boolean enabled,
+            @Value("${npg.sessionsNearCache.maxSize}") long maxSize,
+            @Value("${npg.sessionsNearCache.ttlSeconds}") long ttlSeconds,
+            @Value("${npg.sessionsTTL}") long sessionsTtlSeconds
+    ) {
+        this(
+                redisConnectionFactory,
+                meterRegistry,
+                enabled,
+                maxSize,
+                ttlSeconds,
+                sessionsTtlSeconds,
+                Duration.ofSeconds(PROBE_TIMEOUT_SECONDS)
+        );
+    }
+
+    NpgSessionsNearCache(
+            ReactiveRedisConnectionFactory redisConnectionFactory,
+            MeterRegistry meterRegistry,
+            boolean enabled,
+            long maxSize,
+            long ttlSeconds,
+            long sessionsTtlSeconds,
+            Duration probeTimeout
+    ) {
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.enabled = enabled;
+        this.keyspaceChannelPrefix = NpgSessionsTemplateWrapper.KEYSPACE + ":";
+        this.probeTimeout = probeTimeout;
+        this.redisTemplate = new ReactiveStringRedisTemplate(redisConnectionFactory);
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(Math.min(ttlSeconds, sessionsTtlSeconds)))
+                .build();
+        this.pendingWrites = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(PENDING_WRITES_TTL)
+                .build();
+        this.hitCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "result", "hit");
+        this.missCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "result", "miss");
+        this.localInvalidationCounter = meterRegistry.counter(INVALIDATION_METRIC_NAME, "source", "local");
+        this.notificationInvalidationCounter = meterRegistry
+                .counter(INVALIDATION_METRIC_NAME, "source", "notification");
+        this.invalidationLagTimer = meterRegistry.timer(INVALIDATION_LAG_METRIC_NAME);
+    }
+
+    /**
+     * Subscribe to the NPG sessions keyspace notifications, enabling the cache once
+     * their delivery is verified
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("NPG sessions near-cache disabled, all sessions will be read from Redis");
+            return;
+        }
+        subscription = Flux.usingWhen(
+                Mono.fromSupplier(() -> new ReactiveRedisMessageListenerContainer(redisConnectionFactory)),
+                container -> container
+                        .receiveLater(new PatternTopic("__keyspace@*__:" + keyspaceChannelPrefix + "*"))
+                        .flatMapMany(
+                                messages -> Flux.merge(messages, writeProbe().then(Mono.empty()))
+                                        // only the first notification has to be received in time
+                                        .timeout(
+                                                Mono.delay(probeTimeout),
+                                                message -> Mono.never(),
+                                                Flux.error(
+                                                        new IllegalStateException(
+                                                                "No NPG sessions keyspace notification received, check Redis notify-keyspace-events configuration"
+                                                        )
+                                                )
+                                        )
+                        )
+                        .doOnNext(ignored -> {
+                            if (!listening) {
+                                listening = true;
+                                log.info(
+                                        "NPG sessions near-cache enabled, keyspace notifications delivery verified"
+                                );
+                            }
+                        })
+                        .filter(message -> !message.getChannel().contains(keyspaceChannelPrefix + PROBE_KEY_PREFIX)),
+                ReactiveRedisMessageListenerContainer::destroyLater
+        )
+                .doOnError(error -> onSubscriptionLost())
+                .doOnComplete(this::onSubscriptionLost)
+                .retryWhen(
+                        Retry.backoff(Long.MAX_VALUE, MIN_RETRY_BACKOFF)
+                                .maxBackoff(MAX_RETRY_BACKOFF)
+                                .doBeforeRetry(
+                                        signal -> log.warn(
+                                                "NPG sessions keyspace notifications subscription error, resubscribing. Attempt: [{}]",
+                                                signal.totalRetries() + 1,
+                                                signal.failure()
+                                        )
+                                )
+                )
+                .repeatWhen(completed -> completed.delayElements(MIN_RETRY_BACKOFF))
+                .subscribe(message -> onKeyspaceNotification(message.getChannel()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        onSubscriptionLost();
+    }
+
+    /**
+     * Retrieve a cached session
+     *
+     * @param orderId the session order id
+     * @return the cached session, empty if the session has to be read from Redis
+     */
+    public Optional<NpgSessionDocument> get(String orderId) {
+        if (!listening) {
+            return Optional.empty();
+        }
+        NpgSessionDocument session = sessions.getIfPresent(orderId);
+        (session != null ? hitCounter : missCounter).increment();
+        return Optional.ofNullable(session);
+    }
+
+    /**
+     * Retrieve the current invalidation generation of a session, to be taken before
+     * reading it from Redis and passed to {@link #put}
+     *
+     * @param orderId the session order id
+     * @return the session invalidation generation
+     */
+    public long generation(String orderId) {
+        return generations.get(stripe(orderId));
+    }
+
+    /**
+     * Cache a session read from Redis. The session is not cached if it is not
+     * associated to a transaction or if it has been invalidated since the read
+     * started
+     *
+     * @param session    the session read from Redis
+     * @param generation the session generation taken before the read
+     */
+    public void put(
+                    NpgSessionDocument session,
+                    long generation
+    ) {
+        if (!listening || session.transactionId() == null) {
+            return;
+        }
+        sessions.asMap().compute(
+                session.orderId(),
+                (
+                 orderId,
+                 cached
+                ) -> {
+                    // checked under the entry lock, so that it cannot race with an invalidation
+                    if (generation(orderId) != generation) {
+                        return cached;
+                    }
+                    return session;
+                }
+        );
+    }
+
+    /**
+     * Invalidate a session written by this instance. Must be called once the write
+     * is completed
+     *
+     * @param orderId the session order id
+     */
+    public void invalidate(String orderId) {
+        if (!enabled) {
+            return;
+        }
+        pendingWrites.put(orderId, System.nanoTime());
+        evict(orderId);
+        localInvalidationCounter.increment();
+    }
+
+    boolean isListening() {
+        return listening;
+    }
+
+    void onKeyspaceNotification(String channel) {
+        int keyStart = channel.indexOf(keyspaceChannelPrefix);
+        if (keyStart < 0) {
+            return;
+        }
+        String orderId = channel.substring(keyStart + keyspaceChannelPrefix.length());
+        Long writeStart = pendingWrites.asMap().remove(orderId);
+        if (writeStart != null) {
+            invalidationLagTimer.record(System.nanoTime() - writeStart, TimeUnit.NANOSECONDS);
+        }
+        evict(orderId);
+        notificationInvalidationCounter.increment();
+    }
+
+    private Mono<Boolean> writeProbe() {
+        return redisTemplate.opsForValue().set(
+                keyspaceChannelPrefix + PROBE_KEY_PREFIX + UUID.randomUUID(),
+                "",
+                probeTimeout
+        );
+    }
+
+    private void onSubscriptionLost() {
+        listening = false;
+        sessions.invalidateAll();
+    }
+
+    private void evict(String orderId) {
+        sessions.asMap().compute(
+                orderId,
+                (
+                 key,
+                 cached
+                ) -> {
+                    generations.incrementAndGet(stripe(key));
+                    return null;
+                }
+        );
+    }
+
+    private static int stripe(String orderId) {
+        return Math.floorMod(orderId.hashCode(), GENERATION_STRIPES);
+    }
+}
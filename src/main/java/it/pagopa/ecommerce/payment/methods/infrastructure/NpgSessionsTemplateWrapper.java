@@ -1,24 +1,380 @@
 package it.pagopa.ecommerce.payment.methods.infrastructure;
 
 import it.pagopa.ecommerce.commons.redis.reactivetemplatewrappers.ReactiveRedisTemplateWrapper;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import reactor.core.publisher.Mono;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 
+/**
+ * Redis template wrapper of NPG sessions. Sessions are stored either as whole
+ * serialized documents or as Redis hashes, according to the configured
+ * {@link StorageMode}. Sessions stored with the other storage mode are still
+ * read and updated, falling back to the other layout when a Redis
+ * <code>WRONGTYPE</code> error is returned, so that the storage mode can be
+ * switched while sessions written with the previous one are alive.
+ */
 public class NpgSessionsTemplateWrapper extends ReactiveRedisTemplateWrapper<NpgSessionDocument> {
+
+    /**
+     * Layout used to store NPG sessions in Redis
+     */
+    public enum StorageMode {
+        /**
+         * Sessions are stored as a whole serialized document, rewritten on every update
+         */
+        DOCUMENT,
+        /**
+         * Sessions are stored as Redis hashes (see {@link NpgSessionField}), updated
+         * and read field by field
+         */
+        HASH
+    }
+
+    /**
+     * Keyspace of NPG sessions keys
+     */
+    public static final String KEYSPACE = "npg";
+
+    private static final RedisScript<NpgSessionDocument> COMPARE_AND_SET_TRANSACTION_ID_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/npg-session-compare-and-set-transaction-id.lua"),
+            NpgSessionDocument.class
+    );
+
+    private static final RedisScript<NpgSessionDocument> SET_CARD_DATA_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/npg-session-set-card-data.lua"),
+            NpgSessionDocument.class
+    );
+
+    private static final RedisScript<Long> HASH_SET_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/npg-session-hash-set.lua"),
+            Long.class
+    );
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> HASH_COMPARE_AND_SET_TRANSACTION_ID_SCRIPT = RedisScript.of(
+            new ClassPathResource("redis/npg-session-hash-compare-and-set-transaction-id.lua"),
+            List.class
+    );
+
+    private static final String REDIS_WRONG_TYPE_ERROR = "WRONGTYPE";
+
+    private final ReactiveRedisTemplate<String, NpgSessionDocument> redisTemplate;
+
+    private final ReactiveStringRedisTemplate hashTemplate;
+
+    private final String keyspace;
+
+    private final Duration ttl;
+
+    private final NpgSessionsNearCache nearCache;
+
+    private final StorageMode storageMode;
+
     /**
      * Primary constructor
      *
      * @param redisTemplate inner redis template
      * @param keyspace      keyspace associated to this wrapper
      * @param ttl           time to live for keys
+     * @param nearCache     in-process near-cache of sessions
+     * @param storageMode   layout used to write sessions
      */
     public NpgSessionsTemplateWrapper(
             ReactiveRedisTemplate<String, NpgSessionDocument> redisTemplate,
             String keyspace,
-            Duration ttl
+            Duration ttl,
+            NpgSessionsNearCache nearCache,
+            StorageMode storageMode
     ) {
         super(redisTemplate, keyspace, ttl);
+        this.redisTemplate = redisTemplate;
+        this.hashTemplate = new ReactiveStringRedisTemplate(redisTemplate.getConnectionFactory());
+        this.keyspace = keyspace;
+        this.ttl = ttl;
+        this.nearCache = nearCache;
+        this.storageMode = storageMode;
+    }
+
+    /**
+     * Retrieve a session, from the near-cache if present
+     *
+     * @param orderId the session order id
+     * @return the session, or an empty Mono if no session exists for the input
+     *         order id
+     */
+    @Override
+    public Mono<NpgSessionDocument> findById(String orderId) {
+        return Mono.defer(() -> {
+            Optional<NpgSessionDocument> cached = nearCache.get(orderId);
+            if (cached.isPresent()) {
+                return Mono.just(cached.get());
+            }
+            long generation = nearCache.generation(orderId);
+            return inStorageMode(() -> super.findById(orderId), () -> findHashById(orderId))
+                    .doOnNext(session -> nearCache.put(session, generation));
+        });
+    }
+
+    /**
+     * Retrieve the input fields of a session. With the {@link StorageMode#HASH}
+     * storage mode only the requested fields are read from Redis, leaving the other
+     * ones null, while the whole session is returned otherwise or when near-cached.
+     *
+     * @param orderId the session order id
+     * @param fields  the session fields needed by the caller
+     * @return the session, or an empty Mono if no session exists for the input
+     *         order id
+     */
+    public Mono<NpgSessionDocument> findById(
+                                             String orderId,
+                                             Set<NpgSessionField> fields
+    ) {
+        return Mono.defer(() -> {
+            Optional<NpgSessionDocument> cached = nearCache.get(orderId);
+            if (cached.isPresent()) {
+                return Mono.just(cached.get());
+            }
+            return inStorageMode(() -> super.findById(orderId), () -> findHashFieldsById(orderId, fields));
+        });
+    }
+
+    @Override
+    public Mono<Boolean> save(NpgSessionDocument value) {
+        return save(value, ttl);
+    }
+
+    @Override
+    public Mono<Boolean> save(
+                              NpgSessionDocument value,
+                              Duration keyTtl
+    ) {
+        return invalidatingNearCache(
+                inStorageMode(() -> super.save(value, keyTtl), () -> saveHash(value, keyTtl, true)),
+                value.orderId()
+        );
+    }
+
+    /**
+     * Set the card data of the input session, resetting its TTL as on
+     * {@link #save(Object)}. With the {@link StorageMode#HASH} storage mode only
+     * the card data fields are written, provided that the session still exists,
+     * while the whole session is written otherwise. In both cases, the transaction
+     * id the session has been associated to after the input session was read (see
+     * {@link #compareAndSetTransactionId}) is kept: whole sessions are read,
+     * updated and written back server side in a single atomic step.
+     *
+     * @param session  the session to be updated
+     * @param cardData the card data
+     * @return true if the session has been updated
+     */
+    public Mono<Boolean> saveCardData(
+                                      NpgSessionDocument session,
+                                      CardDataDocument cardData
+    ) {
+        NpgSessionDocument updated = new NpgSessionDocument(
+                session.orderId(),
+                session.correlationId(),
+                session.sessionId(),
+                session.securityToken(),
+                cardData,
+                session.transactionId()
+        );
+        Map<String, String> cardDataFields = NpgSessionField.toHash(updated);
+        cardDataFields.keySet().removeIf(field -> !field.startsWith("cardData."));
+        return invalidatingNearCache(
+                inStorageMode(
+                        () -> saveKeepingTransactionId(updated),
+                        () -> writeHash(session.orderId(), cardDataFields, ttl, false)
+                ),
+                session.orderId()
+        );
+    }
+
+    @Override
+    public Mono<Boolean> deleteById(String orderId) {
+        return invalidatingNearCache(super.deleteById(orderId), orderId);
+    }
+
+    /**
+     * Atomically associate the NPG session identified by the input order id to the
+     * given transaction id, if the session is not already associated to a
+     * transaction. The check and the update are performed server side in a single
+     * round trip, so that concurrent requests cannot associate the same session to
+     * different transactions. When updated, the session TTL is reset as on
+     * {@link #save(Object)}.
+     *
+     * @param orderId       the session order id
+     * @param transactionId the transaction id to be associated to the session
+     * @return the session document as stored after the operation, whose transaction
+     *         id differs from the input one if the session was already associated
+     *         to another transaction, or an empty Mono if no session exists for the
+     *         input order id
+     */
+    public Mono<NpgSessionDocument> compareAndSetTransactionId(
+                                                               String orderId,
+                                                               String transactionId
+    ) {
+        List<String> keys = List.of(keyFor(orderId));
+        List<String> args = List.of(transactionId, String.valueOf(ttl.toMillis()));
+        Mono<NpgSessionDocument> session = inStorageMode(
+                () -> redisTemplate.execute(
+                        COMPARE_AND_SET_TRANSACTION_ID_SCRIPT,
+                        keys,
+                        args,
+                        RedisElementWriter.from(StringRedisSerializer.UTF_8),
+                        redisTemplate.getSerializationContext().getValueSerializationPair().getReader()
+                ).next(),
+                () -> hashTemplate.execute(HASH_COMPARE_AND_SET_TRANSACTION_ID_SCRIPT, keys, args)
+                        .next()
+                        .filter(entries -> !entries.isEmpty())
+                        .map(NpgSessionsTemplateWrapper::fromHashEntries)
+        );
+        return invalidatingNearCache(session, orderId);
+    }
+
+    private Mono<Boolean> saveKeepingTransactionId(NpgSessionDocument session) {
+        RedisSerializationContext.SerializationPair<NpgSessionDocument> documents = redisTemplate
+                .getSerializationContext().getValueSerializationPair();
+        List<ByteBuffer> args = List.of(
+                documents.write(session),
+                ByteBuffer.wrap(StringRedisSerializer.UTF_8.serialize(String.valueOf(ttl.toMillis())))
+        );
+        RedisElementWriter<ByteBuffer> argsWriter = ByteBuffer::duplicate;
+        return redisTemplate.execute(
+                SET_CARD_DATA_SCRIPT,
+                List.of(keyFor(session.orderId())),
+                args,
+                argsWriter,
+                documents.getReader()
+        )
+                .next()
+                .map(stored -> true);
+    }
+
+    private Mono<NpgSessionDocument> findHashById(String orderId) {
+        return hashTemplate.<String, String>opsForHash().entries(keyFor(orderId))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(hash -> !hash.isEmpty())
+                .map(NpgSessionField::fromHash);
+    }
+
+    private Mono<NpgSessionDocument> findHashFieldsById(
+                                                        String orderId,
+                                                        Set<NpgSessionField> fields
+    ) {
+        // the order id is always read, to tell missing sessions from missing fields
+        List<NpgSessionField> readFields = new ArrayList<>(EnumSet.of(NpgSessionField.ORDER_ID));
+        fields.stream().filter(field -> field != NpgSessionField.ORDER_ID).forEach(readFields::add);
+        return hashTemplate.<String, String>opsForHash()
+                .multiGet(keyFor(orderId), readFields.stream().map(NpgSessionField::hashField).toList())
+                .filter(values -> values.get(0) != null)
+                .map(values -> {
+                    Map<String, String> hash = new HashMap<>();
+                    for (int i = 0; i < readFields.size(); i++) {
+                        hash.put(readFields.get(i).hashField(), values.get(i));
+                    }
+                    return NpgSessionField.fromHash(hash);
+                });
+    }
+
+    private Mono<Boolean> saveHash(
+                                   NpgSessionDocument session,
+                                   Duration keyTtl,
+                                   boolean replace
+    ) {
+        return writeHash(session.orderId(), NpgSessionField.toHash(session), keyTtl, replace);
+    }
+
+    private Mono<Boolean> writeHash(
+                                    String orderId,
+                                    Map<String, String> fields,
+                                    Duration keyTtl,
+                                    boolean replace
+    ) {
+        List<String> args = new ArrayList<>(2 + fields.size() * 2);
+        args.add(String.valueOf(keyTtl.toMillis()));
+        args.add(replace ? "1" : "0");
+        fields.forEach(
+                (
+                 field,
+                 value
+                ) -> {
+                    args.add(field);
+                    args.add(value);
+                }
+        );
+        return hashTemplate.execute(HASH_SET_SCRIPT, List.of(keyFor(orderId)), args)
+                .next()
+                .map(written -> written == 1L);
+    }
+
+    private static NpgSessionDocument fromHashEntries(List<?> entries) {
+        Map<String, String> hash = new HashMap<>();
+        for (int i = 0; i + 1 < entries.size(); i += 2) {
+            hash.put(String.valueOf(entries.get(i)), String.valueOf(entries.get(i + 1)));
+        }
+        return NpgSessionField.fromHash(hash);
+    }
+
+    /**
+     * Perform the input operation with the layout of the configured storage mode,
+     * falling back to the other layout if the session is stored with it
+     */
+    private <T> Mono<T> inStorageMode(
+                                      Supplier<Mono<T>> document,
+                                      Supplier<Mono<T>> hash
+    ) {
+        Supplier<Mono<T>> primary = storageMode == StorageMode.HASH ? hash : document;
+        Supplier<Mono<T>> fallback = storageMode == StorageMode.HASH ? document : hash;
+        return Mono.defer(primary)
+                .onErrorResume(
+                        NpgSessionsTemplateWrapper::isWrongTypeError,
+                        ignored -> Mono.defer(fallback)
+                );
+    }
+
+    private static boolean isWrongTypeError(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains(REDIS_WRONG_TYPE_ERROR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String keyFor(String orderId) {
+        return "%s:%s".formatted(keyspace, orderId);
+    }
+
+    /**
+     * Invalidate the near-cached session once the input write completes, before its
+     * outcome is signaled downstream, so that callers never read their own write
+     * from a stale cache entry
+     */
+    private <T> Mono<T> invalidatingNearCache(
+                                              Mono<T> write,
+                                              String orderId
+    ) {
+        return write
+                .doOnSuccess(ignored -> nearCache.invalidate(orderId))
+                .doOnError(ignored -> nearCache.invalidate(orderId))
+                .doOnCancel(() -> nearCache.invalidate(orderId));
     }
 
     @Override
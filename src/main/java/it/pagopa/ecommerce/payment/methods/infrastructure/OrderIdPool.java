@@ -0,0 +1,230 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.pagopa.ecommerce.commons.utils.ReactiveUniqueIdUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of order ids already reserved in Redis through
+ * {@link ReactiveUniqueIdUtils}, so that NPG session creation does not wait for
+ * the unique id reservation round trip. The pool is refilled in background up
+ * to its capacity whenever its depth drops below the low watermark, reserving a
+ * whole batch of order ids concurrently: Lettuce pipelines the reservation
+ * commands on the shared connection. Since order ids are unique only while
+ * their reservation is kept by Redis, pooled order ids are discarded once older
+ * than the configured max age, that must be lower than the unique id
+ * reservation TTL ({@link #UNIQUE_ID_TTL}). When the pool is empty, or
+ * disabled, order ids are generated on the request path. The pool exposes the
+ * following metrics:
+ * <ul>
+ * <li>{@value #DEPTH_METRIC_NAME}: number of pooled order ids</li>
+ * <li>{@value #REFILL_METRIC_NAME}: time taken to reserve a batch of order
+ * ids</li>
+ * <li>{@value #ORDER_IDS_METRIC_NAME}: order ids by {@code result}, that is
+ * {@code pooled}, {@code fallback} when generated on the request path or
+ * {@code expired} when discarded because too old</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class OrderIdPool {
+
+    static final String DEPTH_METRIC_NAME = "order.id.pool.depth";
+
+    static final String REFILL_METRIC_NAME = "order.id.pool.refill";
+
+    static final String ORDER_IDS_METRIC_NAME = "order.id.pool.order.ids";
+
+    /**
+     * TTL of the order id reservations kept by Redis
+     */
+    public static final Duration UNIQUE_ID_TTL = Duration.ofSeconds(60);
+
+    private static final Duration MAINTENANCE_INTERVAL = Duration.ofSeconds(1);
+
+    private record PooledOrderId(
+            String orderId,
+            long reservedAtNanos
+    ) {
+    }
+
+    private final ReactiveUniqueIdUtils uniqueIdUtils;
+    private final boolean enabled;
+    private final int capacity;
+    private final int lowWatermark;
+    private final long maxAgeNanos;
+    private final Queue<PooledOrderId> orderIds = new ConcurrentLinkedQueue<>();
+    /**
+     * Pooled order ids count, since {@link ConcurrentLinkedQueue#size()} is not a
+     * constant time operation
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final Counter pooledCounter;
+    private final Counter fallbackCounter;
+    private final Counter expiredCounter;
+    private final Timer refillTimer;
+    private Disposable maintenance;
+
+    @Autowired
+    public OrderIdPool(
+            ReactiveUniqueIdUtils uniqueIdUtils,
+            MeterRegistry meterRegistry,
+            @Value("${npg.orderIdPool.enabled}") boolean enabled,
+            @Value("${npg.orderIdPool.capacity}") int capacity,
+            @Value("${npg.orderIdPool.lowWatermark}") int lowWatermark,
+            @Value("${npg.orderIdPool.maxAgeSeconds}") long maxAgeSeconds
+    ) {
+        if (Duration.ofSeconds(maxAgeSeconds).compareTo(UNIQUE_ID_TTL) >= 0) {
+            throw new IllegalArgumentException(
+                    "Order id pool max age %ss must be lower than the unique id TTL %ss"
+                            .formatted(maxAgeSeconds, UNIQUE_ID_TTL.toSeconds())
+            );
+        }
+        this.uniqueIdUtils = uniqueIdUtils;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.lowWatermark = lowWatermark;
+        this.maxAgeNanos = Duration.ofSeconds(maxAgeSeconds).toNanos();
+        this.pooledCounter = meterRegistry.counter(ORDER_IDS_METRIC_NAME, "result", "pooled");
+        this.fallbackCounter = meterRegistry.counter(ORDER_IDS_METRIC_NAME, "result", "fallback");
+        this.expiredCounter = meterRegistry.counter(ORDER_IDS_METRIC_NAME, "result", "expired");
+        this.refillTimer = meterRegistry.timer(REFILL_METRIC_NAME);
+        meterRegistry.gauge(DEPTH_METRIC_NAME, depth);
+    }
+
+    /**
+     * Fill the pool and start discarding expired order ids periodically, refilling
+     * the pool as needed
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("Order id pool disabled, all order ids will be generated on request");
+            return;
+        }
+        maintenance = Flux.interval(Duration.ZERO, MAINTENANCE_INTERVAL)
+                .subscribe(tick -> {
+                    discardExpired();
+                    refillIfNeeded();
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (maintenance != null) {
+            maintenance.dispose();
+        }
+    }
+
+    /**
+     * Take an order id from the pool, or generate a new one if the pool is empty
+     *
+     * @return a unique order id
+     */
+    public Mono<String> nextOrderId() {
+        return Mono.defer(() -> {
+            PooledOrderId pooled = poll();
+            if (enabled) {
+                refillIfNeeded();
+            }
+            if (pooled != null) {
+                pooledCounter.increment();
+                return Mono.just(pooled.orderId());
+            }
+            fallbackCounter.increment();
+            return uniqueIdUtils.generateUniqueId();
+        });
+    }
+
+    /**
+     * @return the number of pooled order ids
+     */
+    public int depth() {
+        return depth.get();
+    }
+
+    /**
+     * Reserve order ids up to the pool capacity, unless a refill is already in
+     * progress
+     *
+     * @return a Mono completing when the refill is done
+     */
+    Mono<Void> refill() {
+        return Mono.defer(() -> {
+            if (!refilling.compareAndSet(false, true)) {
+                return Mono.empty();
+            }
+            int batchSize = capacity - depth.get();
+            long startNanos = System.nanoTime();
+            return Flux.range(0, Math.max(batchSize, 0))
+                    .flatMap(
+                            ignored -> uniqueIdUtils.generateUniqueId()
+                                    .onErrorResume(error -> {
+                                        log.warn("Cannot reserve order id for the order id pool", error);
+                                        return Mono.empty();
+                                    }),
+                            Math.max(batchSize, 1)
+                    )
+                    .doOnNext(orderId -> {
+                        orderIds.offer(new PooledOrderId(orderId, System.nanoTime()));
+                        depth.incrementAndGet();
+                    })
+                    .then()
+                    .doFinally(signal -> {
+                        refillTimer.record(Duration.ofNanos(System.nanoTime() - startNanos));
+                        refilling.set(false);
+                    });
+        });
+    }
+
+    private void refillIfNeeded() {
+        if (depth.get() < lowWatermark && !refilling.get()) {
+            refill().subscribe();
+        }
+    }
+
+    private PooledOrderId poll() {
+        PooledOrderId pooled;
+        while ((pooled = orderIds.poll()) != null) {
+            depth.decrementAndGet();
+            if (!isExpired(pooled)) {
+                return pooled;
+            }
+            expiredCounter.increment();
+        }
+        return null;
+    }
+
+    private void discardExpired() {
+        // order ids are pooled in reservation order, so expired ones are at the head
+        PooledOrderId head;
+        while ((head = orderIds.peek()) != null && isExpired(head)) {
+            if (orderIds.remove(head)) {
+                depth.decrementAndGet();
+                expiredCounter.increment();
+            }
+        }
+    }
+
+    private boolean isExpired(PooledOrderId pooled) {
+        return System.nanoTime() - pooled.reservedAtNanos() > maxAgeNanos;
+    }
+}
@@ -0,0 +1,26 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link PaymentMethodRepository} fragment overriding the by id lookup with a
+ * coalescing, short-lived cached one. See {@link PaymentMethodByIdLookupImpl}.
+ */
+public interface PaymentMethodByIdLookup {
+
+    /**
+     * Retrieve a payment method by id
+     *
+     * @param paymentMethodId the payment method id
+     * @return the found payment method, or an empty Mono
+     */
+    Mono<PaymentMethodDocument> findById(String paymentMethodId);
+
+    /**
+     * Evict the input payment method from the local by id cache, so that the next
+     * lookup reads it from Mongo
+     *
+     * @param paymentMethodId the payment method id
+     */
+    void evictById(String paymentMethodId);
+}
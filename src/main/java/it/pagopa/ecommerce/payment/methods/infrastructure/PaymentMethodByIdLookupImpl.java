@@ -0,0 +1,106 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalescing implementation of the payment method by id lookup. Concurrent
+ * lookups for the same id share a single in-flight Mongo query, and found
+ * documents are kept in a local cache for a short TTL so that request bursts on
+ * the same few payment methods are absorbed without hitting Mongo. Not found
+ * payment methods are never cached. Lookups are counted by outcome into the
+ * {@value #LOOKUP_METRIC_NAME} metric:
+ * <ul>
+ * <li>{@code hit}: served from the local cache</li>
+ * <li>{@code miss}: a Mongo query has been performed</li>
+ * <li>{@code coalesced}: joined an already in-flight Mongo query</li>
+ * </ul>
+ */
+public class PaymentMethodByIdLookupImpl implements PaymentMethodByIdLookup {
+
+    static final String LOOKUP_METRIC_NAME = "payment.methods.lookup.by.id";
+
+    private record CachedPaymentMethod(
+            PaymentMethodDocument document,
+            long expiresAtNanos
+    ) {
+    }
+
+    private final ReactiveMongoOperations mongoOperations;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, CachedPaymentMethod> cache = new ConcurrentHashMap<>();
+    private final Map<String, Mono<PaymentMethodDocument>> inFlight = new ConcurrentHashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+
+    @Autowired
+    public PaymentMethodByIdLookupImpl(
+            ReactiveMongoOperations mongoOperations,
+            MeterRegistry meterRegistry,
+            @Value("${paymentMethods.byIdCache.ttlMillis}") long ttlMillis
+    ) {
+        this(mongoOperations, meterRegistry, Duration.ofMillis(ttlMillis), System::nanoTime);
+    }
+
+    PaymentMethodByIdLookupImpl(
+            ReactiveMongoOperations mongoOperations,
+            MeterRegistry meterRegistry,
+            Duration ttl,
+            LongSupplier nanoClock
+    ) {
+        this.mongoOperations = mongoOperations;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        this.hitCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "result", "hit");
+        this.missCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "result", "miss");
+        this.coalescedCounter = meterRegistry.counter(LOOKUP_METRIC_NAME, "result", "coalesced");
+    }
+
+    @Override
+    public Mono<PaymentMethodDocument> findById(String paymentMethodId) {
+        return Mono.defer(() -> {
+            CachedPaymentMethod cached = cache.get(paymentMethodId);
+            if (cached != null && cached.expiresAtNanos() - nanoClock.getAsLong() > 0) {
+                hitCounter.increment();
+                return Mono.just(cached.document());
+            }
+            boolean[] leader = new boolean[1];
+            Mono<PaymentMethodDocument> query = inFlight.computeIfAbsent(paymentMethodId, id -> {
+                leader[0] = true;
+                return mongoOperations.findById(id, PaymentMethodDocument.class)
+                        .doOnNext(
+                                document -> {
+                                    if (ttlNanos > 0) {
+                                        cache.put(
+                                                id,
+                                                new CachedPaymentMethod(document, nanoClock.getAsLong() + ttlNanos)
+                                        );
+                                    }
+                                }
+                        )
+                        // the query is removed once completed, so that later lookups go through the
+                        // cache or perform a new query
+                        .doFinally(signal -> inFlight.remove(id))
+                        .cache();
+            });
+            (leader[0] ? missCounter : coalescedCounter).increment();
+            return query;
+        });
+    }
+
+    @Override
+    public void evictById(String paymentMethodId) {
+        cache.remove(paymentMethodId);
+    }
+}
@@ -0,0 +1,212 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process read model of the {@code payment-methods} collection. The whole
+ * collection is loaded into an immutable {@link PaymentMethodCatalogSnapshot}
+ * at startup and reloaded every time a change stream event is received on the
+ * collection, plus periodically as a safety net for missed events (e.g.
+ * deletes, which are not notified by Cosmos DB change streams). Until the first
+ * snapshot is loaded, or when the catalog is disabled, every lookup is
+ * delegated to {@link PaymentMethodRepository}.
+ */
+@Component
+@Slf4j
+public class PaymentMethodCatalog {
+
+    private static final Duration MIN_RETRY_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofMinutes(1);
+
+    private final PaymentMethodRepository paymentMethodRepository;
+    private final ReactiveMongoOperations mongoOperations;
+    private final boolean enabled;
+    private final Duration refreshInterval;
+    private final AtomicReference<PaymentMethodCatalogSnapshot> snapshot = new AtomicReference<>();
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    @Autowired
+    public PaymentMethodCatalog(
+            PaymentMethodRepository paymentMethodRepository,
+            ReactiveMongoOperations mongoOperations,
+            @Value("${paymentMethods.catalog.enabled}") boolean enabled,
+            @Value("${paymentMethods.catalog.refreshIntervalSeconds}") long refreshIntervalSeconds
+    ) {
+        this.paymentMethodRepository = paymentMethodRepository;
+        this.mongoOperations = mongoOperations;
+        this.enabled = enabled;
+        this.refreshInterval = Duration.ofSeconds(refreshIntervalSeconds);
+    }
+
+    /**
+     * Load the first snapshot and start listening for collection changes
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("Payment method catalog disabled, all reads will be performed against Mongo");
+            return;
+        }
+        subscriptions.add(
+                watchChanges()
+                        .subscribe(
+                                loaded -> log.debug("Payment method catalog reloaded after change stream event"),
+                                error -> log.error("Payment method catalog change stream terminated", error)
+                        )
+        );
+        subscriptions.add(
+                Flux.interval(Duration.ZERO, refreshInterval)
+                        .concatMap(ignored -> refresh().onErrorResume(error -> Mono.empty()))
+                        .subscribe()
+        );
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.dispose();
+    }
+
+    /**
+     * Reload the whole catalog from Mongo and atomically swap the current snapshot
+     *
+     * @return the newly loaded snapshot
+     */
+    public Mono<PaymentMethodCatalogSnapshot> refresh() {
+        return paymentMethodRepository.findAll()
+                .collectList()
+                .map(PaymentMethodCatalogSnapshot::of)
+                .doOnNext(loaded -> {
+                    snapshot.set(loaded);
+                    log.info("Payment method catalog loaded with [{}] payment methods", loaded.size());
+                })
+                .doOnError(error -> log.error("Error loading payment method catalog", error));
+    }
+
+    /**
+     * @return the currently loaded snapshot, empty if the catalog has not been
+     *         loaded yet or is disabled
+     */
+    public Optional<PaymentMethodCatalogSnapshot> currentSnapshot() {
+        return Optional.ofNullable(snapshot.get());
+    }
+
+    /**
+     * Retrieve all the payment methods configured for the input client
+     *
+     * @param clientId the client id
+     * @return the client payment methods
+     */
+    public Flux<PaymentMethodDocument> findByClientId(String clientId) {
+        PaymentMethodCatalogSnapshot current = snapshot.get();
+        if (current == null) {
+            return paymentMethodRepository.findByClientId(clientId);
+        }
+        return Flux.fromIterable(current.findByClientId(clientId));
+    }
+
+    /**
+     * Retrieve the payment methods configured for the input client that accept the
+     * given amount
+     *
+     * @param clientId the client id
+     * @param amount   the amount to be checked, all the client payment methods are
+     *                 returned if null
+     * @return the client payment methods whose ranges contain the amount
+     */
+    public Flux<PaymentMethodDocument> findByClientIdAndAmount(
+                                                               String clientId,
+                                                               Long amount
+    ) {
+        PaymentMethodCatalogSnapshot current = snapshot.get();
+        if (current == null) {
+            return paymentMethodRepository.findByClientId(clientId).filter(
+                    doc -> amount == null || doc.getPaymentMethodRanges().stream()
+                            .anyMatch(
+                                    range -> range.getFirst() <= amount
+                                            && range.getSecond() >= amount
+                            )
+            );
+        }
+        return Flux.fromIterable(current.findByClientIdAndAmount(clientId, amount));
+    }
+
+    /**
+     * Retrieve a payment method by id and client id
+     *
+     * @param paymentMethodId the payment method id
+     * @param clientId        the client id
+     * @return the found payment method, or an empty Mono
+     */
+    public Mono<PaymentMethodDocument> findByPaymentMethodIDAndClientId(
+                                                                        String paymentMethodId,
+                                                                        String clientId
+    ) {
+        PaymentMethodCatalogSnapshot current = snapshot.get();
+        if (current == null) {
+            return paymentMethodRepository.findByPaymentMethodIDAndClientId(paymentMethodId, clientId);
+        }
+        return Mono.justOrEmpty(current.findByPaymentMethodIDAndClientId(paymentMethodId, clientId));
+    }
+
+    /**
+     * Notify the catalog that a payment method has been written by this instance,
+     * so that the change is visible to local reads without waiting for the change
+     * stream event
+     *
+     * @return the reloaded snapshot, or an empty Mono if the catalog is disabled
+     */
+    public Mono<PaymentMethodCatalogSnapshot> onLocalWrite() {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return refresh().onErrorResume(error -> {
+            // the stale snapshot is dropped so that reads fall back to Mongo
+            snapshot.set(null);
+            return Mono.empty();
+        });
+    }
+
+    private Flux<PaymentMethodCatalogSnapshot> watchChanges() {
+        /*
+         * Cosmos DB change streams only support insert, update and replace operation
+         * types and require them to be explicitly filtered
+         */
+        return Flux.defer(
+                () -> mongoOperations.changeStream(Document.class)
+                        .watchCollection(PaymentMethodDocument.class)
+                        .filter(Criteria.where("operationType").in("insert", "update", "replace"))
+                        .listen()
+                        .concatMap(event -> refresh())
+        )
+                .retryWhen(
+                        Retry.backoff(Long.MAX_VALUE, MIN_RETRY_BACKOFF)
+                                .maxBackoff(MAX_RETRY_BACKOFF)
+                                .doBeforeRetry(
+                                        signal -> log.warn(
+                                                "Payment method catalog change stream error, resubscribing. Attempt: [{}]",
+                                                signal.totalRetries() + 1,
+                                                signal.failure()
+                                        )
+                                )
+                )
+                .repeatWhen(completed -> completed.delayElements(MIN_RETRY_BACKOFF));
+    }
+}
@@ -0,0 +1,133 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable, point-in-time view of the {@code payment-methods} collection,
+ * indexed by client id and by payment method id. Client payment methods lists
+ * are sorted by {@link #DISPLAY_ORDER}. Snapshots are never mutated after
+ * construction: a catalog change produces a brand-new instance that is swapped
+ * atomically by {@link PaymentMethodCatalog}.
+ *
+ * @param byClientId           payment methods grouped by client id
+ * @param rangeIndexByClientId amount range index of each client payment methods
+ *                             list
+ * @param byId                 payment methods indexed by their id
+ */
+public record PaymentMethodCatalogSnapshot(
+        Map<String, List<PaymentMethodDocument>> byClientId,
+        Map<String, PaymentMethodRangeIndex> rangeIndexByClientId,
+        Map<String, PaymentMethodDocument> byId
+) {
+
+    /**
+     * Order in which payment methods are returned to clients: card payment methods
+     * first, then by description. Payment method id is used as last tie-breaker so
+     * that this is a total order and the returned list is always the same for the
+     * same catalog content.
+     */
+    public static final Comparator<PaymentMethodDocument> DISPLAY_ORDER = Comparator
+            .comparing((PaymentMethodDocument doc) -> !"CP".equals(doc.getPaymentMethodTypeCode()))
+            .thenComparing(
+                    PaymentMethodDocument::getPaymentMethodDescription,
+                    Comparator.nullsLast(Comparator.naturalOrder())
+            )
+            .thenComparing(
+                    PaymentMethodDocument::getPaymentMethodID,
+                    Comparator.nullsLast(Comparator.naturalOrder())
+            );
+
+    /**
+     * Build a snapshot starting from the full list of stored payment methods
+     *
+     * @param documents all the documents stored into the payment methods collection
+     * @return the built snapshot
+     */
+    public static PaymentMethodCatalogSnapshot of(List<PaymentMethodDocument> documents) {
+        Map<String, List<PaymentMethodDocument>> byClientId = documents.stream()
+                .filter(doc -> doc.getClientId() != null)
+                .collect(
+                        Collectors.groupingBy(
+                                PaymentMethodDocument::getClientId,
+                                Collectors.collectingAndThen(
+                                        Collectors.toList(),
+                                        paymentMethods -> paymentMethods.stream().sorted(DISPLAY_ORDER).toList()
+                                )
+                        )
+                );
+        Map<String, PaymentMethodDocument> byId = documents.stream()
+                .collect(
+                        Collectors.toUnmodifiableMap(
+                                PaymentMethodDocument::getPaymentMethodID,
+                                doc -> doc,
+                                (
+                                 first,
+                                 second
+                                ) -> second
+                        )
+                );
+        Map<String, PaymentMethodRangeIndex> rangeIndexByClientId = byClientId.entrySet().stream()
+                .collect(
+                        Collectors.toUnmodifiableMap(
+                                Map.Entry::getKey,
+                                entry -> PaymentMethodRangeIndex.of(entry.getValue())
+                        )
+                );
+        return new PaymentMethodCatalogSnapshot(Map.copyOf(byClientId), rangeIndexByClientId, byId);
+    }
+
+    /**
+     * Retrieve all the payment methods configured for the input client
+     *
+     * @param clientId the client id
+     * @return the client payment methods sorted by {@link #DISPLAY_ORDER}, empty
+     *         list if none is configured
+     */
+    public List<PaymentMethodDocument> findByClientId(String clientId) {
+        return byClientId.getOrDefault(clientId, List.of());
+    }
+
+    /**
+     * Retrieve the payment methods configured for the input client that accept the
+     * given amount
+     *
+     * @param clientId the client id
+     * @param amount   the amount to be checked, all the client payment methods are
+     *                 returned if null
+     * @return the client payment methods whose ranges contain the amount, sorted by
+     *         {@link #DISPLAY_ORDER}
+     */
+    public List<PaymentMethodDocument> findByClientIdAndAmount(
+                                                               String clientId,
+                                                               Long amount
+    ) {
+        List<PaymentMethodDocument> paymentMethods = findByClientId(clientId);
+        if (amount == null || paymentMethods.isEmpty()) {
+            return paymentMethods;
+        }
+        return rangeIndexByClientId.get(clientId).select(amount, paymentMethods);
+    }
+
+    /**
+     * Retrieve a payment method by id, checking that it belongs to the input client
+     *
+     * @param paymentMethodId the payment method id
+     * @param clientId        the client id
+     * @return the found payment method, if any
+     */
+    public Optional<PaymentMethodDocument> findByPaymentMethodIDAndClientId(
+                                                                            String paymentMethodId,
+                                                                            String clientId
+    ) {
+        return Optional.ofNullable(byId.get(paymentMethodId))
+                .filter(doc -> Objects.equals(doc.getClientId(), clientId));
+    }
+
+    /**
+     * @return the number of payment methods held by this snapshot
+     */
+    public int size() {
+        return byId.size();
+    }
+}
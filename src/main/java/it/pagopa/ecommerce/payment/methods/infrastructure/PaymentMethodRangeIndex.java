@@ -0,0 +1,224 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import org.springframework.data.util.Pair;
+
+import java.util.*;
+
+/**
+ * Primitive amount range index over an ordered list of payment methods. The
+ * amount axis is split into elementary segments delimited by the sorted
+ * {@code long} bounds of all the configured (inclusive) ranges, and for each
+ * segment the set of accepting payment methods is precomputed as a bitset whose
+ * bit {@code i} refers to the {@code i}-th payment method of the indexed list.
+ * <p>
+ * A lookup is a binary search over the segment bounds, so it runs in
+ * {@code O(log n)} and returns a precomputed, shared mask without allocating.
+ * Returned masks must be treated as read-only.
+ */
+public final class PaymentMethodRangeIndex {
+
+    private static final long[] NO_MATCH = new long[0];
+
+    private final long[] segmentStarts;
+    private final long[][] segmentMasks;
+    private final int size;
+
+    private PaymentMethodRangeIndex(
+            long[] segmentStarts,
+            long[][] segmentMasks,
+            int size
+    ) {
+        this.segmentStarts = segmentStarts;
+        this.segmentMasks = segmentMasks;
+        this.size = size;
+    }
+
+    /**
+     * Build the index for the input payment methods. Payment method ordinals match
+     * their position into the input list.
+     *
+     * @param paymentMethods the payment methods to be indexed
+     * @return the built index
+     */
+    public static PaymentMethodRangeIndex of(List<PaymentMethodDocument> paymentMethods) {
+        return ofRanges(
+                paymentMethods.stream()
+                        .map(
+                                doc -> Optional.ofNullable(doc.getPaymentMethodRanges())
+                                        .orElse(List.of())
+                        )
+                        .toList()
+        );
+    }
+
+    /**
+     * Build the index for the input list of ranges, one list of inclusive
+     * {@code (min, max)} ranges for each payment method ordinal
+     *
+     * @param rangesByOrdinal the ranges configured for each payment method
+     * @return the built index
+     */
+    public static PaymentMethodRangeIndex ofRanges(List<List<Pair<Long, Long>>> rangesByOrdinal) {
+        int size = rangesByOrdinal.size();
+        // sweep line events: (position, ordinal, +1 for range opening or -1 for
+        // range closing)
+        List<long[]> events = new ArrayList<>();
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (Pair<Long, Long> range : rangesByOrdinal.get(ordinal)) {
+                long min = range.getFirst();
+                long max = range.getSecond();
+                if (min > max) {
+                    continue;
+                }
+                events.add(
+                        new long[] {
+                                min,
+                                ordinal,
+                                1
+                        }
+                );
+                if (max < Long.MAX_VALUE) {
+                    events.add(
+                            new long[] {
+                                    max + 1,
+                                    ordinal,
+                                    -1
+                            }
+                    );
+                }
+            }
+        }
+        events.sort(Comparator.comparingLong(event -> event[0]));
+
+        int words = (size + Long.SIZE - 1) / Long.SIZE;
+        int[] openRanges = new int[size];
+        long[] current = new long[words];
+        List<Long> starts = new ArrayList<>();
+        List<long[]> masks = new ArrayList<>();
+        int i = 0;
+        while (i < events.size()) {
+            long position = events.get(i)[0];
+            while (i < events.size() && events.get(i)[0] == position) {
+                int ordinal = (int) events.get(i)[1];
+                openRanges[ordinal] += (int) events.get(i)[2];
+                if (openRanges[ordinal] > 0) {
+                    current[ordinal / Long.SIZE] |= 1L << (ordinal % Long.SIZE);
+                } else {
+                    current[ordinal / Long.SIZE] &= ~(1L << (ordinal % Long.SIZE));
+                }
+                i++;
+            }
+            // adjacent segments with the same accepting methods are merged together
+            if (masks.isEmpty() || !Arrays.equals(masks.get(masks.size() - 1), current)) {
+                starts.add(position);
+                masks.add(isEmpty(current) ? NO_MATCH : current.clone());
+            }
+        }
+        return new PaymentMethodRangeIndex(
+                starts.stream().mapToLong(Long::longValue).toArray(),
+                masks.toArray(long[][]::new),
+                size
+        );
+    }
+
+    /**
+     * Retrieve the mask of the payment methods accepting the input amount
+     *
+     * @param amount the amount to be checked
+     * @return the shared, read-only bitset of the accepting payment method ordinals
+     */
+    public long[] lookup(long amount) {
+        int position = Arrays.binarySearch(segmentStarts, amount);
+        int segment = position >= 0 ? position : -position - 2;
+        return segment < 0 ? NO_MATCH : segmentMasks[segment];
+    }
+
+    /**
+     * Select, among the input elements, the ones whose ordinal accepts the given
+     * amount, preserving their order
+     *
+     * @param amount   the amount to be checked
+     * @param elements the elements to be filtered, one for each indexed payment
+     *                 method ordinal
+     * @param <T>      the element type
+     * @return the elements accepting the amount
+     */
+    public <T> List<T> select(
+                              long amount,
+                              List<T> elements
+    ) {
+        return select(lookup(amount), elements);
+    }
+
+    /**
+     * Select, among the input elements, the ones whose ordinal is set into a mask
+     * returned by {@link #lookup(long)}, preserving their order
+     *
+     * @param mask     the lookup mask
+     * @param elements the elements to be filtered, one for each indexed payment
+     *                 method ordinal
+     * @param <T>      the element type
+     * @return the elements whose ordinal is set into the mask
+     */
+    public static <T> List<T> select(
+                                     long[] mask,
+                                     List<T> elements
+    ) {
+        List<T> selected = new ArrayList<>(elements.size());
+        for (int word = 0; word < mask.length; word++) {
+            long bits = mask[word];
+            while (bits != 0) {
+                selected.add(elements.get(word * Long.SIZE + Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Check whether the payment method with the input ordinal accepts the given
+     * amount
+     *
+     * @param amount  the amount to be checked
+     * @param ordinal the payment method ordinal
+     * @return true iff any of the payment method ranges contains the amount
+     */
+    public boolean accepts(
+                           long amount,
+                           int ordinal
+    ) {
+        return contains(lookup(amount), ordinal);
+    }
+
+    /**
+     * Check whether the input ordinal is set into a mask returned by
+     * {@link #lookup(long)}
+     *
+     * @param mask    the lookup mask
+     * @param ordinal the payment method ordinal
+     * @return true iff the ordinal is set into the mask
+     */
+    public static boolean contains(
+                                   long[] mask,
+                                   int ordinal
+    ) {
+        int word = ordinal / Long.SIZE;
+        return word < mask.length && (mask[word] & (1L << (ordinal % Long.SIZE))) != 0;
+    }
+
+    /**
+     * @return the number of indexed payment methods
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean isEmpty(long[] mask) {
+        for (long word : mask) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
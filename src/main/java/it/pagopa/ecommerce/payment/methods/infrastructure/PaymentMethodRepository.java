@@ -4,7 +4,19 @@ import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface PaymentMethodRepository extends ReactiveCrudRepository<PaymentMethodDocument, String> {
+public interface PaymentMethodRepository
+        extends ReactiveCrudRepository<PaymentMethodDocument, String>, PaymentMethodByIdLookup {
+    /**
+     * Retrieve a payment method by id, coalescing concurrent lookups and caching
+     * found payment methods for a short time (see
+     * {@link PaymentMethodByIdLookupImpl})
+     *
+     * @param paymentMethodId the payment method id
+     * @return the found payment method, or an empty Mono
+     */
+    @Override
+    Mono<PaymentMethodDocument> findById(String paymentMethodId);
+
     Mono<PaymentMethodDocument> findByPaymentMethodNameOrPaymentMethodTypeCode(
                                                                                String paymentMethodName,
                                                                                String paymentMethodTypeCode
@@ -0,0 +1,89 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process read model of the {@code psps} collection. The whole collection is
+ * loaded into an immutable {@link PspIndex} at startup and reloaded
+ * periodically, the new index being swapped atomically. No index is available
+ * until the first load completes or when the catalog is disabled.
+ */
+@Component
+@Slf4j
+public class PspCatalog {
+
+    private final PspRepository pspRepository;
+    private final boolean enabled;
+    private final Duration refreshInterval;
+    private final AtomicReference<PspIndex> index = new AtomicReference<>();
+    private Disposable refreshes;
+
+    @Autowired
+    public PspCatalog(
+            PspRepository pspRepository,
+            @Value("${psps.catalog.enabled}") boolean enabled,
+            @Value("${psps.catalog.refreshIntervalSeconds}") long refreshIntervalSeconds
+    ) {
+        this.pspRepository = pspRepository;
+        this.enabled = enabled;
+        this.refreshInterval = Duration.ofSeconds(refreshIntervalSeconds);
+    }
+
+    /**
+     * Load the first index and schedule the periodic reloads
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("PSP catalog disabled");
+            return;
+        }
+        refreshes = Flux.interval(Duration.ZERO, refreshInterval)
+                .concatMap(ignored -> refresh().onErrorResume(error -> Mono.empty()))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refreshes != null) {
+            refreshes.dispose();
+        }
+    }
+
+    /**
+     * Reload the whole collection from Mongo and atomically swap the current index
+     *
+     * @return the newly loaded index
+     */
+    public Mono<PspIndex> refresh() {
+        return pspRepository.findAll()
+                .collectList()
+                .map(PspIndex::of)
+                .doOnNext(loaded -> {
+                    index.set(loaded);
+                    log.info("PSP catalog loaded with [{}] PSPs", loaded.size());
+                })
+                .doOnError(error -> log.error("Error loading PSP catalog", error));
+    }
+
+    /**
+     * @return the currently loaded index, empty if the catalog has not been loaded
+     *         yet or is disabled
+     */
+    public Optional<PspIndex> currentIndex() {
+        return Optional.ofNullable(index.get());
+    }
+}
@@ -0,0 +1,168 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import java.util.*;
+
+/**
+ * Immutable, memory-resident index over the {@code psps} collection. Every PSP
+ * is indexed under its payment type code and language code, under each of them
+ * alone and under no key at all, so that any combination of the two filters is
+ * answered by a single bucket lookup. Each bucket keeps its PSPs sorted by
+ * {@code pspMinAmount}, with the amount bounds unboxed into parallel arrays: an
+ * amount lookup is a binary search for the PSPs whose min amount is below the
+ * amount, followed by a scan of their max amounts.
+ * <p>
+ * Amount ranges are exclusive on both bounds, matching the
+ * {@code pspMinAmount < amount < pspMaxAmount} semantics of
+ * {@link PspRepository} queries.
+ */
+public final class PspIndex {
+
+    /**
+     * Bucket key, with {@code null} components matching any value
+     *
+     * @param paymentTypeCode the payment type code
+     * @param languageCode    the language code
+     */
+    private record BucketKey(
+            String paymentTypeCode,
+            String languageCode
+    ) {
+    }
+
+    /**
+     * PSPs sharing the same bucket key, sorted by min amount
+     *
+     * @param documents  the PSPs sorted by min amount
+     * @param minAmounts the min amount of each PSP
+     * @param maxAmounts the max amount of each PSP
+     */
+    private record Bucket(
+            List<PspDocument> documents,
+            long[] minAmounts,
+            long[] maxAmounts
+    ) {
+        static Bucket of(List<PspDocument> documents) {
+            List<PspDocument> sorted = documents.stream()
+                    .sorted(Comparator.comparingLong(PspDocument::getPspMinAmount))
+                    .toList();
+            return new Bucket(
+                    sorted,
+                    sorted.stream().mapToLong(PspDocument::getPspMinAmount).toArray(),
+                    sorted.stream().mapToLong(PspDocument::getPspMaxAmount).toArray()
+            );
+        }
+
+        List<PspDocument> accepting(long amount) {
+            // number of PSPs whose min amount is strictly lower than the amount
+            int candidates = lowerBound(minAmounts, amount);
+            List<PspDocument> accepting = new ArrayList<>();
+            for (int i = 0; i < candidates; i++) {
+                if (maxAmounts[i] > amount) {
+                    accepting.add(documents.get(i));
+                }
+            }
+            return accepting;
+        }
+    }
+
+    private static final Bucket EMPTY = Bucket.of(List.of());
+
+    private final Map<BucketKey, Bucket> buckets;
+
+    private final int size;
+
+    private PspIndex(
+            Map<BucketKey, Bucket> buckets,
+            int size
+    ) {
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    /**
+     * Build the index for the input PSPs
+     *
+     * @param documents all the documents stored into the psps collection
+     * @return the built index
+     */
+    public static PspIndex of(List<PspDocument> documents) {
+        Map<BucketKey, List<PspDocument>> grouped = new HashMap<>();
+        for (PspDocument document : documents) {
+            String paymentTypeCode = document.getPspDocumentKey().getPspPaymentTypeCode();
+            String languageCode = document.getPspDocumentKey().getPspLanguageCode();
+            // a set, so that PSPs lacking a code are not indexed twice under the same key
+            for (BucketKey key : new HashSet<>(
+                    Arrays.asList(
+                            new BucketKey(paymentTypeCode, languageCode),
+                            new BucketKey(paymentTypeCode, null),
+                            new BucketKey(null, languageCode),
+                            new BucketKey(null, null)
+                    )
+            )) {
+                grouped.computeIfAbsent(key, ignored -> new ArrayList<>()).add(document);
+            }
+        }
+        Map<BucketKey, Bucket> buckets = new HashMap<>(grouped.size() * 2);
+        grouped.forEach(
+                (
+                 key,
+                 bucketDocuments
+                ) -> buckets.put(key, Bucket.of(bucketDocuments))
+        );
+        return new PspIndex(Map.copyOf(buckets), documents.size());
+    }
+
+    /**
+     * Retrieve the PSPs matching the input filters. Null or blank filters match any
+     * value.
+     *
+     * @param amount          the amount to be strictly contained into the PSP
+     *                        amount range
+     * @param languageCode    the PSP language code
+     * @param paymentTypeCode the PSP payment type code
+     * @return the matching PSPs, sorted by min amount
+     */
+    public List<PspDocument> find(
+                                  Long amount,
+                                  String languageCode,
+                                  String paymentTypeCode
+    ) {
+        Bucket bucket = buckets.getOrDefault(
+                new BucketKey(filter(paymentTypeCode), filter(languageCode)),
+                EMPTY
+        );
+        return amount == null ? bucket.documents() : bucket.accepting(amount);
+    }
+
+    /**
+     * @return the number of indexed PSPs
+     */
+    public int size() {
+        return size;
+    }
+
+    private static String filter(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    /**
+     * @return the index of the first element not lower than the key, or the array
+     *         length if all the elements are lower
+     */
+    private static int lowerBound(
+                                  long[] sorted,
+                                  long key
+    ) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,31 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import it.pagopa.ecommerce.commons.repositories.UniqueIdDocument;
+
+/**
+ * {@link VersionedRedisSerializer} of {@link UniqueIdDocument}
+ */
+public class UniqueIdDocumentRedisSerializer extends VersionedRedisSerializer<UniqueIdDocument> {
+
+    /**
+     * Primary constructor
+     *
+     * @param writeFormat the format used to write documents
+     */
+    public UniqueIdDocumentRedisSerializer(Format writeFormat) {
+        super(UniqueIdDocument.class, writeFormat);
+    }
+
+    @Override
+    protected void writeBinary(
+                               UniqueIdDocument value,
+                               BinaryWriter writer
+    ) {
+        writer.writeString(value.id());
+    }
+
+    @Override
+    protected UniqueIdDocument readBinary(BinaryReader reader) {
+        return new UniqueIdDocument(reader.readString());
+    }
+}
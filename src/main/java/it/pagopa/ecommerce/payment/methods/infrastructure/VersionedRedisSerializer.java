@@ -0,0 +1,224 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link RedisSerializer} writing documents either as JSON or with a compact,
+ * versioned binary encoding, and reading both of them, so that the written
+ * format can be switched without invalidating the documents already stored.
+ * Binary documents start with a format version byte, that can never be the
+ * first byte of a JSON document (always starting with <code>{</code>), followed
+ * by the document fields in a fixed order, without field names. Strings are
+ * encoded as their UTF-8 bytes length plus one as unsigned varint, zero meaning
+ * null, followed by the UTF-8 bytes.
+ *
+ * @param <T> the document type
+ */
+public abstract class VersionedRedisSerializer<T> implements RedisSerializer<T> {
+
+    /**
+     * Format used to write documents
+     */
+    public enum Format {
+        /**
+         * Jackson JSON, as written before the binary format was introduced
+         */
+        JSON,
+        /**
+         * Compact binary encoding
+         */
+        BINARY
+    }
+
+    /**
+     * First byte of documents encoded with the binary format version 1
+     */
+    public static final byte BINARY_FORMAT_V1 = 0x01;
+
+    private static final byte JSON_DOCUMENT_START = '{';
+
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private final Jackson2JsonRedisSerializer<T> jsonSerializer;
+
+    private final Format writeFormat;
+
+    /**
+     * Primary constructor
+     *
+     * @param type        the document type
+     * @param writeFormat the format used to write documents
+     */
+    protected VersionedRedisSerializer(
+            Class<T> type,
+            Format writeFormat
+    ) {
+        this.jsonSerializer = new Jackson2JsonRedisSerializer<>(type);
+        this.writeFormat = writeFormat;
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) {
+            return EMPTY_ARRAY;
+        }
+        if (writeFormat == Format.JSON) {
+            return jsonSerializer.serialize(value);
+        }
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(BINARY_FORMAT_V1);
+        writeBinary(value, writer);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return switch (bytes[0]) {
+            case JSON_DOCUMENT_START -> jsonSerializer.deserialize(bytes);
+            case BINARY_FORMAT_V1 -> {
+                try {
+                    yield readBinary(new BinaryReader(bytes, 1));
+                } catch (IndexOutOfBoundsException e) {
+                    throw new SerializationException("Truncated binary document", e);
+                }
+            }
+            default -> throw new SerializationException("Unknown document format: [%d]".formatted(bytes[0]));
+        };
+    }
+
+    /**
+     * Write the document fields with the binary format version 1
+     *
+     * @param value  the document to be written
+     * @param writer the binary writer
+     */
+    protected abstract void writeBinary(
+                                        T value,
+                                        BinaryWriter writer
+    );
+
+    /**
+     * Read the document fields written with the binary format version 1
+     *
+     * @param reader the binary reader
+     * @return the read document
+     */
+    protected abstract T readBinary(BinaryReader reader);
+
+    /**
+     * Growable buffer writing binary document fields
+     */
+    protected static final class BinaryWriter {
+
+        private byte[] buffer = new byte[128];
+
+        private int size;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Write a boolean flag
+         *
+         * @param value the flag
+         */
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        /**
+         * Write a nullable string
+         *
+         * @param value the string
+         */
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /**
+     * Reader of binary document fields
+     */
+    protected static final class BinaryReader {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        BinaryReader(
+                byte[] bytes,
+                int position
+        ) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        /**
+         * @return the read boolean flag
+         */
+        public boolean readBoolean() {
+            return bytes[position++] != 0;
+        }
+
+        /**
+         * @return the read nullable string
+         */
+        public String readString() {
+            int length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            String value = new String(bytes, position, length - 1, StandardCharsets.UTF_8);
+            position += length - 1;
+            return value;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte current = bytes[position++];
+                value |= (current & 0x7F) << shift;
+                if ((current & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint");
+        }
+    }
+}
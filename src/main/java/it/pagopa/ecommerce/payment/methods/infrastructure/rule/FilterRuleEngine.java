@@ -1,25 +1,42 @@
 package it.pagopa.ecommerce.payment.methods.infrastructure.rule;
 
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PspRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.Optional;
 
+/**
+ * Retrieves the PSPs matching any combination of amount, language and payment
+ * type filters. Queries are answered in memory by the {@link PspCatalog} index
+ * once loaded, falling back to the {@link IFilterRule} Mongo queries while no
+ * index is available.
+ */
 @Component
 public class FilterRuleEngine {
     @Autowired
     private List<IFilterRule> filterRules;
     @Autowired
     private PspRepository pspRepository;
+    @Autowired
+    private PspCatalog pspCatalog;
 
     public Flux<PspDocument> applyFilter(
                                          Integer amount,
                                          String language,
                                          String paymentTypeCode
     ) {
+        Optional<PspIndex> index = pspCatalog.currentIndex();
+        if (index.isPresent()) {
+            return Flux.fromIterable(
+                    index.get().find(amount == null ? null : amount.longValue(), language, paymentTypeCode)
+            );
+        }
         for (IFilterRule rule : filterRules) {
             if (rule.shouldExecute(amount, language, paymentTypeCode)) {
                 return rule.execute(pspRepository, amount, language, paymentTypeCode);
@@ -1,8 +1,10 @@
 package it.pagopa.ecommerce.payment.methods.utils;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,4 +24,34 @@ public class HttpUtils {
                         .map(header -> header.substring("Bearer ".length()))
         );
     }
+
+    /**
+     * Check whether the request {@code Accept-Encoding} header accepts the input
+     * content coding, either explicitly or through the {@code *} wildcard, with a
+     * non-zero quality value
+     *
+     * @param exchange the server exchange
+     * @param encoding the content coding to be checked
+     * @return true iff the content coding is accepted
+     */
+    public static boolean acceptsEncoding(
+                                          ServerWebExchange exchange,
+                                          String encoding
+    ) {
+        return exchange.getRequest()
+                .getHeaders()
+                .getOrEmpty(HttpHeaders.ACCEPT_ENCODING)
+                .stream()
+                .flatMap(header -> Arrays.stream(header.split(",")))
+                .map(String::trim)
+                .anyMatch(coding -> {
+                    String[] parameters = coding.split(";");
+                    String name = parameters[0].trim();
+                    boolean zeroQuality = Arrays.stream(parameters)
+                            .skip(1)
+                            .map(parameter -> parameter.replace(" ", ""))
+                            .anyMatch(parameter -> parameter.matches("q=0(\\.0{0,3})?"));
+                    return (name.equalsIgnoreCase(encoding) || name.equals("*")) && !zeroQuality;
+                });
+    }
 }
@@ -0,0 +1,117 @@
+package it.pagopa.ecommerce.payment.methods.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Latency breakdown of the steps of a request, collected through the Reactor
+ * context so that it can be returned to the caller as a
+ * <code>Server-Timing</code> response header. Steps are timed with
+ * {@link #timed(MeterRegistry, String, String, Mono)}, that always records them
+ * as Micrometer timers too, whether or not a {@link StepTimings} instance is in
+ * the subscriber context.
+ */
+public class StepTimings {
+
+    /**
+     * Server-Timing response header name
+     */
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private final Map<String, Long> durationsNanos = new LinkedHashMap<>();
+
+    /**
+     * Add this instance to the input context, to collect the durations of the steps
+     * timed downstream
+     *
+     * @param context the subscriber context
+     * @return the context with this instance
+     */
+    public Context addTo(Context context) {
+        return context.put(StepTimings.class, this);
+    }
+
+    /**
+     * Record the duration of a step, summing it to the previous durations of the
+     * same step
+     *
+     * @param step          the step name
+     * @param durationNanos the step duration in nanoseconds
+     */
+    public synchronized void record(
+                                    String step,
+                                    long durationNanos
+    ) {
+        durationsNanos.merge(step, durationNanos, Long::sum);
+    }
+
+    /**
+     * Format the recorded durations, in milliseconds, as a Server-Timing header
+     * value, e.g. <code>findPaymentMethod;dur=12.3, buildForm;dur=250.1</code>
+     *
+     * @return the header value, listing steps in completion order
+     */
+    public synchronized String toServerTimingHeader() {
+        return durationsNanos.entrySet().stream()
+                .map(
+                        entry -> String.format(
+                                Locale.ROOT,
+                                "%s;dur=%.1f",
+                                entry.getKey(),
+                                entry.getValue() / (double) TimeUnit.MILLISECONDS.toNanos(1)
+                        )
+                )
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Time a step, recording its duration into the <code>metricName</code> timer,
+     * tagged with the step name and its outcome, and into the {@link StepTimings}
+     * found in the subscriber context, if any. The step is timed from subscription
+     * to its first value, completion or error.
+     *
+     * @param meterRegistry the meter registry
+     * @param metricName    the timer name
+     * @param step          the step name
+     * @param stepMono      the step
+     * @param <T>           the step value type
+     * @return the timed step
+     */
+    public static <T> Mono<T> timed(
+                                    MeterRegistry meterRegistry,
+                                    String metricName,
+                                    String step,
+                                    Mono<T> stepMono
+    ) {
+        return Mono.deferContextual(context -> {
+            long startNanos = System.nanoTime();
+            StepTimings stepTimings = context.getOrDefault(StepTimings.class, null);
+            return stepMono
+                    .doOnSuccess(value -> record(meterRegistry, metricName, step, "success", startNanos, stepTimings))
+                    .doOnError(error -> record(meterRegistry, metricName, step, "error", startNanos, stepTimings));
+        });
+    }
+
+    private static void record(
+                               MeterRegistry meterRegistry,
+                               String metricName,
+                               String step,
+                               String outcome,
+                               long startNanos,
+                               StepTimings stepTimings
+    ) {
+        long durationNanos = System.nanoTime() - startNanos;
+        meterRegistry.timer(metricName, "step", step, "outcome", outcome)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        if (stepTimings != null) {
+            stepTimings.record(step, durationNanos);
+        }
+    }
+}
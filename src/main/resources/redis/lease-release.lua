@@ -0,0 +1,12 @@
+-- Releases a lease (e.g. the one taken to fetch the card data of an NPG session or
+-- to request an AFM fee quote), if still held by the caller: a lease expired and
+-- taken by another instance is left untouched.
+--
+-- KEYS[1]: lease key
+-- ARGV[1]: lease token of the caller
+--
+-- Returns 1 if the lease has been released, 0 otherwise.
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
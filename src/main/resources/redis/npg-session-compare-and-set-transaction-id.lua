@@ -0,0 +1,57 @@
+-- Associates an NPG session to a transaction id, if the session is not already
+-- associated to one, in a single atomic step. The session is written back in the
+-- same format it was stored with (JSON or binary, see VersionedRedisSerializer).
+--
+-- KEYS[1]: NPG session key
+-- ARGV[1]: transaction id to be set
+-- ARGV[2]: session TTL in milliseconds, applied when the session is updated
+--
+-- Returns the session document as stored after the operation (whose transaction id
+-- has to be checked by the caller), or nil if the session does not exist. A
+-- WRONGTYPE error is returned for sessions stored as Redis hashes.
+local BINARY_FORMAT_V1 = 1
+
+local function varint(n)
+    local bytes = ''
+    while n >= 128 do
+        bytes = bytes .. string.char(n % 128 + 128)
+        n = math.floor(n / 128)
+    end
+    return bytes .. string.char(n)
+end
+
+local value = redis.pcall('GET', KEYS[1])
+if type(value) == 'table' and value.err then
+    return value
+end
+if not value then
+    return nil
+end
+if string.byte(value, 1) == BINARY_FORMAT_V1 then
+    -- the transaction id is the first binary field, encoded as its length plus one
+    -- (zero meaning null) followed by its bytes
+    if string.byte(value, 2) ~= 0 then
+        return value
+    end
+    value = string.char(BINARY_FORMAT_V1) .. varint(string.len(ARGV[1]) + 1) .. ARGV[1]
+        .. string.sub(value, 3)
+else
+    local session = cjson.decode(value)
+    local transactionId = session['transactionId']
+    if transactionId ~= nil and transactionId ~= cjson.null then
+        return value
+    end
+    -- the transaction id is the last session field: it is spliced into the stored
+    -- document, so that all the other fields are kept exactly as written by the
+    -- application
+    local unsetSuffix = '"transactionId":null}'
+    if string.sub(value, -string.len(unsetSuffix)) == unsetSuffix then
+        value = string.sub(value, 1, -string.len(unsetSuffix) - 1)
+            .. '"transactionId":' .. cjson.encode(ARGV[1]) .. '}'
+    else
+        session['transactionId'] = ARGV[1]
+        value = cjson.encode(session)
+    end
+end
+redis.call('SET', KEYS[1], value, 'PX', ARGV[2])
+return value
@@ -0,0 +1,22 @@
+-- Associates an NPG session stored as a Redis hash (see NpgSessionField) to a
+-- transaction id, if the session is not already associated to one, in a single
+-- atomic step.
+--
+-- KEYS[1]: NPG session key
+-- ARGV[1]: transaction id to be set
+-- ARGV[2]: session TTL in milliseconds, applied when the session is updated
+--
+-- Returns the session fields as stored after the operation (whose transaction id
+-- has to be checked by the caller), or no fields if the session does not exist.
+-- A WRONGTYPE error is returned for sessions stored as whole documents.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return {}
+end
+local set = redis.pcall('HSETNX', KEYS[1], 'transactionId', ARGV[1])
+if type(set) == 'table' and set.err then
+    return set
+end
+if set == 1 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return redis.call('HGETALL', KEYS[1])
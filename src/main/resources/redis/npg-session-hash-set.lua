@@ -0,0 +1,23 @@
+-- Writes the fields of an NPG session stored as a Redis hash (see NpgSessionField),
+-- resetting the session TTL.
+--
+-- KEYS[1]: NPG session key
+-- ARGV[1]: session TTL in milliseconds
+-- ARGV[2]: '1' to replace the whole session, '0' to update the fields of an
+--          existing session only
+-- ARGV[3...]: field names and values, alternated
+--
+-- Returns 1 if the session has been written, 0 if only existing sessions had to
+-- be updated and the session does not exist. A WRONGTYPE error is returned when
+-- updating a session stored as a whole document.
+if ARGV[2] == '1' then
+    redis.call('DEL', KEYS[1])
+elseif redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+local written = redis.pcall('HSET', KEYS[1], unpack(ARGV, 3))
+if type(written) == 'table' and written.err then
+    return written
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,85 @@
+-- Writes an NPG session stored as a whole document with its card data set, keeping
+-- the transaction id the stored session is associated to, if any: the session may
+-- have been associated to a transaction (see
+-- npg-session-compare-and-set-transaction-id.lua) after being read by the caller,
+-- so it is read, updated and written back in a single atomic step. Both documents
+-- may be in either format (JSON or binary, see VersionedRedisSerializer).
+--
+-- KEYS[1]: NPG session key
+-- ARGV[1]: session document to be written, with the card data set
+-- ARGV[2]: session TTL in milliseconds
+--
+-- Returns the session document as stored after the operation. A WRONGTYPE error is
+-- returned for sessions stored as Redis hashes.
+local BINARY_FORMAT_V1 = 1
+
+local function varint(n)
+    local bytes = ''
+    while n >= 128 do
+        bytes = bytes .. string.char(n % 128 + 128)
+        n = math.floor(n / 128)
+    end
+    return bytes .. string.char(n)
+end
+
+-- returns the varint starting at the input index and the index following it
+local function readVarint(value, index)
+    local n, shift = 0, 1
+    repeat
+        local byte = string.byte(value, index)
+        n = n + (byte % 128) * shift
+        shift = shift * 128
+        index = index + 1
+    until byte < 128
+    return n, index
+end
+
+local function transactionIdOf(document)
+    if string.byte(document, 1) == BINARY_FORMAT_V1 then
+        -- the transaction id is the first binary field, encoded as its length plus
+        -- one (zero meaning null) followed by its bytes
+        local length, start = readVarint(document, 2)
+        if length == 0 then
+            return nil
+        end
+        return string.sub(document, start, start + length - 2)
+    end
+    local transactionId = cjson.decode(document)['transactionId']
+    if transactionId == cjson.null then
+        return nil
+    end
+    return transactionId
+end
+
+local function withTransactionId(document, transactionId)
+    if string.byte(document, 1) == BINARY_FORMAT_V1 then
+        local length, start = readVarint(document, 2)
+        return string.char(BINARY_FORMAT_V1) .. varint(string.len(transactionId) + 1) .. transactionId
+            .. string.sub(document, start + math.max(length - 1, 0))
+    end
+    -- the transaction id is the last session field: it is spliced into the
+    -- document, so that all the other fields are kept exactly as written by the
+    -- application
+    local unsetSuffix = '"transactionId":null}'
+    if string.sub(document, -string.len(unsetSuffix)) == unsetSuffix then
+        return string.sub(document, 1, -string.len(unsetSuffix) - 1)
+            .. '"transactionId":' .. cjson.encode(transactionId) .. '}'
+    end
+    local session = cjson.decode(document)
+    session['transactionId'] = transactionId
+    return cjson.encode(session)
+end
+
+local stored = redis.pcall('GET', KEYS[1])
+if type(stored) == 'table' and stored.err then
+    return stored
+end
+local value = ARGV[1]
+if stored then
+    local storedTransactionId = transactionIdOf(stored)
+    if storedTransactionId and storedTransactionId ~= transactionIdOf(value) then
+        value = withTransactionId(value, storedTransactionId)
+    end
+end
+redis.call('SET', KEYS[1], value, 'PX', ARGV[2])
+return value
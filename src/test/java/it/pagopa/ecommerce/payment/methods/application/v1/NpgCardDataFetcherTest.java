@@ -0,0 +1,245 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.commons.client.NpgClient;
+import it.pagopa.ecommerce.commons.generated.npg.v1.dto.CardDataResponseDto;
+import it.pagopa.ecommerce.payment.methods.config.RedisConfig;
+import it.pagopa.ecommerce.payment.methods.infrastructure.CardDataDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsNearCache;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import it.pagopa.ecommerce.payment.methods.infrastructure.VersionedRedisSerializer;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+
+class NpgCardDataFetcherTest {
+
+    private static final long LEASE_TTL_MILLIS = 5000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final CardDataResponseDto npgCardData = TestUtil.npgCardDataResponse();
+
+    private final CardDataDocument expectedCardData = new CardDataDocument(
+            npgCardData.getBin(),
+            npgCardData.getLastFourDigits(),
+            npgCardData.getExpiringDate(),
+            npgCardData.getCircuit()
+    );
+
+    private final NpgSessionDocument session = TestUtil
+            .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private NpgSessionsNearCache nearCache;
+
+    private NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisServer = RedisServer.newRedisServer().start();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort())
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        nearCache = new NpgSessionsNearCache(connectionFactory, meterRegistry, false, 100, 60, 600);
+        npgSessionsTemplateWrapper = new RedisConfig().npgSessionsTemplateWrapper(
+                connectionFactory,
+                600,
+                VersionedRedisSerializer.Format.JSON,
+                NpgSessionsTemplateWrapper.StorageMode.DOCUMENT,
+                nearCache
+        );
+        npgSessionsTemplateWrapper.save(session).block();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Test
+    void shouldShareInFlightFetchWithinInstance() {
+        NpgClient npgClient = mock(NpgClient.class);
+        Sinks.One<CardDataResponseDto> npgResponse = Sinks.one();
+        Mockito.when(npgClient.getCardData(any(), any(), any())).thenReturn(npgResponse.asMono());
+        NpgCardDataFetcher fetcher = fetcher(npgClient, false);
+
+        Mono<CardDataDocument> first = fetcher.fetchCardData(session);
+        Mono<CardDataDocument> second = fetcher.fetchCardData(session);
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> npgResponse.tryEmitValue(npgCardData))
+                .expectNextMatches(
+                        results -> expectedCardData.equals(results.getT1()) && expectedCardData.equals(results.getT2())
+                )
+                .verifyComplete();
+
+        Mockito.verify(npgClient, Mockito.times(1)).getCardData(any(), any(), any());
+        assertEquals(1, fetches("called"));
+        assertEquals(1, fetches("coalesced"));
+        assertEquals(expectedCardData, npgSessionsTemplateWrapper.findById("orderId").block().cardData());
+    }
+
+    @Test
+    void shouldWaitForCardDataStoredByLeaseHolder() {
+        NpgClient leaseHolderNpgClient = mock(NpgClient.class);
+        Sinks.One<CardDataResponseDto> npgResponse = Sinks.one();
+        Mockito.when(leaseHolderNpgClient.getCardData(any(), any(), any())).thenReturn(npgResponse.asMono());
+        NpgClient otherNpgClient = mock(NpgClient.class);
+        // two fetchers sharing the same Redis, as two service instances
+        NpgCardDataFetcher leaseHolder = fetcher(leaseHolderNpgClient, true);
+        NpgCardDataFetcher other = fetcher(otherNpgClient, true);
+
+        StepVerifier.create(leaseHolder.fetchCardData(session))
+                .then(
+                        () -> StepVerifier.create(other.fetchCardData(session))
+                                .then(() -> npgResponse.tryEmitValue(npgCardData))
+                                .expectNext(expectedCardData)
+                                .verifyComplete()
+                )
+                .expectNext(expectedCardData)
+                .verifyComplete();
+
+        Mockito.verify(leaseHolderNpgClient, Mockito.times(1)).getCardData(any(), any(), any());
+        Mockito.verifyNoInteractions(otherNpgClient);
+        assertEquals(1, fetches("called"));
+        assertEquals(1, fetches("remote"));
+        assertEquals(1, leaseWaits("ready"));
+        // the lease is released once the card data are stored
+        assertFalse(redisTemplate().hasKey("npg-card-data-lease:orderId").block());
+    }
+
+    @Test
+    void shouldCallNpgWhenLeaseIsReleasedWithoutCardData() {
+        NpgClient leaseHolderNpgClient = mock(NpgClient.class);
+        Sinks.One<CardDataResponseDto> npgResponse = Sinks.one();
+        Mockito.when(leaseHolderNpgClient.getCardData(any(), any(), any())).thenReturn(npgResponse.asMono());
+        NpgClient otherNpgClient = mock(NpgClient.class);
+        Mockito.when(otherNpgClient.getCardData(any(), any(), any())).thenReturn(Mono.just(npgCardData));
+        NpgCardDataFetcher leaseHolder = fetcher(leaseHolderNpgClient, true);
+        NpgCardDataFetcher other = fetcher(otherNpgClient, true);
+
+        StepVerifier.create(leaseHolder.fetchCardData(session))
+                .then(
+                        () -> StepVerifier.create(other.fetchCardData(session))
+                                .then(() -> npgResponse.tryEmitError(new RuntimeException("NPG error")))
+                                .expectNext(expectedCardData)
+                                .verifyComplete()
+                )
+                .expectError(RuntimeException.class)
+                .verify();
+
+        Mockito.verify(otherNpgClient, Mockito.times(1)).getCardData(any(), any(), any());
+        assertEquals(1, fetches("fallback"));
+        assertEquals(1, leaseWaits("released"));
+    }
+
+    @Test
+    void shouldCallNpgWhenLeaseIsNotReleasedInTime() {
+        NpgClient otherNpgClient = mock(NpgClient.class);
+        Mockito.when(otherNpgClient.getCardData(any(), any(), any())).thenReturn(Mono.just(npgCardData));
+        NpgCardDataFetcher other = new NpgCardDataFetcher(
+                otherNpgClient,
+                npgSessionsTemplateWrapper,
+                writeBehind(false),
+                connectionFactory,
+                meterRegistry,
+                "apiKey",
+                true,
+                200,
+                50
+        );
+        // lease held by an instance that stopped responding
+        redisTemplate().opsForValue().set("npg-card-data-lease:orderId", "otherToken", Duration.ofMinutes(1))
+                .block();
+
+        StepVerifier.create(other.fetchCardData(session))
+                .expectNext(expectedCardData)
+                .verifyComplete();
+
+        assertEquals(1, fetches("fallback"));
+        assertEquals(1, leaseWaits("timeout"));
+    }
+
+    @Test
+    void shouldReturnCardDataPendingWriteWithoutCallingNpg() {
+        NpgClient npgClient = mock(NpgClient.class);
+        NpgCardDataWriteBehind writeBehind = mock(NpgCardDataWriteBehind.class);
+        Mockito.when(writeBehind.pendingCardData("orderId")).thenReturn(Mono.just(expectedCardData));
+        NpgCardDataFetcher fetcher = new NpgCardDataFetcher(
+                npgClient,
+                npgSessionsTemplateWrapper,
+                writeBehind,
+                connectionFactory,
+                meterRegistry,
+                "apiKey",
+                true,
+                LEASE_TTL_MILLIS,
+                10
+        );
+
+        StepVerifier.create(fetcher.fetchCardData(session))
+                .expectNext(expectedCardData)
+                .verifyComplete();
+
+        Mockito.verifyNoInteractions(npgClient);
+        assertEquals(1, fetches("pending"));
+    }
+
+    private NpgCardDataFetcher fetcher(
+                                       NpgClient npgClient,
+                                       boolean leaseEnabled
+    ) {
+        return new NpgCardDataFetcher(
+                npgClient,
+                npgSessionsTemplateWrapper,
+                writeBehind(false),
+                connectionFactory,
+                meterRegistry,
+                "apiKey",
+                leaseEnabled,
+                LEASE_TTL_MILLIS,
+                10
+        );
+    }
+
+    private NpgCardDataWriteBehind writeBehind(boolean enabled) {
+        return new NpgCardDataWriteBehind(npgSessionsTemplateWrapper, meterRegistry, enabled, 10, 2, 0, 10);
+    }
+
+    private ReactiveStringRedisTemplate redisTemplate() {
+        return new ReactiveStringRedisTemplate(connectionFactory);
+    }
+
+    private double fetches(String result) {
+        return meterRegistry.counter(NpgCardDataFetcher.FETCH_METRIC_NAME, "result", result).count();
+    }
+
+    private long leaseWaits(String result) {
+        return meterRegistry.timer(NpgCardDataFetcher.LEASE_WAIT_METRIC_NAME, "result", result).count();
+    }
+}
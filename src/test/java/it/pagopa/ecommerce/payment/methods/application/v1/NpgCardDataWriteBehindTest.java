@@ -0,0 +1,197 @@
+package it.pagopa.ecommerce.payment.methods.application.v1;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.infrastructure.CardDataDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+
+class NpgCardDataWriteBehindTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final NpgSessionsTemplateWrapper npgSessionsTemplateWrapper = mock(NpgSessionsTemplateWrapper.class);
+
+    private final NpgSessionDocument session = TestUtil
+            .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+
+    private final CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0424", "VISA");
+
+    private NpgCardDataWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.stop();
+    }
+
+    @Test
+    void shouldSaveCardDataInlineWhenDisabled() {
+        writeBehind = writeBehind(false, 10, 0);
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData)).thenReturn(Mono.just(true));
+        AtomicInteger afterPersisted = new AtomicInteger();
+
+        StepVerifier.create(
+                writeBehind.write(session, cardData, Mono.fromRunnable(afterPersisted::incrementAndGet))
+        )
+                .verifyComplete();
+
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).saveCardData(session, cardData);
+        assertEquals(1, afterPersisted.get());
+        assertEquals(0, writes("queued"));
+    }
+
+    @Test
+    void shouldCompleteBeforeCardDataArePersisted() {
+        writeBehind = writeBehind(true, 10, 0);
+        Sinks.One<Boolean> saved = Sinks.one();
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData)).thenReturn(saved.asMono());
+        AtomicInteger afterPersisted = new AtomicInteger();
+
+        StepVerifier.create(
+                writeBehind.write(session, cardData, Mono.fromRunnable(afterPersisted::incrementAndGet))
+        )
+                .verifyComplete();
+        // card data are readable from the pending writes until persisted
+        StepVerifier.create(writeBehind.pendingCardData("orderId"))
+                .expectNext(cardData)
+                .verifyComplete();
+        assertEquals(1, pendingGauge());
+        assertEquals(0, afterPersisted.get());
+
+        saved.tryEmitValue(true);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> afterPersisted.get() == 1);
+        StepVerifier.create(writeBehind.pendingCardData("orderId"))
+                .verifyComplete();
+        assertEquals(1, writes("queued"));
+        assertEquals(1, writes("written"));
+    }
+
+    @Test
+    void shouldRetryFailedWrites() {
+        writeBehind = writeBehind(true, 10, 2);
+        AtomicInteger attempts = new AtomicInteger();
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData)).thenReturn(
+                Mono.defer(
+                        () -> attempts.incrementAndGet() < 3 ? Mono.error(new RuntimeException("Redis error"))
+                                : Mono.just(true)
+                )
+        );
+
+        StepVerifier.create(writeBehind.write(session, cardData, Mono.empty()))
+                .verifyComplete();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> writes("written") == 1);
+        assertEquals(3, attempts.get());
+        assertEquals(0, writes("failed"));
+    }
+
+    @Test
+    void shouldDropPendingWriteAndRunAfterPersistedWhenRetriesAreExhausted() {
+        writeBehind = writeBehind(true, 10, 1);
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData))
+                .thenReturn(Mono.error(new RuntimeException("Redis error")));
+        AtomicInteger afterPersisted = new AtomicInteger();
+
+        StepVerifier.create(
+                writeBehind.write(session, cardData, Mono.fromRunnable(afterPersisted::incrementAndGet))
+        )
+                .verifyComplete();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> afterPersisted.get() == 1);
+        assertEquals(1, writes("failed"));
+        // card data will be fetched again from NPG
+        StepVerifier.create(writeBehind.pendingCardData("orderId"))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldPersistWritesForTheSameOrderIdInOrder() {
+        writeBehind = writeBehind(true, 10, 0);
+        CardDataDocument otherCardData = new CardDataDocument("87654321", "4321", "0430", "MC");
+        Sinks.One<Boolean> firstSaved = Sinks.one();
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData)).thenReturn(firstSaved.asMono());
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, otherCardData)).thenReturn(Mono.just(true));
+
+        writeBehind.write(session, cardData, Mono.empty()).block();
+        writeBehind.write(session, otherCardData, Mono.empty()).block();
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(
+                () -> Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).saveCardData(session, cardData)
+        );
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.never()).saveCardData(session, otherCardData);
+
+        firstSaved.tryEmitValue(true);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> writes("written") == 2);
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).saveCardData(session, otherCardData);
+    }
+
+    @Test
+    void shouldSaveCardDataInlineWhenQueueIsFull() {
+        writeBehind = writeBehind(true, 1, 0);
+        Sinks.One<Boolean> saved = Sinks.one();
+        // the first write blocks the worker, later writes for the same order id pile
+        // up until the queue is full
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(any(), eq(cardData))).thenReturn(saved.asMono());
+        for (int i = 0; i < 2; i++) {
+            writeBehind.write(
+                    TestUtil.npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null),
+                    cardData,
+                    Mono.empty()
+            ).block();
+        }
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(session, cardData)).thenReturn(Mono.just(true));
+        AtomicInteger afterPersisted = new AtomicInteger();
+
+        int attempts = 0;
+        while (writes("overflow") == 0 && attempts++ < 1000) {
+            writeBehind.write(session, cardData, Mono.fromRunnable(afterPersisted::incrementAndGet)).block();
+        }
+
+        assertEquals(1, writes("overflow"));
+        assertTrue(afterPersisted.get() >= 1);
+        saved.tryEmitValue(true);
+    }
+
+    private NpgCardDataWriteBehind writeBehind(
+                                               boolean enabled,
+                                               int queueCapacity,
+                                               int maxRetries
+    ) {
+        return new NpgCardDataWriteBehind(
+                npgSessionsTemplateWrapper,
+                meterRegistry,
+                enabled,
+                queueCapacity,
+                2,
+                maxRetries,
+                10
+        );
+    }
+
+    private double writes(String result) {
+        return meterRegistry.counter(NpgCardDataWriteBehind.METRIC_NAME, "result", result).count();
+    }
+
+    private double pendingGauge() {
+        return meterRegistry.get(NpgCardDataWriteBehind.PENDING_METRIC_NAME).gauge().value();
+    }
+}
@@ -0,0 +1,281 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.UpstreamConcurrencyLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final ClientRequest REQUEST = ClientRequest
+            .create(HttpMethod.POST, URI.create("http://localhost/fees"))
+            .build();
+
+    private final AtomicLong nanoClock = new AtomicLong();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void shouldIncreaseLimitWhileInUseAndUpstreamIsHealthy() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10, Duration.ZERO);
+
+        for (int i = 0; i < 5; i++) {
+            call(limiter, HttpStatus.OK, Duration.ofMillis(10));
+        }
+
+        // one call in-flight at a time keeps less than half of a limit of 3 in use
+        assertEquals(3, limiter.limit());
+        assertEquals(3, gauge(AdaptiveConcurrencyLimiter.LIMIT_METRIC_NAME));
+    }
+
+    @Test
+    void shouldDecreaseLimitOnServerErrors() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 10, Duration.ZERO);
+
+        call(limiter, HttpStatus.SERVICE_UNAVAILABLE, Duration.ofMillis(10));
+        call(limiter, HttpStatus.TOO_MANY_REQUESTS, Duration.ofMillis(10));
+
+        assertEquals(8, limiter.limit());
+    }
+
+    @Test
+    void shouldNotDecreaseLimitOnClientErrors() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 10, Duration.ZERO);
+
+        call(limiter, HttpStatus.NOT_FOUND, Duration.ofMillis(10));
+
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    void shouldNotDecreaseLimitOnSingleSlowCalls() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 10, Duration.ZERO);
+        for (int i = 0; i < 500; i++) {
+            call(limiter, HttpStatus.OK, Duration.ofMillis(10));
+        }
+        assertEquals(3, limiter.limit());
+
+        call(limiter, HttpStatus.OK, Duration.ofMillis(500));
+        call(limiter, HttpStatus.OK, Duration.ofMillis(10));
+        call(limiter, HttpStatus.OK, Duration.ofMillis(10));
+        call(limiter, HttpStatus.OK, Duration.ofMillis(500));
+        call(limiter, HttpStatus.OK, Duration.ofMillis(50));
+
+        assertEquals(3, limiter.limit());
+    }
+
+    @Test
+    void shouldDecreaseLimitOnSustainedLatencyInflation() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 10, Duration.ZERO);
+        for (int i = 0; i < 500; i++) {
+            call(limiter, HttpStatus.OK, Duration.ofMillis(10));
+        }
+        assertEquals(3, limiter.limit());
+
+        for (int i = 0; i < 10; i++) {
+            call(limiter, HttpStatus.OK, Duration.ofMillis(100));
+        }
+
+        assertTrue(limiter.limit() < 3);
+    }
+
+    @Test
+    void shouldCompareLatencyOfEachEndpointWithItsOwnBaseline() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 10, Duration.ZERO);
+        ClientRequest slowRequest = ClientRequest
+                .create(HttpMethod.POST, URI.create("http://localhost/notices/fees"))
+                .build();
+
+        for (int i = 0; i < 50; i++) {
+            call(limiter, REQUEST, HttpStatus.OK, Duration.ofMillis(10));
+            call(limiter, slowRequest, HttpStatus.OK, Duration.ofMillis(100));
+        }
+
+        assertEquals(3, limiter.limit());
+    }
+
+    @Test
+    void shouldDecreaseLimitOnCallErrors() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 10, Duration.ZERO);
+
+        StepVerifier.create(limiter.filter(REQUEST, request -> Mono.error(new IllegalStateException("timeout"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        assertEquals(9, limiter.limit());
+        assertEquals(0, gauge(AdaptiveConcurrencyLimiter.IN_FLIGHT_METRIC_NAME));
+    }
+
+    @Test
+    void shouldRejectCallsOverLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10, Duration.ZERO);
+        Sinks.One<ClientResponse> response = Sinks.one();
+        limiter.filter(REQUEST, request -> response.asMono()).subscribe();
+
+        StepVerifier.create(limiter.filter(REQUEST, request -> Mono.just(ok())))
+                .expectError(UpstreamConcurrencyLimitException.class)
+                .verify();
+
+        assertEquals(1, meterRegistry.get(AdaptiveConcurrencyLimiter.REJECTIONS_METRIC_NAME).counter().count());
+        assertEquals(1, gauge(AdaptiveConcurrencyLimiter.IN_FLIGHT_METRIC_NAME));
+    }
+
+    @Test
+    void shouldQueueCallsOverLimitUpToQueueTimeout() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10, Duration.ofSeconds(5));
+        Sinks.One<ClientResponse> response = Sinks.one();
+        limiter.filter(REQUEST, request -> response.asMono()).subscribe();
+        List<Integer> queued = new ArrayList<>();
+        limiter.filter(REQUEST, request -> Mono.just(ok()))
+                .subscribe(clientResponse -> queued.add(clientResponse.statusCode().value()));
+
+        assertEquals(0, queued.size());
+        response.tryEmitValue(ok());
+
+        assertEquals(List.of(200), queued);
+    }
+
+    @Test
+    void shouldRejectQueuedCallsAfterQueueTimeout() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10, Duration.ofMillis(50));
+        limiter.filter(REQUEST, request -> Mono.never()).subscribe();
+
+        StepVerifier.create(limiter.filter(REQUEST, request -> Mono.just(ok())))
+                .expectError(UpstreamConcurrencyLimitException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void shouldNotLimitCallsWhenDisabled() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                "afm",
+                meterRegistry,
+                AdaptiveConcurrencyLimiter.Mode.DISABLED,
+                1,
+                1,
+                Duration.ZERO,
+                nanoClock::get
+        );
+        limiter.filter(REQUEST, request -> Mono.never()).subscribe();
+
+        StepVerifier.create(limiter.filter(REQUEST, request -> Mono.just(ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldOnlyCountCallsOverLimitInShadowMode() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                "afm",
+                meterRegistry,
+                AdaptiveConcurrencyLimiter.Mode.SHADOW,
+                1,
+                10,
+                Duration.ZERO,
+                nanoClock::get
+        );
+        limiter.filter(REQUEST, request -> Mono.never()).subscribe();
+
+        StepVerifier.create(limiter.filter(REQUEST, request -> Mono.just(ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(
+                1,
+                meterRegistry.get(AdaptiveConcurrencyLimiter.REJECTIONS_METRIC_NAME).tag("mode", "shadow").counter()
+                        .count()
+        );
+        assertEquals(1, gauge(AdaptiveConcurrencyLimiter.IN_FLIGHT_METRIC_NAME));
+    }
+
+    @Test
+    void shouldNeitherLimitNorSampleUnlimitedRequests() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10, Duration.ZERO);
+        ClientRequest unlimitedRequest = ClientRequest.from(REQUEST)
+                .attribute(AdaptiveConcurrencyLimiter.UNLIMITED_ATTRIBUTE, true)
+                .build();
+        limiter.filter(REQUEST, request -> Mono.never()).subscribe();
+
+        StepVerifier.create(limiter.filter(unlimitedRequest, request -> Mono.just(ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(
+                limiter.filter(
+                        unlimitedRequest,
+                        request -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build())
+                )
+        )
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(1, limiter.limit());
+        assertEquals(1, gauge(AdaptiveConcurrencyLimiter.IN_FLIGHT_METRIC_NAME));
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(
+                                               int initialLimit,
+                                               int maxLimit,
+                                               Duration queueTimeout
+    ) {
+        return new AdaptiveConcurrencyLimiter(
+                "afm",
+                meterRegistry,
+                AdaptiveConcurrencyLimiter.Mode.ENFORCED,
+                initialLimit,
+                maxLimit,
+                queueTimeout,
+                nanoClock::get
+        );
+    }
+
+    private void call(
+                      AdaptiveConcurrencyLimiter limiter,
+                      HttpStatus status,
+                      Duration latency
+    ) {
+        call(limiter, REQUEST, status, latency);
+    }
+
+    private void call(
+                      AdaptiveConcurrencyLimiter limiter,
+                      ClientRequest clientRequest,
+                      HttpStatus status,
+                      Duration latency
+    ) {
+        StepVerifier.create(limiter.filter(clientRequest, request -> Mono.fromSupplier(() -> {
+            nanoClock.addAndGet(latency.toNanos());
+            return ClientResponse.create(status).build();
+        })))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    private static ClientResponse ok() {
+        return ClientResponse.create(HttpStatus.OK).build();
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).tag("upstream", "afm").gauge().value();
+    }
+}
@@ -0,0 +1,210 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AfmCircuitBreakerTest {
+
+    private static final Duration OPEN_STATE = Duration.ofSeconds(10);
+
+    private final AtomicLong nanoClock = new AtomicLong();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AfmCircuitBreaker afmCircuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        afmCircuitBreaker = circuitBreaker(1, 1);
+    }
+
+    @Test
+    void shouldOpenOnceFailureRateReachesThreshold() {
+        succeed();
+        fail(HttpStatus.BAD_GATEWAY);
+        succeed();
+        assertEquals(AfmCircuitBreaker.State.CLOSED, afmCircuitBreaker.state());
+
+        fail(HttpStatus.GATEWAY_TIMEOUT);
+
+        assertEquals(AfmCircuitBreaker.State.OPEN, afmCircuitBreaker.state());
+        StepVerifier.create(afmCircuitBreaker.guarded(call(Mono.just("quote"))))
+                .expectErrorMatches(error -> isNotPermitted(error, HttpStatus.SERVICE_UNAVAILABLE))
+                .verify();
+        assertEquals(4, calls.get());
+        assertEquals(1, calls("not_permitted"));
+        assertEquals(1, transitions("closed", "open"));
+        assertEquals(1, state("open"));
+    }
+
+    @Test
+    void shouldNotCountClientErrorsAsFailures() {
+        for (int i = 0; i < 4; i++) {
+            fail(HttpStatus.NOT_FOUND);
+        }
+
+        assertEquals(AfmCircuitBreaker.State.CLOSED, afmCircuitBreaker.state());
+        assertEquals(0, afmCircuitBreaker.snapshot().failedCalls());
+    }
+
+    @Test
+    void shouldCloseOnceHalfOpenProbesSucceed() {
+        open();
+        nanoClock.addAndGet(OPEN_STATE.toNanos());
+
+        assertEquals(AfmCircuitBreaker.State.HALF_OPEN, afmCircuitBreaker.state());
+        Sinks.One<String> probe = Sinks.one();
+        Disposable probing = afmCircuitBreaker.guarded(call(probe.asMono())).subscribe();
+        StepVerifier.create(afmCircuitBreaker.guarded(call(Mono.just("quote"))))
+                .expectError(AfmCallNotPermittedException.class)
+                .verify();
+        probe.tryEmitValue("quote");
+
+        assertEquals(AfmCircuitBreaker.State.CLOSED, afmCircuitBreaker.state());
+        assertEquals(1, transitions("half_open", "closed"));
+        probing.dispose();
+    }
+
+    @Test
+    void shouldOpenAgainOnHalfOpenProbeFailure() {
+        open();
+        nanoClock.addAndGet(OPEN_STATE.toNanos());
+
+        fail(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        assertEquals(AfmCircuitBreaker.State.OPEN, afmCircuitBreaker.state());
+        assertEquals(1, transitions("half_open", "open"));
+    }
+
+    @Test
+    void shouldReleaseHalfOpenProbeOnCancellation() {
+        open();
+        nanoClock.addAndGet(OPEN_STATE.toNanos());
+
+        afmCircuitBreaker.guarded(call(Mono.never())).subscribe().dispose();
+        succeed();
+
+        assertEquals(AfmCircuitBreaker.State.CLOSED, afmCircuitBreaker.state());
+    }
+
+    @Test
+    void shouldRejectCallsExceedingBulkhead() {
+        Sinks.One<String> inFlight = Sinks.one();
+        afmCircuitBreaker.guarded(call(inFlight.asMono())).subscribe();
+        List<String> queued = new ArrayList<>();
+        afmCircuitBreaker.guarded(call(Mono.just("queued"))).subscribe(queued::add);
+
+        StepVerifier.create(afmCircuitBreaker.guarded(call(Mono.just("rejected"))))
+                .expectErrorMatches(error -> isNotPermitted(error, HttpStatus.TOO_MANY_REQUESTS))
+                .verify();
+        assertEquals(1, afmCircuitBreaker.snapshot().activeCalls());
+        inFlight.tryEmitValue("quote");
+
+        assertEquals(List.of("queued"), queued);
+        assertEquals(0, afmCircuitBreaker.snapshot().activeCalls());
+        assertEquals(2, calls.get());
+        assertEquals(1, calls("bulkhead_full"));
+    }
+
+    @Test
+    void shouldNotGuardCallsWhenDisabled() {
+        afmCircuitBreaker = new AfmCircuitBreaker(meterRegistry, false, 50, 4, 4, OPEN_STATE, 1, 1, 0, nanoClock::get);
+        for (int i = 0; i < 5; i++) {
+            fail(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        succeed();
+
+        assertEquals(6, calls.get());
+    }
+
+    private AfmCircuitBreaker circuitBreaker(
+                                             int maxConcurrentCalls,
+                                             int maxQueuedCalls
+    ) {
+        return new AfmCircuitBreaker(
+                meterRegistry,
+                true,
+                50,
+                4,
+                4,
+                OPEN_STATE,
+                1,
+                maxConcurrentCalls,
+                maxQueuedCalls,
+                nanoClock::get
+        );
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            fail(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        assertEquals(AfmCircuitBreaker.State.OPEN, afmCircuitBreaker.state());
+    }
+
+    private void succeed() {
+        StepVerifier.create(afmCircuitBreaker.guarded(call(Mono.just("quote"))))
+                .expectNext("quote")
+                .verifyComplete();
+    }
+
+    private void fail(HttpStatus status) {
+        StepVerifier.create(afmCircuitBreaker.guarded(call(Mono.error(new AfmResponseException(status, "error")))))
+                .expectErrorMatches(
+                        error -> error instanceof AfmResponseException afmResponseException
+                                && afmResponseException.status == status
+                )
+                .verify();
+    }
+
+    private Mono<String> call(Mono<String> response) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return response;
+        });
+    }
+
+    private static boolean isNotPermitted(
+                                          Throwable error,
+                                          HttpStatus status
+    ) {
+        return error instanceof AfmCallNotPermittedException afmCallNotPermittedException
+                && afmCallNotPermittedException.status == status;
+    }
+
+    private double calls(String result) {
+        return meterRegistry.get(AfmCircuitBreaker.CALLS_METRIC_NAME).tag("result", result).counter().count();
+    }
+
+    private double transitions(
+                               String from,
+                               String to
+    ) {
+        return meterRegistry.get(AfmCircuitBreaker.TRANSITIONS_METRIC_NAME).tag("from", from).tag("to", to)
+                .counter().count();
+    }
+
+    private double state(String state) {
+        return meterRegistry.get(AfmCircuitBreaker.STATE_METRIC_NAME).tag("state", state).gauge().value();
+    }
+}
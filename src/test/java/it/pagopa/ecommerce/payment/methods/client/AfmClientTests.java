@@ -5,11 +5,24 @@ import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.config.ConnectionProvidersConfig;
 import it.pagopa.ecommerce.payment.methods.config.WebClientsConfig;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
 import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
 import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -17,13 +30,20 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.test.StepVerifier;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,10 +57,30 @@ public class AfmClientTests {
     @BeforeEach
     public void init() {
         final var calculatorApi = clientsConfig
-                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000);
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, concurrencyLimiter(), connectionProvider());
         final var calculatorApiV2 = clientsConfig
-                .afmWebClientV2("http://localhost:9001/v2/fees", 5000, 5000);
-        afmClient = new AfmClient(calculatorApi, calculatorApiV2, "xxx");
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        concurrencyLimiter(),
+                        connectionProvider()
+                );
+        afmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                feeQuoteCache(false),
+                circuitBreaker(20),
+                staleQuotes(),
+                localFeeCalculator(false),
+                new SimpleMeterRegistry(),
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
     }
 
     @AfterAll
@@ -80,6 +120,352 @@ public class AfmClientTests {
         assertThat(mockWebServer.takeRequest().getHeader(HEADER_APIM_KEY)).isNotNull();
     }
 
+    @Test
+    void shouldServeCachedFeeQuoteForIdenticalRequests() throws JsonProcessingException {
+        final var calculatorApi = clientsConfig
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, concurrencyLimiter(), connectionProvider());
+        final var calculatorApiV2 = clientsConfig
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        concurrencyLimiter(),
+                        connectionProvider()
+                );
+        AfmClient cachingAfmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                feeQuoteCache(true),
+                circuitBreaker(20),
+                staleQuotes(),
+                localFeeCalculator(false),
+                new SimpleMeterRegistry(),
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
+        final var gecResponse = TestUtil.getBundleOptionDtoClientResponse();
+        mockWebServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new ObjectMapper().writeValueAsString(gecResponse))
+        );
+        int requestCount = mockWebServer.getRequestCount();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier
+                    .create(cachingAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                    .expectNext(gecResponse)
+                    .verifyComplete();
+        }
+
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 1);
+    }
+
+    @Test
+    void shouldCoalesceIdenticalConcurrentFeeRequests() throws JsonProcessingException, InterruptedException {
+        final var gecResponse = TestUtil.getBundleOptionDtoClientResponse();
+        mockWebServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new ObjectMapper().writeValueAsString(gecResponse))
+                        .setHeadersDelay(500, TimeUnit.MILLISECONDS)
+        );
+        int requestCount = mockWebServer.getRequestCount();
+
+        StepVerifier
+                .create(
+                        Mono.zip(
+                                afmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true),
+                                afmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true)
+                        )
+                )
+                .assertNext(quotes -> {
+                    assertThat(quotes.getT1()).isEqualTo(gecResponse);
+                    assertThat(quotes.getT2()).isEqualTo(gecResponse);
+                    assertThat(quotes.getT1()).isNotSameAs(quotes.getT2());
+                })
+                .verifyComplete();
+
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 1);
+        assertThat(mockWebServer.takeRequest().getHeader(HEADER_APIM_KEY)).isNotNull();
+    }
+
+    @Test
+    void shouldCoalesceIdenticalConcurrentFeeRequestsBeforeRedisTier() throws IOException {
+        RedisServer redisServer = RedisServer.newRedisServer().start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort())
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final var calculatorApi = clientsConfig
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, concurrencyLimiter(), connectionProvider());
+        final var calculatorApiV2 = clientsConfig
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        concurrencyLimiter(),
+                        connectionProvider()
+                );
+        AfmClient redisCachingAfmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                new AfmFeeQuoteCache(connectionFactory, meterRegistry, true, 10000, 10, true, 30, 3000, 50),
+                circuitBreaker(20),
+                staleQuotes(),
+                localFeeCalculator(false),
+                meterRegistry,
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
+        final var gecResponse = TestUtil.getBundleOptionDtoClientResponse();
+        mockWebServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new ObjectMapper().writeValueAsString(gecResponse))
+                        .setHeadersDelay(500, TimeUnit.MILLISECONDS)
+        );
+        int requestCount = mockWebServer.getRequestCount();
+
+        try {
+            StepVerifier
+                    .create(
+                            Mono.zip(
+                                    redisCachingAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true),
+                                    redisCachingAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true),
+                                    redisCachingAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true)
+                            )
+                    )
+                    .assertNext(quotes -> {
+                        assertThat(quotes.getT1()).isEqualTo(gecResponse);
+                        assertThat(quotes.getT2()).isEqualTo(gecResponse);
+                        assertThat(quotes.getT3()).isEqualTo(gecResponse);
+                    })
+                    .verifyComplete();
+        } finally {
+            connectionFactory.destroy();
+            redisServer.stop();
+        }
+
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 1);
+        assertThat(
+                meterRegistry.counter(AfmInFlightRequests.REQUESTS_METRIC_NAME, "result", "coalesced").count()
+        ).isEqualTo(2);
+        // a single Redis lookup, and no instance polling the Redis tier for the lease
+        assertThat(
+                meterRegistry.counter(AfmFeeQuoteCache.LOOKUP_METRIC_NAME, "tier", "redis", "result", "miss").count()
+        ).isEqualTo(1);
+        assertThat(meterRegistry.counter(AfmFeeQuoteCache.LOAD_METRIC_NAME, "result", "called").count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.counter(AfmFeeQuoteCache.LOAD_METRIC_NAME, "result", "remote").count()).isZero();
+        assertThat(meterRegistry.counter(AfmFeeQuoteCache.LOAD_METRIC_NAME, "result", "fallback").count())
+                .isZero();
+    }
+
+    @Test
+    void shouldServeLastGoodQuoteWhileCircuitBreakerIsOpen() throws JsonProcessingException, InterruptedException {
+        final var calculatorApi = clientsConfig
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, concurrencyLimiter(), connectionProvider());
+        final var calculatorApiV2 = clientsConfig
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        concurrencyLimiter(),
+                        connectionProvider()
+                );
+        AfmClient guardedAfmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                feeQuoteCache(false),
+                circuitBreaker(2),
+                staleQuotes(),
+                localFeeCalculator(false),
+                new SimpleMeterRegistry(),
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
+        final var gecResponse = TestUtil.getBundleOptionDtoClientResponse();
+        mockWebServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new ObjectMapper().writeValueAsString(gecResponse))
+        );
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500).setBody("{\"error\": \"wrong\"}"));
+        int requestCount = mockWebServer.getRequestCount();
+
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                .expectNext(gecResponse)
+                .verifyComplete();
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                .expectErrorMatches(
+                        error -> error instanceof AfmResponseException afmResponseException
+                                && afmResponseException.status == HttpStatus.INTERNAL_SERVER_ERROR
+                )
+                .verify();
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                .expectNext(gecResponse)
+                .verifyComplete();
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 20, true))
+                .expectErrorMatches(
+                        error -> error instanceof AfmCallNotPermittedException afmCallNotPermittedException
+                                && afmCallNotPermittedException.status == HttpStatus.SERVICE_UNAVAILABLE
+                )
+                .verify();
+
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 2);
+        mockWebServer.takeRequest();
+        mockWebServer.takeRequest();
+    }
+
+    @Test
+    void shouldNotCloseCircuitBreakerOnHalfOpenProbesRejectedByConcurrencyLimiter()
+            throws JsonProcessingException, InterruptedException, ExecutionException, TimeoutException {
+        AdaptiveConcurrencyLimiter singleCallLimiter = new AdaptiveConcurrencyLimiter(
+                "afm",
+                new SimpleMeterRegistry(),
+                AdaptiveConcurrencyLimiter.Mode.ENFORCED,
+                1,
+                1,
+                Duration.ZERO
+        );
+        final var calculatorApi = clientsConfig
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, singleCallLimiter, connectionProvider());
+        final var calculatorApiV2 = clientsConfig
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        singleCallLimiter,
+                        connectionProvider()
+                );
+        AtomicLong nanoClock = new AtomicLong();
+        AfmCircuitBreaker afmCircuitBreaker = new AfmCircuitBreaker(
+                new SimpleMeterRegistry(),
+                true,
+                50,
+                50,
+                1,
+                Duration.ofSeconds(10),
+                2,
+                100,
+                100,
+                nanoClock::get
+        );
+        AfmClient guardedAfmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                feeQuoteCache(false),
+                afmCircuitBreaker,
+                staleQuotes(),
+                localFeeCalculator(false),
+                new SimpleMeterRegistry(),
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
+        final var gecResponse = TestUtil.getBundleOptionDtoClientResponse();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500).setBody("{\"error\": \"wrong\"}"));
+        mockWebServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new ObjectMapper().writeValueAsString(gecResponse))
+                        .setHeadersDelay(500, TimeUnit.MILLISECONDS)
+        );
+
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                .expectError(AfmResponseException.class)
+                .verify();
+        mockWebServer.takeRequest();
+        nanoClock.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertThat(afmCircuitBreaker.state()).isEqualTo(AfmCircuitBreaker.State.HALF_OPEN);
+
+        // the first probe holds the only concurrency limiter permit until AFM answers
+        final var firstProbe = guardedAfmClient
+                .getFees(TestUtil.getPaymentOptionRequestClient(), 20, true)
+                .toFuture();
+        mockWebServer.takeRequest();
+        StepVerifier
+                .create(guardedAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 30, true))
+                .expectErrorMatches(
+                        error -> error instanceof AfmCallNotPermittedException afmCallNotPermittedException
+                                && afmCallNotPermittedException.status == HttpStatus.TOO_MANY_REQUESTS
+                )
+                .verify();
+        assertThat(firstProbe.get(5, TimeUnit.SECONDS)).isEqualTo(gecResponse);
+
+        // the locally rejected probe is neither a success nor a failure
+        assertThat(afmCircuitBreaker.state()).isEqualTo(AfmCircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    void shouldServeLocalQuoteWhenAfmIsUnavailable() throws InterruptedException {
+        final var calculatorApi = clientsConfig
+                .afmWebClient("http://localhost:9001/v1/fees", 5000, 5000, concurrencyLimiter(), connectionProvider());
+        final var calculatorApiV2 = clientsConfig
+                .afmWebClientV2(
+                        "http://localhost:9001/v2/fees",
+                        5000,
+                        5000,
+                        concurrencyLimiter(),
+                        connectionProvider()
+                );
+        AfmClient fallbackAfmClient = new AfmClient(
+                calculatorApi,
+                calculatorApiV2,
+                "xxx",
+                feeQuoteCache(false),
+                circuitBreaker(20),
+                staleQuotes(),
+                localFeeCalculator(true),
+                new SimpleMeterRegistry(),
+                true,
+                false,
+                0.95,
+                5,
+                50
+        );
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503).setBody("{\"error\": \"unavailable\"}"));
+
+        StepVerifier
+                .create(fallbackAfmClient.getFees(TestUtil.getPaymentOptionRequestClient(), 10, true))
+                .assertNext(quote -> {
+                    assertThat(quote.getBundleOptions()).hasSize(1);
+                    assertThat(quote.getBundleOptions().get(0).getIdPsp()).isEqualTo("firstPspId");
+                    assertThat(quote.getBundleOptions().get(0).getTaxPayerFee()).isEqualTo(100L);
+                })
+                .verifyComplete();
+
+        mockWebServer.takeRequest();
+    }
+
     @ParameterizedTest
     @MethodSource("it.pagopa.ecommerce.payment.methods.client.AfmClientTests#negativeStatusCode")
     void shouldReturnResponseStatusException(HttpStatus httpStatus) throws InterruptedException {
@@ -187,6 +573,60 @@ public class AfmClientTests {
         }
     }
 
+    private static AdaptiveConcurrencyLimiter concurrencyLimiter() {
+        return new AdaptiveConcurrencyLimiter(
+                "afm",
+                new SimpleMeterRegistry(),
+                AdaptiveConcurrencyLimiter.Mode.ENFORCED,
+                20,
+                200,
+                Duration.ofMillis(50)
+        );
+    }
+
+    private static ConnectionProvider connectionProvider() {
+        return new ConnectionProvidersConfig().afmConnectionProvider(10, 20, 1000, 30000, 300000);
+    }
+
+    private static LocalFeeCalculator localFeeCalculator(boolean enabled) {
+        PspCatalog pspCatalog = Mockito.mock(PspCatalog.class);
+        Mockito.lenient().when(pspCatalog.currentIndex()).thenReturn(
+                Optional.of(
+                        PspIndex.of(
+                                List.of(
+                                        LocalFeeCalculatorTest
+                                                .psp("firstPspId", "channel", "paymentMethodID", "IT", 0, 1000, 100),
+                                        LocalFeeCalculatorTest
+                                                .psp("otherPspId", "channel", "paymentMethodID", "IT", 0, 1000, 50)
+                                )
+                        )
+                )
+        );
+        return new LocalFeeCalculator(pspCatalog, new SimpleMeterRegistry(), enabled, "IT");
+    }
+
+    private static AfmCircuitBreaker circuitBreaker(int minimumCalls) {
+        return new AfmCircuitBreaker(new SimpleMeterRegistry(), true, 50, 50, minimumCalls, 10000, 3, 100, 100);
+    }
+
+    private static AfmStaleQuotes staleQuotes() {
+        return new AfmStaleQuotes(new SimpleMeterRegistry(), true, 10000, 600);
+    }
+
+    private static AfmFeeQuoteCache feeQuoteCache(boolean enabled) {
+        return new AfmFeeQuoteCache(
+                Mockito.mock(ReactiveRedisConnectionFactory.class),
+                new SimpleMeterRegistry(),
+                enabled,
+                10000,
+                10,
+                false,
+                30,
+                3000,
+                50
+        );
+    }
+
     public static Stream<Arguments> negativeStatusCode() {
         return Arrays.stream(HttpStatus.values()).filter(HttpStatus::isError)
                 .map(Arguments::of);
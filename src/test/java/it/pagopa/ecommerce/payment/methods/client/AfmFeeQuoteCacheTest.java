@@ -0,0 +1,447 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.TransferDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AfmFeeQuoteCacheTest {
+
+    private static final long LEASE_TTL_MILLIS = 5000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicLong tickerNanos = new AtomicLong();
+
+    private final AtomicInteger afmCalls = new AtomicInteger();
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisServer = RedisServer.newRedisServer().start();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort())
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Test
+    void shouldServeCachedQuoteOnHit() {
+        AfmFeeQuoteCache cache = cache(true, 100);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(cache.getFees("key", afmCall(quote)))
+                    .expectNext(quote)
+                    .verifyComplete();
+        }
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(2, lookups("hit"));
+        assertEquals(1, lookups("miss"));
+    }
+
+    @Test
+    void shouldNotCacheQuotesWhenDisabled() {
+        AfmFeeQuoteCache cache = cache(false, 100);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        cache.getFees("key", afmCall(quote)).block();
+        cache.getFees("key", afmCall(quote)).block();
+
+        assertEquals(2, afmCalls.get());
+        assertEquals(0, lookups("miss"));
+    }
+
+    @Test
+    void shouldServeNewQuoteInstanceOnEveryHit() {
+        AfmFeeQuoteCache cache = cache(true, 100);
+        var quote = TestUtil.V2.getBundleOptionDtoClientResponse();
+        cache.getFeesForNotices("key", afmCall(quote)).block();
+
+        BundleOptionDto firstHit = cache.getFeesForNotices("key", afmCall(quote)).block();
+        firstHit.setBundleOptions(List.of());
+        BundleOptionDto secondHit = cache.getFeesForNotices("key", afmCall(quote)).block();
+
+        assertNotSame(firstHit, secondHit);
+        assertEquals(quote, secondHit);
+    }
+
+    @Test
+    void shouldReshuffleBundlesWithSameFeeOnHit() {
+        AfmFeeQuoteCache cache = cache(true, 100);
+        List<TransferDto> bundles = new ArrayList<>();
+        bundles.add(bundle("onUsPsp", 100L, true));
+        for (int i = 0; i < 5; i++) {
+            bundles.add(bundle("cheapPsp" + i, 50L, false));
+        }
+        for (int i = 0; i < 5; i++) {
+            bundles.add(bundle("expensivePsp" + i, 80L, false));
+        }
+        var quote = new BundleOptionDto().belowThreshold(false).bundleOptions(bundles);
+        cache.getFeesForNotices("key", afmCall(quote)).block();
+
+        Set<List<String>> orderings = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            List<TransferDto> hitBundles = cache.getFeesForNotices("key", afmCall(quote)).block().getBundleOptions();
+            assertEquals("onUsPsp", hitBundles.get(0).getIdPsp());
+            assertEquals(
+                    Set.copyOf(bundles.subList(1, 6)),
+                    Set.copyOf(hitBundles.subList(1, 6))
+            );
+            assertEquals(
+                    Set.copyOf(bundles.subList(6, 11)),
+                    Set.copyOf(hitBundles.subList(6, 11))
+            );
+            orderings.add(hitBundles.stream().map(TransferDto::getIdPsp).toList());
+        }
+
+        assertTrue(orderings.size() > 1);
+        assertEquals(1, afmCalls.get());
+    }
+
+    @Test
+    void shouldNotCacheErrors() {
+        AfmFeeQuoteCache cache = cache(true, 100);
+        Mono<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> failingCall = Mono.defer(() -> {
+            afmCalls.incrementAndGet();
+            return Mono.error(new AfmResponseException(HttpStatus.BAD_GATEWAY, "error"));
+        });
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(cache.getFees("key", failingCall))
+                    .expectError(AfmResponseException.class)
+                    .verify();
+        }
+
+        assertEquals(2, afmCalls.get());
+    }
+
+    @Test
+    void shouldExpireCachedQuotes() {
+        AfmFeeQuoteCache cache = cache(true, 100);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+        cache.getFees("key", afmCall(quote)).block();
+
+        tickerNanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        cache.getFees("key", afmCall(quote)).block();
+
+        assertEquals(2, afmCalls.get());
+        assertEquals(2, lookups("miss"));
+        assertEquals(1, evictions("expired"));
+    }
+
+    @Test
+    void shouldEvictQuotesBeyondMaxSize() {
+        AfmFeeQuoteCache cache = cache(true, 1);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        cache.getFees("firstKey", afmCall(quote)).block();
+        cache.getFees("secondKey", afmCall(quote)).block();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> evictions("size") == 1);
+    }
+
+    @Test
+    void shouldShareQuotesAcrossInstancesThroughRedis() {
+        // two caches sharing the same Redis, as two service instances
+        AfmFeeQuoteCache firstInstance = cache(true, 100, true);
+        AfmFeeQuoteCache secondInstance = cache(true, 100, true);
+        var quote = TestUtil.V2.getBundleOptionDtoClientResponse();
+
+        StepVerifier.create(firstInstance.getFeesForNotices("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+        StepVerifier.create(secondInstance.getFeesForNotices("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+        StepVerifier.create(secondInstance.getFeesForNotices("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(1, loads("called"));
+        assertEquals(1, lookups("redis", "hit"));
+        assertEquals(1, lookups("redis", "miss"));
+        assertEquals(1, lookups("local", "hit"));
+        assertEquals(2, lookups("local", "miss"));
+    }
+
+    @Test
+    void shouldServeRedisTierWhenLocalTierIsDisabled() {
+        AfmFeeQuoteCache cache = cache(false, 100, true);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        cache.getFees("key", afmCall(quote)).block();
+        StepVerifier.create(cache.getFees("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(1, lookups("redis", "hit"));
+        assertEquals(0, lookups("local", "miss"));
+    }
+
+    @Test
+    void shouldWaitForQuoteRequestedByLeaseHolder() {
+        AfmFeeQuoteCache firstInstance = cache(false, 100, true);
+        AfmFeeQuoteCache secondInstance = cache(false, 100, true);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+        Sinks.One<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> afmResponse = Sinks.one();
+        Mono<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> afmCall = Mono.defer(() -> {
+            afmCalls.incrementAndGet();
+            return afmResponse.asMono();
+        });
+
+        StepVerifier.create(firstInstance.getFees("key", afmCall))
+                .then(
+                        () -> StepVerifier.create(secondInstance.getFees("key", afmCall))
+                                .then(this::awaitLeaseWaiter)
+                                .then(() -> afmResponse.tryEmitValue(quote))
+                                .expectNext(quote)
+                                .verifyComplete()
+                )
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(1, loads("called"));
+        assertEquals(1, loads("remote"));
+    }
+
+    @Test
+    void shouldCallAfmWhenLeaseHolderFails() {
+        AfmFeeQuoteCache firstInstance = cache(false, 100, true);
+        AfmFeeQuoteCache secondInstance = cache(false, 100, true);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+        Sinks.One<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> afmResponse = Sinks.one();
+        Mono<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> failingAfmCall = Mono.defer(() -> {
+            afmCalls.incrementAndGet();
+            return afmResponse.asMono();
+        });
+
+        StepVerifier.create(firstInstance.getFees("key", failingAfmCall))
+                .then(
+                        () -> StepVerifier.create(secondInstance.getFees("key", afmCall(quote)))
+                                .then(this::awaitLeaseWaiter)
+                                .then(
+                                        () -> afmResponse.tryEmitError(
+                                                new AfmResponseException(HttpStatus.BAD_GATEWAY, "error")
+                                        )
+                                )
+                                .expectNext(quote)
+                                .verifyComplete()
+                )
+                .expectError(AfmResponseException.class)
+                .verify();
+
+        assertEquals(2, afmCalls.get());
+        assertEquals(1, loads("called"));
+        assertEquals(1, loads("fallback"));
+    }
+
+    @Test
+    void shouldReleaseLeaseWhenAfmReturnsNoQuote() {
+        AfmFeeQuoteCache firstInstance = cache(false, 100, true);
+        AfmFeeQuoteCache secondInstance = cache(false, 100, true);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        StepVerifier.create(firstInstance.getFees("key", Mono.empty()))
+                .verifyComplete();
+        awaitLeaseReleased("key");
+        StepVerifier.create(secondInstance.getFees("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(2, loads("called"));
+        assertEquals(0, loads("fallback"));
+    }
+
+    @Test
+    void shouldReleaseLeaseWhenAfmCallIsCancelled() {
+        AfmFeeQuoteCache firstInstance = cache(false, 100, true);
+        AfmFeeQuoteCache secondInstance = cache(false, 100, true);
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+        Mono<it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto> pendingAfmCall = Mono.defer(() -> {
+            afmCalls.incrementAndGet();
+            return Mono.never();
+        });
+
+        StepVerifier.create(firstInstance.getFees("key", pendingAfmCall))
+                .then(() -> await().atMost(Duration.ofSeconds(5)).until(() -> afmCalls.get() == 1))
+                .thenCancel()
+                .verify();
+        awaitLeaseReleased("key");
+        StepVerifier.create(secondInstance.getFees("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(2, afmCalls.get());
+        assertEquals(2, loads("called"));
+        assertEquals(0, loads("fallback"));
+    }
+
+    @Test
+    void shouldCallAfmWhenRedisIsUnavailable() {
+        LettuceConnectionFactory unavailableRedis = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration("localhost", 1)
+        );
+        unavailableRedis.afterPropertiesSet();
+        unavailableRedis.start();
+        AfmFeeQuoteCache cache = new AfmFeeQuoteCache(
+                unavailableRedis,
+                meterRegistry,
+                true,
+                100,
+                10,
+                true,
+                30,
+                LEASE_TTL_MILLIS,
+                20,
+                tickerNanos::get
+        );
+        var quote = TestUtil.getBundleOptionDtoClientResponse();
+
+        StepVerifier.create(cache.getFees("key", afmCall(quote)))
+                .expectNext(quote)
+                .verifyComplete();
+
+        assertEquals(1, afmCalls.get());
+        assertEquals(1, loads("fallback"));
+        unavailableRedis.destroy();
+    }
+
+    @Test
+    void shouldStoreQuotesWithCompactEncoding() throws IOException {
+        var quote = TestUtil.V2.getBundleOptionDtoClientResponseWithUnsortedTransferMixedWithSameFees();
+
+        byte[] encoded = AfmFeeQuoteEncoding.encode(quote);
+
+        assertTrue(encoded.length < new ObjectMapper().writeValueAsBytes(quote).length);
+        assertEquals(
+                quote,
+                AfmFeeQuoteEncoding.decode(encoded, it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto.class)
+        );
+    }
+
+    private AfmFeeQuoteCache cache(
+                                   boolean enabled,
+                                   long maxSize
+    ) {
+        return cache(enabled, maxSize, false);
+    }
+
+    private AfmFeeQuoteCache cache(
+                                   boolean enabled,
+                                   long maxSize,
+                                   boolean redisEnabled
+    ) {
+        return new AfmFeeQuoteCache(
+                connectionFactory,
+                meterRegistry,
+                enabled,
+                maxSize,
+                10,
+                redisEnabled,
+                30,
+                LEASE_TTL_MILLIS,
+                20,
+                tickerNanos::get
+        );
+    }
+
+    /**
+     * Wait for the second instance to miss the quote and find the lease taken, so
+     * that it waits for the lease holder
+     */
+    private void awaitLeaseWaiter() {
+        await().atMost(Duration.ofSeconds(5)).until(() -> lookups("redis", "miss") == 2);
+        await().pollDelay(Duration.ofMillis(200)).until(() -> true);
+    }
+
+    /**
+     * Wait for the lease to be released well before its TTL
+     */
+    private void awaitLeaseReleased(String key) {
+        ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        await().atMost(Duration.ofMillis(LEASE_TTL_MILLIS / 5))
+                .until(
+                        () -> !Boolean.TRUE.equals(
+                                redisTemplate.hasKey("%s:%s".formatted(AfmFeeQuoteCache.LEASE_KEYSPACE, key))
+                                        .block()
+                        )
+                );
+    }
+
+    private <T> Mono<T> afmCall(T quote) {
+        return Mono.fromSupplier(() -> {
+            afmCalls.incrementAndGet();
+            return quote;
+        });
+    }
+
+    private static TransferDto bundle(
+                                      String idPsp,
+                                      Long fee,
+                                      boolean onUs
+    ) {
+        return new TransferDto().idPsp(idPsp).taxPayerFee(fee).onUs(onUs);
+    }
+
+    private double lookups(String result) {
+        return lookups("local", result);
+    }
+
+    private double lookups(
+                           String tier,
+                           String result
+    ) {
+        return meterRegistry.counter(AfmFeeQuoteCache.LOOKUP_METRIC_NAME, "tier", tier, "result", result).count();
+    }
+
+    private double loads(String result) {
+        return meterRegistry.counter(AfmFeeQuoteCache.LOAD_METRIC_NAME, "result", result).count();
+    }
+
+    private double evictions(String cause) {
+        return meterRegistry.counter(AfmFeeQuoteCache.EVICTION_METRIC_NAME, "cause", cause).count();
+    }
+}
@@ -0,0 +1,77 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PspSearchCriteriaDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AfmFeeRequestKeysTest {
+
+    @Test
+    void shouldComputeSameKeyForEquivalentRequests() {
+        var request = TestUtil.getPaymentOptionRequestClient();
+        var reorderedPspsRequest = TestUtil.getPaymentOptionRequestClient()
+                .idPspList(
+                        new ArrayList<>(
+                                List.of(
+                                        new PspSearchCriteriaDto().idPsp("secondPspId"),
+                                        new PspSearchCriteriaDto().idPsp("firstPspId")
+                                )
+                        )
+                );
+
+        assertEquals(
+                AfmFeeRequestKeys.feesKey(request, 10, true),
+                AfmFeeRequestKeys.feesKey(reorderedPspsRequest, 10, true)
+        );
+        assertTrue(AfmFeeRequestKeys.feesKey(request, 10, true).startsWith("v1:"));
+    }
+
+    @Test
+    void shouldComputeDifferentKeysForDifferentRequests() {
+        var request = TestUtil.getPaymentOptionRequestClient();
+        String key = AfmFeeRequestKeys.feesKey(request, 10, true);
+
+        assertNotEquals(key, AfmFeeRequestKeys.feesKey(request, 10, false));
+        assertNotEquals(key, AfmFeeRequestKeys.feesKey(request, 5, true));
+        assertNotEquals(key, AfmFeeRequestKeys.feesKey(request, null, true));
+        assertNotEquals(key, AfmFeeRequestKeys.feesKey(TestUtil.getPaymentOptionRequestClient().bin("BIN"), 10, true));
+        assertNotEquals(
+                key,
+                AfmFeeRequestKeys.feesKey(TestUtil.getPaymentOptionRequestClient().paymentAmount(100L), 10, true)
+        );
+    }
+
+    @Test
+    void shouldComputeKeysForMultiNoticeRequests() {
+        var request = TestUtil.V2.getPaymentMultiNoticeOptionRequestClient();
+        var reorderedPspsRequest = TestUtil.V2.getPaymentMultiNoticeOptionRequestClient()
+                .idPspList(
+                        List.of(
+                                new it.pagopa.generated.ecommerce.gec.v2.dto.PspSearchCriteriaDto()
+                                        .idPsp("secondPspId"),
+                                new it.pagopa.generated.ecommerce.gec.v2.dto.PspSearchCriteriaDto()
+                                        .idPsp("firstPspId")
+                        )
+                );
+
+        String key = AfmFeeRequestKeys.feesForNoticesKey(request, 10, false);
+
+        assertTrue(key.startsWith("v2:"));
+        assertEquals(key, AfmFeeRequestKeys.feesForNoticesKey(reorderedPspsRequest, 10, false));
+        assertNotEquals(
+                key,
+                AfmFeeRequestKeys.feesForNoticesKey(
+                        TestUtil.V2.getPaymentMultiNoticeOptionRequestClient().touchpoint("IO"),
+                        10,
+                        false
+                )
+        );
+    }
+}
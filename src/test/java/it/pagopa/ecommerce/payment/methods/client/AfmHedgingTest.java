@@ -0,0 +1,162 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AfmHedgingTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final AtomicBoolean originalCancelled = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void shouldHedgeSlowRequestCancellingTheOriginalOne() {
+        AfmHedging afmHedging = afmHedging(true, 100);
+        observeLatency(Duration.ofMillis(20));
+
+        StepVerifier.create(afmHedging.hedged(request(Mono.just("hedged"))))
+                .expectNext("hedged")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+
+        assertEquals(2, attempts.get());
+        assertTrue(originalCancelled.get());
+        assertEquals(1, hedges("sent"));
+        assertEquals(1, hedges("won"));
+    }
+
+    @Test
+    void shouldNotHedgeRequestAnsweredWithinObservedLatency() {
+        AfmHedging afmHedging = afmHedging(true, 100);
+        observeLatency(Duration.ofMillis(500));
+
+        StepVerifier.create(afmHedging.hedged(Mono.fromSupplier(() -> {
+            attempts.incrementAndGet();
+            return "original";
+        })))
+                .expectNext("original")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(0, hedges("sent"));
+    }
+
+    @Test
+    void shouldNotHedgeWithoutObservedLatency() {
+        AfmHedging afmHedging = afmHedging(true, 100);
+
+        StepVerifier.create(afmHedging.hedged(request(Mono.just("hedged"), Duration.ofMillis(200))))
+                .expectNext("original")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(1, latencyCount());
+    }
+
+    @Test
+    void shouldThrottleHedgesOverBudget() {
+        AfmHedging afmHedging = afmHedging(true, 50);
+        observeLatency(Duration.ofMillis(20));
+
+        StepVerifier.create(afmHedging.hedged(request(Mono.just("hedged"), Duration.ofMillis(200))))
+                .expectNext("original")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(0, hedges("sent"));
+        assertEquals(1, hedges("throttled"));
+    }
+
+    @Test
+    void shouldWaitForOriginalRequestWhenHedgedRequestFails() {
+        AfmHedging afmHedging = afmHedging(true, 100);
+        observeLatency(Duration.ofMillis(20));
+
+        StepVerifier
+                .create(
+                        afmHedging.hedged(
+                                request(
+                                        Mono.error(new AfmResponseException(HttpStatus.BAD_GATEWAY, "error")),
+                                        Duration.ofMillis(200)
+                                )
+                        )
+                )
+                .expectNext("original")
+                .verifyComplete();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, hedges("sent"));
+        assertEquals(0, hedges("won"));
+    }
+
+    @Test
+    void shouldNotHedgeWhenDisabled() {
+        AfmHedging afmHedging = afmHedging(false, 100);
+        observeLatency(Duration.ofMillis(20));
+
+        StepVerifier.create(afmHedging.hedged(request(Mono.just("hedged"), Duration.ofMillis(200))))
+                .expectNext("original")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(2, latencyCount());
+    }
+
+    private AfmHedging afmHedging(
+                                  boolean enabled,
+                                  int budgetPercent
+    ) {
+        return new AfmHedging(meterRegistry, "v1", enabled, 0.95, budgetPercent, 10);
+    }
+
+    private Mono<String> request(Mono<String> hedgedResponse) {
+        return request(hedgedResponse, Duration.ofSeconds(10));
+    }
+
+    /**
+     * The original request answers after the input delay, the following ones with
+     * the input hedged response
+     */
+    private Mono<String> request(
+                                 Mono<String> hedgedResponse,
+                                 Duration originalDelay
+    ) {
+        return Mono.defer(
+                () -> attempts.incrementAndGet() == 1
+                        ? Mono.delay(originalDelay).thenReturn("original")
+                                .doOnCancel(() -> originalCancelled.set(true))
+                        : hedgedResponse
+        );
+    }
+
+    private void observeLatency(Duration latency) {
+        meterRegistry.get(AfmHedging.LATENCY_METRIC_NAME).timer().record(latency);
+    }
+
+    private long latencyCount() {
+        return meterRegistry.get(AfmHedging.LATENCY_METRIC_NAME).timer().count();
+    }
+
+    private double hedges(String result) {
+        return meterRegistry.get(AfmHedging.HEDGES_METRIC_NAME).tag("result", result).counter().count();
+    }
+}
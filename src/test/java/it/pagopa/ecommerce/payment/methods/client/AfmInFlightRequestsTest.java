@@ -0,0 +1,133 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class AfmInFlightRequestsTest {
+
+    private static final String KEY = "v1:key";
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AfmInFlightRequests afmInFlightRequests;
+
+    private final AtomicInteger subscriptions = new AtomicInteger();
+
+    private final AtomicInteger cancellations = new AtomicInteger();
+
+    private final Sinks.One<List<String>> response = Sinks.one();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        afmInFlightRequests = new AfmInFlightRequests(meterRegistry, true);
+    }
+
+    @Test
+    void shouldShareInFlightRequestWithIdenticalRequests() {
+        List<List<String>> quotes = new ArrayList<>();
+        coalesced().subscribe(quotes::add);
+        coalesced().subscribe(quotes::add);
+
+        response.tryEmitValue(List.of("quote"));
+
+        assertEquals(1, subscriptions.get());
+        assertEquals(2, quotes.size());
+        assertEquals(quotes.get(0), quotes.get(1));
+        assertNotSame(quotes.get(0), quotes.get(1));
+        assertEquals(1, requests("called"));
+        assertEquals(1, requests("coalesced"));
+        assertEquals(0, afmInFlightRequests.size());
+    }
+
+    @Test
+    void shouldCallAfmAgainOnceInFlightRequestCompleted() {
+        response.tryEmitValue(List.of("quote"));
+
+        StepVerifier.create(coalesced()).expectNext(List.of("quote")).verifyComplete();
+        StepVerifier.create(coalesced()).expectNext(List.of("quote")).verifyComplete();
+
+        assertEquals(2, subscriptions.get());
+        assertEquals(2, requests("called"));
+        assertEquals(0, requests("coalesced"));
+    }
+
+    @Test
+    void shouldShareInFlightRequestError() {
+        StepVerifier.create(Mono.zip(coalesced(), coalesced()))
+                .then(() -> response.tryEmitError(new AfmResponseException(HttpStatus.BAD_GATEWAY, "error")))
+                .expectError(AfmResponseException.class)
+                .verify();
+
+        assertEquals(1, subscriptions.get());
+        assertEquals(0, afmInFlightRequests.size());
+    }
+
+    @Test
+    void shouldKeepInFlightRequestWhileAnyCallerIsSubscribed() {
+        Disposable cancelled = coalesced().subscribe();
+        List<List<String>> quotes = new ArrayList<>();
+        coalesced().subscribe(quotes::add);
+
+        cancelled.dispose();
+        response.tryEmitValue(List.of("quote"));
+
+        assertEquals(0, cancellations.get());
+        assertEquals(List.of(List.of("quote")), quotes);
+    }
+
+    @Test
+    void shouldCancelInFlightRequestOnceAllCallersCancelled() {
+        Disposable first = coalesced().subscribe();
+        Disposable second = coalesced().subscribe();
+
+        first.dispose();
+        second.dispose();
+
+        assertEquals(1, cancellations.get());
+        assertEquals(0, afmInFlightRequests.size());
+
+        coalesced().subscribe();
+
+        assertEquals(2, subscriptions.get());
+    }
+
+    @Test
+    void shouldNotShareRequestsWhenDisabled() {
+        afmInFlightRequests = new AfmInFlightRequests(meterRegistry, false);
+        response.tryEmitValue(List.of("quote"));
+
+        StepVerifier.create(Mono.zip(coalesced(), coalesced())).expectNextCount(1).verifyComplete();
+
+        assertEquals(2, subscriptions.get());
+        assertEquals(0, requests("called"));
+    }
+
+    private Mono<List<String>> coalesced() {
+        return afmInFlightRequests.coalesced(
+                KEY,
+                response.asMono()
+                        .doOnSubscribe(subscription -> subscriptions.incrementAndGet())
+                        .doOnCancel(cancellations::incrementAndGet),
+                ArrayList::new
+        );
+    }
+
+    private double requests(String result) {
+        return meterRegistry.counter(AfmInFlightRequests.REQUESTS_METRIC_NAME, "result", result).count();
+    }
+}
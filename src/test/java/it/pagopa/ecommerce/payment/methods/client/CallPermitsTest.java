@@ -0,0 +1,57 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CallPermitsTest {
+
+    private final CallPermits callPermits = new CallPermits(() -> 1, 1);
+
+    @Test
+    void shouldHandOverReleasedPermitToQueuedCall() {
+        List<CallPermits.Permit> permits = new ArrayList<>();
+        callPermits.acquire().subscribe(permits::add);
+        callPermits.acquire().subscribe(permits::add);
+
+        assertEquals(1, permits.size());
+        assertEquals(1, callPermits.queuedCalls());
+        permits.get(0).release();
+        permits.get(0).release();
+
+        assertEquals(2, permits.size());
+        assertEquals(1, callPermits.activeCalls());
+        assertEquals(0, callPermits.queuedCalls());
+        permits.get(1).release();
+        assertEquals(0, callPermits.activeCalls());
+    }
+
+    @Test
+    void shouldRejectCallsExceedingQueue() {
+        callPermits.acquire().subscribe();
+        callPermits.acquire().subscribe();
+
+        StepVerifier.create(callPermits.acquire()).verifyComplete();
+        assertEquals(1, callPermits.activeCalls());
+        assertEquals(1, callPermits.queuedCalls());
+    }
+
+    @Test
+    void shouldRemoveCancelledCallFromQueue() {
+        List<CallPermits.Permit> permits = new ArrayList<>();
+        callPermits.acquire().subscribe(permits::add);
+        Disposable queued = callPermits.acquire().subscribe(permits::add);
+
+        queued.dispose();
+        permits.get(0).release();
+
+        assertEquals(1, permits.size());
+        assertEquals(0, callPermits.activeCalls());
+        assertEquals(0, callPermits.queuedCalls());
+    }
+}
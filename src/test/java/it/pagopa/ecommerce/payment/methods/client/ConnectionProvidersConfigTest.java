@@ -0,0 +1,34 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import it.pagopa.ecommerce.payment.methods.config.ConnectionProvidersConfig;
+import org.junit.jupiter.api.Test;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConnectionProvidersConfigTest {
+
+    private final ConnectionProvidersConfig config = new ConnectionProvidersConfig();
+
+    @Test
+    void shouldCreateDedicatedNamedPoolPerUpstream() {
+        List<ConnectionProvider> providers = List.of(
+                config.afmConnectionProvider(10, 20, 1000, 30000, 300000),
+                config.afmV2ConnectionProvider(10, 20, 1000, 30000, 300000),
+                config.npgConnectionProvider(30, 20, 1000, 30000, 300000),
+                config.jwtIssuerConnectionProvider(5, 20, 1000, 30000, 300000)
+        );
+
+        assertEquals(
+                List.of("afm-v1", "afm-v2", "npg", "jwt-issuer"),
+                providers.stream().map(ConnectionProvider::name).toList()
+        );
+        assertEquals(
+                List.of(10, 10, 30, 5),
+                providers.stream().map(ConnectionProvider::maxConnections).toList()
+        );
+        providers.forEach(ConnectionProvider::dispose);
+    }
+}
@@ -1,9 +1,11 @@
 package it.pagopa.ecommerce.payment.methods.client;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.api.JwtIssuerApi;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenRequestDto;
 import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenResponseDto;
 import it.pagopa.ecommerce.payment.methods.exception.JwtIssuerResponseException;
+import it.pagopa.ecommerce.payment.methods.exception.UpstreamConcurrencyLimitException;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -26,6 +28,7 @@ import reactor.test.StepVerifier;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -45,9 +48,17 @@ class JwtTokenIssuerClientTest {
     @Mock
     JwtIssuerApi jwtIssuerApi;
 
+    private final LocalJwtTokenMinter disabledLocalJwtTokenMinter = new LocalJwtTokenMinter(
+            new SimpleMeterRegistry(),
+            false,
+            "",
+            "",
+            300
+    );
+
     @BeforeEach
     void init() {
-        client = new JwtTokenIssuerClient(jwtIssuerApi);
+        client = new JwtTokenIssuerClient(jwtIssuerApi, disabledLocalJwtTokenMinter);
         Hooks.onOperatorDebug();
     }
 
@@ -72,7 +83,10 @@ class JwtTokenIssuerClientTest {
     @Test
     void shouldAddApiKeyHeaderWhenMakingHttpRequest() throws IOException, InterruptedException {
         CreateTokenResponseDto createTokenResponseDto = new CreateTokenResponseDto().token("token");
-        JwtTokenIssuerClient jwtTokenIssuerClient = new JwtTokenIssuerClient(realJwtIssuerApi);
+        JwtTokenIssuerClient jwtTokenIssuerClient = new JwtTokenIssuerClient(
+                realJwtIssuerApi,
+                disabledLocalJwtTokenMinter
+        );
         MockWebServer mockWebServer = new MockWebServer();
         mockWebServer.start(8080);
 
@@ -103,6 +117,36 @@ class JwtTokenIssuerClientTest {
         mockWebServer.shutdown();
     }
 
+    @Test
+    void shouldReturnLocallyMintedJwtToken() {
+        LocalJwtTokenMinter localJwtTokenMinter = Mockito.mock(LocalJwtTokenMinter.class);
+        CreateTokenRequestDto createTokenRequestDto = new CreateTokenRequestDto().audience("audience").duration(1000);
+        Mockito.when(localJwtTokenMinter.mint(createTokenRequestDto)).thenReturn(Optional.of("localToken"));
+
+        StepVerifier.create(
+                new JwtTokenIssuerClient(jwtIssuerApi, localJwtTokenMinter).createJWTToken(createTokenRequestDto)
+        )
+                .expectNext(new CreateTokenResponseDto().token("localToken"))
+                .verifyComplete();
+
+        Mockito.verifyNoInteractions(jwtIssuerApi);
+    }
+
+    @Test
+    void shouldCallJwtIssuerWhenTokenCannotBeMintedLocally() {
+        LocalJwtTokenMinter localJwtTokenMinter = Mockito.mock(LocalJwtTokenMinter.class);
+        CreateTokenRequestDto createTokenRequestDto = new CreateTokenRequestDto().audience("audience").duration(1000);
+        Mockito.when(localJwtTokenMinter.mint(createTokenRequestDto)).thenReturn(Optional.empty());
+        Mockito.when(jwtIssuerApi.createJwtToken(createTokenRequestDto))
+                .thenReturn(Mono.just(new CreateTokenResponseDto().token("token")));
+
+        StepVerifier.create(
+                new JwtTokenIssuerClient(jwtIssuerApi, localJwtTokenMinter).createJWTToken(createTokenRequestDto)
+        )
+                .expectNext(new CreateTokenResponseDto().token("token"))
+                .verifyComplete();
+    }
+
     @Test
     void createTokenShouldThrowException() {
 
@@ -127,4 +171,13 @@ class JwtTokenIssuerClientTest {
                 .verify();
     }
 
+    @Test
+    void createTokenShouldPropagateConcurrencyLimitRejections() {
+        Mockito.when(jwtIssuerApi.createJwtToken(any()))
+                .thenReturn(Mono.error(new UpstreamConcurrencyLimitException("jwt-issuer")));
+
+        StepVerifier.create(client.createJWTToken(new CreateTokenRequestDto()))
+                .expectError(UpstreamConcurrencyLimitException.class)
+                .verify();
+    }
 }
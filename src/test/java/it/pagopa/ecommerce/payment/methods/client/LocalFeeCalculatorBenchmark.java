@@ -0,0 +1,129 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link LocalFeeCalculator} quote computation, and the underlying
+ * {@link PspIndex} lookup, over synthetic PSP collections of increasing size,
+ * compared with a full scan of the collection applying the same filters. Run
+ * with {@code mvn -Pbenchmark test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalFeeCalculatorBenchmark {
+
+    private static final long MAX_AMOUNT = 1_000_000L;
+
+    private static final int AMOUNTS = 1024;
+
+    private static final List<String> PAYMENT_TYPE_CODES = List.of("CP", "PPAL", "BPAY", "RBPS", "MYBK", "SATY");
+
+    private static final List<String> LANGUAGE_CODES = List.of("IT", "EN", "DE", "FR", "SL");
+
+    @Param(
+        {
+                "1000",
+                "10000",
+                "50000"
+        }
+    )
+    public int pspsCount;
+
+    private List<PspDocument> psps;
+
+    private PspIndex pspIndex;
+
+    private LocalFeeCalculator localFeeCalculator;
+
+    private long[] amounts;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        psps = new ArrayList<>(pspsCount);
+        for (int i = 0; i < pspsCount; i++) {
+            long minAmount = random.nextInt(4) == 0 ? 0 : random.nextLong(MAX_AMOUNT / 2);
+            psps.add(
+                    LocalFeeCalculatorTest.psp(
+                            "PSP" + random.nextInt(pspsCount / 10),
+                            "CHANNEL" + i,
+                            // card PSPs are the most common ones
+                            random.nextBoolean() ? "CP"
+                                    : PAYMENT_TYPE_CODES.get(random.nextInt(PAYMENT_TYPE_CODES.size())),
+                            LANGUAGE_CODES.get(random.nextInt(LANGUAGE_CODES.size())),
+                            minAmount,
+                            minAmount + random.nextLong(MAX_AMOUNT),
+                            random.nextLong(500)
+                    )
+            );
+        }
+        pspIndex = PspIndex.of(psps);
+        localFeeCalculator = new LocalFeeCalculator(
+                new PspCatalog(null, true, 300) {
+                    @Override
+                    public Optional<PspIndex> currentIndex() {
+                        return Optional.of(pspIndex);
+                    }
+                },
+                new SimpleMeterRegistry(),
+                true,
+                "IT"
+        );
+        amounts = random.longs(AMOUNTS, 0, MAX_AMOUNT).toArray();
+    }
+
+    @Benchmark
+    public void fullScan(Blackhole blackhole) {
+        long amount = nextAmount();
+        for (PspDocument psp : psps) {
+            if (psp.getPspMinAmount() < amount && psp.getPspMaxAmount() > amount
+                    && "CP".equals(psp.getPspDocumentKey().getPspPaymentTypeCode())
+                    && "IT".equals(psp.getPspDocumentKey().getPspLanguageCode())) {
+                blackhole.consume(psp);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<PspDocument> indexLookup() {
+        return pspIndex.find(nextAmount(), "IT", "CP");
+    }
+
+    @Benchmark
+    public List<PspDocument> cheapestPsps() {
+        return localFeeCalculator.cheapestPsps("CP", nextAmount(), "IT", Set.of(), 10);
+    }
+
+    private long nextAmount() {
+        return amounts[next++ & (AMOUNTS - 1)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                new OptionsBuilder()
+                        .include(LocalFeeCalculatorBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
@@ -0,0 +1,197 @@
+package it.pagopa.ecommerce.payment.methods.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.exception.AfmCallNotPermittedException;
+import it.pagopa.ecommerce.payment.methods.exception.AfmResponseException;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocumentKey;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
+import it.pagopa.generated.ecommerce.gec.v1.dto.BundleOptionDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PaymentOptionDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.PspSearchCriteriaDto;
+import it.pagopa.generated.ecommerce.gec.v1.dto.TransferDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.PaymentNoticeItemDto;
+import it.pagopa.generated.ecommerce.gec.v2.dto.PaymentOptionMultiDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalFeeCalculatorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final PspCatalog pspCatalog = mock(PspCatalog.class);
+
+    private final LocalFeeCalculator localFeeCalculator = new LocalFeeCalculator(
+            pspCatalog,
+            meterRegistry,
+            true,
+            "IT"
+    );
+
+    @Test
+    void shouldReturnCheapestPspsFirstOncePerPspCode() {
+        loadPsps(
+                psp("PSP1", "CHANNEL1", "CP", "IT", 0, 1000, 150),
+                psp("PSP1", "CHANNEL2", "CP", "IT", 0, 1000, 100),
+                psp("PSP2", "CHANNEL1", "CP", "IT", 0, 1000, 120),
+                psp("PSP3", "CHANNEL1", "CP", "IT", 0, 100, 50),
+                psp("PSP4", "CHANNEL1", "CP", "EN", 0, 1000, 10),
+                psp("PSP5", "CHANNEL1", "PPAL", "IT", 0, 1000, 10)
+        );
+
+        List<PspDocument> psps = localFeeCalculator.cheapestPsps("CP", 500, "IT", Set.of(), null);
+
+        assertEquals(
+                List.of("PSP1", "PSP2"),
+                psps.stream().map(psp -> psp.getPspDocumentKey().getPspCode()).toList()
+        );
+        assertEquals("CHANNEL2", psps.get(0).getPspDocumentKey().getPspChannelCode());
+        assertEquals(
+                List.of("PSP2"),
+                localFeeCalculator.cheapestPsps("CP", 500, "IT", Set.of("PSP2", "PSP3"), null).stream()
+                        .map(psp -> psp.getPspDocumentKey().getPspCode()).toList()
+        );
+        assertEquals(1, localFeeCalculator.cheapestPsps("CP", 500, "IT", Set.of(), 1).size());
+    }
+
+    @Test
+    void shouldComputeFeesForNoticesOverTheirTotalAmount() {
+        loadPsps(
+                psp("PSP1", "CHANNEL1", "CP", "IT", 0, 1000, 100),
+                psp("PSP2", "CHANNEL1", "CP", "IT", 1000, 5000, 200)
+        );
+
+        Optional<it.pagopa.generated.ecommerce.gec.v2.dto.BundleOptionDto> fees = localFeeCalculator
+                .getFeesForNotices(
+                        new PaymentOptionMultiDto()
+                                .paymentMethod("CP")
+                                .touchpoint("CHECKOUT")
+                                .addPaymentNoticeItem(new PaymentNoticeItemDto().paymentAmount(800L))
+                                .addPaymentNoticeItem(new PaymentNoticeItemDto().paymentAmount(700L)),
+                        10
+                );
+
+        assertTrue(fees.isPresent());
+        assertEquals(1, fees.get().getBundleOptions().size());
+        assertEquals("PSP2", fees.get().getBundleOptions().get(0).getIdPsp());
+        assertEquals(200L, fees.get().getBundleOptions().get(0).getTaxPayerFee());
+        assertEquals("CHECKOUT", fees.get().getBundleOptions().get(0).getTouchpoint());
+    }
+
+    @Test
+    void shouldServeLocalQuoteWhenAfmIsUnavailable() {
+        loadPsps(psp("PSP1", "CHANNEL1", "CP", "IT", 0, 1000, 100));
+        PaymentOptionDto request = new PaymentOptionDto()
+                .paymentMethod("CP")
+                .paymentAmount(500L)
+                .touchpoint("CHECKOUT")
+                .addIdPspListItem(new PspSearchCriteriaDto().idPsp("PSP1"));
+
+        StepVerifier.create(
+                localFeeCalculator.localIfUnavailable(
+                        Mono.<BundleOptionDto>error(
+                                new AfmCallNotPermittedException(HttpStatus.SERVICE_UNAVAILABLE, "open")
+                        ),
+                        () -> localFeeCalculator.getFees(request, 10)
+                )
+        )
+                .expectNextMatches(fees -> {
+                    TransferDto transfer = fees.getBundleOptions().get(0);
+                    return fees.getBundleOptions().size() == 1
+                            && transfer.getIdPsp().equals("PSP1")
+                            && transfer.getIdChannel().equals("CHANNEL1")
+                            && transfer.getTaxPayerFee() == 100L
+                            && !transfer.getOnUs();
+                })
+                .verifyComplete();
+        StepVerifier.create(
+                localFeeCalculator.localIfUnavailable(
+                        Mono.<BundleOptionDto>error(new AfmResponseException(HttpStatus.BAD_GATEWAY, "error")),
+                        () -> localFeeCalculator.getFees(request, 10)
+                )
+        )
+                .expectNextCount(1)
+                .verifyComplete();
+        assertEquals(2, fallbacks("served"));
+    }
+
+    @Test
+    void shouldNotServeLocalQuoteOnAfmClientErrors() {
+        loadPsps(psp("PSP1", "CHANNEL1", "CP", "IT", 0, 1000, 100));
+
+        StepVerifier.create(
+                localFeeCalculator.localIfUnavailable(
+                        Mono.<BundleOptionDto>error(new AfmResponseException(HttpStatus.NOT_FOUND, "error")),
+                        () -> localFeeCalculator
+                                .getFees(new PaymentOptionDto().paymentMethod("CP").paymentAmount(500L), 10)
+                )
+        )
+                .expectError(AfmResponseException.class)
+                .verify();
+        assertEquals(0, fallbacks("served"));
+    }
+
+    @Test
+    void shouldPropagateErrorWithoutMatchingPsps() {
+        loadPsps(psp("PSP1", "CHANNEL1", "CP", "IT", 0, 1000, 100));
+
+        StepVerifier.create(
+                localFeeCalculator.localIfUnavailable(
+                        Mono.<BundleOptionDto>error(new AfmResponseException(HttpStatus.BAD_GATEWAY, "error")),
+                        () -> localFeeCalculator
+                                .getFees(new PaymentOptionDto().paymentMethod("CP").paymentAmount(5000L), 10)
+                )
+        )
+                .expectError(AfmResponseException.class)
+                .verify();
+        assertEquals(1, fallbacks("missing"));
+    }
+
+    @Test
+    void shouldNotComputeQuotesBeforeCatalogIsLoaded() {
+        when(pspCatalog.currentIndex()).thenReturn(Optional.empty());
+
+        assertEquals(List.of(), localFeeCalculator.cheapestPsps("CP", 500, "IT", Set.of(), null));
+    }
+
+    private void loadPsps(PspDocument... psps) {
+        when(pspCatalog.currentIndex()).thenReturn(Optional.of(PspIndex.of(List.of(psps))));
+    }
+
+    private double fallbacks(String result) {
+        return meterRegistry.get(LocalFeeCalculator.LOCAL_METRIC_NAME).tag("result", result).counter().count();
+    }
+
+    static PspDocument psp(
+                           String pspCode,
+                           String channelCode,
+                           String paymentTypeCode,
+                           String languageCode,
+                           long minAmount,
+                           long maxAmount,
+                           long fixedCost
+    ) {
+        return new PspDocument(
+                new PspDocumentKey(pspCode, paymentTypeCode, channelCode, languageCode),
+                "ENABLED",
+                pspCode + " business name",
+                pspCode + " broker",
+                pspCode + " description",
+                minAmount,
+                maxAmount,
+                fixedCost
+        );
+    }
+}
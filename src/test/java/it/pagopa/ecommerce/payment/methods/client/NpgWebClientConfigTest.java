@@ -1,17 +1,22 @@
 package it.pagopa.ecommerce.payment.methods.client;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.opentelemetry.api.trace.Tracer;
 import it.pagopa.ecommerce.commons.client.NpgClient;
 import it.pagopa.ecommerce.commons.generated.npg.v1.ApiClient;
 import it.pagopa.ecommerce.commons.generated.npg.v1.api.PaymentServicesApi;
 import it.pagopa.ecommerce.commons.queues.StrictJsonSerializerProvider;
+import it.pagopa.ecommerce.payment.methods.config.ConnectionProvidersConfig;
 import it.pagopa.ecommerce.payment.methods.config.NpgWebClientsConfig;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @ExtendWith(MockitoExtension.class)
 class NpgWebClientConfigTest {
@@ -19,10 +24,33 @@ class NpgWebClientConfigTest {
 
     private final ObjectMapper objectMapper = new StrictJsonSerializerProvider().getObjectMapper();
 
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+            "npg",
+            new SimpleMeterRegistry(),
+            AdaptiveConcurrencyLimiter.Mode.ENFORCED,
+            20,
+            200,
+            Duration.ofMillis(50)
+    );
+
+    private final ConnectionProvider connectionProvider = new ConnectionProvidersConfig()
+            .npgConnectionProvider(10, 20, 1000, 30000, 300000);
+
     @Test
     void testNpgWebClientConfigApi() {
         NpgWebClientsConfig config = new NpgWebClientsConfig();
-        PaymentServicesApi api = config.npgWebClient("localhost/test", 10000, 10000, false, 300, 60, 8);
+        PaymentServicesApi api = config
+                .npgWebClient(
+                        "localhost/test",
+                        10000,
+                        10000,
+                        false,
+                        300,
+                        60,
+                        8,
+                        concurrencyLimiter,
+                        connectionProvider
+                );
         Assert.assertNotNull(api);
         Assert.assertEquals(ApiClient.class, api.getApiClient().getClass());
     }
@@ -30,7 +58,18 @@ class NpgWebClientConfigTest {
     @Test
     void testNpgWebClientConfigNpgClient() {
         NpgWebClientsConfig config = new NpgWebClientsConfig();
-        PaymentServicesApi api = config.npgWebClient("localhost/test", 10000, 10000, false, 300, 60, 8);
+        PaymentServicesApi api = config
+                .npgWebClient(
+                        "localhost/test",
+                        10000,
+                        10000,
+                        false,
+                        300,
+                        60,
+                        8,
+                        concurrencyLimiter,
+                        connectionProvider
+                );
         NpgClient npgClient = config.npgClient(api, tracer, objectMapper);
         Assert.assertNotNull(npgClient);
         Assert.assertEquals(NpgClient.class, npgClient.getClass());
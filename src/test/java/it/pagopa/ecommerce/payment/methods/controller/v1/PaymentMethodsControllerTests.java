@@ -1,15 +1,19 @@
 package it.pagopa.ecommerce.payment.methods.controller.v1;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.opentelemetry.api.trace.Tracer;
 import it.pagopa.ecommerce.commons.domain.v2.TransactionId;
 import it.pagopa.ecommerce.commons.exceptions.NpgResponseException;
+import it.pagopa.ecommerce.payment.methods.application.v1.EncodedPaymentMethodsResponseDto;
 import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodService;
+import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodsResponseEncoder;
 import it.pagopa.ecommerce.payment.methods.domain.aggregates.PaymentMethod;
 import it.pagopa.ecommerce.payment.methods.domain.valueobjects.PaymentMethodName;
 import it.pagopa.ecommerce.payment.methods.exception.*;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
 import it.pagopa.ecommerce.payment.methods.server.model.*;
 import it.pagopa.ecommerce.payment.methods.utils.PaymentMethodStatusEnum;
+import it.pagopa.ecommerce.payment.methods.utils.StepTimings;
 import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,6 +21,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -30,6 +35,7 @@ import reactor.core.publisher.Mono;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -137,15 +143,15 @@ class PaymentMethodsControllerTests {
         PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
         PaymentMethodRequestDto.ClientIdEnum clientIdCheckout = TestUtil.getClientIdCheckout();
 
+        PaymentMethodsResponseDto expectedResult = TestUtil.getPaymentMethodsResponse(paymentMethod);
+
         Mockito.when(
                 paymentMethodService
-                        .retrievePaymentMethods(TestUtil.getTestAmount(), clientIdCheckout.getValue(), null)
+                        .retrievePaymentMethodsResponse(TestUtil.getTestAmount(), clientIdCheckout.getValue(), null)
         ).thenReturn(
-                Flux.just(paymentMethod)
+                Mono.just(expectedResult)
         );
 
-        PaymentMethodsResponseDto expectedResult = TestUtil.getPaymentMethodsResponse(paymentMethod);
-
         webClient
                 .get()
                 .uri(
@@ -164,6 +170,83 @@ class PaymentMethodsControllerTests {
                 .contains(expectedResult);
     }
 
+    @Test
+    void shouldGetAllMethodsFromEncodedResponseWithETag() {
+        PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
+        PaymentMethodRequestDto.ClientIdEnum clientIdCheckout = TestUtil.getClientIdCheckout();
+        PaymentMethodsResponseDto expectedResult = TestUtil.getPaymentMethodsResponse(paymentMethod);
+        EncodedPaymentMethodsResponseDto encodedResponse = new PaymentMethodsResponseEncoder(
+                new ObjectMapper(),
+                true,
+                0
+        ).encode(expectedResult.getPaymentMethods());
+
+        Mockito.when(
+                paymentMethodService
+                        .retrievePaymentMethodsResponse(TestUtil.getTestAmount(), clientIdCheckout.getValue(), null)
+        ).thenReturn(Mono.just(encodedResponse));
+
+        webClient
+                .get()
+                .uri(
+                        uriBuilder -> uriBuilder
+                                .path("/payment-methods")
+                                .queryParam("amount", TestUtil.getTestAmount())
+                                .build()
+                )
+                .header("x-client-id", clientIdCheckout.toString())
+                .header("x-api-key", "primary-key")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, encodedResponse.getEtag())
+                .expectHeader()
+                .doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(PaymentMethodsResponseDto.class)
+                .isEqualTo(expectedResult);
+
+        webClient
+                .get()
+                .uri(
+                        uriBuilder -> uriBuilder
+                                .path("/payment-methods")
+                                .queryParam("amount", TestUtil.getTestAmount())
+                                .build()
+                )
+                .header("x-client-id", clientIdCheckout.toString())
+                .header("x-api-key", "primary-key")
+                .header(HttpHeaders.IF_NONE_MATCH, encodedResponse.getEtag())
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectBody()
+                .isEmpty();
+
+        byte[] gzipBody = webClient
+                .get()
+                .uri(
+                        uriBuilder -> uriBuilder
+                                .path("/payment-methods")
+                                .queryParam("amount", TestUtil.getTestAmount())
+                                .build()
+                )
+                .header("x-client-id", clientIdCheckout.toString())
+                .header("x-api-key", "primary-key")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, encodedResponse.getGzipEtag().orElseThrow())
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+        assertArrayEquals(encodedResponse.getGzipJson().orElseThrow(), gzipBody);
+    }
+
     @Test
     void shouldReturn401ForGetAllMethodsWithInvalidApiKey() {
         webClient
@@ -203,15 +286,16 @@ class PaymentMethodsControllerTests {
         PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
         PaymentMethodRequestDto.ClientIdEnum clientIdIO = TestUtil.getClientIdIO();
 
+        PaymentMethodsResponseDto expectedResult = TestUtil.getPaymentMethodsResponse(paymentMethod);
+
         Mockito.when(
-                paymentMethodService.retrievePaymentMethods(TestUtil.getTestAmount(), clientIdIO.getValue(), null)
+                paymentMethodService
+                        .retrievePaymentMethodsResponse(TestUtil.getTestAmount(), clientIdIO.getValue(), null)
         )
                 .thenReturn(
-                        Flux.just(paymentMethod)
+                        Mono.just(expectedResult)
                 );
 
-        PaymentMethodsResponseDto expectedResult = TestUtil.getPaymentMethodsResponse(paymentMethod);
-
         webClient
                 .get()
                 .uri(
@@ -583,6 +667,32 @@ class PaymentMethodsControllerTests {
                 .isEqualTo(responseDto);
     }
 
+    @Test
+    void shouldReturnCreateSessionStepTimings() {
+        String paymentMethodId = UUID.randomUUID().toString();
+        CreateSessionResponseDto responseDto = TestUtil.createSessionResponseDto(paymentMethodId);
+        Mockito.when(paymentMethodService.createSessionForPaymentMethod(any(), any(), any()))
+                .thenReturn(Mono.deferContextual(context -> {
+                    StepTimings stepTimings = context.get(StepTimings.class);
+                    stepTimings.record("findPaymentMethod", 1_500_000);
+                    stepTimings.record("buildForm", 120_000_000);
+                    return Mono.just(responseDto);
+                }));
+        webClient
+                .post()
+                .uri("/payment-methods/" + paymentMethodId + "/sessions")
+                .header("x-api-key", "primary-key")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals("Server-Timing", "findPaymentMethod;dur=1.5, buildForm;dur=120.0")
+                .expectBody(CreateSessionResponseDto.class)
+                .isEqualTo(responseDto);
+    }
+
     @Test
     void shouldReturn401ForCreateSessionWithInvalidKey() {
         String paymentMethodId = UUID.randomUUID().toString();
@@ -746,6 +856,25 @@ class PaymentMethodsControllerTests {
         assertEquals("reason test", responseEntity.getBody().getDetail());
     }
 
+    @Test
+    void shouldReturnResponseEntityWithUpstreamConcurrencyLimitError() {
+        ResponseEntity<ProblemJsonDto> jwtIssuerResponse = paymentMethodsController
+                .errorHandler(new UpstreamConcurrencyLimitException("jwt-issuer"));
+        ResponseEntity<ProblemJsonDto> npgResponse = paymentMethodsController
+                .errorHandler(
+                        new NpgResponseException(
+                                "reason test",
+                                Optional.empty(),
+                                new UpstreamConcurrencyLimitException("npg")
+                        )
+                );
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, jwtIssuerResponse.getStatusCode());
+        assertEquals("Concurrency limit of upstream [jwt-issuer] reached", jwtIssuerResponse.getBody().getDetail());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, npgResponse.getStatusCode());
+        assertEquals("Concurrency limit of upstream [npg] reached", npgResponse.getBody().getDetail());
+    }
+
     @Test
     void shouldReturnTransactionIdForValidSession() {
         String paymentMethodId = UUID.randomUUID().toString();
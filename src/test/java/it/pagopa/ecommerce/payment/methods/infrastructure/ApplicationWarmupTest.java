@@ -0,0 +1,226 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.api.JwtIssuerApi;
+import it.pagopa.ecommerce.commons.generated.npg.v1.api.PaymentServicesApi;
+import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodService;
+import it.pagopa.ecommerce.payment.methods.client.AdaptiveConcurrencyLimiter;
+import it.pagopa.ecommerce.payment.methods.config.ConnectionProvidersConfig;
+import it.pagopa.ecommerce.payment.methods.config.JWTIssuerWebClientConfig;
+import it.pagopa.ecommerce.payment.methods.config.NpgWebClientsConfig;
+import it.pagopa.ecommerce.payment.methods.config.WebClientsConfig;
+import it.pagopa.ecommerce.payment.methods.exception.PaymentMethodNotFoundException;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodResponseDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodsResponseDto;
+import it.pagopa.generated.ecommerce.gec.v1.api.CalculatorApi;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ApplicationWarmupTest {
+
+    private static final String PAYMENT_METHOD_ID = "paymentMethodId";
+
+    private final PaymentMethodService paymentMethodService = mock(PaymentMethodService.class);
+
+    private MockWebServer upstream;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        upstream = new MockWebServer();
+        upstream.start();
+        when(paymentMethodService.retrievePaymentMethodsResponse(isNull(), any(), isNull())).thenReturn(
+                Mono.just(
+                        new PaymentMethodsResponseDto()
+                                .paymentMethods(List.of(new PaymentMethodResponseDto().id("id").name("CARDS")))
+                )
+        );
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        upstream.shutdown();
+    }
+
+    @Test
+    void shouldPreConnectToUpstreamsAndWarmUpServices() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            upstream.enqueue(new MockResponse().setResponseCode(405));
+        }
+        when(paymentMethodService.retrievePaymentMethodById(PAYMENT_METHOD_ID, "CHECKOUT")).thenReturn(Mono.empty());
+
+        applicationWarmup(true, Duration.ofSeconds(10)).warmUp();
+
+        assertEquals(3, upstream.getRequestCount());
+        assertEquals("OPTIONS", upstream.takeRequest(1, TimeUnit.SECONDS).getMethod());
+        verify(paymentMethodService, times(5)).retrievePaymentMethodsResponse(null, "CHECKOUT", null);
+        verify(paymentMethodService, times(5)).retrievePaymentMethodById(PAYMENT_METHOD_ID, "CHECKOUT");
+    }
+
+    @Test
+    void shouldPreConnectToConfiguredUpstreamsWithoutTrainingConcurrencyLimits() throws InterruptedException {
+        for (int i = 0; i < 8; i++) {
+            upstream.enqueue(new MockResponse().setResponseCode(503));
+        }
+        when(paymentMethodService.retrievePaymentMethodById(PAYMENT_METHOD_ID, "CHECKOUT")).thenReturn(Mono.empty());
+        AdaptiveConcurrencyLimiter afmLimiter = limiter("afm");
+        AdaptiveConcurrencyLimiter npgLimiter = limiter("npg");
+        AdaptiveConcurrencyLimiter jwtIssuerLimiter = limiter("jwt-issuer");
+        WebClientsConfig webClientsConfig = new WebClientsConfig(10000);
+        ConnectionProvidersConfig connectionProvidersConfig = new ConnectionProvidersConfig();
+
+        CalculatorApi afmApi = webClientsConfig.afmWebClient(
+                upstream.url("/afm/v1").toString(),
+                1000,
+                1000,
+                afmLimiter,
+                connectionProvidersConfig.afmConnectionProvider(2, 2, 1000, 30000, 300000)
+        );
+        it.pagopa.generated.ecommerce.gec.v2.api.CalculatorApi afmApiV2 = webClientsConfig.afmWebClientV2(
+                upstream.url("/afm/v2").toString(),
+                1000,
+                1000,
+                afmLimiter,
+                connectionProvidersConfig.afmV2ConnectionProvider(2, 2, 1000, 30000, 300000)
+        );
+        PaymentServicesApi npgApi = new NpgWebClientsConfig().npgWebClient(
+                upstream.url("/npg").toString(),
+                1000,
+                1000,
+                false,
+                1,
+                1,
+                1,
+                npgLimiter,
+                connectionProvidersConfig.npgConnectionProvider(2, 2, 1000, 30000, 300000)
+        );
+        JwtIssuerApi jwtIssuerApi = new JWTIssuerWebClientConfig().jwtIssuerWebClient(
+                upstream.url("/jwt").toString(),
+                1000,
+                1000,
+                "apiKey",
+                jwtIssuerLimiter,
+                connectionProvidersConfig.jwtIssuerConnectionProvider(2, 2, 1000, 30000, 300000)
+        );
+
+        new ApplicationWarmup(
+                afmApi,
+                afmApiV2,
+                npgApi,
+                jwtIssuerApi,
+                paymentMethodService,
+                new ObjectMapper(),
+                true,
+                2,
+                1,
+                10000,
+                PAYMENT_METHOD_ID
+        ).warmUp();
+
+        // pre-connections target the base path of the API clients
+        assertEquals(upstream.url("/afm/v1").toString(), afmApi.getApiClient().getBasePath());
+        assertEquals(upstream.url("/afm/v2").toString(), afmApiV2.getApiClient().getBasePath());
+        assertEquals(upstream.url("/npg").toString(), npgApi.getApiClient().getBasePath());
+        assertEquals(upstream.url("/jwt").toString(), jwtIssuerApi.getApiClient().getBasePath());
+
+        Set<String> paths = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            RecordedRequest request = upstream.takeRequest(1, TimeUnit.SECONDS);
+            assertEquals("OPTIONS", request.getMethod());
+            paths.add(request.getPath());
+        }
+        assertEquals(Set.of("/afm/v1", "/afm/v2", "/npg", "/jwt"), paths);
+        assertEquals(2, afmLimiter.limit());
+        assertEquals(2, npgLimiter.limit());
+        assertEquals(2, jwtIssuerLimiter.limit());
+    }
+
+    @Test
+    void shouldKeepWarmingUpOtherStepsOnFailure() {
+        for (int i = 0; i < 3; i++) {
+            upstream.enqueue(new MockResponse().setResponseCode(200));
+        }
+        when(paymentMethodService.retrievePaymentMethodById(eq(PAYMENT_METHOD_ID), any()))
+                .thenReturn(Mono.error(new PaymentMethodNotFoundException(PAYMENT_METHOD_ID)));
+
+        applicationWarmup(true, Duration.ofSeconds(10)).warmUp();
+
+        verify(paymentMethodService, times(1)).retrievePaymentMethodById(PAYMENT_METHOD_ID, "CHECKOUT");
+        verify(paymentMethodService, times(5)).retrievePaymentMethodsResponse(null, "CHECKOUT", null);
+    }
+
+    @Test
+    void shouldStopWarmingUpOnTimeout() {
+        when(paymentMethodService.retrievePaymentMethodById(eq(PAYMENT_METHOD_ID), any())).thenReturn(Mono.never());
+
+        assertTimeoutPreemptively(
+                Duration.ofSeconds(5),
+                () -> applicationWarmup(true, Duration.ofMillis(200)).warmUp()
+        );
+    }
+
+    @Test
+    void shouldNotWarmUpWhenDisabled() {
+        applicationWarmup(false, Duration.ofSeconds(10)).warmUp();
+
+        assertEquals(0, upstream.getRequestCount());
+        verifyNoInteractions(paymentMethodService);
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(String name) {
+        return new AdaptiveConcurrencyLimiter(
+                name,
+                new SimpleMeterRegistry(),
+                AdaptiveConcurrencyLimiter.Mode.ENFORCED,
+                2,
+                10,
+                Duration.ZERO
+        );
+    }
+
+    private ApplicationWarmup applicationWarmup(
+                                                boolean enabled,
+                                                Duration timeout
+    ) {
+        return new ApplicationWarmup(
+                List.of(
+                        new ApplicationWarmup.Upstream(
+                                "upstream",
+                                WebClient.create(),
+                                upstream.url("/api").toString()
+                        )
+                ),
+                paymentMethodService,
+                new ObjectMapper(),
+                enabled,
+                3,
+                5,
+                timeout,
+                PAYMENT_METHOD_ID
+        );
+    }
+}
@@ -0,0 +1,100 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encode and decode time of {@link NpgSessionDocument} with the JSON
+ * serializer previously configured in {@code RedisConfig} and with the binary
+ * format of {@link NpgSessionDocumentRedisSerializer}. The payload size of each
+ * format is logged on setup. Run with
+ * {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args=NpgSessionDocumentRedisSerializerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Slf4j
+public class NpgSessionDocumentRedisSerializerBenchmark {
+
+    public enum Codec {
+        JSON,
+        BINARY
+    }
+
+    @Param(
+        {
+                "JSON",
+                "BINARY"
+        }
+    )
+    public Codec codec;
+
+    @Param(
+        {
+                "true",
+                "false"
+        }
+    )
+    public boolean withCardData;
+
+    private RedisSerializer<NpgSessionDocument> serializer;
+
+    private NpgSessionDocument session;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        serializer = serializer(codec);
+        session = session(withCardData);
+        encoded = serializer.serialize(session);
+        log.info("Session payload size (codec: {}, card data: {}): {} bytes", codec, withCardData, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(session);
+    }
+
+    @Benchmark
+    public NpgSessionDocument decode() {
+        return serializer.deserialize(encoded);
+    }
+
+    private static RedisSerializer<NpgSessionDocument> serializer(Codec codec) {
+        return switch (codec) {
+            case JSON -> new Jackson2JsonRedisSerializer<>(NpgSessionDocument.class);
+            case BINARY -> new NpgSessionDocumentRedisSerializer(VersionedRedisSerializer.Format.BINARY);
+        };
+    }
+
+    private static NpgSessionDocument session(boolean withCardData) {
+        return new NpgSessionDocument(
+                "E" + System.currentTimeMillis() + "1234567",
+                UUID.randomUUID().toString(),
+                "2a1b1c8e-1234-4f45-9a2b-" + "0".repeat(12) + "c1d2e3f4a5b6",
+                UUID.randomUUID().toString().replace("-", ""),
+                withCardData ? new CardDataDocument("12345678", "1234", "0430", "VISA") : null,
+                UUID.randomUUID().toString().replace("-", "")
+        );
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                new OptionsBuilder()
+                        .include(NpgSessionDocumentRedisSerializerBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
@@ -0,0 +1,126 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import it.pagopa.ecommerce.commons.repositories.UniqueIdDocument;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NpgSessionDocumentRedisSerializerTest {
+
+    private final NpgSessionDocumentRedisSerializer binarySerializer = new NpgSessionDocumentRedisSerializer(
+            VersionedRedisSerializer.Format.BINARY
+    );
+
+    private final NpgSessionDocumentRedisSerializer jsonSerializer = new NpgSessionDocumentRedisSerializer(
+            VersionedRedisSerializer.Format.JSON
+    );
+
+    private final Jackson2JsonRedisSerializer<NpgSessionDocument> legacySerializer = new Jackson2JsonRedisSerializer<>(
+            NpgSessionDocument.class
+    );
+
+    private static Stream<Arguments> sessions() {
+        String correlationId = UUID.randomUUID().toString();
+        return Stream.of(
+                Arguments.of(TestUtil.npgSessionDocument("orderId", correlationId, "sessionId", false, null)),
+                Arguments.of(TestUtil.npgSessionDocument("orderId", correlationId, "sessionId", true, null)),
+                Arguments.of(
+                        TestUtil.npgSessionDocument("orderId", correlationId, "sessionId", true, "transactionId")
+                ),
+                Arguments.of(
+                        new NpgSessionDocument(
+                                "orderId",
+                                correlationId,
+                                "s".repeat(300),
+                                "securityTokenàèìòù",
+                                new CardDataDocument("12345678", "1234", "0424", "MASTERCARD"),
+                                ""
+                        )
+                )
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("sessions")
+    void shouldRoundTripBinarySessions(NpgSessionDocument session) {
+        byte[] bytes = binarySerializer.serialize(session);
+
+        assertEquals(VersionedRedisSerializer.BINARY_FORMAT_V1, bytes[0]);
+        assertEquals(session, binarySerializer.deserialize(bytes));
+        assertEquals(session, jsonSerializer.deserialize(bytes));
+        assertTrue(bytes.length < legacySerializer.serialize(session).length);
+    }
+
+    @ParameterizedTest
+    @MethodSource("sessions")
+    void shouldReadAndWriteLegacyJsonSessions(NpgSessionDocument session) {
+        byte[] legacyBytes = legacySerializer.serialize(session);
+
+        assertArrayEquals(legacyBytes, jsonSerializer.serialize(session));
+        assertEquals(session, binarySerializer.deserialize(legacyBytes));
+    }
+
+    @Test
+    void shouldEncodeTransactionIdAsFirstBinaryField() {
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, null);
+
+        // the transaction id compare-and-set script relies on this layout
+        assertEquals(0, binarySerializer.serialize(session)[1]);
+    }
+
+    @Test
+    void shouldHandleEmptyValues() {
+        assertArrayEquals(new byte[0], binarySerializer.serialize(null));
+        assertNull(binarySerializer.deserialize(null));
+        assertNull(binarySerializer.deserialize(new byte[0]));
+    }
+
+    @Test
+    void shouldRejectUnknownOrTruncatedDocuments() {
+        byte[] bytes = binarySerializer.serialize(
+                TestUtil.npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, null)
+        );
+
+        assertThrows(
+                SerializationException.class,
+                () -> binarySerializer.deserialize(
+                        new byte[] {
+                                0x02
+                        }
+                )
+        );
+        assertThrows(
+                SerializationException.class,
+                () -> binarySerializer.deserialize(Arrays.copyOf(bytes, bytes.length - 1))
+        );
+    }
+
+    @Test
+    void shouldRoundTripUniqueIdDocuments() {
+        UniqueIdDocumentRedisSerializer serializer = new UniqueIdDocumentRedisSerializer(
+                VersionedRedisSerializer.Format.BINARY
+        );
+        UniqueIdDocument uniqueId = new UniqueIdDocument("E1234567890123456789");
+
+        assertEquals(uniqueId, serializer.deserialize(serializer.serialize(uniqueId)));
+        assertEquals(
+                uniqueId,
+                serializer.deserialize(new Jackson2JsonRedisSerializer<>(UniqueIdDocument.class).serialize(uniqueId))
+        );
+    }
+}
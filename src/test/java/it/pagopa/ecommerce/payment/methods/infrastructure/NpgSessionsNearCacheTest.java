@@ -0,0 +1,177 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class NpgSessionsNearCacheTest {
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofMillis(500);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final NpgSessionDocument boundSession = TestUtil
+            .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, "transactionId");
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private NpgSessionsNearCache nearCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisServer = RedisServer.newRedisServer().start();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort())
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        nearCache = new NpgSessionsNearCache(
+                connectionFactory,
+                meterRegistry,
+                true,
+                100,
+                60,
+                600,
+                PROBE_TIMEOUT
+        );
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        nearCache.stop();
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Test
+    void shouldBypassCacheUntilListeningForNotifications() {
+        nearCache.put(boundSession, nearCache.generation(boundSession.orderId()));
+
+        assertEquals(Optional.empty(), nearCache.get(boundSession.orderId()));
+        assertEquals(0, lookups("hit") + lookups("miss"));
+    }
+
+    @Test
+    void shouldBypassCacheUntilNotificationsDeliveryIsVerified() throws InterruptedException {
+        nearCache.start();
+        // the in-process Redis server does not deliver the probe key notification
+        Thread.sleep(PROBE_TIMEOUT.multipliedBy(2).toMillis());
+        nearCache.put(boundSession, nearCache.generation(boundSession.orderId()));
+
+        assertFalse(nearCache.isListening());
+        assertEquals(Optional.empty(), nearCache.get(boundSession.orderId()));
+
+        // delivery is verified again on resubscription
+        awaitNotificationsDelivery();
+        assertEquals(0, notificationInvalidations());
+    }
+
+    @Test
+    void shouldCacheOnlySessionsAssociatedToTransaction() {
+        startListening();
+        NpgSessionDocument unboundSession = TestUtil
+                .npgSessionDocument("otherOrderId", UUID.randomUUID().toString(), "sessionId", true, null);
+
+        nearCache.put(boundSession, nearCache.generation(boundSession.orderId()));
+        nearCache.put(unboundSession, nearCache.generation(unboundSession.orderId()));
+
+        assertEquals(Optional.of(boundSession), nearCache.get(boundSession.orderId()));
+        assertEquals(Optional.empty(), nearCache.get(unboundSession.orderId()));
+        assertEquals(1, lookups("hit"));
+        assertEquals(1, lookups("miss"));
+    }
+
+    @Test
+    void shouldNotCacheSessionInvalidatedWhileBeingRead() {
+        startListening();
+        long generation = nearCache.generation(boundSession.orderId());
+
+        nearCache.invalidate(boundSession.orderId());
+        nearCache.put(boundSession, generation);
+
+        assertEquals(Optional.empty(), nearCache.get(boundSession.orderId()));
+    }
+
+    @Test
+    void shouldEvictSessionOnKeyspaceNotification() {
+        startListening();
+        nearCache.put(boundSession, nearCache.generation(boundSession.orderId()));
+        nearCache.invalidate("otherOrderId");
+
+        // keyspace notifications are simulated, since not supported by the in-process
+        // Redis server
+        ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        redisTemplate.convertAndSend("__keyspace@0__:npg:" + boundSession.orderId(), "set").block();
+        redisTemplate.convertAndSend("__keyspace@0__:npg:otherOrderId", "set").block();
+
+        awaitUntil(() -> notificationInvalidations() == 2);
+        assertEquals(Optional.empty(), nearCache.get(boundSession.orderId()));
+        // lag is measured for local writes only
+        assertEquals(1, meterRegistry.timer(NpgSessionsNearCache.INVALIDATION_LAG_METRIC_NAME).count());
+    }
+
+    @Test
+    void shouldClearCacheWhenStopped() {
+        startListening();
+        nearCache.put(boundSession, nearCache.generation(boundSession.orderId()));
+
+        nearCache.stop();
+
+        assertFalse(nearCache.isListening());
+        assertEquals(Optional.empty(), nearCache.get(boundSession.orderId()));
+    }
+
+    private void startListening() {
+        nearCache.start();
+        awaitNotificationsDelivery();
+    }
+
+    /**
+     * Simulate the probe key notification until the cache is listening, since
+     * keyspace notifications are not supported by the in-process Redis server
+     */
+    private void awaitNotificationsDelivery() {
+        ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        awaitUntil(() -> {
+            redisTemplate.convertAndSend("__keyspace@0__:npg:near-cache-probe:" + UUID.randomUUID(), "set")
+                    .block();
+            return nearCache.isListening();
+        });
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.counter(NpgSessionsNearCache.LOOKUP_METRIC_NAME, "result", result).count();
+    }
+
+    private double notificationInvalidations() {
+        return meterRegistry.counter(NpgSessionsNearCache.INVALIDATION_METRIC_NAME, "source", "notification")
+                .count();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within timeout");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.config.RedisConfig;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the NPG session operations performed by the session endpoints with
+ * the {@link NpgSessionsTemplateWrapper.StorageMode#DOCUMENT} and
+ * {@link NpgSessionsTemplateWrapper.StorageMode#HASH} storage modes, with the
+ * near-cache disabled. Sessions are stored in an in-process Redis server,
+ * unless a Redis instance is given with the <code>benchmark.redis.host</code>
+ * and <code>benchmark.redis.port</code> system properties: absolute timings are
+ * only meaningful against a real Redis instance. Run with
+ * {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args=NpgSessionsStorageModeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NpgSessionsStorageModeBenchmark {
+
+    private static final Set<NpgSessionField> SESSION_VALIDATION_FIELDS = EnumSet
+            .of(NpgSessionField.SECURITY_TOKEN, NpgSessionField.TRANSACTION_ID);
+
+    @Param(
+        {
+                "DOCUMENT",
+                "HASH"
+        }
+    )
+    public NpgSessionsTemplateWrapper.StorageMode storageMode;
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
+
+    private NpgSessionDocument session;
+
+    private final CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0430", "VISA");
+
+    @Setup
+    public void setup() throws IOException {
+        String host = System.getProperty("benchmark.redis.host");
+        int port;
+        if (host == null) {
+            redisServer = RedisServer.newRedisServer().start();
+            host = redisServer.getHost();
+            port = redisServer.getBindPort();
+        } else {
+            port = Integer.parseInt(System.getProperty("benchmark.redis.port", "6379"));
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        npgSessionsTemplateWrapper = new RedisConfig().npgSessionsTemplateWrapper(
+                connectionFactory,
+                600,
+                VersionedRedisSerializer.Format.JSON,
+                storageMode,
+                new NpgSessionsNearCache(connectionFactory, new SimpleMeterRegistry(), false, 0, 0, 600)
+        );
+        session = new NpgSessionDocument(
+                "E" + System.currentTimeMillis() + "1234567",
+                UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(),
+                UUID.randomUUID().toString().replace("-", ""),
+                null,
+                UUID.randomUUID().toString().replace("-", "")
+        );
+        npgSessionsTemplateWrapper.save(session).block();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        npgSessionsTemplateWrapper.deleteById(session.orderId()).block();
+        connectionFactory.destroy();
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @Benchmark
+    public NpgSessionDocument findSession() {
+        return npgSessionsTemplateWrapper.findById(session.orderId()).block();
+    }
+
+    @Benchmark
+    public NpgSessionDocument findSessionValidationFields() {
+        return npgSessionsTemplateWrapper.findById(session.orderId(), SESSION_VALIDATION_FIELDS).block();
+    }
+
+    @Benchmark
+    public Boolean saveCardData() {
+        return npgSessionsTemplateWrapper.saveCardData(session, cardData).block();
+    }
+
+    @Benchmark
+    public NpgSessionDocument compareAndSetTransactionId() {
+        return npgSessionsTemplateWrapper.compareAndSetTransactionId(session.orderId(), session.transactionId())
+                .block();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                new OptionsBuilder()
+                        .include(NpgSessionsStorageModeBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
@@ -0,0 +1,441 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import com.github.fppt.jedismock.RedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.config.RedisConfig;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NpgSessionsTemplateWrapperTest {
+
+    private static final int SESSIONS_TTL_SECONDS = 600;
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private NpgSessionsNearCache nearCache;
+
+    private NpgSessionsTemplateWrapper npgSessionsTemplateWrapper;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisServer = RedisServer.newRedisServer().start();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort())
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        nearCache = new NpgSessionsNearCache(
+                connectionFactory,
+                meterRegistry,
+                true,
+                100,
+                60,
+                SESSIONS_TTL_SECONDS
+        );
+        npgSessionsTemplateWrapper = wrapper(VersionedRedisSerializer.Format.JSON);
+    }
+
+    private NpgSessionsTemplateWrapper wrapper(VersionedRedisSerializer.Format writeFormat) {
+        return wrapper(writeFormat, NpgSessionsTemplateWrapper.StorageMode.DOCUMENT);
+    }
+
+    private NpgSessionsTemplateWrapper wrapper(NpgSessionsTemplateWrapper.StorageMode storageMode) {
+        return wrapper(VersionedRedisSerializer.Format.JSON, storageMode);
+    }
+
+    private NpgSessionsTemplateWrapper wrapper(
+                                               VersionedRedisSerializer.Format writeFormat,
+                                               NpgSessionsTemplateWrapper.StorageMode storageMode
+    ) {
+        return new RedisConfig()
+                .npgSessionsTemplateWrapper(
+                        connectionFactory,
+                        SESSIONS_TTL_SECONDS,
+                        writeFormat,
+                        storageMode,
+                        nearCache
+                );
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        nearCache.stop();
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Test
+    void shouldSetTransactionIdOnSessionWithoutTransaction() {
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, null);
+        NpgSessionDocument expected = new NpgSessionDocument(
+                session.orderId(),
+                session.correlationId(),
+                session.sessionId(),
+                session.securityToken(),
+                session.cardData(),
+                "transactionId"
+        );
+        npgSessionsTemplateWrapper.save(session, Duration.ofSeconds(10)).block();
+
+        StepVerifier.create(npgSessionsTemplateWrapper.compareAndSetTransactionId("orderId", "transactionId"))
+                .expectNext(expected)
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId"))
+                .expectNext(expected)
+                .verifyComplete();
+        // session TTL is reset as for a full save
+        StepVerifier.create(npgSessionsTemplateWrapper.getTTL("orderId"))
+                .expectNextMatches(ttl -> ttl.compareTo(Duration.ofSeconds(10)) > 0)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldSetTransactionIdOnBinarySession() {
+        NpgSessionsTemplateWrapper binaryWrapper = wrapper(VersionedRedisSerializer.Format.BINARY);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, null);
+        NpgSessionDocument expected = new NpgSessionDocument(
+                session.orderId(),
+                session.correlationId(),
+                session.sessionId(),
+                session.securityToken(),
+                session.cardData(),
+                "t".repeat(200)
+        );
+        binaryWrapper.save(session).block();
+
+        StepVerifier.create(binaryWrapper.compareAndSetTransactionId("orderId", expected.transactionId()))
+                .expectNext(expected)
+                .verifyComplete();
+        StepVerifier.create(binaryWrapper.compareAndSetTransactionId("orderId", "otherTransactionId"))
+                .expectNext(expected)
+                .verifyComplete();
+        // binary sessions are read by instances still writing JSON too
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId"))
+                .expectNext(expected)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldReadJsonSessionsAfterSwitchingToBinary() {
+        NpgSessionsTemplateWrapper binaryWrapper = wrapper(VersionedRedisSerializer.Format.BINARY);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        npgSessionsTemplateWrapper.save(session).block();
+
+        StepVerifier.create(binaryWrapper.findById("orderId"))
+                .expectNext(session)
+                .verifyComplete();
+        StepVerifier.create(binaryWrapper.compareAndSetTransactionId("orderId", "transactionId"))
+                .expectNextMatches(updated -> "transactionId".equals(updated.transactionId()))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldReturnStoredSessionAlreadyAssociatedToTransaction() {
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, "transactionId");
+        npgSessionsTemplateWrapper.save(session).block();
+
+        StepVerifier.create(npgSessionsTemplateWrapper.compareAndSetTransactionId("orderId", "transactionId"))
+                .expectNext(session)
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.compareAndSetTransactionId("orderId", "otherTransactionId"))
+                .expectNext(session)
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId"))
+                .expectNext(session)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldReturnEmptyForMissingSession() {
+        StepVerifier.create(npgSessionsTemplateWrapper.compareAndSetTransactionId("orderId", "transactionId"))
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId"))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldServeSessionsAssociatedToTransactionFromNearCache() {
+        nearCache.start();
+        // keyspace notifications delivery is simulated, since not supported by the
+        // in-process Redis server
+        ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!nearCache.isListening() && System.nanoTime() < deadline) {
+            redisTemplate.convertAndSend("__keyspace@0__:npg:near-cache-probe:probe", "set").block();
+        }
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        npgSessionsTemplateWrapper.save(session).block();
+
+        // sessions without transaction are always read from Redis
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId")).expectNext(session).verifyComplete();
+        NpgSessionDocument boundSession = npgSessionsTemplateWrapper
+                .compareAndSetTransactionId("orderId", "transactionId").block();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId")).expectNext(boundSession)
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId")).expectNext(boundSession)
+                .verifyComplete();
+        assertEquals(
+                1,
+                meterRegistry.counter(NpgSessionsNearCache.LOOKUP_METRIC_NAME, "result", "hit").count()
+        );
+
+        // local writes evict the cached session
+        npgSessionsTemplateWrapper.deleteById("orderId").block();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId")).verifyComplete();
+    }
+
+    @Test
+    void shouldStoreSessionsAsHashes() {
+        NpgSessionsTemplateWrapper hashWrapper = wrapper(NpgSessionsTemplateWrapper.StorageMode.HASH);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, "transactionId");
+        hashWrapper.save(session).block();
+
+        assertEquals(DataType.HASH, redisTemplate().type("npg:orderId").block());
+        StepVerifier.create(hashWrapper.findById("orderId")).expectNext(session).verifyComplete();
+        // only the requested fields are read
+        StepVerifier
+                .create(
+                        hashWrapper.findById(
+                                "orderId",
+                                EnumSet.of(NpgSessionField.SECURITY_TOKEN, NpgSessionField.TRANSACTION_ID)
+                        )
+                )
+                .expectNext(
+                        new NpgSessionDocument("orderId", null, null, session.securityToken(), null, "transactionId")
+                )
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.findById("missingOrderId", EnumSet.of(NpgSessionField.TRANSACTION_ID)))
+                .verifyComplete();
+        // saving a session replaces all its fields
+        NpgSessionDocument unboundSession = TestUtil
+                .npgSessionDocument("orderId", session.correlationId(), "sessionId", false, null);
+        hashWrapper.save(unboundSession).block();
+        StepVerifier.create(hashWrapper.findById("orderId")).expectNext(unboundSession).verifyComplete();
+    }
+
+    @Test
+    void shouldUpdateOnlyCardDataFieldsOfHashSession() {
+        NpgSessionsTemplateWrapper hashWrapper = wrapper(NpgSessionsTemplateWrapper.StorageMode.HASH);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0424", "VISA");
+        hashWrapper.save(session, Duration.ofSeconds(10)).block();
+        // concurrently associated transaction id is kept, since only card data fields
+        // are written
+        hashWrapper.compareAndSetTransactionId("orderId", "transactionId").block();
+
+        StepVerifier.create(hashWrapper.saveCardData(session, cardData)).expectNext(true).verifyComplete();
+        StepVerifier.create(hashWrapper.findById("orderId"))
+                .expectNext(
+                        new NpgSessionDocument(
+                                session.orderId(),
+                                session.correlationId(),
+                                session.sessionId(),
+                                session.securityToken(),
+                                cardData,
+                                "transactionId"
+                        )
+                )
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.getTTL("orderId"))
+                .expectNextMatches(ttl -> ttl.compareTo(Duration.ofSeconds(10)) > 0)
+                .verifyComplete();
+
+        // expired sessions are not recreated
+        hashWrapper.deleteById("orderId").block();
+        StepVerifier.create(hashWrapper.saveCardData(session, cardData)).expectNext(false).verifyComplete();
+        StepVerifier.create(hashWrapper.findById("orderId")).verifyComplete();
+    }
+
+    @ParameterizedTest
+    @EnumSource(VersionedRedisSerializer.Format.class)
+    void shouldKeepTransactionIdWhenSettingCardDataOfDocumentSession(VersionedRedisSerializer.Format writeFormat) {
+        NpgSessionsTemplateWrapper documentWrapper = wrapper(writeFormat);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0424", "VISA");
+        documentWrapper.save(session, Duration.ofSeconds(10)).block();
+        // the session is associated to a transaction after being read by the card data
+        // update, whose whole document write must not reset the transaction id
+        documentWrapper.compareAndSetTransactionId("orderId", "transactionId").block();
+
+        StepVerifier.create(documentWrapper.saveCardData(session, cardData)).expectNext(true).verifyComplete();
+        StepVerifier.create(documentWrapper.findById("orderId"))
+                .expectNext(
+                        new NpgSessionDocument(
+                                session.orderId(),
+                                session.correlationId(),
+                                session.sessionId(),
+                                session.securityToken(),
+                                cardData,
+                                "transactionId"
+                        )
+                )
+                .verifyComplete();
+        StepVerifier.create(documentWrapper.getTTL("orderId"))
+                .expectNextMatches(ttl -> ttl.compareTo(Duration.ofSeconds(10)) > 0)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldKeepTransactionIdWhenSettingCardDataOfSessionStoredWithOtherFormat() {
+        NpgSessionsTemplateWrapper binaryWrapper = wrapper(VersionedRedisSerializer.Format.BINARY);
+        NpgSessionDocument binarySession = TestUtil
+                .npgSessionDocument("binaryOrderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        NpgSessionDocument jsonSession = TestUtil
+                .npgSessionDocument("jsonOrderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0424", "VISA");
+        binaryWrapper.save(binarySession).block();
+        npgSessionsTemplateWrapper.save(jsonSession).block();
+        binaryWrapper.compareAndSetTransactionId("binaryOrderId", "binaryTransactionId").block();
+        npgSessionsTemplateWrapper.compareAndSetTransactionId("jsonOrderId", "jsonTransactionId").block();
+
+        StepVerifier.create(npgSessionsTemplateWrapper.saveCardData(binarySession, cardData)).expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(binaryWrapper.saveCardData(jsonSession, cardData)).expectNext(true)
+                .verifyComplete();
+
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("binaryOrderId"))
+                .expectNextMatches(
+                        updated -> cardData.equals(updated.cardData())
+                                && "binaryTransactionId".equals(updated.transactionId())
+                )
+                .verifyComplete();
+        StepVerifier.create(binaryWrapper.findById("jsonOrderId"))
+                .expectNextMatches(
+                        updated -> cardData.equals(updated.cardData())
+                                && "jsonTransactionId".equals(updated.transactionId())
+                )
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldSetTransactionIdOnHashSession() {
+        NpgSessionsTemplateWrapper hashWrapper = wrapper(NpgSessionsTemplateWrapper.StorageMode.HASH);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", true, null);
+        NpgSessionDocument expected = new NpgSessionDocument(
+                session.orderId(),
+                session.correlationId(),
+                session.sessionId(),
+                session.securityToken(),
+                session.cardData(),
+                "transactionId"
+        );
+        hashWrapper.save(session).block();
+
+        StepVerifier.create(hashWrapper.compareAndSetTransactionId("orderId", "transactionId"))
+                .expectNext(expected)
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.compareAndSetTransactionId("orderId", "otherTransactionId"))
+                .expectNext(expected)
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.compareAndSetTransactionId("missingOrderId", "transactionId"))
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.findById("missingOrderId")).verifyComplete();
+    }
+
+    @Test
+    void shouldReadAndUpdateSessionsStoredWithOtherStorageMode() {
+        NpgSessionsTemplateWrapper hashWrapper = wrapper(NpgSessionsTemplateWrapper.StorageMode.HASH);
+        NpgSessionDocument documentSession = TestUtil
+                .npgSessionDocument("documentOrderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        NpgSessionDocument hashSession = TestUtil
+                .npgSessionDocument("hashOrderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        CardDataDocument cardData = new CardDataDocument("12345678", "1234", "0424", "VISA");
+        npgSessionsTemplateWrapper.save(documentSession).block();
+        hashWrapper.save(hashSession).block();
+
+        StepVerifier.create(hashWrapper.findById("documentOrderId")).expectNext(documentSession).verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("hashOrderId")).expectNext(hashSession)
+                .verifyComplete();
+        StepVerifier
+                .create(
+                        npgSessionsTemplateWrapper.findById("hashOrderId", EnumSet.of(NpgSessionField.SESSION_ID))
+                )
+                .expectNext(new NpgSessionDocument("hashOrderId", null, "sessionId", null, null, null))
+                .verifyComplete();
+
+        StepVerifier.create(hashWrapper.saveCardData(documentSession, cardData)).expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(hashWrapper.compareAndSetTransactionId("documentOrderId", "transactionId"))
+                .expectNextMatches(
+                        updated -> cardData.equals(updated.cardData())
+                                && "transactionId".equals(updated.transactionId())
+                )
+                .verifyComplete();
+        StepVerifier.create(npgSessionsTemplateWrapper.compareAndSetTransactionId("hashOrderId", "transactionId"))
+                .expectNextMatches(updated -> "transactionId".equals(updated.transactionId()))
+                .verifyComplete();
+    }
+
+    @ParameterizedTest
+    @EnumSource(NpgSessionsTemplateWrapper.StorageMode.class)
+    void shouldAssociateSessionToOneTransactionOnConcurrentUpdates(NpgSessionsTemplateWrapper.StorageMode storageMode) {
+        NpgSessionsTemplateWrapper npgSessionsTemplateWrapper = wrapper(storageMode);
+        NpgSessionDocument session = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, null);
+        npgSessionsTemplateWrapper.save(session).block();
+        int concurrentUpdates = 32;
+
+        List<String> results = Flux.range(0, concurrentUpdates)
+                .parallel(concurrentUpdates)
+                .runOn(Schedulers.parallel())
+                .flatMap(
+                        i -> npgSessionsTemplateWrapper.compareAndSetTransactionId("orderId", "transactionId-" + i)
+                                .map(NpgSessionDocument::transactionId)
+                )
+                .sequential()
+                .collectList()
+                .block();
+
+        assertEquals(concurrentUpdates, results.size());
+        Set<String> associatedTransactionIds = Set.copyOf(results);
+        // every update observes the same winning transaction id
+        assertEquals(1, associatedTransactionIds.size());
+        String winner = associatedTransactionIds.iterator().next();
+        assertTrue(
+                Flux.range(0, concurrentUpdates).map(i -> "transactionId-" + i).collect(Collectors.toSet()).block()
+                        .contains(winner)
+        );
+        StepVerifier.create(npgSessionsTemplateWrapper.findById("orderId"))
+                .expectNextMatches(stored -> winner.equals(stored.transactionId()))
+                .verifyComplete();
+    }
+
+    private ReactiveStringRedisTemplate redisTemplate() {
+        return new ReactiveStringRedisTemplate(connectionFactory);
+    }
+}
@@ -0,0 +1,174 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.commons.utils.ReactiveUniqueIdUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class OrderIdPoolTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ReactiveUniqueIdUtils uniqueIdUtils = mock(ReactiveUniqueIdUtils.class);
+
+    private final AtomicInteger generatedOrderIds = new AtomicInteger();
+
+    private OrderIdPool orderIdPool;
+
+    @AfterEach
+    void tearDown() {
+        orderIdPool.stop();
+    }
+
+    @Test
+    void shouldGenerateOrderIdOnRequestWhenDisabled() {
+        mockOrderIdGeneration();
+        orderIdPool = orderIdPool(false, 10, 5, 30);
+        orderIdPool.start();
+
+        StepVerifier.create(orderIdPool.nextOrderId())
+                .expectNext("orderId-1")
+                .verifyComplete();
+
+        assertEquals(0, orderIdPool.depth());
+        assertEquals(1, orderIds("fallback"));
+    }
+
+    @Test
+    void shouldServeReservedOrderIdsFromThePool() {
+        mockOrderIdGeneration();
+        orderIdPool = orderIdPool(true, 10, 5, 30);
+        orderIdPool.refill().block();
+        assertEquals(10, orderIdPool.depth());
+        assertEquals(10, meterRegistry.get("order.id.pool.depth").gauge().value());
+
+        Set<String> orderIds = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            orderIds.add(orderIdPool.nextOrderId().block());
+        }
+
+        assertEquals(5, orderIds.size());
+        assertEquals(5, orderIdPool.depth());
+        assertEquals(5, orderIds("pooled"));
+        assertEquals(0, orderIds("fallback"));
+        assertEquals(10, generatedOrderIds.get());
+        assertEquals(1, meterRegistry.get("order.id.pool.refill").timer().count());
+    }
+
+    @Test
+    void shouldRefillThePoolBelowLowWatermark() {
+        mockOrderIdGeneration();
+        orderIdPool = orderIdPool(true, 10, 5, 30);
+        orderIdPool.refill().block();
+
+        for (int i = 0; i < 6; i++) {
+            orderIdPool.nextOrderId().block();
+        }
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> orderIdPool.depth() == 10);
+        assertEquals(16, generatedOrderIds.get());
+    }
+
+    @Test
+    void shouldFallBackWhenPoolIsEmpty() {
+        Sinks.One<String> reserved = Sinks.one();
+        Mockito.when(uniqueIdUtils.generateUniqueId())
+                .thenReturn(Mono.defer(reserved::asMono))
+                .thenReturn(Mono.just("fallbackOrderId"));
+        orderIdPool = orderIdPool(true, 1, 1, 30);
+
+        // the refill triggered by the first request is still in progress
+        StepVerifier.create(orderIdPool.nextOrderId())
+                .expectNext("fallbackOrderId")
+                .verifyComplete();
+
+        assertEquals(1, orderIds("fallback"));
+        reserved.tryEmitValue("pooledOrderId");
+        await().atMost(Duration.ofSeconds(5)).until(() -> orderIdPool.depth() == 1);
+        StepVerifier.create(orderIdPool.nextOrderId())
+                .expectNext("pooledOrderId")
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldDiscardExpiredOrderIds() {
+        mockOrderIdGeneration();
+        orderIdPool = orderIdPool(true, 3, 0, 0);
+        orderIdPool.refill().block();
+        assertEquals(3, orderIdPool.depth());
+
+        StepVerifier.create(orderIdPool.nextOrderId())
+                .expectNext("orderId-4")
+                .verifyComplete();
+
+        assertEquals(3, orderIds("expired"));
+        assertEquals(0, orderIdPool.depth());
+    }
+
+    @Test
+    void shouldSkipOrderIdsThatCannotBeReserved() {
+        Mockito.when(uniqueIdUtils.generateUniqueId())
+                .thenReturn(Mono.just("orderId"))
+                .thenReturn(Mono.error(new RuntimeException("Redis error")));
+        orderIdPool = orderIdPool(true, 3, 0, 30);
+
+        orderIdPool.refill().block();
+
+        assertEquals(1, orderIdPool.depth());
+    }
+
+    @Test
+    void shouldPerformOneRefillAtATime() {
+        Sinks.One<String> reserved = Sinks.one();
+        Mockito.when(uniqueIdUtils.generateUniqueId()).thenReturn(reserved.asMono());
+        orderIdPool = orderIdPool(true, 2, 0, 30);
+
+        StepVerifier.create(Mono.when(orderIdPool.refill(), orderIdPool.refill()))
+                .then(() -> reserved.tryEmitValue("orderId"))
+                .verifyComplete();
+
+        Mockito.verify(uniqueIdUtils, Mockito.times(2)).generateUniqueId();
+        assertEquals(2, orderIdPool.depth());
+    }
+
+    @Test
+    void shouldRejectMaxAgeNotLowerThanUniqueIdTtl() {
+        orderIdPool = orderIdPool(true, 10, 5, 59);
+        long uniqueIdTtlSeconds = OrderIdPool.UNIQUE_ID_TTL.toSeconds();
+
+        assertThrows(IllegalArgumentException.class, () -> orderIdPool(true, 10, 5, uniqueIdTtlSeconds));
+        assertThrows(IllegalArgumentException.class, () -> orderIdPool(false, 10, 5, uniqueIdTtlSeconds + 1));
+    }
+
+    private void mockOrderIdGeneration() {
+        Mockito.when(uniqueIdUtils.generateUniqueId())
+                .thenAnswer(invocation -> Mono.fromSupplier(() -> "orderId-" + generatedOrderIds.incrementAndGet()));
+    }
+
+    private OrderIdPool orderIdPool(
+                                    boolean enabled,
+                                    int capacity,
+                                    int lowWatermark,
+                                    long maxAgeSeconds
+    ) {
+        return new OrderIdPool(uniqueIdUtils, meterRegistry, enabled, capacity, lowWatermark, maxAgeSeconds);
+    }
+
+    private double orderIds(String result) {
+        return meterRegistry.counter(OrderIdPool.ORDER_IDS_METRIC_NAME, "result", result).count();
+    }
+}
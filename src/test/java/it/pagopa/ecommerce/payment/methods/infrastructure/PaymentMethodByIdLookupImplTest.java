@@ -0,0 +1,116 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.pagopa.ecommerce.payment.methods.domain.aggregates.PaymentMethod;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class PaymentMethodByIdLookupImplTest {
+
+    private final ReactiveMongoOperations mongoOperations = mock(ReactiveMongoOperations.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicLong nanoClock = new AtomicLong();
+
+    private final PaymentMethodByIdLookupImpl lookup = new PaymentMethodByIdLookupImpl(
+            mongoOperations,
+            meterRegistry,
+            Duration.ofSeconds(1),
+            nanoClock::get
+    );
+
+    private final PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
+
+    private final PaymentMethodDocument paymentMethodDocument = TestUtil.getTestPaymentDoc(paymentMethod);
+
+    private final String paymentMethodId = paymentMethod.getPaymentMethodID().value().toString();
+
+    @Test
+    void shouldCoalesceConcurrentLookups() {
+        Sinks.One<PaymentMethodDocument> mongoResult = Sinks.one();
+        Mockito.when(mongoOperations.findById(paymentMethodId, PaymentMethodDocument.class))
+                .thenReturn(mongoResult.asMono());
+
+        Mono<PaymentMethodDocument> first = lookup.findById(paymentMethodId);
+        Mono<PaymentMethodDocument> second = lookup.findById(paymentMethodId);
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> mongoResult.tryEmitValue(paymentMethodDocument))
+                .expectNextMatches(
+                        results -> results.getT1() == paymentMethodDocument && results.getT2() == paymentMethodDocument
+                )
+                .verifyComplete();
+
+        Mockito.verify(mongoOperations, Mockito.times(1)).findById(paymentMethodId, PaymentMethodDocument.class);
+        assertEquals(1, count("miss"));
+        assertEquals(1, count("coalesced"));
+        assertEquals(0, count("hit"));
+    }
+
+    @Test
+    void shouldServeCachedPaymentMethodUntilExpiration() {
+        Mockito.when(mongoOperations.findById(paymentMethodId, PaymentMethodDocument.class))
+                .thenReturn(Mono.just(paymentMethodDocument));
+
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+        nanoClock.addAndGet(Duration.ofMillis(999).toNanos());
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+        Mockito.verify(mongoOperations, Mockito.times(1)).findById(paymentMethodId, PaymentMethodDocument.class);
+
+        nanoClock.addAndGet(Duration.ofMillis(1).toNanos());
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+        Mockito.verify(mongoOperations, Mockito.times(2)).findById(paymentMethodId, PaymentMethodDocument.class);
+        assertEquals(2, count("miss"));
+        assertEquals(1, count("hit"));
+    }
+
+    @Test
+    void shouldNotCacheNotFoundPaymentMethods() {
+        Mockito.when(mongoOperations.findById(paymentMethodId, PaymentMethodDocument.class))
+                .thenReturn(Mono.empty());
+
+        StepVerifier.create(lookup.findById(paymentMethodId)).verifyComplete();
+        StepVerifier.create(lookup.findById(paymentMethodId)).verifyComplete();
+
+        Mockito.verify(mongoOperations, Mockito.times(2)).findById(paymentMethodId, PaymentMethodDocument.class);
+        assertEquals(2, count("miss"));
+    }
+
+    @Test
+    void shouldReadEvictedPaymentMethodFromMongo() {
+        Mockito.when(mongoOperations.findById(paymentMethodId, PaymentMethodDocument.class))
+                .thenReturn(Mono.just(paymentMethodDocument));
+
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+        lookup.evictById(paymentMethodId);
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+
+        Mockito.verify(mongoOperations, Mockito.times(2)).findById(paymentMethodId, PaymentMethodDocument.class);
+    }
+
+    @Test
+    void shouldNotCacheFailedLookups() {
+        Mockito.when(mongoOperations.findById(paymentMethodId, PaymentMethodDocument.class))
+                .thenReturn(Mono.error(new IllegalStateException("mongo error")))
+                .thenReturn(Mono.just(paymentMethodDocument));
+
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectError(IllegalStateException.class).verify();
+        StepVerifier.create(lookup.findById(paymentMethodId)).expectNext(paymentMethodDocument).verifyComplete();
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter(PaymentMethodByIdLookupImpl.LOOKUP_METRIC_NAME, "result", result).count();
+    }
+}
@@ -0,0 +1,186 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import it.pagopa.ecommerce.payment.methods.domain.aggregates.PaymentMethod;
+import it.pagopa.ecommerce.payment.methods.utils.TestUtil;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveChangeStreamOperation;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.CriteriaDefinition;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+
+class PaymentMethodCatalogTest {
+
+    private final PaymentMethodRepository paymentMethodRepository = mock(PaymentMethodRepository.class);
+
+    private final ReactiveMongoOperations mongoOperations = mock(ReactiveMongoOperations.class);
+
+    private final PaymentMethodCatalog paymentMethodCatalog = new PaymentMethodCatalog(
+            paymentMethodRepository,
+            mongoOperations,
+            true,
+            300
+    );
+
+    private final PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
+
+    private final PaymentMethodDocument paymentMethodDocument = TestUtil.getTestPaymentDoc(paymentMethod);
+
+    private final String clientId = paymentMethod.getClientIdEnum().getValue();
+
+    private final String paymentMethodId = paymentMethod.getPaymentMethodID().value().toString();
+
+    @AfterEach
+    void tearDown() {
+        paymentMethodCatalog.stop();
+    }
+
+    @Test
+    void shouldDelegateToRepositoryBeforeFirstLoad() {
+        Mockito.when(paymentMethodRepository.findByClientId(clientId)).thenReturn(Flux.just(paymentMethodDocument));
+        Mockito.when(paymentMethodRepository.findByPaymentMethodIDAndClientId(paymentMethodId, clientId))
+                .thenReturn(Mono.just(paymentMethodDocument));
+
+        StepVerifier.create(paymentMethodCatalog.findByClientId(clientId))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByPaymentMethodIDAndClientId(paymentMethodId, clientId))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldServeReadsFromLoadedSnapshot() {
+        Mockito.when(paymentMethodRepository.findAll()).thenReturn(Flux.just(paymentMethodDocument));
+
+        StepVerifier.create(paymentMethodCatalog.refresh())
+                .expectNextMatches(snapshot -> snapshot.size() == 1)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientId(clientId))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientId("unknown"))
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByPaymentMethodIDAndClientId(paymentMethodId, clientId))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByPaymentMethodIDAndClientId(paymentMethodId, "unknown"))
+                .verifyComplete();
+
+        Mockito.verify(paymentMethodRepository, Mockito.never()).findByClientId(any());
+        Mockito.verify(paymentMethodRepository, Mockito.never()).findByPaymentMethodIDAndClientId(any(), any());
+    }
+
+    @Test
+    void shouldFilterPaymentMethodsByAmount() {
+        Mockito.when(paymentMethodRepository.findByClientId(clientId)).thenReturn(Flux.just(paymentMethodDocument));
+        Mockito.when(paymentMethodRepository.findAll()).thenReturn(Flux.just(paymentMethodDocument));
+
+        // before first load amount filtering is performed on the repository results
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount(clientId, 50L))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount(clientId, 101L))
+                .verifyComplete();
+
+        StepVerifier.create(paymentMethodCatalog.refresh()).expectNextCount(1).verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount(clientId, 50L))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount(clientId, 101L))
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount(clientId, null))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientIdAndAmount("unknown", 50L))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldSortClientPaymentMethodsWithTotalOrder() {
+        PaymentMethodDocument secondCard = TestUtil.getTestPaymentDoc(paymentMethod);
+        secondCard.setPaymentMethodID("b");
+        secondCard.setPaymentMethodTypeCode("CP");
+        secondCard.setPaymentMethodDescription("card");
+        PaymentMethodDocument firstCard = TestUtil.getTestPaymentDoc(paymentMethod);
+        firstCard.setPaymentMethodID("a");
+        firstCard.setPaymentMethodTypeCode("CP");
+        firstCard.setPaymentMethodDescription("card");
+        PaymentMethodDocument other = TestUtil.getTestPaymentDoc(paymentMethod);
+        other.setPaymentMethodID("c");
+        other.setPaymentMethodDescription("AAA");
+
+        assertEquals(
+                List.of(firstCard, secondCard, other),
+                PaymentMethodCatalogSnapshot.of(List.of(other, secondCard, firstCard)).findByClientId(clientId)
+        );
+        assertEquals(
+                List.of(firstCard, secondCard, other),
+                PaymentMethodCatalogSnapshot.of(List.of(secondCard, firstCard, other)).findByClientId(clientId)
+        );
+    }
+
+    @Test
+    void shouldFallbackToRepositoryWhenReloadAfterLocalWriteFails() {
+        Mockito.when(paymentMethodRepository.findAll())
+                .thenReturn(Flux.just(paymentMethodDocument))
+                .thenReturn(Flux.error(new RuntimeException("Mongo unavailable")));
+        Mockito.when(paymentMethodRepository.findByClientId(clientId)).thenReturn(Flux.empty());
+
+        StepVerifier.create(paymentMethodCatalog.refresh()).expectNextCount(1).verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.onLocalWrite()).verifyComplete();
+        StepVerifier.create(paymentMethodCatalog.findByClientId(clientId)).verifyComplete();
+
+        Mockito.verify(paymentMethodRepository, Mockito.times(1)).findByClientId(clientId);
+    }
+
+    @Test
+    void shouldNotReloadOnLocalWriteWhenDisabled() {
+        PaymentMethodCatalog disabledCatalog = new PaymentMethodCatalog(
+                paymentMethodRepository,
+                mongoOperations,
+                false,
+                300
+        );
+
+        StepVerifier.create(disabledCatalog.onLocalWrite()).verifyComplete();
+        disabledCatalog.start();
+
+        Mockito.verifyNoInteractions(paymentMethodRepository, mongoOperations);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldReloadSnapshotOnChangeStreamEvent() {
+        ReactiveChangeStreamOperation.ReactiveChangeStream<Document> changeStream = mock(
+                ReactiveChangeStreamOperation.ReactiveChangeStream.class
+        );
+        Mockito.when(mongoOperations.changeStream(Document.class)).thenReturn(changeStream);
+        Mockito.when(changeStream.watchCollection(PaymentMethodDocument.class)).thenReturn(changeStream);
+        Mockito.when(changeStream.filter(any(CriteriaDefinition.class))).thenReturn(changeStream);
+        Mockito.when(changeStream.listen())
+                .thenReturn(
+                        Flux.<ChangeStreamEvent<Document>>just(mock(ChangeStreamEvent.class)).concatWith(Flux.never())
+                );
+        Mockito.when(paymentMethodRepository.findAll()).thenReturn(Flux.just(paymentMethodDocument));
+
+        paymentMethodCatalog.start();
+
+        // one load at startup and one after the change stream event
+        Mockito.verify(paymentMethodRepository, Mockito.timeout(1000).times(2)).findAll();
+        StepVerifier.create(paymentMethodCatalog.findByClientId(clientId))
+                .expectNext(paymentMethodDocument)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,102 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-document range scan previously performed by
+ * {@code retrievePaymentMethods} with the {@link PaymentMethodRangeIndex}
+ * lookup over synthetic catalogs of increasing size. Run with
+ * {@code mvn -Pbenchmark test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentMethodRangeIndexBenchmark {
+
+    private static final long MAX_AMOUNT = 1_000_000L;
+
+    private static final int AMOUNTS = 1024;
+
+    @Param(
+        {
+                "10",
+                "100",
+                "1000",
+                "10000"
+        }
+    )
+    public int catalogSize;
+
+    private List<List<Pair<Long, Long>>> rangesByOrdinal;
+
+    private PaymentMethodRangeIndex rangeIndex;
+
+    private long[] amounts;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        rangesByOrdinal = new ArrayList<>(catalogSize);
+        for (int ordinal = 0; ordinal < catalogSize; ordinal++) {
+            List<Pair<Long, Long>> ranges = new ArrayList<>();
+            int rangesCount = 1 + random.nextInt(3);
+            for (int i = 0; i < rangesCount; i++) {
+                long min = random.nextLong(MAX_AMOUNT);
+                ranges.add(Pair.of(min, min + random.nextLong(MAX_AMOUNT / 4)));
+            }
+            rangesByOrdinal.add(ranges);
+        }
+        rangeIndex = PaymentMethodRangeIndex.ofRanges(rangesByOrdinal);
+        amounts = random.longs(AMOUNTS, 0, MAX_AMOUNT).toArray();
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        Long amount = nextAmount();
+        for (int ordinal = 0; ordinal < rangesByOrdinal.size(); ordinal++) {
+            if (rangesByOrdinal.get(ordinal).stream()
+                    .anyMatch(range -> range.getFirst() <= amount && range.getSecond() >= amount)) {
+                blackhole.consume(ordinal);
+            }
+        }
+    }
+
+    @Benchmark
+    public void rangeIndexLookup(Blackhole blackhole) {
+        long[] mask = rangeIndex.lookup(nextAmount());
+        for (int word = 0; word < mask.length; word++) {
+            long bits = mask[word];
+            while (bits != 0) {
+                blackhole.consume(word * Long.SIZE + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private long nextAmount() {
+        return amounts[next++ & (AMOUNTS - 1)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                new OptionsBuilder()
+                        .include(PaymentMethodRangeIndexBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
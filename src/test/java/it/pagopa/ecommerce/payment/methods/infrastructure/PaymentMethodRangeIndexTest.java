@@ -0,0 +1,95 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentMethodRangeIndexTest {
+
+    @Test
+    void shouldMatchInclusiveRangeBounds() {
+        PaymentMethodRangeIndex index = PaymentMethodRangeIndex.ofRanges(
+                List.of(
+                        List.of(Pair.of(0L, 100L)),
+                        List.of(Pair.of(50L, 150L), Pair.of(300L, 400L))
+                )
+        );
+
+        assertFalse(index.accepts(-1, 0));
+        assertTrue(index.accepts(0, 0));
+        assertTrue(index.accepts(100, 0));
+        assertFalse(index.accepts(101, 0));
+        assertFalse(index.accepts(49, 1));
+        assertTrue(index.accepts(50, 1));
+        assertTrue(index.accepts(150, 1));
+        assertFalse(index.accepts(151, 1));
+        assertFalse(index.accepts(299, 1));
+        assertTrue(index.accepts(300, 1));
+        assertTrue(index.accepts(400, 1));
+        assertFalse(index.accepts(401, 1));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void shouldHandleOverlappingAndUnboundedRanges() {
+        PaymentMethodRangeIndex index = PaymentMethodRangeIndex.ofRanges(
+                List.of(
+                        List.of(Pair.of(0L, 100L), Pair.of(50L, 200L)),
+                        List.of(Pair.of(10L, Long.MAX_VALUE)),
+                        List.of(Pair.of(Long.MIN_VALUE, 5L))
+                )
+        );
+
+        assertTrue(index.accepts(75, 0));
+        assertTrue(index.accepts(150, 0));
+        assertFalse(index.accepts(201, 0));
+        assertTrue(index.accepts(Long.MAX_VALUE, 1));
+        assertFalse(index.accepts(9, 1));
+        assertTrue(index.accepts(Long.MIN_VALUE, 2));
+        assertFalse(index.accepts(6, 2));
+    }
+
+    @Test
+    void shouldMatchNothingForMissingOrInvalidRanges() {
+        PaymentMethodRangeIndex index = PaymentMethodRangeIndex.ofRanges(
+                List.of(
+                        List.of(),
+                        List.of(Pair.of(100L, 0L))
+                )
+        );
+
+        assertEquals(0, index.lookup(50).length);
+        assertFalse(index.accepts(0, 0));
+        assertFalse(index.accepts(100, 1));
+    }
+
+    @Test
+    void shouldMatchLinearScanOnRandomRanges() {
+        Random random = new Random(42);
+        List<List<Pair<Long, Long>>> rangesByOrdinal = new ArrayList<>();
+        for (int ordinal = 0; ordinal < 200; ordinal++) {
+            List<Pair<Long, Long>> ranges = new ArrayList<>();
+            for (int i = 0; i < random.nextInt(3); i++) {
+                long min = random.nextLong(1000);
+                ranges.add(Pair.of(min, min + random.nextLong(300)));
+            }
+            rangesByOrdinal.add(ranges);
+        }
+        PaymentMethodRangeIndex index = PaymentMethodRangeIndex.ofRanges(rangesByOrdinal);
+
+        for (long amount = -10; amount < 1400; amount++) {
+            long[] mask = index.lookup(amount);
+            for (int ordinal = 0; ordinal < rangesByOrdinal.size(); ordinal++) {
+                long currentAmount = amount;
+                boolean expected = rangesByOrdinal.get(ordinal).stream()
+                        .anyMatch(range -> range.getFirst() <= currentAmount && range.getSecond() >= currentAmount);
+                assertEquals(expected, PaymentMethodRangeIndex.contains(mask, ordinal));
+            }
+        }
+    }
+}
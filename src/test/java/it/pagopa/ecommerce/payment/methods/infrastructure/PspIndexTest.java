@@ -0,0 +1,58 @@
+package it.pagopa.ecommerce.payment.methods.infrastructure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PspIndexTest {
+
+    private static final PspDocument CARDS_IT = psp("PSP1", "CP", "IT", 0, 1000);
+
+    private static final PspDocument CARDS_EN = psp("PSP2", "CP", "EN", 500, 2000);
+
+    private static final PspDocument PAYPAL_IT = psp("PSP3", "PPAL", "IT", 100, 300);
+
+    private final PspIndex pspIndex = PspIndex.of(List.of(CARDS_IT, CARDS_EN, PAYPAL_IT));
+
+    @Test
+    void shouldMatchAmountsStrictlyWithinRange() {
+        assertEquals(List.of(), pspIndex.find(0L, "IT", "CP"));
+        assertEquals(List.of(CARDS_IT), pspIndex.find(1L, "IT", "CP"));
+        assertEquals(List.of(CARDS_IT), pspIndex.find(999L, "IT", "CP"));
+        assertEquals(List.of(), pspIndex.find(1000L, "IT", "CP"));
+    }
+
+    @Test
+    void shouldFilterByAnyCombinationOfTypeAndLanguage() {
+        assertEquals(List.of(CARDS_IT, PAYPAL_IT, CARDS_EN), pspIndex.find(null, null, null));
+        assertEquals(List.of(CARDS_IT, PAYPAL_IT), pspIndex.find(null, "IT", null));
+        assertEquals(List.of(CARDS_IT, CARDS_EN), pspIndex.find(null, null, "CP"));
+        assertEquals(List.of(PAYPAL_IT), pspIndex.find(null, "IT", "PPAL"));
+        assertEquals(List.of(CARDS_IT, PAYPAL_IT), pspIndex.find(200L, null, null));
+        assertEquals(List.of(CARDS_IT, CARDS_EN), pspIndex.find(600L, " ", ""));
+        assertEquals(List.of(CARDS_EN), pspIndex.find(600L, "EN", "CP"));
+        assertEquals(List.of(), pspIndex.find(600L, "DE", null));
+        assertEquals(3, pspIndex.size());
+    }
+
+    static PspDocument psp(
+                           String pspCode,
+                           String paymentTypeCode,
+                           String languageCode,
+                           long minAmount,
+                           long maxAmount
+    ) {
+        return new PspDocument(
+                new PspDocumentKey(pspCode, paymentTypeCode, pspCode + "_CHANNEL", languageCode),
+                "ENABLED",
+                pspCode + " business name",
+                pspCode + " broker",
+                pspCode + " description",
+                minAmount,
+                maxAmount,
+                100
+        );
+    }
+}
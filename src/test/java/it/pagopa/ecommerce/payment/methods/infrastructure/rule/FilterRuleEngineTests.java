@@ -1,8 +1,10 @@
 package it.pagopa.ecommerce.payment.methods.infrastructure.rule;
 
 import it.pagopa.ecommerce.payment.methods.domain.valueobjects.PspStatus;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspCatalog;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocument;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PspDocumentKey;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PspIndex;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PspRepository;
 import it.pagopa.ecommerce.payment.methods.utils.PaymentMethodStatusEnum;
 import org.junit.jupiter.api.Test;
@@ -17,6 +19,10 @@ import org.springframework.test.context.TestPropertySource;
 import reactor.core.publisher.Flux;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 @TestPropertySource(locations = "classpath:application.test.properties")
@@ -30,6 +36,9 @@ class FilterRuleEngineTests {
     @Mock
     private PspRepository pspRepository;
 
+    @Mock
+    private PspCatalog pspCatalog;
+
     @Autowired
     @InjectMocks
     private FilterRuleEngine filterRuleEngine;
@@ -159,4 +168,26 @@ class FilterRuleEngineTests {
         Mockito.verify(pspRepository, Mockito.times(1))
                 .findPspMatchAmountTypeLang(TEST_AMOUNT, TEST_PAYMENT_TYPE, TEST_LANG);
     }
+
+    @Test
+    /*
+     * Precondition filter for: amount & lang & paymentType with loaded PSP catalog
+     * Expected behavior: Should not query pspRepository and match amounts strictly
+     * within range
+     */
+    void testFiltersWithLoadedCatalog() {
+        Mockito.when(pspCatalog.currentIndex()).thenReturn(Optional.of(PspIndex.of(List.of(pspDocument))));
+
+        assertEquals(
+                List.of(pspDocument),
+                filterRuleEngine.applyFilter(TEST_AMOUNT - 1, TEST_LANG, TEST_PAYMENT_TYPE).collectList().block()
+        );
+        assertEquals(
+                List.of(),
+                filterRuleEngine.applyFilter(TEST_AMOUNT, TEST_LANG, TEST_PAYMENT_TYPE).collectList().block()
+        );
+        assertEquals(List.of(pspDocument), filterRuleEngine.applyFilter(null, "", null).collectList().block());
+        assertEquals(List.of(), filterRuleEngine.applyFilter(null, "EN", null).collectList().block());
+        Mockito.verifyNoInteractions(pspRepository);
+    }
 }
@@ -2,6 +2,9 @@ package it.pagopa.ecommerce.payment.methods.service.v1;
 
 import static com.mongodb.assertions.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -10,6 +13,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
@@ -17,6 +22,7 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.pagopa.ecommerce.payment.methods.domain.valueobjects.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -26,8 +32,11 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.util.Pair;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.TestPropertySource;
 
@@ -37,7 +46,11 @@ import it.pagopa.ecommerce.commons.generated.jwtissuer.v1.dto.CreateTokenRespons
 import it.pagopa.ecommerce.commons.generated.npg.v1.dto.CardDataResponseDto;
 import it.pagopa.ecommerce.commons.generated.npg.v1.dto.FieldsDto;
 import it.pagopa.ecommerce.commons.utils.ReactiveUniqueIdUtils;
+import it.pagopa.ecommerce.payment.methods.application.v1.EncodedPaymentMethodsResponseDto;
+import it.pagopa.ecommerce.payment.methods.application.v1.NpgCardDataFetcher;
+import it.pagopa.ecommerce.payment.methods.application.v1.NpgCardDataWriteBehind;
 import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodService;
+import it.pagopa.ecommerce.payment.methods.application.v1.PaymentMethodsResponseEncoder;
 import it.pagopa.ecommerce.payment.methods.client.AfmClient;
 import it.pagopa.ecommerce.payment.methods.client.JwtTokenIssuerClient;
 import it.pagopa.ecommerce.payment.methods.config.SessionUrlConfig;
@@ -49,10 +62,14 @@ import it.pagopa.ecommerce.payment.methods.exception.NoBundleFoundException;
 import it.pagopa.ecommerce.payment.methods.exception.OrderIdNotFoundException;
 import it.pagopa.ecommerce.payment.methods.exception.PaymentMethodNotFoundException;
 import it.pagopa.ecommerce.payment.methods.exception.SessionAlreadyAssociatedToTransaction;
+import it.pagopa.ecommerce.payment.methods.infrastructure.CardDataDocument;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionDocument;
+import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionField;
+import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodCatalog;
 import it.pagopa.ecommerce.payment.methods.infrastructure.NpgSessionsTemplateWrapper;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodDocument;
 import it.pagopa.ecommerce.payment.methods.infrastructure.PaymentMethodRepository;
+import it.pagopa.ecommerce.payment.methods.infrastructure.OrderIdPool;
 import it.pagopa.ecommerce.payment.methods.server.model.CalculateFeeRequestDto;
 import it.pagopa.ecommerce.payment.methods.server.model.CalculateFeeResponseDto;
 import it.pagopa.ecommerce.payment.methods.server.model.CardFormFieldsDto;
@@ -62,6 +79,8 @@ import it.pagopa.ecommerce.payment.methods.server.model.FieldDto;
 import it.pagopa.ecommerce.payment.methods.server.model.PatchSessionRequestDto;
 import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodManagementTypeDto;
 import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodRequestDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodResponseDto;
+import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodsResponseDto;
 import it.pagopa.ecommerce.payment.methods.server.model.PaymentMethodStatusDto;
 import it.pagopa.ecommerce.payment.methods.server.model.RangeDto;
 import it.pagopa.ecommerce.payment.methods.server.model.SessionPaymentMethodResponseDto;
@@ -72,7 +91,9 @@ import it.pagopa.generated.ecommerce.gec.v1.dto.TransferDto;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Hooks;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
+import reactor.test.publisher.PublisherProbe;
 
 @SpringBootTest
 @TestPropertySource(locations = "classpath:application.test.properties")
@@ -98,9 +119,39 @@ class PaymentMethodServiceTests {
 
     private final NpgSessionsTemplateWrapper npgSessionsTemplateWrapper = mock(NpgSessionsTemplateWrapper.class);
 
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     private final ReactiveUniqueIdUtils uniqueIdUtils = mock(ReactiveUniqueIdUtils.class);
 
+    private final OrderIdPool orderIdPool = new OrderIdPool(uniqueIdUtils, new SimpleMeterRegistry(), false, 0, 0, 30);
+
     private final JwtTokenIssuerClient jwtTokenIssuerClient = mock(JwtTokenIssuerClient.class);
+
+    private final PaymentMethodsResponseEncoder paymentMethodsResponseEncoder = new PaymentMethodsResponseEncoder(
+            new ObjectMapper(),
+            true,
+            0
+    );
+
+    private final PaymentMethodCatalog paymentMethodCatalog = new PaymentMethodCatalog(
+            paymentMethodRepository,
+            mock(ReactiveMongoOperations.class),
+            false,
+            300
+    );
+
+    private final NpgCardDataFetcher npgCardDataFetcher = new NpgCardDataFetcher(
+            npgClient,
+            npgSessionsTemplateWrapper,
+            new NpgCardDataWriteBehind(npgSessionsTemplateWrapper, new SimpleMeterRegistry(), false, 1000, 8, 3, 100),
+            mock(ReactiveRedisConnectionFactory.class),
+            new SimpleMeterRegistry(),
+            npgDefaultApiKey,
+            false,
+            10000,
+            50
+    );
+
     private final PaymentMethodService paymentMethodService = new PaymentMethodService(
             afmClient,
             paymentMethodRepository,
@@ -109,9 +160,13 @@ class PaymentMethodServiceTests {
             sessionUrlConfig,
             npgSessionsTemplateWrapper,
             npgDefaultApiKey,
-            uniqueIdUtils,
+            orderIdPool,
             900,
-            jwtTokenIssuerClient
+            jwtTokenIssuerClient,
+            paymentMethodCatalog,
+            paymentMethodsResponseEncoder,
+            npgCardDataFetcher,
+            meterRegistry
     );
 
     @Test
@@ -276,10 +331,10 @@ class PaymentMethodServiceTests {
         Mockito.when(paymentMethodRepository.findByClientId(clientIdEnumCheckout.getValue()))
                 .thenReturn(Flux.just(paymentMethodDocument));
 
-        PaymentMethod paymentMethodCreated = paymentMethodService
+        PaymentMethodResponseDto paymentMethodCreated = paymentMethodService
                 .retrievePaymentMethods(null, clientIdEnumCheckout.getValue(), null).blockFirst();
 
-        assertEquals(paymentMethodCreated.getPaymentMethodID(), paymentMethod.getPaymentMethodID());
+        assertEquals(paymentMethod.getPaymentMethodID().value().toString(), paymentMethodCreated.getId());
     }
 
     @Test
@@ -292,7 +347,7 @@ class PaymentMethodServiceTests {
         Mockito.when(paymentMethodRepository.findByClientId(clientIdEnumIo.getValue()))
                 .thenReturn(Flux.just(paymentMethodDocument));
 
-        List<PaymentMethod> paymentMethodCreated = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethodCreated = paymentMethodService
                 .retrievePaymentMethods(101L, clientIdEnumIo.getValue(), null)
                 .collectList().block();
 
@@ -309,7 +364,7 @@ class PaymentMethodServiceTests {
         Mockito.when(paymentMethodRepository.findByClientId(clientIdEnumIo.getValue()))
                 .thenReturn(Flux.just(paymentMethodDocument));
 
-        List<PaymentMethod> paymentmethodCreated = paymentMethodService
+        List<PaymentMethodResponseDto> paymentmethodCreated = paymentMethodService
                 .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), null)
                 .collectList().block();
 
@@ -328,22 +383,133 @@ class PaymentMethodServiceTests {
         Mockito.when(paymentMethodRepository.findByClientId(clientIdEnumCheckout.getValue()))
                 .thenReturn(Flux.fromIterable(paymentMethodDocumentList));
 
-        List<PaymentMethod> paymentMethodRetrieved = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethodRetrieved = paymentMethodService
                 .retrievePaymentMethods(50L, clientIdEnumCheckout.getValue(), null)
                 .collectList().block();
 
         assertEquals(maxSize, paymentMethodRetrieved.size());
-        assertEquals(TestUtil.CP_TYPE_CODE, paymentMethodRetrieved.get(0).getPaymentMethodTypeCode().value());
-        assertEquals(TestUtil.TEST_DESC_FIRST, paymentMethodRetrieved.get(1).getPaymentMethodDescription().value());
+        assertEquals(TestUtil.CP_TYPE_CODE, paymentMethodRetrieved.get(0).getPaymentTypeCode());
+        assertEquals(TestUtil.TEST_DESC_FIRST, paymentMethodRetrieved.get(1).getDescription());
         for (int i = 2; i < maxSize - 1; i++) {
-            assertTrue(paymentMethodRetrieved.get(i).getPaymentMethodDescription().value().endsWith("_" + (i - 1)));
-            String currentDescription = paymentMethodRetrieved.get(i).getPaymentMethodDescription().value();
-            String previousDescription = paymentMethodRetrieved.get(i - 1).getPaymentMethodDescription().value();
+            assertTrue(paymentMethodRetrieved.get(i).getDescription().endsWith("_" + (i - 1)));
+            String currentDescription = paymentMethodRetrieved.get(i).getDescription();
+            String previousDescription = paymentMethodRetrieved.get(i - 1).getDescription();
             assertTrue(currentDescription.compareTo(previousDescription) >= 0);
         }
 
     }
 
+    @Test
+    void shouldRetrievePaymentMethodsFromCatalogViews() {
+        PaymentMethodCatalog loadedCatalog = new PaymentMethodCatalog(
+                paymentMethodRepository,
+                mock(ReactiveMongoOperations.class),
+                true,
+                300
+        );
+        PaymentMethodService catalogPaymentMethodService = new PaymentMethodService(
+                afmClient,
+                paymentMethodRepository,
+                paymentMethodFactory,
+                npgClient,
+                sessionUrlConfig,
+                npgSessionsTemplateWrapper,
+                npgDefaultApiKey,
+                orderIdPool,
+                900,
+                jwtTokenIssuerClient,
+                loadedCatalog,
+                paymentMethodsResponseEncoder,
+                npgCardDataFetcher,
+                meterRegistry
+        );
+        PaymentMethodRequestDto.ClientIdEnum clientIdEnumIo = TestUtil.getClientIdIO();
+        List<PaymentMethodDocument> paymentMethodDocumentList = TestUtil
+                .getAllPaymentMethod(5, clientIdEnumIo, true)
+                .stream()
+                .map(TestUtil::getTestPaymentDoc)
+                .toList();
+        Mockito.when(paymentMethodRepository.findAll()).thenReturn(Flux.fromIterable(paymentMethodDocumentList));
+        loadedCatalog.refresh().block();
+
+        List<PaymentMethodResponseDto> legacyAppMethods = catalogPaymentMethodService
+                .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), null)
+                .collectList().block();
+        List<PaymentMethodResponseDto> newAppMethods = catalogPaymentMethodService
+                .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), "0.0.0")
+                .collectList().block();
+        List<PaymentMethodResponseDto> allLegacyAppMethods = catalogPaymentMethodService
+                .retrievePaymentMethods(null, clientIdEnumIo.getValue(), null)
+                .collectList().block();
+
+        assertEquals(5, legacyAppMethods.size());
+        assertEquals(6, allLegacyAppMethods.size());
+        assertEquals(TestUtil.CP_TYPE_CODE, legacyAppMethods.get(0).getPaymentTypeCode());
+        assertEquals(PaymentMethodManagementTypeDto.ONBOARDABLE_ONLY, legacyAppMethods.get(0).getMethodManagement());
+        assertEquals(PaymentMethodManagementTypeDto.ONBOARDABLE, newAppMethods.get(0).getMethodManagement());
+        assertEquals(TestUtil.TEST_DESC_FIRST, legacyAppMethods.get(1).getDescription());
+        // projected responses are computed once per snapshot and shared between
+        // requests
+        assertSame(legacyAppMethods.get(0), allLegacyAppMethods.get(0));
+        assertNotSame(legacyAppMethods.get(0), newAppMethods.get(0));
+        Mockito.verify(paymentMethodRepository, Mockito.never()).findByClientId(any());
+    }
+
+    @Test
+    void shouldRetrieveCachedEncodedPaymentMethodsResponse() {
+        PaymentMethodCatalog loadedCatalog = new PaymentMethodCatalog(
+                paymentMethodRepository,
+                mock(ReactiveMongoOperations.class),
+                true,
+                300
+        );
+        PaymentMethodService catalogPaymentMethodService = new PaymentMethodService(
+                afmClient,
+                paymentMethodRepository,
+                paymentMethodFactory,
+                npgClient,
+                sessionUrlConfig,
+                npgSessionsTemplateWrapper,
+                npgDefaultApiKey,
+                orderIdPool,
+                900,
+                jwtTokenIssuerClient,
+                loadedCatalog,
+                paymentMethodsResponseEncoder,
+                npgCardDataFetcher,
+                meterRegistry
+        );
+        PaymentMethodRequestDto.ClientIdEnum clientIdEnumCheckout = TestUtil.getClientIdCheckout();
+        List<PaymentMethodDocument> paymentMethodDocumentList = TestUtil
+                .getAllPaymentMethod(5, clientIdEnumCheckout, true)
+                .stream()
+                .map(TestUtil::getTestPaymentDoc)
+                .toList();
+        Mockito.when(paymentMethodRepository.findAll()).thenReturn(Flux.fromIterable(paymentMethodDocumentList));
+        loadedCatalog.refresh().block();
+
+        PaymentMethodsResponseDto firstResponse = catalogPaymentMethodService
+                .retrievePaymentMethodsResponse(10L, clientIdEnumCheckout.getValue(), null).block();
+        PaymentMethodsResponseDto sameMethodsResponse = catalogPaymentMethodService
+                .retrievePaymentMethodsResponse(50L, clientIdEnumCheckout.getValue(), null).block();
+        PaymentMethodsResponseDto allMethodsResponse = catalogPaymentMethodService
+                .retrievePaymentMethodsResponse(null, clientIdEnumCheckout.getValue(), null).block();
+        PaymentMethodsResponseDto unknownClientResponse = catalogPaymentMethodService
+                .retrievePaymentMethodsResponse(null, "unknown", null).block();
+
+        // amounts accepted by the same payment methods share the same response
+        assertSame(firstResponse, sameMethodsResponse);
+        assertNotSame(firstResponse, allMethodsResponse);
+        assertEquals(5, firstResponse.getPaymentMethods().size());
+        assertEquals(6, allMethodsResponse.getPaymentMethods().size());
+        assertEquals(0, unknownClientResponse.getPaymentMethods().size());
+        EncodedPaymentMethodsResponseDto encodedResponse = (EncodedPaymentMethodsResponseDto) firstResponse;
+        EncodedPaymentMethodsResponseDto encodedAllMethodsResponse = (EncodedPaymentMethodsResponseDto) allMethodsResponse;
+        assertTrue(encodedResponse.getEtag().startsWith("\""));
+        assertNotEquals(encodedResponse.getEtag(), encodedAllMethodsResponse.getEtag());
+        assertTrue(encodedResponse.getGzipJson().isPresent());
+    }
+
     @Test
     void shouldRetrieveSortedPaymentMethodsWithoutAmount() {
         Integer maxSize = new Random().nextInt(5, 10);
@@ -356,17 +522,17 @@ class PaymentMethodServiceTests {
         Mockito.when(paymentMethodRepository.findByClientId(clientIdEnumCheckout.getValue()))
                 .thenReturn(Flux.fromIterable(paymentMethodDocumentList));
 
-        List<PaymentMethod> paymentMethodRetrieved = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethodRetrieved = paymentMethodService
                 .retrievePaymentMethods(null, clientIdEnumCheckout.getValue(), null)
                 .collectList().block();
 
         assertEquals(maxSize, paymentMethodRetrieved.size());
-        assertEquals(TestUtil.CP_TYPE_CODE, paymentMethodRetrieved.get(0).getPaymentMethodTypeCode().value());
-        assertEquals(TestUtil.TEST_DESC_FIRST, paymentMethodRetrieved.get(1).getPaymentMethodDescription().value());
+        assertEquals(TestUtil.CP_TYPE_CODE, paymentMethodRetrieved.get(0).getPaymentTypeCode());
+        assertEquals(TestUtil.TEST_DESC_FIRST, paymentMethodRetrieved.get(1).getDescription());
         for (int i = 2; i < maxSize - 1; i++) {
-            assertTrue(paymentMethodRetrieved.get(i).getPaymentMethodDescription().value().endsWith("_" + (i - 1)));
-            String currentDescription = paymentMethodRetrieved.get(i).getPaymentMethodDescription().value();
-            String previousDescription = paymentMethodRetrieved.get(i - 1).getPaymentMethodDescription().value();
+            assertTrue(paymentMethodRetrieved.get(i).getDescription().endsWith("_" + (i - 1)));
+            String currentDescription = paymentMethodRetrieved.get(i).getDescription();
+            String previousDescription = paymentMethodRetrieved.get(i - 1).getDescription();
             assertTrue(currentDescription.compareTo(previousDescription) >= 0);
         }
 
@@ -548,6 +714,57 @@ class PaymentMethodServiceTests {
                 .verify();
     }
 
+    @Test
+    void shouldReturnPaymentMethodNotFoundBeforeJwtErrorsOnCreateSession() {
+        String paymentMethodId = UUID.randomUUID().toString();
+        String orderId = UUID.randomUUID().toString().replace("-", "").substring(0, 15);
+
+        Mockito.when(uniqueIdUtils.generateUniqueId()).thenReturn(Mono.just(orderId));
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.empty());
+        Mockito.when(jwtTokenIssuerClient.createJWTToken(any()))
+                .thenReturn(Mono.error(new JwtIssuerResponseException(HttpStatus.BAD_GATEWAY, "error jwtIssuer")));
+
+        StepVerifier.create(paymentMethodService.createSessionForPaymentMethod(paymentMethodId, null, null))
+                .expectError(PaymentMethodNotFoundException.class)
+                .verify();
+        Mockito.verifyNoInteractions(npgClient);
+    }
+
+    @Test
+    void shouldCancelOrderIdGenerationOnPaymentMethodNotFoundOnCreateSession() {
+        String paymentMethodId = UUID.randomUUID().toString();
+        PublisherProbe<String> orderIdGeneration = PublisherProbe.of(Mono.never());
+
+        Mockito.when(uniqueIdUtils.generateUniqueId()).thenReturn(orderIdGeneration.mono());
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.empty());
+
+        StepVerifier.create(paymentMethodService.createSessionForPaymentMethod(paymentMethodId, null, null))
+                .expectError(PaymentMethodNotFoundException.class)
+                .verify(Duration.ofSeconds(5));
+        orderIdGeneration.assertWasCancelled();
+        Mockito.verifyNoInteractions(jwtTokenIssuerClient);
+        Mockito.verifyNoInteractions(npgClient);
+    }
+
+    @Test
+    void shouldCancelNotificationTokenIssuingOnPaymentMethodNotFoundOnCreateSession() {
+        String paymentMethodId = UUID.randomUUID().toString();
+        String orderId = UUID.randomUUID().toString().replace("-", "").substring(0, 15);
+        PublisherProbe<CreateTokenResponseDto> tokenIssuing = PublisherProbe.of(Mono.never());
+
+        Mockito.when(uniqueIdUtils.generateUniqueId()).thenReturn(Mono.just(orderId));
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId))
+                .thenReturn(Mono.<PaymentMethodDocument>empty().delaySubscription(Duration.ofMillis(50)));
+        Mockito.when(jwtTokenIssuerClient.createJWTToken(any())).thenReturn(tokenIssuing.mono());
+
+        StepVerifier.create(paymentMethodService.createSessionForPaymentMethod(paymentMethodId, null, null))
+                .expectError(PaymentMethodNotFoundException.class)
+                .verify(Duration.ofSeconds(5));
+        tokenIssuing.assertWasSubscribed();
+        tokenIssuing.assertWasCancelled();
+        Mockito.verifyNoInteractions(npgClient);
+    }
+
     @Test
     void shouldCreateSessionForValidPaymentMethod() {
         UUID correlationId = UUID.randomUUID();
@@ -616,6 +833,48 @@ class PaymentMethodServiceTests {
         }
     }
 
+    @Test
+    void shouldCreateSessionRunningIndependentStepsConcurrently() {
+        PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
+        String paymentMethodId = paymentMethod.getPaymentMethodID().value().toString();
+        String orderId = UUID.randomUUID().toString().replace("-", "").substring(0, 15);
+        Sinks.One<PaymentMethodDocument> paymentMethodLookup = Sinks.one();
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(paymentMethodLookup.asMono());
+        Mockito.when(uniqueIdUtils.generateUniqueId()).thenReturn(Mono.just(orderId));
+        Mockito.when(jwtTokenIssuerClient.createJWTToken(any()))
+                .thenReturn(Mono.just(new CreateTokenResponseDto().token("sessionToken")));
+        Mockito.when(
+                npgClient.buildForm(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any())
+        )
+                .thenReturn(Mono.just(TestUtil.npgResponse()));
+        Mockito.when(npgSessionsTemplateWrapper.save(any())).thenReturn(Mono.just(true));
+
+        StepVerifier.create(paymentMethodService.createSessionForPaymentMethod(paymentMethodId, null, null))
+                .then(() -> {
+                    // order id and notification token are created while the payment method
+                    // lookup is still pending
+                    Mockito.verify(jwtTokenIssuerClient, times(1)).createJWTToken(any());
+                    Mockito.verifyNoInteractions(npgClient);
+                    paymentMethodLookup.tryEmitValue(TestUtil.getTestPaymentDoc(paymentMethod));
+                })
+                .expectNextMatches(response -> orderId.equals(response.getOrderId()))
+                .verifyComplete();
+
+        for (String step : List.of(
+                "findPaymentMethod",
+                "generateOrderId",
+                "createNotificationToken",
+                "buildForm",
+                "saveSession"
+        )) {
+            assertEquals(
+                    1,
+                    meterRegistry.get("npg.create.session.step").tags("step", step, "outcome", "success").timer()
+                            .count()
+            );
+        }
+    }
+
     @Test
     void shouldRetrieveCardDataForInvalidPaymentMethodId() {
         String paymentMethodId = "paymentMethodId";
@@ -639,7 +898,7 @@ class PaymentMethodServiceTests {
                 .verify();
 
         Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).findById(any());
-        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).save(any());
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).saveCardData(any(), any());
         Mockito.verify(npgClient, Mockito.times(0)).getCardData(any(), any(), any());
     }
 
@@ -663,14 +922,22 @@ class PaymentMethodServiceTests {
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
         Mockito.when(npgSessionsTemplateWrapper.findById(orderId)).thenReturn(Mono.just(npgSessionDocument));
-        Mockito.when(npgSessionsTemplateWrapper.save(any())).thenReturn(Mono.just(true));
+        Mockito.when(npgSessionsTemplateWrapper.saveCardData(any(), any())).thenReturn(Mono.just(true));
         Mockito.when(npgClient.getCardData(any(), any(), any())).thenReturn(Mono.just(npgResponse));
         /* Tests */
         StepVerifier.create(paymentMethodService.getCardDataInformation(paymentMethodId, orderId))
                 .expectNext(expectedResponse)
                 .verifyComplete();
         Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).findById(any());
-        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).save(any());
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).saveCardData(
+                npgSessionDocument,
+                new CardDataDocument(
+                        npgResponse.getBin(),
+                        npgResponse.getLastFourDigits(),
+                        npgResponse.getExpiringDate(),
+                        npgResponse.getCircuit()
+                )
+        );
         Mockito.verify(npgClient, Mockito.times(1))
                 .getCardData(eq(UUID.fromString(correlationId)), eq(sessionId), any());
     }
@@ -699,7 +966,7 @@ class PaymentMethodServiceTests {
                 .expectNext(expectedResponse)
                 .verifyComplete();
         Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).findById(any());
-        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).save(any());
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).saveCardData(any(), any());
         Mockito.verify(npgClient, Mockito.times(0)).getCardData(any(), any(), any());
     }
 
@@ -714,7 +981,7 @@ class PaymentMethodServiceTests {
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId))
                 .thenReturn(Mono.just(TestUtil.getTestPaymentDoc(paymentMethod)));
-        Mockito.when(npgSessionsTemplateWrapper.findById(any())).thenReturn(Mono.just(npgSessionDocument));
+        Mockito.when(npgSessionsTemplateWrapper.findById(any(), any())).thenReturn(Mono.just(npgSessionDocument));
 
         StepVerifier
                 .create(
@@ -738,7 +1005,7 @@ class PaymentMethodServiceTests {
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId))
                 .thenReturn(Mono.just(TestUtil.getTestPaymentDoc(paymentMethod)));
-        Mockito.when(npgSessionsTemplateWrapper.findById(any())).thenReturn(Mono.just(npgSessionDocument));
+        Mockito.when(npgSessionsTemplateWrapper.findById(any(), any())).thenReturn(Mono.just(npgSessionDocument));
 
         StepVerifier
                 .create(
@@ -756,7 +1023,7 @@ class PaymentMethodServiceTests {
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId))
                 .thenReturn(Mono.just(TestUtil.getTestPaymentDoc(paymentMethod)));
-        Mockito.when(npgSessionsTemplateWrapper.findById(any())).thenReturn(Mono.empty());
+        Mockito.when(npgSessionsTemplateWrapper.findById(any(), any())).thenReturn(Mono.empty());
 
         StepVerifier
                 .create(
@@ -780,6 +1047,60 @@ class PaymentMethodServiceTests {
                 .verify();
     }
 
+    @Test
+    void shouldLookupPaymentMethodAndSessionConcurrently() {
+        PaymentMethod paymentMethod = TestUtil.getNPGPaymentMethod();
+        String paymentMethodId = paymentMethod.getPaymentMethodID().value().toString();
+        TransactionId transactionId = new TransactionId(UUID.randomUUID());
+        NpgSessionDocument npgSessionDocument = TestUtil
+                .npgSessionDocument("orderId", UUID.randomUUID().toString(), "sessionId", false, transactionId.value());
+        Sinks.One<PaymentMethodDocument> paymentMethodLookup = Sinks.one();
+        Sinks.One<NpgSessionDocument> sessionLookup = Sinks.one();
+
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(paymentMethodLookup.asMono());
+        Mockito.when(
+                npgSessionsTemplateWrapper.findById(
+                        eq(npgSessionDocument.orderId()),
+                        eq(EnumSet.of(NpgSessionField.SECURITY_TOKEN, NpgSessionField.TRANSACTION_ID))
+                )
+        )
+                .thenReturn(sessionLookup.asMono());
+
+        StepVerifier
+                .create(
+                        paymentMethodService.isSessionValid(
+                                paymentMethodId,
+                                npgSessionDocument.orderId(),
+                                npgSessionDocument.securityToken()
+                        )
+                )
+                .then(() -> {
+                    // session lookup is performed while the payment method one is still pending
+                    assertEquals(1, sessionLookup.currentSubscriberCount());
+                    sessionLookup.tryEmitValue(npgSessionDocument);
+                    paymentMethodLookup.tryEmitValue(TestUtil.getTestPaymentDoc(paymentMethod));
+                })
+                .expectNext(transactionId)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldReturnPaymentMethodNotFoundBeforeSessionErrors() {
+        String orderId = "orderId";
+        Sinks.One<PaymentMethodDocument> paymentMethodLookup = Sinks.one();
+
+        Mockito.when(paymentMethodRepository.findById(anyString())).thenReturn(paymentMethodLookup.asMono());
+        Mockito.when(npgSessionsTemplateWrapper.findById(orderId))
+                .thenReturn(Mono.error(new IllegalStateException("redis error")));
+
+        StepVerifier
+                .create(paymentMethodService.getCardDataInformation("NON_EXISTING_METHOD_ID", orderId))
+                .then(paymentMethodLookup::tryEmitEmpty)
+                .expectError(PaymentMethodNotFoundException.class)
+                .verify();
+        Mockito.verify(npgClient, Mockito.times(0)).getCardData(any(), any(), any());
+    }
+
     @Test
     void shouldUpdateSessionData() {
         String sessionId = "sessionId";
@@ -793,10 +1114,6 @@ class PaymentMethodServiceTests {
         NpgSessionDocument npgSessionDocument = TestUtil
                 .npgSessionDocument(orderId, correlationId, sessionId, true, null);
 
-        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
-        Mockito.when(npgSessionsTemplateWrapper.findById(orderId)).thenReturn(Mono.just(npgSessionDocument));
-        Mockito.when(npgSessionsTemplateWrapper.save(any())).thenReturn(Mono.just(true));
-
         NpgSessionDocument expectedResponse = new NpgSessionDocument(
                 npgSessionDocument.orderId(),
                 npgSessionDocument.correlationId(),
@@ -806,10 +1123,17 @@ class PaymentMethodServiceTests {
                 patchSessionRequestDto.getTransactionId()
         );
 
+        Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
+        Mockito.when(npgSessionsTemplateWrapper.compareAndSetTransactionId(orderId, transactionId))
+                .thenReturn(Mono.just(expectedResponse));
+
         StepVerifier.create(paymentMethodService.updateSession(paymentMethodId, orderId, patchSessionRequestDto))
                 .expectNext(expectedResponse)
                 .verifyComplete();
-        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1)).save(any());
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(1))
+                .compareAndSetTransactionId(orderId, transactionId);
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).findById(any());
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).save(any());
     }
 
     @Test
@@ -827,7 +1151,8 @@ class PaymentMethodServiceTests {
                 .npgSessionDocument(orderId, correlationId, sessionId, true, transactionId);
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
-        Mockito.when(npgSessionsTemplateWrapper.findById(orderId)).thenReturn(Mono.just(npgSessionDocument));
+        Mockito.when(npgSessionsTemplateWrapper.compareAndSetTransactionId(orderId, transactionId))
+                .thenReturn(Mono.just(npgSessionDocument));
 
         StepVerifier.create(paymentMethodService.updateSession(paymentMethodId, orderId, patchSessionRequestDto))
                 .expectNext(npgSessionDocument)
@@ -849,7 +1174,8 @@ class PaymentMethodServiceTests {
                 .npgSessionDocument(orderId, correlationId, sessionId, true, "ANOTHER_TRANSACTION_ID");
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
-        Mockito.when(npgSessionsTemplateWrapper.findById(orderId)).thenReturn(Mono.just(npgSessionDocument));
+        Mockito.when(npgSessionsTemplateWrapper.compareAndSetTransactionId(orderId, transactionId))
+                .thenReturn(Mono.just(npgSessionDocument));
 
         StepVerifier.create(paymentMethodService.updateSession(paymentMethodId, orderId, patchSessionRequestDto))
                 .expectError(SessionAlreadyAssociatedToTransaction.class)
@@ -867,7 +1193,8 @@ class PaymentMethodServiceTests {
         PatchSessionRequestDto patchSessionRequestDto = new PatchSessionRequestDto().transactionId(transactionId);
 
         Mockito.when(paymentMethodRepository.findById(paymentMethodId)).thenReturn(Mono.just(paymentMethodDocument));
-        Mockito.when(npgSessionsTemplateWrapper.findById(orderId)).thenReturn(Mono.empty());
+        Mockito.when(npgSessionsTemplateWrapper.compareAndSetTransactionId(orderId, transactionId))
+                .thenReturn(Mono.empty());
 
         StepVerifier.create(paymentMethodService.updateSession(paymentMethodId, orderId, patchSessionRequestDto))
                 .expectError(OrderIdNotFoundException.class)
@@ -889,6 +1216,7 @@ class PaymentMethodServiceTests {
         StepVerifier.create(paymentMethodService.updateSession(paymentMethodId, orderId, patchSessionRequestDto))
                 .expectError(PaymentMethodNotFoundException.class)
                 .verify();
+        Mockito.verify(npgSessionsTemplateWrapper, Mockito.times(0)).compareAndSetTransactionId(any(), any());
     }
 
     public static Stream<Arguments> gecInvalidTransferDtoSource() {
@@ -1178,22 +1506,22 @@ class PaymentMethodServiceTests {
                         )
                 );
 
-        List<PaymentMethod> paymentMethods = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethods = paymentMethodService
                 .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), null)
                 .collectList().block();
 
         assertEquals(2, paymentMethods.size());
-        PaymentMethod cardPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("CP")).findFirst().orElseThrow();
-        PaymentMethod redirectPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("RPIC")).findFirst().orElseThrow();
+        PaymentMethodResponseDto cardPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("CP")).findFirst().orElseThrow();
+        PaymentMethodResponseDto redirectPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("RPIC")).findFirst().orElseThrow();
         assertEquals(
                 PaymentMethodManagementTypeDto.ONBOARDABLE_ONLY,
-                cardPaymentMethod.getPaymentMethodManagement().value()
+                cardPaymentMethod.getMethodManagement()
         );
         assertEquals(
                 PaymentMethodManagementTypeDto.REDIRECT,
-                redirectPaymentMethod.getPaymentMethodManagement().value()
+                redirectPaymentMethod.getMethodManagement()
         );
     }
 
@@ -1233,22 +1561,22 @@ class PaymentMethodServiceTests {
                         )
                 );
 
-        List<PaymentMethod> paymentMethods = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethods = paymentMethodService
                 .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), "0.0.0")
                 .collectList().block();
 
         assertEquals(2, paymentMethods.size());
-        PaymentMethod cardPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("CP")).findFirst().orElseThrow();
-        PaymentMethod redirectPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("RPIC")).findFirst().orElseThrow();
+        PaymentMethodResponseDto cardPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("CP")).findFirst().orElseThrow();
+        PaymentMethodResponseDto redirectPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("RPIC")).findFirst().orElseThrow();
         assertEquals(
                 PaymentMethodManagementTypeDto.ONBOARDABLE,
-                cardPaymentMethod.getPaymentMethodManagement().value()
+                cardPaymentMethod.getMethodManagement()
         );
         assertEquals(
                 PaymentMethodManagementTypeDto.REDIRECT,
-                redirectPaymentMethod.getPaymentMethodManagement().value()
+                redirectPaymentMethod.getMethodManagement()
         );
     }
 
@@ -1290,22 +1618,22 @@ class PaymentMethodServiceTests {
                         )
                 );
 
-        List<PaymentMethod> paymentMethods = paymentMethodService
+        List<PaymentMethodResponseDto> paymentMethods = paymentMethodService
                 .retrievePaymentMethods(50L, clientIdEnumIo.getValue(), deviceVersion)
                 .collectList().block();
 
         assertEquals(2, paymentMethods.size());
-        PaymentMethod cardPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("CP")).findFirst().orElseThrow();
-        PaymentMethod redirectPaymentMethod = paymentMethods.stream()
-                .filter(m -> m.getPaymentMethodTypeCode().value().equals("RPIC")).findFirst().orElseThrow();
+        PaymentMethodResponseDto cardPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("CP")).findFirst().orElseThrow();
+        PaymentMethodResponseDto redirectPaymentMethod = paymentMethods.stream()
+                .filter(m -> m.getPaymentTypeCode().equals("RPIC")).findFirst().orElseThrow();
         assertEquals(
                 PaymentMethodManagementTypeDto.ONBOARDABLE,
-                cardPaymentMethod.getPaymentMethodManagement().value()
+                cardPaymentMethod.getMethodManagement()
         );
         assertEquals(
                 PaymentMethodManagementTypeDto.REDIRECT,
-                redirectPaymentMethod.getPaymentMethodManagement().value()
+                redirectPaymentMethod.getMethodManagement()
         );
     }
 }